@@ -2,12 +2,16 @@ package net.finmath.initialmargin.isdasimm.aggregationscheme;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.stream.Collectors;
@@ -149,6 +153,28 @@ public class CalculationSchemeInitialMarginISDA {
 			CrossRiskClassCorrelationMatrix = crossRiskClassCorrelationMatrix;
 			return this;
 		}
+
+		// The primitive copies of the correlation matrices, keyed by identity such that replacing a matrix is seen
+		private final Map<Double[][], double[][]> primitiveCorrelations = Collections.synchronizedMap(new IdentityHashMap<Double[][], double[][]>());
+
+		/**
+		 * @return The cross risk class correlations as primitive array, converted once per matrix (do not modify)
+		 */
+		public double[][] getCrossRiskClassCorrelations() {
+			return getPrimitiveCorrelation(CrossRiskClassCorrelationMatrix);
+		}
+
+		/**
+		 * @param riskClassKey The risk class
+		 * @return The intra bucket correlations of the risk class as primitive array, converted once per matrix (do not modify)
+		 */
+		public double[][] getIntraBucketCorrelations(String riskClassKey) {
+			return getPrimitiveCorrelation(MapRiskClassCorrelationIntraBucketMap.get(riskClassKey));
+		}
+
+		private double[][] getPrimitiveCorrelation(Double[][] correlation) {
+			return correlation != null ? primitiveCorrelations.computeIfAbsent(correlation, VarianceCovarianceAggregation::toPrimitive) : null;
+		}
 	}
 
 
@@ -166,13 +192,16 @@ public class CalculationSchemeInitialMarginISDA {
 	private String[] IRCurveIndexNames;
 	private String calculationCCY;
 
+	// Net sensitivities per evaluation time, if the sensitivities of the products are frozen (see getRiskWeightsCalibrated)
+	private Map<String, RandomVariableInterface[][][]> frozenNetSensitivities;
+
 	// SIMM constructor
 	public CalculationSchemeInitialMarginISDA(SIMMPortfolio portfolio,
 			//ParameterCollection parameterCollection, /* Uncomment this line if parameter collection constructor does not contain hard values */
 			String calculationCCY) {
 		this.resultMap = new HashMap<>();
 		this.calculationCCY = calculationCCY;
-		this.products = portfolio.getProducts();
+		this.products = portfolio.getNettedProducts();
 		this.parameterCollection = new ParameterCollection();
 
 		// Inserted by Mario Viehmann: Screen portfolio products for relevant product classes, risk classes and curveIndexNames
@@ -223,6 +252,103 @@ public class CalculationSchemeInitialMarginISDA {
 		return SIMMValue;
 	}
 
+	/**
+	 * Allocate the initial margin to the products of the scheme (Euler allocation).
+	 *
+	 * The SIMM is differentiated path-wise w.r.t. the net sensitivities and the gradient is multiplied with the (cached) sensitivities of each
+	 * product. The concentration risk factors are kept fixed, such that the SIMM is homogeneous of degree one in the net sensitivities. Hence the
+	 * allocations add up to the initial margin on each path, and a product reducing the risk of the others has a negative allocation.
+	 * The cost is about one additional aggregation instead of a recalculation of the initial margin per product: the sensitivities of each
+	 * product are fetched once and give both the net sensitivities and the allocation, the interest rate delta margin and its gradient come
+	 * from a single aggregation, and the margin of each risk class is calculated once per product class.
+	 *
+	 * Only the interest rate delta margin is allocated. The margins of other risk classes (and the vega margin) enter the product class margin,
+	 * hence the derivative w.r.t. the interest rate margin, but are not allocated. The allocations add up to the initial margin only if it
+	 * consists of interest rate delta margin, which is the case for the products of this scheme.
+	 *
+	 * @param evaluationTime The time of evaluation
+	 * @return The allocated initial margin of each product of the scheme, in the order of the products
+	 * @throws CalculationException Thrown if the sensitivities of a product cannot be calculated
+	 */
+	public RandomVariableInterface[] getInitialMarginAllocation(double evaluationTime) throws CalculationException {
+		RandomVariableInterface[] allocations = new RandomVariableInterface[products.length];
+		Arrays.fill(allocations, new RandomVariable(evaluationTime, 0.0));
+
+		int interestRateIndex = Arrays.asList(riskClassKeys).indexOf("INTEREST_RATE");
+		if (interestRateIndex < 0) {
+			return allocations;
+		}
+
+		for (String productClass : productClassKeys) {
+			MarginSchemeIRDelta deltaScheme = new MarginSchemeIRDelta(this, productClass);
+			String[] bucketKeys = deltaScheme.bucketKeys;
+			String[] riskFactors = deltaScheme.getRiskFactors();
+			if (bucketKeys.length == 0) {
+				continue;
+			}
+
+			// The sensitivities of each product, fetched once for the net sensitivities and the allocation
+			RandomVariableInterface[][][][] productSensitivities = new RandomVariableInterface[products.length][][][];
+			for (int productIndex = 0; productIndex < products.length; productIndex++) {
+				productSensitivities[productIndex] = getProductSensitivities(products[productIndex], productClass, "INTEREST_RATE", bucketKeys, riskFactors, "delta", evaluationTime);
+			}
+			IRDeltaMarginKernel.MarginAndGradient marginAndGradient = deltaScheme.getMarginAndGradient(
+					addProductSensitivities(productSensitivities, bucketKeys.length, riskFactors.length, evaluationTime));
+			RandomVariableInterface[][][] gradient = marginAndGradient.getGradient();
+
+			// The derivative of the product class margin w.r.t. the interest rate margin, from the margins of the risk classes
+			RandomVariableInterface[] contributions = new RandomVariableInterface[riskClassKeys.length];
+			for (int i = 0; i < riskClassKeys.length; i++) {
+				contributions[i] = i == interestRateIndex ?
+						marginAndGradient.getMargin().add(this.getVegaMargin(riskClassKeys[i], productClass, evaluationTime)) :
+							this.getIMForRiskClass(riskClassKeys[i], productClass, evaluationTime);
+			}
+			RandomVariableInterface derivative = getSIMMProductDerivative(contributions, interestRateIndex, evaluationTime);
+
+			for (int productIndex = 0; productIndex < products.length; productIndex++) {
+				RandomVariableInterface allocation = new RandomVariable(evaluationTime, 0.0);
+				for (int iBucket = 0; iBucket < bucketKeys.length; iBucket++) {
+					for (int iRiskFactor = 0; iRiskFactor < riskFactors.length; iRiskFactor++) {
+						RandomVariableInterface[] sensitivities = productSensitivities[productIndex][iBucket][iRiskFactor];
+						if (sensitivities == null) {
+							continue;
+						}
+						RandomVariableInterface[] gradientOfRiskFactor = gradient[iBucket][iRiskFactor];
+						for (int iTenor = 0; iTenor < gradientOfRiskFactor.length; iTenor++) {
+							if (sensitivities[iTenor] != null) {
+								allocation = allocation.addProduct(sensitivities[iTenor], gradientOfRiskFactor[iTenor]);
+							}
+						}
+					}
+				}
+				allocations[productIndex] = allocations[productIndex].addProduct(allocation, derivative);
+			}
+		}
+		return allocations;
+	}
+
+	/**
+	 * Returns the path-wise derivative of the margin of a product class w.r.t. the margin of one of its risk classes, i.e.,
+	 * &sum;<sub>s</sub> &psi;<sub>rs</sub> IM<sub>s</sub> / IM (zero where the margin is zero).
+	 *
+	 * @param contributions  The margins IM<sub>s</sub> of the risk classes of the product class, in the order of the risk class keys
+	 * @param riskClassIndex The index r of the risk class
+	 * @param atTime         The time of evaluation
+	 * @return The derivative
+	 */
+	private RandomVariableInterface getSIMMProductDerivative(RandomVariableInterface[] contributions, int riskClassIndex, double atTime) {
+		double[][] crossRiskClassCorrelations = parameterCollection.getCrossRiskClassCorrelations();
+		RandomVariableInterface margin = VarianceCovarianceAggregation.getAggregation(contributions, crossRiskClassCorrelations);
+
+		RandomVariableInterface numerator = contributions[riskClassIndex];
+		for (int i = 0; i < riskClassKeys.length; i++) {
+			if (i != riskClassIndex) {
+				numerator = numerator.addProduct(contributions[i], crossRiskClassCorrelations[riskClassIndex][i]);
+			}
+		}
+		return margin.barrier(margin.mult(-1.0), new RandomVariable(atTime, 0.0), numerator.div(margin));
+	}
+
 	// SIMM constructor (for calibration only)
 	public CalculationSchemeInitialMarginISDA(String calculationCCY) {
 		this.resultMap = new HashMap<>();
@@ -274,7 +400,7 @@ public class CalculationSchemeInitialMarginISDA {
 			i++;
 		}
 
-		RandomVariableInterface simmProductClass = CalculationSchemeInitialMarginISDA.getVarianceCovarianceAggregation(contributions, parameterCollection.CrossRiskClassCorrelationMatrix);
+		RandomVariableInterface simmProductClass = VarianceCovarianceAggregation.getAggregation(contributions, parameterCollection.getCrossRiskClassCorrelations());
 		resultMap.put(productClass, simmProductClass.getAverage());
 		return simmProductClass;
 	}
@@ -378,45 +504,11 @@ public class CalculationSchemeInitialMarginISDA {
 	}
 
 	public static RandomVariableInterface getVarianceCovarianceAggregation(RandomVariableInterface[] contributions, Double[][] correlation) {
-		int i = 0;
-		RandomVariableInterface value = null;
-		for (RandomVariableInterface contribution1 : contributions) {
-			int j = 0;
-			if (contribution1 != null) {
-				value = value == null ? contribution1.squared() : value.add(contribution1.squared());
-				for (RandomVariableInterface contribution2 : contributions) {
-					if (contribution2 != null && i != j) {
-						RandomVariableInterface contribution = contribution1.mult(contribution2).mult(correlation[i][j]);
-						value = value == null ? contribution : value.add(contribution);
-					}
-					j++;
-				}
-			}
-			i++;
-		}
-		value = value.sqrt();
-		return value;
+		return VarianceCovarianceAggregation.getAggregation(contributions, correlation != null ? VarianceCovarianceAggregation.toPrimitive(correlation) : null);
 	}
 
 	public static RandomVariableInterface getVarianceCovarianceAggregation(RandomVariableInterface[] contributions, Double correlation) {
-		int i = 0;
-		RandomVariableInterface value = null;
-		for (RandomVariableInterface contribution1 : contributions) {
-			int j = 0;
-			for (RandomVariableInterface contribution2 : contributions) {
-				RandomVariableInterface contribution = null;
-				if (i != j) {
-					contribution = contribution1.mult(contribution2).mult(correlation);
-				} else {
-					contribution = contribution1.mult(contribution2);
-				}
-				value = value == null ? contribution : value.add(contribution);
-				j++;
-			}
-			i++;
-		}
-		value = value.sqrt();
-		return value;
+		return VarianceCovarianceAggregation.getAggregation(contributions, correlation.doubleValue());
 	}
 
 	// BUCKET IS CURRENCY FOR IR   risk Factor = index Name (e.g. Libor6m)
@@ -439,6 +531,136 @@ public class CalculationSchemeInitialMarginISDA {
 		return isdasimmsensiofAllProducts;
 	}
 
+	/**
+	 * Returns the net sensitivities of all products as tensor [bucket][riskFactor][maturityBucket] (for IR: [currency][curve][tenor]).
+	 *
+	 * Each product is asked once for the sensitivities on all maturity buckets of a bucket and risk factor. These are added path-wise,
+	 * such that the cost grows with the number of products and not with the number of products times the number of risk factors.
+	 * Net sensitivities without contribution of any product are zero.
+	 *
+	 * @param productClassKey The SIMM product class (RATES_FX etc.)
+	 * @param riskClassKey    The SIMM risk class (INTEREST_RATE etc.)
+	 * @param bucketKeys      The SIMM bucket keys (currencies for IR)
+	 * @param riskFactors     The risk factors (curve index names for IR)
+	 * @param riskType        The risk type (delta etc.)
+	 * @param atTime          The time of evaluation
+	 * @return The net sensitivities [bucket][riskFactor][maturityBucket]
+	 */
+	public RandomVariableInterface[][][] getNetSensitivities(String productClassKey, String riskClassKey, String[] bucketKeys, String[] riskFactors, String riskType, double atTime) {
+		if (frozenNetSensitivities != null) {
+			String key = productClassKey + "-" + riskClassKey + "-" + riskType + "-" + Arrays.toString(bucketKeys) + "-" + Arrays.toString(riskFactors) + "@" + atTime;
+			return frozenNetSensitivities.computeIfAbsent(key, k -> calculateNetSensitivities(productClassKey, riskClassKey, bucketKeys, riskFactors, riskType, atTime));
+		}
+		return calculateNetSensitivities(productClassKey, riskClassKey, bucketKeys, riskFactors, riskType, atTime);
+	}
+
+	private RandomVariableInterface[][][] calculateNetSensitivities(String productClassKey, String riskClassKey, String[] bucketKeys, String[] riskFactors, String riskType, double atTime) {
+		RandomVariableInterface[][][][] productSensitivities = new RandomVariableInterface[products.length][][][];
+		for (int productIndex = 0; productIndex < products.length; productIndex++) {
+			try {
+				productSensitivities[productIndex] = getProductSensitivities(products[productIndex], productClassKey, riskClassKey, bucketKeys, riskFactors, riskType, atTime);
+			} catch (CalculationException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+		return addProductSensitivities(productSensitivities, bucketKeys.length, riskFactors.length, atTime);
+	}
+
+	/**
+	 * Returns the sensitivities [bucket][riskFactor][maturityBucket] of a product, asking the product once per bucket and risk factor.
+	 * The sensitivities of a risk factor are <code>null</code> if the product has none.
+	 */
+	private static RandomVariableInterface[][][] getProductSensitivities(AbstractSIMMProduct product, String productClassKey, String riskClassKey, String[] bucketKeys, String[] riskFactors,
+			String riskType, double atTime) throws CalculationException {
+		RandomVariableInterface[][][] sensitivities = new RandomVariableInterface[bucketKeys.length][riskFactors.length][];
+		for (int iBucket = 0; iBucket < bucketKeys.length; iBucket++) {
+			for (int iRiskFactor = 0; iRiskFactor < riskFactors.length; iRiskFactor++) {
+				try {
+					sensitivities[iBucket][iRiskFactor] = product.getSensitivities(productClassKey, riskClassKey, riskFactors[iRiskFactor], bucketKeys[iBucket], riskType, atTime);
+				} catch (SolverException | CloneNotSupportedException e) {
+					throw new CalculationException(e);
+				}
+			}
+		}
+		return sensitivities;
+	}
+
+	/**
+	 * Adds the sensitivities [product][bucket][riskFactor][maturityBucket] of the products path-wise to the net sensitivities [bucket][riskFactor][maturityBucket].
+	 */
+	private RandomVariableInterface[][][] addProductSensitivities(RandomVariableInterface[][][][] productSensitivities, int numberOfBuckets, int numberOfRiskFactors, double atTime) {
+		int nTenors = parameterCollection.IRMaturityBuckets.length;
+		double[][][][] netRealizations = new double[numberOfBuckets][numberOfRiskFactors][][];
+
+		for (RandomVariableInterface[][][] sensitivitiesOfProduct : productSensitivities) {
+			for (int iBucket = 0; iBucket < numberOfBuckets; iBucket++) {
+				for (int iRiskFactor = 0; iRiskFactor < numberOfRiskFactors; iRiskFactor++) {
+					RandomVariableInterface[] sensitivities = sensitivitiesOfProduct[iBucket][iRiskFactor];
+					if (sensitivities == null) {
+						continue;
+					}
+					if (netRealizations[iBucket][iRiskFactor] == null) {
+						netRealizations[iBucket][iRiskFactor] = new double[nTenors][];
+					}
+					for (int iTenor = 0; iTenor < nTenors; iTenor++) {
+						netRealizations[iBucket][iRiskFactor][iTenor] = addRealizations(netRealizations[iBucket][iRiskFactor][iTenor], sensitivities[iTenor]);
+					}
+				}
+			}
+		}
+
+		RandomVariableInterface[][][] netSensitivities = new RandomVariableInterface[numberOfBuckets][numberOfRiskFactors][nTenors];
+		for (int iBucket = 0; iBucket < numberOfBuckets; iBucket++) {
+			for (int iRiskFactor = 0; iRiskFactor < numberOfRiskFactors; iRiskFactor++) {
+				for (int iTenor = 0; iTenor < nTenors; iTenor++) {
+					double[] realizations = netRealizations[iBucket][iRiskFactor] != null ? netRealizations[iBucket][iRiskFactor][iTenor] : null;
+					if (realizations == null) {
+						netSensitivities[iBucket][iRiskFactor][iTenor] = new RandomVariable(atTime, 0.0);
+					} else if (realizations.length == 1) {
+						netSensitivities[iBucket][iRiskFactor][iTenor] = new RandomVariable(atTime, realizations[0]);
+					} else {
+						netSensitivities[iBucket][iRiskFactor][iTenor] = new RandomVariable(atTime, realizations);
+					}
+				}
+			}
+		}
+		return netSensitivities;
+	}
+
+	/**
+	 * Adds the realizations of a sensitivity to a (possibly <code>null</code> or deterministic) sum in place, if possible.
+	 */
+	private static double[] addRealizations(double[] sum, RandomVariableInterface summand) {
+		if (summand == null) {
+			return sum;
+		}
+		if (sum == null) {
+			return summand.isDeterministic() ? new double[]{summand.get(0)} : summand.getRealizations().clone();
+		}
+		if (summand.isDeterministic()) {
+			double value = summand.get(0);
+			for (int pathIndex = 0; pathIndex < sum.length; pathIndex++) {
+				sum[pathIndex] += value;
+			}
+			return sum;
+		}
+		if (sum.length == 1) {
+			double value = sum[0];
+			sum = summand.getRealizations().clone();
+			for (int pathIndex = 0; pathIndex < sum.length; pathIndex++) {
+				sum[pathIndex] += value;
+			}
+			return sum;
+		}
+		if (summand.size() != sum.length) {
+			throw new IllegalArgumentException("Sensitivities must have the same number of paths.");
+		}
+		for (int pathIndex = 0; pathIndex < sum.length; pathIndex++) {
+			sum[pathIndex] += summand.get(pathIndex);
+		}
+		return sum;
+	}
+
 	public String[] getIRCurveIndexNames() {
 		return this.IRCurveIndexNames;
 	}
@@ -467,6 +689,26 @@ public class CalculationSchemeInitialMarginISDA {
 		return relevantBuckets.toArray(new String[relevantBuckets.size()]);
 	}
 
+	/**
+	 * Calibrate the risk weights of regular volatility currencies such that the initial margin of the calibration products at time 0
+	 * matches the target values.
+	 *
+	 * The calibration parameters may contain
+	 * <ul>
+	 * 	<li><code>maxIterations</code>, <code>parameterStep</code>, <code>accuracy</code> and <code>optimizerFactory</code> for the optimizer,</li>
+	 * 	<li><code>isFreezeSensitivities</code> (Boolean, default true): If true, the sensitivities of each calibration product are calculated
+	 * 		once, since they do not depend on the risk weights. Each evaluation of the objective function then only recalculates the aggregation.</li>
+	 * 	<li><code>numberOfThreadsForProductValuation</code> (Integer, default number of processors): The number of threads evaluating the
+	 * 		calibration products in parallel if the sensitivities are frozen. Otherwise the products are evaluated sequentially.</li>
+	 * </ul>
+	 *
+	 * @param model                   The LIBOR market model
+	 * @param calibrationProducts     The calibration products
+	 * @param calibrationTargetValues The target initial margin of the calibration products
+	 * @param calibrationParameters   The calibration parameters (may be null)
+	 * @return The calibrated risk weights
+	 * @throws CalculationException Thrown if the calibration fails
+	 */
 	public double[] getRiskWeightsCalibrated(final LIBORModelMonteCarloSimulationInterface model, final SIMMSimpleSwap[] calibrationProducts, final double[] calibrationTargetValues, Map<String, Object> calibrationParameters) throws CalculationException {
 
 		if (calibrationParameters == null) {
@@ -475,6 +717,8 @@ public class CalculationSchemeInitialMarginISDA {
 		Integer maxIterationsParameter = (Integer) calibrationParameters.get("maxIterations");
 		Double parameterStepParameter = (Double) calibrationParameters.get("parameterStep");
 		Double accuracyParameter = (Double) calibrationParameters.get("accuracy");
+		Boolean isFreezeSensitivitiesParameter = (Boolean) calibrationParameters.get("isFreezeSensitivities");
+		Integer numberOfThreadsForProductValuationParameter = (Integer) calibrationParameters.get("numberOfThreadsForProductValuation");
 
 		double[] initialParameters = Arrays.stream(this.parameterCollection.riskWeightsRegularCurrency).map(n -> Math.log(n)).toArray();
 		double[] lowerBound = new double[initialParameters.length];
@@ -493,13 +737,32 @@ public class CalculationSchemeInitialMarginISDA {
 		double accuracy = accuracyParameter != null ? accuracyParameter.doubleValue() : 1E-5;
 		OptimizerFactoryInterface optimizerFactory = optimizerFactoryParameter != null ? optimizerFactoryParameter : new OptimizerFactoryLevenbergMarquardt(maxIterations, accuracy, numberOfThreads);
 
-		//int numberOfThreadsForProductValuation = 2 * Math.max(2, Runtime.getRuntime().availableProcessors());
-		final ExecutorService executor = null;//Executors.newFixedThreadPool(numberOfThreadsForProductValuation);
+		boolean isFreezeSensitivities = isFreezeSensitivitiesParameter != null ? isFreezeSensitivitiesParameter.booleanValue() : true;
+
+		// Calculate the sensitivities of each calibration product once. The schemes share the parameters (i.e. risk weights) of this scheme.
+		final CalculationSchemeInitialMarginISDA[] frozenSchemes = new CalculationSchemeInitialMarginISDA[calibrationProducts.length];
+		if (isFreezeSensitivities) {
+			for (int calibrationProductIndex = 0; calibrationProductIndex < calibrationProducts.length; calibrationProductIndex++) {
+				CalculationSchemeInitialMarginISDA frozenScheme = new CalculationSchemeInitialMarginISDA(calibrationProducts[calibrationProductIndex], this.calculationCCY);
+				frozenScheme.parameterCollection = this.parameterCollection;
+				frozenScheme.frozenNetSensitivities = new ConcurrentHashMap<String, RandomVariableInterface[][][]>();
+				try {
+					calibrationProducts[calibrationProductIndex].getInitialMargin(0.0 /*evaluationTime*/, model, frozenScheme);
+					frozenSchemes[calibrationProductIndex] = frozenScheme;
+				} catch (Exception e) {
+					// Non-working calibration products are excluded, see below.
+				}
+			}
+		}
+
+		// Products sharing this scheme cannot be valued in parallel
+		int numberOfThreadsForProductValuation = numberOfThreadsForProductValuationParameter != null ? numberOfThreadsForProductValuationParameter.intValue() : Runtime.getRuntime().availableProcessors();
+		final ExecutorService executor = isFreezeSensitivities && numberOfThreadsForProductValuation > 1 ? Executors.newFixedThreadPool(numberOfThreadsForProductValuation) : null;
 
 		ObjectiveFunction calibrationError = new ObjectiveFunction() {
-			// Calculate ISDA SIMM IM
+			// Calculate ISDA SIMM IM. The risk weights are parameters of the scheme, hence the objective function is evaluated for one set of parameters at a time.
 			@Override
-			public void setValues(double[] parameters, double[] values) throws SolverException {
+			public synchronized void setValues(double[] parameters, double[] values) throws SolverException {
 
 				parameters = Arrays.stream(parameters).map(n -> Math.exp(n)).toArray();
 				CalculationSchemeInitialMarginISDA.this.setRiskWeightsRegular(parameters);
@@ -511,6 +774,10 @@ public class CalculationSchemeInitialMarginISDA {
 						@Override
 						public Double call() {
 							try {
+								if (isFreezeSensitivities) {
+									CalculationSchemeInitialMarginISDA frozenScheme = frozenSchemes[workerCalibrationProductIndex];
+									return frozenScheme != null ? frozenScheme.getValue(0.0 /*evaluationTime*/).getAverage() : calibrationTargetValues[workerCalibrationProductIndex];
+								}
 								return calibrationProducts[workerCalibrationProductIndex].getInitialMargin(0.0 /*evaluationTime*/, model, CalculationSchemeInitialMarginISDA.this).getAverage();
 							} catch (CalculationException e) {
 								// We do not signal exceptions to keep the solver working and automatically exclude non-working calibration products.
@@ -0,0 +1,689 @@
+package net.finmath.initialmargin.isdasimm.aggregationscheme;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.stream.IntStream;
+
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+
+/**
+ * Path-wise interest rate delta margin (ISDA SIMM v2.0, B.8) from the net sensitivities of all currencies.
+ *
+ * For each currency b the kernel calculates the concentration risk factor CR<sub>b</sub> = max(sqrt(|&sum; s|/T<sub>b</sub>), 1),
+ * the weighted sensitivities WS<sub>k</sub> = RW<sub>k</sub> s<sub>k</sub> CR<sub>b</sub> (currency basis without CR), the aggregation
+ * K<sub>b</sub> and S<sub>b</sub> = max(min(&sum; WS<sub>k</sub>, K<sub>b</sub>), -K<sub>b</sub>), and finally the margin
+ * sqrt(&sum;<sub>b</sub> K<sub>b</sub><sup>2</sup> + &sum;<sub>b &ne; c</sub> &gamma; g<sub>bc</sub> S<sub>b</sub> S<sub>c</sub>), where g<sub>bc</sub> is the
+ * average over the paths of min(CR<sub>b</sub>, CR<sub>c</sub>) / max(CR<sub>b</sub>, CR<sub>c</sub>).
+ *
+ * The paths are processed in blocks: the first pass calculates CR, K and S, the second the partial sums of g and the third the margin,
+ * hence only these per-currency arrays are allocated. The currencies are independent in the first pass, which runs a task per currency
+ * and block, such that a book of many currencies is processed in parallel even for few paths. The weighted sensitivities of a block
+ * are held in a per-thread workspace. The tasks are distributed on a configurable {@link ForkJoinPool}. Each task writes its own slice
+ * and the partial sums are added in block order, hence the result does not depend on the scheduling. Sensitivities which are
+ * <code>null</code> or deterministic zeros are skipped.
+ *
+ * The kernel also provides the path-wise gradient of the margin with respect to the net sensitivities, which allocates the margin to the
+ * contributors of the net sensitivities (Euler allocation). The concentration risk factors and g<sub>bc</sub> are kept fixed in the gradient,
+ * such that the margin is homogeneous of degree one in the net sensitivities and &sum;<sub>k</sub> s<sub>k</sub> &part;M/&part;s<sub>k</sub> = M
+ * holds on each path. The gradient is a fourth pass over the blocks, after the three passes of the margin.
+ *
+ * CR<sub>b</sub>, S<sub>b</sub> and the path-wise ratio of g<sub>bc</sub> of single currencies are also provided as random variables.
+ */
+public class IRDeltaMarginKernel {
+
+	private static final int DEFAULT_BLOCK_SIZE = 256;
+
+	private static final IRDeltaMarginKernel DEFAULT_INSTANCE = new IRDeltaMarginKernel(ForkJoinPool.commonPool());
+
+	private final ForkJoinPool pool;
+	private final int blockSize;
+	private final ThreadLocal<double[]> workspaces = ThreadLocal.withInitial(() -> new double[0]);
+
+	/**
+	 * Create the kernel running on a given fork join pool.
+	 *
+	 * @param pool      The pool used to process the blocks of paths.
+	 * @param blockSize The number of paths processed by a single task.
+	 */
+	public IRDeltaMarginKernel(ForkJoinPool pool, int blockSize) {
+		if (pool == null) {
+			throw new IllegalArgumentException("Pool must not be null.");
+		}
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("Block size must be positive.");
+		}
+		this.pool = pool;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Create the kernel running on a given fork join pool.
+	 *
+	 * @param pool The pool used to process the blocks of paths.
+	 */
+	public IRDeltaMarginKernel(ForkJoinPool pool) {
+		this(pool, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @return The shared instance running on the common fork join pool.
+	 */
+	public static IRDeltaMarginKernel getDefaultInstance() {
+		return DEFAULT_INSTANCE;
+	}
+
+	/**
+	 * Calculates the interest rate delta margin.
+	 *
+	 * The net sensitivities of a currency are given as matrix [curve][tenor] of the interest rate curves, followed by the rows inflation
+	 * and currency basis, of which only the first element is used. The intra-bucket correlation of the curve c and the tenor t has the index
+	 * c * (number of tenors) + t, followed by inflation and currency basis. Its diagonal is not read (it is one).
+	 *
+	 * @param netSensitivities         The net sensitivities [currency][curve][tenor] (may contain <code>null</code>)
+	 * @param riskWeights              The risk weights [currency][tenor]
+	 * @param concentrationThresholds  The concentration thresholds [currency]
+	 * @param inflationRiskWeight      The risk weight of inflation
+	 * @param ccyBasisRiskWeight       The risk weight of currency basis
+	 * @param intraBucketCorrelation   The correlation of the risk factors of a currency
+	 * @param crossCurrencyCorrelation The correlation &gamma; of the currencies
+	 * @return The interest rate delta margin
+	 */
+	public RandomVariableInterface getDeltaMargin(RandomVariableInterface[][][] netSensitivities, double[][] riskWeights, double[] concentrationThresholds,
+			double inflationRiskWeight, double ccyBasisRiskWeight, double[][] intraBucketCorrelation, double crossCurrencyCorrelation) {
+		Aggregation aggregation = aggregate(netSensitivities, riskWeights, concentrationThresholds, inflationRiskWeight, ccyBasisRiskWeight,
+				intraBucketCorrelation, crossCurrencyCorrelation, 0);
+		return aggregation.getRandomVariable(aggregation.margin);
+	}
+
+	/**
+	 * Calculates the path-wise gradient of the interest rate delta margin with respect to the net sensitivities, keeping the concentration
+	 * risk factors and g<sub>bc</sub> fixed (see the class documentation).
+	 *
+	 * The gradient of a currency is given as matrix [curve][tenor] of the interest rate curves, followed by the rows inflation and currency
+	 * basis, each of a single element. It is also given for sensitivities which are <code>null</code> or zero, since the margin is sensitive
+	 * to them through the correlation. On paths where the margin is zero, the gradient is zero.
+	 *
+	 * @param netSensitivities         The net sensitivities [currency][curve][tenor] (may contain <code>null</code>)
+	 * @param riskWeights              The risk weights [currency][tenor]
+	 * @param concentrationThresholds  The concentration thresholds [currency]
+	 * @param inflationRiskWeight      The risk weight of inflation
+	 * @param ccyBasisRiskWeight       The risk weight of currency basis
+	 * @param intraBucketCorrelation   The correlation of the risk factors of a currency
+	 * @param crossCurrencyCorrelation The correlation &gamma; of the currencies
+	 * @return The gradient [currency][curve][tenor] of the interest rate delta margin
+	 */
+	public RandomVariableInterface[][][] getDeltaMarginGradient(RandomVariableInterface[][][] netSensitivities, double[][] riskWeights, double[] concentrationThresholds,
+			double inflationRiskWeight, double ccyBasisRiskWeight, double[][] intraBucketCorrelation, double crossCurrencyCorrelation) {
+		return getDeltaMarginAndGradient(netSensitivities, riskWeights, concentrationThresholds, inflationRiskWeight, ccyBasisRiskWeight,
+				intraBucketCorrelation, crossCurrencyCorrelation).getGradient();
+	}
+
+	/**
+	 * Calculates the interest rate delta margin together with its path-wise gradient with respect to the net sensitivities, i.e., the results of
+	 * {@link #getDeltaMargin} and {@link #getDeltaMarginGradient} from a single aggregation.
+	 *
+	 * @param netSensitivities         The net sensitivities [currency][curve][tenor] (may contain <code>null</code>)
+	 * @param riskWeights              The risk weights [currency][tenor]
+	 * @param concentrationThresholds  The concentration thresholds [currency]
+	 * @param inflationRiskWeight      The risk weight of inflation
+	 * @param ccyBasisRiskWeight       The risk weight of currency basis
+	 * @param intraBucketCorrelation   The correlation of the risk factors of a currency
+	 * @param crossCurrencyCorrelation The correlation &gamma; of the currencies
+	 * @return The interest rate delta margin and its gradient [currency][curve][tenor]
+	 */
+	public MarginAndGradient getDeltaMarginAndGradient(RandomVariableInterface[][][] netSensitivities, double[][] riskWeights, double[] concentrationThresholds,
+			double inflationRiskWeight, double ccyBasisRiskWeight, double[][] intraBucketCorrelation, double crossCurrencyCorrelation) {
+		// The workspace additionally holds the cross-currency terms and the coefficients of the gradient of a block
+		final Aggregation aggregation = aggregate(netSensitivities, riskWeights, concentrationThresholds, inflationRiskWeight, ccyBasisRiskWeight,
+				intraBucketCorrelation, crossCurrencyCorrelation, 3);
+		final Currency[] currencies = aggregation.currencies;
+		final int numberOfCurrencies = currencies.length;
+		final int numberOfPaths = aggregation.margin.length;
+		final int numberOfBlocks = (numberOfPaths + blockSize - 1) / blockSize;
+
+		// Fourth pass: the gradient, a task per currency and block
+		final double[][][] gradients = new double[numberOfCurrencies][][];
+		for (int currencyIndex = 0; currencyIndex < numberOfCurrencies; currencyIndex++) {
+			gradients[currencyIndex] = new double[currencies[currencyIndex].dimension][numberOfPaths];
+		}
+		run(numberOfCurrencies * numberOfBlocks, taskIndex -> {
+			int currencyIndex = taskIndex / numberOfBlocks;
+			int blockStart = (taskIndex % numberOfBlocks) * blockSize;
+			int blockEnd = Math.min(blockStart + blockSize, numberOfPaths);
+			double[] workspace = getWorkspace(aggregation.workspaceLength);
+			int length = blockEnd - blockStart;
+
+			// The derivative of the margin w.r.t. S_b is sum_{c != b} 2 gamma g_bc S_c / (2 M)
+			int offsetCross = currencies[currencyIndex].numberOfFactors * length - blockStart;
+			for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+				workspace[offsetCross + pathIndex] = 0.0;
+			}
+			for (int c = 0; c < numberOfCurrencies; c++) {
+				if (c == currencyIndex) {
+					continue;
+				}
+				double weight = currencyIndex < c ? aggregation.weights[currencyIndex][c] : aggregation.weights[c][currencyIndex];
+				double[] factorsSC = aggregation.factorsS[c];
+				for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+					workspace[offsetCross + pathIndex] += weight * factorsSC[pathIndex];
+				}
+			}
+
+			currencies[currencyIndex].differentiate(blockStart, blockEnd, workspace, aggregation.concentrationFactors[currencyIndex],
+					aggregation.aggregatedSensitivities[currencyIndex], aggregation.margin, gradients[currencyIndex]);
+		});
+
+		RandomVariableInterface[][][] gradient = new RandomVariableInterface[numberOfCurrencies][][];
+		for (int currencyIndex = 0; currencyIndex < numberOfCurrencies; currencyIndex++) {
+			Currency currency = currencies[currencyIndex];
+			gradient[currencyIndex] = new RandomVariableInterface[currency.numberOfCurves + 2][];
+			for (int curveIndex = 0; curveIndex < currency.numberOfCurves + 2; curveIndex++) {
+				int numberOfFactorTenors = curveIndex < currency.numberOfCurves ? currency.numberOfTenors : 1;
+				gradient[currencyIndex][curveIndex] = new RandomVariableInterface[numberOfFactorTenors];
+				for (int tenorIndex = 0; tenorIndex < numberOfFactorTenors; tenorIndex++) {
+					gradient[currencyIndex][curveIndex][tenorIndex] = aggregation.getRandomVariable(gradients[currencyIndex][currency.getIndex(curveIndex, tenorIndex)]);
+				}
+			}
+		}
+		return new MarginAndGradient(aggregation.getRandomVariable(aggregation.margin), gradient);
+	}
+
+	/**
+	 * Calculates the concentration risk factor CR<sub>b</sub> = max(sqrt(|&sum; s|/T<sub>b</sub>), 1) of a single currency, where the sum
+	 * runs over the curves and inflation, not currency basis.
+	 *
+	 * @param netSensitivities       The net sensitivities [curve][tenor] of the currency, followed by the rows inflation and currency basis (may contain <code>null</code>)
+	 * @param concentrationThreshold The concentration threshold T<sub>b</sub>
+	 * @return The concentration risk factor
+	 */
+	public static RandomVariableInterface getConcentrationRiskFactor(RandomVariableInterface[][] netSensitivities, double concentrationThreshold) {
+		int numberOfCurves = netSensitivities.length - 2;
+		RandomVariableInterface sensitivitySum = new RandomVariable(0.0);
+		for (int curveIndex = 0; curveIndex <= numberOfCurves; curveIndex++) {
+			RandomVariableInterface[] row = getRow(netSensitivities, curveIndex);
+			int numberOfFactorTenors = curveIndex < numberOfCurves ? row.length : Math.min(row.length, 1);
+			for (int tenorIndex = 0; tenorIndex < numberOfFactorTenors; tenorIndex++) {
+				if (row[tenorIndex] != null) {
+					sensitivitySum = sensitivitySum.add(row[tenorIndex]);
+				}
+			}
+		}
+		return sensitivitySum.abs().div(concentrationThreshold).sqrt().floor(1.0);
+	}
+
+	/**
+	 * Calculates S<sub>b</sub> = max(min(&sum; WS<sub>k</sub>, K<sub>b</sub>), -K<sub>b</sub>) of a single currency from its concentration risk
+	 * factor and its aggregation K<sub>b</sub>.
+	 *
+	 * @param netSensitivities        The net sensitivities [curve][tenor] of the currency, followed by the rows inflation and currency basis (may contain <code>null</code>)
+	 * @param riskWeights             The risk weights [tenor] of the currency
+	 * @param inflationRiskWeight     The risk weight of inflation
+	 * @param ccyBasisRiskWeight      The risk weight of currency basis
+	 * @param concentrationRiskFactor The concentration risk factor CR<sub>b</sub>
+	 * @param aggregatedSensitivity   The aggregation K<sub>b</sub>
+	 * @return The factor S<sub>b</sub>
+	 */
+	public static RandomVariableInterface getFactorS(RandomVariableInterface[][] netSensitivities, double[] riskWeights, double inflationRiskWeight, double ccyBasisRiskWeight,
+			RandomVariableInterface concentrationRiskFactor, RandomVariableInterface aggregatedSensitivity) {
+		int numberOfCurves = netSensitivities.length - 2;
+		RandomVariableInterface weightedSensitivitySum = new RandomVariable(0.0);
+		for (int curveIndex = 0; curveIndex < numberOfCurves + 2; curveIndex++) {
+			RandomVariableInterface[] row = getRow(netSensitivities, curveIndex);
+			int numberOfFactorTenors = curveIndex < numberOfCurves ? Math.min(row.length, riskWeights.length) : Math.min(row.length, 1);
+			for (int tenorIndex = 0; tenorIndex < numberOfFactorTenors; tenorIndex++) {
+				RandomVariableInterface sensitivity = row[tenorIndex];
+				if (sensitivity == null) {
+					continue;
+				}
+				double riskWeight = curveIndex < numberOfCurves ? riskWeights[tenorIndex] : curveIndex == numberOfCurves ? inflationRiskWeight : ccyBasisRiskWeight;
+				RandomVariableInterface weightedSensitivity = sensitivity.mult(riskWeight);
+				weightedSensitivitySum = weightedSensitivitySum.add(curveIndex <= numberOfCurves ? weightedSensitivity.mult(concentrationRiskFactor) : weightedSensitivity);
+			}
+		}
+		return weightedSensitivitySum.cap(aggregatedSensitivity).floor(aggregatedSensitivity.mult(-1.0));
+	}
+
+	/**
+	 * Calculates min(CR<sub>b</sub>, CR<sub>c</sub>) / max(CR<sub>b</sub>, CR<sub>c</sub>) path-wise, of which the margin uses the average g<sub>bc</sub>.
+	 *
+	 * @param concentrationRiskFactor1 The concentration risk factor CR<sub>b</sub>
+	 * @param concentrationRiskFactor2 The concentration risk factor CR<sub>c</sub>
+	 * @return The ratio of the concentration risk factors
+	 */
+	public static RandomVariableInterface getParameterG(RandomVariableInterface concentrationRiskFactor1, RandomVariableInterface concentrationRiskFactor2) {
+		return concentrationRiskFactor1.cap(concentrationRiskFactor2).div(concentrationRiskFactor1.floor(concentrationRiskFactor2));
+	}
+
+	private static RandomVariableInterface[] getRow(RandomVariableInterface[][] netSensitivities, int curveIndex) {
+		return netSensitivities[curveIndex] != null ? netSensitivities[curveIndex] : new RandomVariableInterface[0];
+	}
+
+	/**
+	 * Calculates CR, K, S and the margin in the three passes over the blocks of paths.
+	 *
+	 * @param additionalWorkspaceBlocks The number of blocks of paths the workspace holds in addition to the weighted sensitivities
+	 */
+	private Aggregation aggregate(RandomVariableInterface[][][] netSensitivities, double[][] riskWeights, double[] concentrationThresholds,
+			double inflationRiskWeight, double ccyBasisRiskWeight, double[][] intraBucketCorrelation, double crossCurrencyCorrelation, int additionalWorkspaceBlocks) {
+		final int numberOfCurrencies = netSensitivities.length;
+		if (riskWeights.length != numberOfCurrencies || concentrationThresholds.length != numberOfCurrencies) {
+			throw new IllegalArgumentException("Risk weights and concentration thresholds must be given for each currency.");
+		}
+
+		int numberOfPaths = 1;
+		double filtrationTime = Double.NEGATIVE_INFINITY;
+		final Currency[] currencies = new Currency[numberOfCurrencies];
+		int maximumNumberOfFactors = 0;
+		for (int currencyIndex = 0; currencyIndex < numberOfCurrencies; currencyIndex++) {
+			currencies[currencyIndex] = new Currency(netSensitivities[currencyIndex], riskWeights[currencyIndex], concentrationThresholds[currencyIndex],
+					inflationRiskWeight, ccyBasisRiskWeight, intraBucketCorrelation);
+			maximumNumberOfFactors = Math.max(maximumNumberOfFactors, currencies[currencyIndex].numberOfFactors);
+			for (RandomVariableInterface sensitivity : currencies[currencyIndex].sensitivities) {
+				filtrationTime = Math.max(filtrationTime, sensitivity.getFiltrationTime());
+				if (!sensitivity.isDeterministic()) {
+					if (numberOfPaths > 1 && sensitivity.size() != numberOfPaths) {
+						throw new IllegalArgumentException("Net sensitivities must have the same number of paths.");
+					}
+					numberOfPaths = sensitivity.size();
+				}
+			}
+		}
+		if (filtrationTime == Double.NEGATIVE_INFINITY) {
+			filtrationTime = 0.0;
+		}
+		for (Currency currency : currencies) {
+			currency.initializeValues(numberOfPaths);
+		}
+
+		// First pass: CR, K and S, a task per currency and block
+		final int paths = numberOfPaths;
+		final int numberOfBlocks = (numberOfPaths + blockSize - 1) / blockSize;
+		final int workspaceLength = (maximumNumberOfFactors + additionalWorkspaceBlocks) * blockSize;
+		final double[][] concentrationFactors = new double[numberOfCurrencies][numberOfPaths];
+		final double[][] aggregatedSensitivities = new double[numberOfCurrencies][numberOfPaths];
+		final double[][] factorsS = new double[numberOfCurrencies][numberOfPaths];
+		final double[][] partialSumsG = new double[numberOfBlocks][numberOfCurrencies * numberOfCurrencies];
+		run(numberOfCurrencies * numberOfBlocks, taskIndex -> {
+			int currencyIndex = taskIndex / numberOfBlocks;
+			int blockStart = (taskIndex % numberOfBlocks) * blockSize;
+			int blockEnd = Math.min(blockStart + blockSize, paths);
+			currencies[currencyIndex].aggregate(blockStart, blockEnd, getWorkspace(workspaceLength),
+					concentrationFactors[currencyIndex], aggregatedSensitivities[currencyIndex], factorsS[currencyIndex]);
+		});
+
+		// Second pass: the partial sums of g per block
+		run(numberOfBlocks, blockIndex -> {
+			int blockStart = blockIndex * blockSize;
+			int blockEnd = Math.min(blockStart + blockSize, paths);
+			double[] partialSumG = partialSumsG[blockIndex];
+			for (int b = 0; b < numberOfCurrencies; b++) {
+				double[] factorsB = concentrationFactors[b];
+				for (int c = b + 1; c < numberOfCurrencies; c++) {
+					double[] factorsC = concentrationFactors[c];
+					double sum = 0.0;
+					for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+						double factorB = factorsB[pathIndex];
+						double factorC = factorsC[pathIndex];
+						sum += factorB < factorC ? factorB / factorC : factorC / factorB;
+					}
+					partialSumG[b * numberOfCurrencies + c] = sum;
+				}
+			}
+		});
+
+		// The cross-currency weights 2 gamma g_bc of the pairs b < c, the blocks summed in order
+		final double[][] weights = new double[numberOfCurrencies][numberOfCurrencies];
+		for (int b = 0; b < numberOfCurrencies; b++) {
+			for (int c = b + 1; c < numberOfCurrencies; c++) {
+				double sum = 0.0;
+				for (double[] partialSumG : partialSumsG) {
+					sum += partialSumG[b * numberOfCurrencies + c];
+				}
+				weights[b][c] = 2.0 * crossCurrencyCorrelation * sum / numberOfPaths;
+			}
+		}
+
+		// Third pass: the margin
+		final double[] margin = new double[numberOfPaths];
+		run(numberOfBlocks, blockIndex -> {
+			int blockStart = blockIndex * blockSize;
+			int blockEnd = Math.min(blockStart + blockSize, paths);
+			for (int b = 0; b < numberOfCurrencies; b++) {
+				double[] aggregatedB = aggregatedSensitivities[b];
+				double[] factorsSB = factorsS[b];
+				for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+					margin[pathIndex] += aggregatedB[pathIndex] * aggregatedB[pathIndex];
+				}
+				for (int c = b + 1; c < numberOfCurrencies; c++) {
+					double weight = weights[b][c];
+					double[] factorsSC = factorsS[c];
+					for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+						margin[pathIndex] += weight * factorsSB[pathIndex] * factorsSC[pathIndex];
+					}
+				}
+			}
+			for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+				margin[pathIndex] = Math.sqrt(margin[pathIndex]);
+			}
+		});
+
+		return new Aggregation(currencies, filtrationTime, workspaceLength, concentrationFactors, aggregatedSensitivities, factorsS, weights, margin);
+	}
+
+	private double[] getWorkspace(int length) {
+		double[] workspace = workspaces.get();
+		if (workspace.length < length) {
+			workspace = new double[length];
+			workspaces.set(workspace);
+		}
+		return workspace;
+	}
+
+	private interface Task {
+		void run(int taskIndex);
+	}
+
+	private void run(int numberOfTasks, Task task) {
+		if (numberOfTasks == 1) {
+			task.run(0);
+			return;
+		}
+		Runnable tasks = () -> IntStream.range(0, numberOfTasks).parallel().forEach(task::run);
+		Thread thread = Thread.currentThread();
+		if (thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool) {
+			// Already running in our pool (nested call), avoid submitting and blocking a worker.
+			tasks.run();
+		} else {
+			pool.submit(tasks).join();
+		}
+	}
+
+	/**
+	 * The interest rate delta margin and its gradient [currency][curve][tenor] with respect to the net sensitivities.
+	 */
+	public static final class MarginAndGradient {
+		private final RandomVariableInterface margin;
+		private final RandomVariableInterface[][][] gradient;
+
+		private MarginAndGradient(RandomVariableInterface margin, RandomVariableInterface[][][] gradient) {
+			this.margin = margin;
+			this.gradient = gradient;
+		}
+
+		/**
+		 * @return The interest rate delta margin.
+		 */
+		public RandomVariableInterface getMargin() {
+			return margin;
+		}
+
+		/**
+		 * @return The gradient [currency][curve][tenor] of the margin, see {@link IRDeltaMarginKernel#getDeltaMarginGradient}.
+		 */
+		public RandomVariableInterface[][][] getGradient() {
+			return gradient;
+		}
+	}
+
+	/**
+	 * The result of the three passes of the margin, i.e., CR, K, S [currency][path], the cross-currency weights 2 &gamma; g<sub>bc</sub> and the margin.
+	 */
+	private static final class Aggregation {
+		private final Currency[] currencies;
+		private final double filtrationTime;
+		private final int workspaceLength;
+		private final double[][] concentrationFactors;
+		private final double[][] aggregatedSensitivities;
+		private final double[][] factorsS;
+		private final double[][] weights;
+		private final double[] margin;
+
+		private Aggregation(Currency[] currencies, double filtrationTime, int workspaceLength, double[][] concentrationFactors, double[][] aggregatedSensitivities,
+				double[][] factorsS, double[][] weights, double[] margin) {
+			this.currencies = currencies;
+			this.filtrationTime = filtrationTime;
+			this.workspaceLength = workspaceLength;
+			this.concentrationFactors = concentrationFactors;
+			this.aggregatedSensitivities = aggregatedSensitivities;
+			this.factorsS = factorsS;
+			this.weights = weights;
+			this.margin = margin;
+		}
+
+		private RandomVariableInterface getRandomVariable(double[] values) {
+			return values.length == 1 ? new RandomVariable(filtrationTime, values[0]) : new RandomVariable(filtrationTime, values);
+		}
+	}
+
+	/**
+	 * The non-zero risk factors of a currency, with their risk weights and the part of the intra-bucket correlation they need.
+	 */
+	private static final class Currency {
+		private final RandomVariableInterface[] sensitivities;
+		private final double[] riskWeights;
+		private final boolean[] isCcyBasis;		// Currency basis is neither in the concentration sum nor weighted by CR
+		private final double[][] weights;		// 2 rho_kl of the pairs k < l
+		private final double concentrationThreshold;
+		private final int numberOfFactors;
+		private final int numberOfCurves;
+		private final int numberOfTenors;
+		private final int dimension;
+		private final int[] indices;				// The indices of the factors in the intra-bucket correlation
+		private final double[] positionRiskWeights;	// The risk weights of all indices of the intra-bucket correlation
+		private final double[][] correlations;		// rho of all indices and the factors, the diagonal one
+		private double[][] values;
+
+		private Currency(RandomVariableInterface[][] netSensitivities, double[] tenorRiskWeights, double concentrationThreshold,
+				double inflationRiskWeight, double ccyBasisRiskWeight, double[][] intraBucketCorrelation) {
+			int numberOfCurves = netSensitivities.length - 2;
+			int numberOfTenors = tenorRiskWeights.length;
+			int dimension = numberOfCurves * numberOfTenors + 2;
+			if (numberOfCurves < 0 || intraBucketCorrelation.length != dimension) {
+				throw new IllegalArgumentException("The intra-bucket correlation must have dimension " + dimension + ".");
+			}
+
+			// The factor indices in the intra-bucket correlation
+			int[] indices = new int[dimension];
+			RandomVariableInterface[] factorSensitivities = new RandomVariableInterface[dimension];
+			double[] factorRiskWeights = new double[dimension];
+			int count = 0;
+			for (int curveIndex = 0; curveIndex <= numberOfCurves + 1; curveIndex++) {
+				int numberOfFactorTenors = curveIndex < numberOfCurves ? numberOfTenors : 1;
+				for (int tenorIndex = 0; tenorIndex < numberOfFactorTenors; tenorIndex++) {
+					RandomVariableInterface sensitivity = netSensitivities[curveIndex] != null && netSensitivities[curveIndex].length > tenorIndex ? netSensitivities[curveIndex][tenorIndex] : null;
+					if (sensitivity == null || (sensitivity.isDeterministic() && sensitivity.get(0) == 0.0)) {
+						continue;
+					}
+					indices[count] = curveIndex < numberOfCurves ? curveIndex * numberOfTenors + tenorIndex : numberOfCurves * numberOfTenors + curveIndex - numberOfCurves;
+					factorSensitivities[count] = sensitivity;
+					factorRiskWeights[count] = curveIndex < numberOfCurves ? tenorRiskWeights[tenorIndex] : curveIndex == numberOfCurves ? inflationRiskWeight : ccyBasisRiskWeight;
+					count++;
+				}
+			}
+
+			this.numberOfFactors = count;
+			this.numberOfCurves = numberOfCurves;
+			this.numberOfTenors = numberOfTenors;
+			this.dimension = dimension;
+			this.indices = Arrays.copyOf(indices, count);
+			this.positionRiskWeights = new double[dimension];
+			this.correlations = new double[dimension][count];
+			for (int index = 0; index < dimension; index++) {
+				positionRiskWeights[index] = index < numberOfCurves * numberOfTenors ? tenorRiskWeights[index % numberOfTenors] : index == dimension - 2 ? inflationRiskWeight : ccyBasisRiskWeight;
+				for (int k = 0; k < count; k++) {
+					correlations[index][k] = index == indices[k] ? 1.0 : intraBucketCorrelation[index][indices[k]];
+				}
+			}
+			this.sensitivities = new RandomVariableInterface[count];
+			this.riskWeights = new double[count];
+			this.isCcyBasis = new boolean[count];
+			this.weights = new double[count][count];
+			for (int k = 0; k < count; k++) {
+				sensitivities[k] = factorSensitivities[k];
+				riskWeights[k] = factorRiskWeights[k];
+				isCcyBasis[k] = indices[k] == dimension - 1;
+				for (int l = k + 1; l < count; l++) {
+					weights[k][l] = 2.0 * intraBucketCorrelation[indices[k]][indices[l]];
+				}
+			}
+			this.concentrationThreshold = concentrationThreshold;
+		}
+
+		private void initializeValues(int numberOfPaths) {
+			values = new double[numberOfFactors][];
+			for (int k = 0; k < numberOfFactors; k++) {
+				if (sensitivities[k].isDeterministic()) {
+					values[k] = new double[numberOfPaths];
+					Arrays.fill(values[k], sensitivities[k].get(0));
+				} else {
+					values[k] = sensitivities[k].getRealizations();
+				}
+			}
+		}
+
+		/**
+		 * Calculates CR, K and S of the paths of a block. The weighted sensitivities are written to the workspace, factor-major.
+		 */
+		private void aggregate(int blockStart, int blockEnd, double[] workspace, double[] concentrationFactors, double[] aggregated, double[] factorsS) {
+			int length = blockEnd - blockStart;
+
+			for (int k = 0; k < numberOfFactors; k++) {
+				if (!isCcyBasis[k]) {
+					double[] valuesK = values[k];
+					for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+						concentrationFactors[pathIndex] += valuesK[pathIndex];
+					}
+				}
+			}
+			for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+				concentrationFactors[pathIndex] = Math.max(Math.sqrt(Math.abs(concentrationFactors[pathIndex]) / concentrationThreshold), 1.0);
+			}
+
+			setWeightedSensitivities(blockStart, blockEnd, workspace, concentrationFactors);
+
+			for (int k = 0; k < numberOfFactors; k++) {
+				int offsetK = k * length - blockStart;
+				for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+					double weightedSensitivity = workspace[offsetK + pathIndex];
+					aggregated[pathIndex] += weightedSensitivity * weightedSensitivity;
+					factorsS[pathIndex] += weightedSensitivity;
+				}
+				for (int l = k + 1; l < numberOfFactors; l++) {
+					double weight = weights[k][l];
+					if (weight == 0.0) {
+						continue;
+					}
+					int offsetL = l * length - blockStart;
+					for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+						aggregated[pathIndex] += weight * workspace[offsetK + pathIndex] * workspace[offsetL + pathIndex];
+					}
+				}
+			}
+
+			for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+				double k = Math.sqrt(aggregated[pathIndex]);
+				aggregated[pathIndex] = k;
+				factorsS[pathIndex] = Math.max(Math.min(factorsS[pathIndex], k), -k);
+			}
+		}
+
+		/**
+		 * Calculates the gradient of the margin w.r.t. the net sensitivities of all indices of the intra-bucket correlation on the paths of a block.
+		 * The workspace holds the cross-currency terms &sum;<sub>c &ne; b</sub> 2 &gamma; g<sub>bc</sub> S<sub>c</sub> after the weighted sensitivities.
+		 *
+		 * With q = &part;M/&part;S<sub>b</sub> the derivative w.r.t. WS<sub>k</sub> is (&rho; WS)<sub>k</sub> / M + q if S<sub>b</sub> is the sum of the
+		 * weighted sensitivities and (K<sub>b</sub>/M &plusmn; q) (&rho; WS)<sub>k</sub> / K<sub>b</sub> if S<sub>b</sub> = &plusmn;K<sub>b</sub>.
+		 */
+		private void differentiate(int blockStart, int blockEnd, double[] workspace, double[] concentrationFactors, double[] aggregated, double[] margin, double[][] gradient) {
+			int length = blockEnd - blockStart;
+			int offsetCross = numberOfFactors * length - blockStart;
+			int offsetLinear = offsetCross + length;
+			int offsetConstant = offsetLinear + length;
+
+			setWeightedSensitivities(blockStart, blockEnd, workspace, concentrationFactors);
+
+			// The coefficients of (rho WS)_k and the constant of the derivative w.r.t. WS_k
+			for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+				workspace[offsetLinear + pathIndex] = 0.0;
+				workspace[offsetConstant + pathIndex] = 0.0;
+			}
+			for (int k = 0; k < numberOfFactors; k++) {
+				int offsetK = k * length - blockStart;
+				for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+					workspace[offsetConstant + pathIndex] += workspace[offsetK + pathIndex];
+				}
+			}
+			for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+				double m = margin[pathIndex];
+				double sum = workspace[offsetConstant + pathIndex];
+				double k = aggregated[pathIndex];
+				double linear = 0.0;
+				double constant = 0.0;
+				if (m > 0.0) {
+					double q = workspace[offsetCross + pathIndex] / (2.0 * m);
+					if (sum > k) {
+						linear = k > 0.0 ? (k / m + q) / k : 0.0;
+					} else if (sum < -k) {
+						linear = k > 0.0 ? (k / m - q) / k : 0.0;
+					} else {
+						linear = 1.0 / m;
+						constant = q;
+					}
+				}
+				workspace[offsetLinear + pathIndex] = linear;
+				workspace[offsetConstant + pathIndex] = constant;
+			}
+
+			for (int index = 0; index < dimension; index++) {
+				double[] gradientIndex = gradient[index];
+				double[] correlationsIndex = correlations[index];
+				for (int l = 0; l < numberOfFactors; l++) {
+					double correlation = correlationsIndex[l];
+					if (correlation == 0.0) {
+						continue;
+					}
+					int offsetL = l * length - blockStart;
+					for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+						gradientIndex[pathIndex] += correlation * workspace[offsetL + pathIndex];
+					}
+				}
+				double riskWeight = positionRiskWeights[index];
+				boolean isWeightedByConcentrationFactor = index != dimension - 1;
+				for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+					double derivative = workspace[offsetLinear + pathIndex] * gradientIndex[pathIndex] + workspace[offsetConstant + pathIndex];
+					gradientIndex[pathIndex] = derivative * riskWeight * (isWeightedByConcentrationFactor ? concentrationFactors[pathIndex] : 1.0);
+				}
+			}
+		}
+
+		/**
+		 * Returns the index of a curve and tenor in the intra-bucket correlation.
+		 */
+		private int getIndex(int curveIndex, int tenorIndex) {
+			return curveIndex < numberOfCurves ? curveIndex * numberOfTenors + tenorIndex : numberOfCurves * numberOfTenors + curveIndex - numberOfCurves;
+		}
+
+		/**
+		 * Calculate the weighted sensitivities of the paths of a block into the workspace, factor-major.
+		 */
+		private void setWeightedSensitivities(int blockStart, int blockEnd, double[] workspace, double[] concentrationFactors) {
+			int length = blockEnd - blockStart;
+			for (int k = 0; k < numberOfFactors; k++) {
+				double[] valuesK = values[k];
+				double riskWeight = riskWeights[k];
+				int offset = k * length - blockStart;
+				if (!isCcyBasis[k]) {
+					for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+						workspace[offset + pathIndex] = valuesK[pathIndex] * riskWeight * concentrationFactors[pathIndex];
+					}
+				} else {
+					for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+						workspace[offset + pathIndex] = valuesK[pathIndex] * riskWeight;
+					}
+				}
+			}
+		}
+	}
+}
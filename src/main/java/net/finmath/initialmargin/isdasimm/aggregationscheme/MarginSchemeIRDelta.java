@@ -1,8 +1,11 @@
 package net.finmath.initialmargin.isdasimm.aggregationscheme;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
 
+import org.apache.commons.lang3.ArrayUtils;
+
 import net.finmath.montecarlo.RandomVariable;
 import net.finmath.stochastic.RandomVariableInterface;
 
@@ -25,9 +28,23 @@ public class MarginSchemeIRDelta {
 	String riskClassKey;
 	String[] bucketKeys;
 	final String riskTypeKey = "delta";
+	private final IRDeltaMarginKernel kernel;
 
 	public MarginSchemeIRDelta(CalculationSchemeInitialMarginISDA calculationSchemeInitialMarginISDA,
 			String productClassKey) {
+		this(calculationSchemeInitialMarginISDA, productClassKey, IRDeltaMarginKernel.getDefaultInstance());
+	}
+
+	/**
+	 * Create the interest rate delta margin scheme of a product class.
+	 *
+	 * @param calculationSchemeInitialMarginISDA The calculation scheme providing the parameters and net sensitivities
+	 * @param productClassKey                    The product class
+	 * @param kernel                             The kernel aggregating the currencies, determines the pool on which they are processed
+	 */
+	public MarginSchemeIRDelta(CalculationSchemeInitialMarginISDA calculationSchemeInitialMarginISDA,
+			String productClassKey, IRDeltaMarginKernel kernel) {
+		this.kernel = kernel;
 		this.calculationSchemeInitialMarginISDA = calculationSchemeInitialMarginISDA;
 		this.riskClassKey = "INTEREST_RATE";
 		this.productClassKey = productClassKey;
@@ -41,191 +58,139 @@ public class MarginSchemeIRDelta {
 			return new RandomVariable(atTime, 0.0);
 		}
 
-		RandomVariableInterface[] S1Contributions = new RandomVariableInterface[this.bucketKeys.length];
-		RandomVariableInterface[] KContributions = new RandomVariableInterface[this.bucketKeys.length];
-		int i = 0;
-
-		RandomVariableInterface[] concentrationFactors = new RandomVariableInterface[this.bucketKeys.length];
-		for (String bucketKey : this.bucketKeys) {
-			RandomVariableInterface[][] netSensitivities = this.getNetSensitivities(bucketKey, atTime);
-			concentrationFactors[i] = getConcentrationRiskFactor(bucketKey, netSensitivities, atTime);
-			RandomVariableInterface K1 = this.getAggregatedSensitivityForBucket(bucketKey, netSensitivities, concentrationFactors[i], atTime);
-			RandomVariableInterface S1 = this.getFactorS(bucketKey, K1, netSensitivities, concentrationFactors[i], atTime);
-			S1Contributions[i] = S1;
-			KContributions[i] = K1;
-			i++;
-		}
-
-		RandomVariableInterface deltaMargin = null;
-		RandomVariableInterface VarCovar = null;
-		Double[][] correlationMatrix = null;
-
-		double singleCorrelation = calculationSchemeInitialMarginISDA.getParameterCollection().IRCorrelationCrossCurrency;
-		correlationMatrix = new Double[this.bucketKeys.length][this.bucketKeys.length];
-		for (i = 0; i < bucketKeys.length; i++) {
-			for (int j = 0; j < bucketKeys.length; j++) {
-				if (i != j) {
-					correlationMatrix[i][j] = getParameterG(concentrationFactors[i], concentrationFactors[j]).getAverage() * singleCorrelation;
-				}
-			}
-		}
-		VarCovar = CalculationSchemeInitialMarginISDA.getVarianceCovarianceAggregation(S1Contributions, correlationMatrix);
+		// The net sensitivities [currency][curve][tenor] of all products, calculated in one pass over the products
+		RandomVariableInterface[][][] netSensitivityTensor = getNetSensitivities(atTime);
 
+		Map<String, Double[][]> riskWeightMap = calculationSchemeInitialMarginISDA.getParameterCollection().MapRiskClassRiskweightMap.get(riskTypeKey).get("INTEREST_RATE");
+		return kernel.getDeltaMargin(netSensitivityTensor, getTenorRiskWeights(), getConcentrationThresholds(),
+				riskWeightMap.get("inflation")[0][0], riskWeightMap.get("ccybasis")[0][0], getCrossTenorCorrelation(), getCrossCurrencyCorrelation());
+	}
 
-		/*Adjustment on Diagonal*/
-		VarCovar = VarCovar.squared();
-		RandomVariableInterface SSumSQ = null;
-		RandomVariableInterface KSumSQ = null;
-		for (int k = 0; k < S1Contributions.length; k++) {
-			SSumSQ = SSumSQ == null ? SSumSQ = S1Contributions[k].squared() : SSumSQ.add(S1Contributions[k].squared());
-			KSumSQ = KSumSQ == null ? KSumSQ = KContributions[k].squared() : KSumSQ.add(KContributions[k].squared());
+	/**
+	 * Returns the path-wise gradient of the margin w.r.t. the net sensitivities [currency][risk factor][tenor], where the currencies are the
+	 * bucket keys and the risk factors are given by {@link #getRiskFactors()}. Inflation and ccybasis have a single tenor. The concentration
+	 * risk factors are kept fixed, hence the products of the gradient and the net sensitivities add up to the margin
+	 * (see {@link IRDeltaMarginKernel#getDeltaMarginGradient}).
+	 *
+	 * @param atTime The time of evaluation
+	 * @return The gradient [currency][risk factor][tenor]
+	 */
+	public RandomVariableInterface[][][] getGradient(double atTime) {
+		if (this.bucketKeys.length == 0) {
+			return new RandomVariableInterface[0][][];
 		}
-		VarCovar = VarCovar.sub(SSumSQ).add(KSumSQ);
-		deltaMargin = VarCovar.sqrt();
+		return getMarginAndGradient(getNetSensitivities(atTime)).getGradient();
+	}
 
-		return deltaMargin;
+	/**
+	 * Returns the margin and its path-wise gradient w.r.t. given net sensitivities [currency][risk factor][tenor] (see {@link #getGradient(double)}),
+	 * from a single aggregation. The caller provides the net sensitivities, e.g. added up from the sensitivities of the products it allocates to.
+	 *
+	 * @param netSensitivityTensor The net sensitivities [currency][risk factor][tenor] of the bucket keys and the risk factors of {@link #getRiskFactors()}
+	 * @return The margin and its gradient [currency][risk factor][tenor]
+	 */
+	public IRDeltaMarginKernel.MarginAndGradient getMarginAndGradient(RandomVariableInterface[][][] netSensitivityTensor) {
+		Map<String, Double[][]> riskWeightMap = calculationSchemeInitialMarginISDA.getParameterCollection().MapRiskClassRiskweightMap.get(riskTypeKey).get("INTEREST_RATE");
+		return kernel.getDeltaMarginAndGradient(netSensitivityTensor, getTenorRiskWeights(), getConcentrationThresholds(),
+				riskWeightMap.get("inflation")[0][0], riskWeightMap.get("ccybasis")[0][0], getCrossTenorCorrelation(), getCrossCurrencyCorrelation());
 	}
 
-	private RandomVariableInterface[][] getNetSensitivities(String bucketKey, double atTime) {
-		int nTenors = calculationSchemeInitialMarginISDA.getParameterCollection().IRMaturityBuckets.length;
-		int nCurves = calculationSchemeInitialMarginISDA.getParameterCollection().IRCurveIndexNames.length; //calculationSchemeInitialMarginISDA.getIRCurveIndexNames().length;
-		RandomVariableInterface[][] netSensitivities = new RandomVariableInterface[nCurves][nTenors];
+	/**
+	 * Returns the risk factors of a currency, i.e., the IR curve index names followed by "inflation" and "ccybasis".
+	 *
+	 * @return The risk factors of a currency
+	 */
+	String[] getRiskFactors() {
+		String[] curveKeys = calculationSchemeInitialMarginISDA.getParameterCollection().IRCurveIndexNames;
+		String[] riskFactors = Arrays.copyOf(curveKeys, curveKeys.length + 2);
+		riskFactors[curveKeys.length] = "inflation";
+		riskFactors[curveKeys.length + 1] = "ccybasis";
+		return riskFactors;
+	}
 
-		for (int iCurve = 0; iCurve < nCurves; iCurve++) {
-			String curveKey = calculationSchemeInitialMarginISDA.getParameterCollection().IRCurveIndexNames[iCurve];
+	/**
+	 * Returns the net sensitivities [currency][curve][tenor] of all products. The curves are the risk factors of {@link #getRiskFactors()},
+	 * for inflation and ccybasis only the first tenor is used.
+	 */
+	private RandomVariableInterface[][][] getNetSensitivities(double atTime) {
+		return calculationSchemeInitialMarginISDA.getNetSensitivities(this.productClassKey, this.riskClassKey, this.bucketKeys, getRiskFactors(), this.riskTypeKey, atTime);
+	}
 
-			for (int iTenor = 0; iTenor < nTenors; iTenor++) {
-				String maturityBucketKey = calculationSchemeInitialMarginISDA.getParameterCollection().IRMaturityBuckets[iTenor];
-				netSensitivities[iCurve][iTenor] = calculationSchemeInitialMarginISDA.getNetSensitivity(this.productClassKey, this.riskClassKey, maturityBucketKey, curveKey, bucketKey, "delta", atTime);
-			}
+	private double[][] getTenorRiskWeights() {
+		double[][] riskWeights = new double[this.bucketKeys.length][];
+		for (int i = 0; i < this.bucketKeys.length; i++) {
+			riskWeights[i] = ArrayUtils.toPrimitive(getRiskWeights(bucketKeys[i]));
 		}
-		return netSensitivities;
+		return riskWeights;
 	}
 
-	private RandomVariableInterface getAggregatedSensitivityForBucket(String bucketKey, RandomVariableInterface[][] netSensitivities, RandomVariableInterface concentrationRiskFactor, double atTime) {
-		RandomVariableInterface aggregatedSensi = null;
+	private double[] getConcentrationThresholds() {
+		double[] concentrationThresholds = new double[this.bucketKeys.length];
+		for (int i = 0; i < this.bucketKeys.length; i++) {
+			concentrationThresholds[i] = getConcentrationThreshold(bucketKeys[i]);
+		}
+		return concentrationThresholds;
+	}
 
-		int nTenors = calculationSchemeInitialMarginISDA.getParameterCollection().IRMaturityBuckets.length;
-		int nCurves = calculationSchemeInitialMarginISDA.getParameterCollection().IRCurveIndexNames.length;
+	private double[][] getCrossTenorCorrelation() {
+		return calculationSchemeInitialMarginISDA.getParameterCollection().getIntraBucketCorrelations(riskClassKey);
+	}
 
-		int dimensionTotal = nTenors * nCurves + 2;
-		RandomVariableInterface[] contributions = new RandomVariableInterface[dimensionTotal];
+	private double getCrossCurrencyCorrelation() {
+		return calculationSchemeInitialMarginISDA.getParameterCollection().IRCorrelationCrossCurrency;
+	}
 
-		for (int iCurve = 0; iCurve < nCurves; iCurve++) {
-			for (int iTenor = 0; iTenor < nTenors; iTenor++) {
-				String curveKey = calculationSchemeInitialMarginISDA.getParameterCollection().IRCurveIndexNames[iCurve];
-				RandomVariableInterface iBucketSensi = this.getWeightedNetSensitivity(iTenor, iCurve, curveKey, bucketKey, netSensitivities, concentrationRiskFactor, atTime);
-				contributions[iCurve * nTenors + iTenor] = iBucketSensi;
-			}
-		}
+	private Double[] getRiskWeights(String bucketKey) {
+		String currencyMapKey = getCurrencyMapKey(bucketKey).replace("_Traded", "").replace("_Well", "").replace("_Less", "");
+		return calculationSchemeInitialMarginISDA.getParameterCollection().MapRiskClassRiskweightMap.get(riskTypeKey).get("INTEREST_RATE").get(currencyMapKey)[0];
+	}
 
-		RandomVariableInterface inflationSensi = this.getWeightedNetSensitivity(0, 0, "inflation", bucketKey, netSensitivities, concentrationRiskFactor, atTime);
-		RandomVariableInterface ccyBasisSensi = this.getWeightedNetSensitivity(0, 0, "ccybasis", bucketKey, netSensitivities, concentrationRiskFactor, atTime);
-		contributions[dimensionTotal - 2] = inflationSensi;
-		contributions[dimensionTotal - 1] = ccyBasisSensi;
-
-		Double[][] crossTenorCorrelation = calculationSchemeInitialMarginISDA.getParameterCollection().MapRiskClassCorrelationIntraBucketMap.get(riskClassKey);
-
-		aggregatedSensi = CalculationSchemeInitialMarginISDA.getVarianceCovarianceAggregation(contributions, crossTenorCorrelation);
-
-		return aggregatedSensi;
-	}
-
-	private RandomVariableInterface getWeightedNetSensitivity(int iRateTenor, int iIndex, String indexName, String bucketKey, RandomVariableInterface[][] netSensitivities, RandomVariableInterface concentrationRiskFactor, double atTime) {
-		double riskWeight = 0;
-
-		if (!indexName.equals("inflation") && !indexName.equals("ccybasis")) {
-			Optional<Map.Entry<String, String>> optional = calculationSchemeInitialMarginISDA.getParameterCollection().IRCurrencyMap.entrySet().stream().filter(entry -> entry.getKey().contains(bucketKey)).findAny();
-			String currencyMapKey;
-			if (!optional.isPresent()) {
-				currencyMapKey = "High_Volatility_Currencies";
-			} else {
-				currencyMapKey = optional.get().getValue();
-			}
-			currencyMapKey = currencyMapKey.replace("_Traded", "").replace("_Well", "").replace("_Less", "");
-			Double[] riskWeights = calculationSchemeInitialMarginISDA.getParameterCollection().MapRiskClassRiskweightMap.get(riskTypeKey).get("INTEREST_RATE").get(currencyMapKey)[0];
-			riskWeight = riskWeights[iRateTenor];
-			RandomVariableInterface netSensi = netSensitivities[iIndex][iRateTenor];
-			if (netSensi != null) {
-				return netSensi.mult(riskWeight).mult(concentrationRiskFactor);
-			} else {
-				// @TODO: Should use factory here
-				return new RandomVariable(atTime, 0.0);
-			}
-		} else { /* Inflation or CCYBasis*/
-			riskWeight = calculationSchemeInitialMarginISDA.getParameterCollection().MapRiskClassRiskweightMap.get(riskTypeKey).get("INTEREST_RATE").get(indexName)[0][0];
-			String maturityBucket = calculationSchemeInitialMarginISDA.getParameterCollection().IRMaturityBuckets[iRateTenor];
-			RandomVariableInterface netSensi = calculationSchemeInitialMarginISDA.getNetSensitivity(this.productClassKey, this.riskClassKey, maturityBucket, indexName, bucketKey, this.riskTypeKey, atTime);
-			if (netSensi != null) {
-				netSensi = netSensi.mult(riskWeight);
-				if (!indexName.equals("ccybasis")) {
-					netSensi = netSensi.mult(concentrationRiskFactor);
-				}
-				return netSensi;
-			} else {
-				return null;
-			}
-		}
+	private double getConcentrationThreshold(String bucketKey) {
+		return calculationSchemeInitialMarginISDA.getParameterCollection().MapRiskClassThresholdMap.get(this.riskTypeKey).get(riskClassKey).get(getCurrencyMapKey(bucketKey))[0][0];
+	}
+
+	private String getCurrencyMapKey(String bucketKey) {
+		Optional<Map.Entry<String, String>> optional = calculationSchemeInitialMarginISDA.getParameterCollection().IRCurrencyMap.entrySet().stream().filter(entry -> entry.getKey().contains(bucketKey)).findAny();
+		return optional.isPresent() ? optional.get().getValue() : "High_Volatility_Currencies";
 	}
 
+	/**
+	 * @deprecated The margin is aggregated by the {@link IRDeltaMarginKernel}, use {@link IRDeltaMarginKernel#getParameterG}.
+	 */
+	@Deprecated
 	public RandomVariableInterface getParameterG(RandomVariableInterface CR1, RandomVariableInterface CR2) {
-		RandomVariableInterface min = CR1.barrier(CR1.sub(CR2), CR2, CR1);
-		RandomVariableInterface max = CR1.barrier(CR1.sub(CR2), CR1, CR2);
-		return min.div(max);
+		return IRDeltaMarginKernel.getParameterG(CR1, CR2);
 	}
 
+	/**
+	 * Returns the factor S of a currency.
+	 *
+	 * @param bucketKey               The currency
+	 * @param K                       The aggregated weighted sensitivity K of the currency
+	 * @param netSensitivities        The net sensitivities [curve][tenor] of the currency, with the rows inflation and ccybasis after the IR curves
+	 * @param concentrationRiskFactor The concentration risk factor of the currency
+	 * @param atTime                  The time of evaluation
+	 * @return The factor S
+	 * @deprecated The margin is aggregated by the {@link IRDeltaMarginKernel}, use {@link IRDeltaMarginKernel#getFactorS}.
+	 */
+	@Deprecated
 	public RandomVariableInterface getFactorS(String bucketKey, RandomVariableInterface K, RandomVariableInterface[][] netSensitivities, RandomVariableInterface concentrationRiskFactor, double atTime) {
-		RandomVariableInterface sum = this.getWeightedSensitivitySum(bucketKey, netSensitivities, concentrationRiskFactor, atTime);
-		RandomVariableInterface S1 = K.barrier(sum.sub(K), K, sum);
-		RandomVariableInterface KNegative = K.mult(-1);
-		S1 = S1.barrier(S1.sub(KNegative), S1, KNegative);
-		return S1;
-	}
-
-	private RandomVariableInterface getWeightedSensitivitySum(String bucketKey, RandomVariableInterface[][] netSensitivities, RandomVariableInterface concentrationRiskFactor, double atTime) {
-		RandomVariableInterface aggregatedSensi = new RandomVariable(atTime, 0.0);
-
-		for (int iIndex = 0; iIndex < calculationSchemeInitialMarginISDA.getParameterCollection().IRCurveIndexNames.length; iIndex++) {
-			for (int iTenor = 0; iTenor < calculationSchemeInitialMarginISDA.getParameterCollection().IRMaturityBuckets.length; iTenor++) {
-				String key = calculationSchemeInitialMarginISDA.getParameterCollection().IRCurveIndexNames[iIndex];
-				RandomVariableInterface summand = getWeightedNetSensitivity(iTenor, iIndex, key, bucketKey, netSensitivities, concentrationRiskFactor, atTime);
-				if (summand != null) {
-					aggregatedSensi = aggregatedSensi == null ? aggregatedSensi = summand : aggregatedSensi.add(summand);
-				}
-			}
-		}
-		RandomVariableInterface inflationSensi = this.getWeightedNetSensitivity(0, 0, "inflation", bucketKey, netSensitivities, concentrationRiskFactor, atTime);
-		RandomVariableInterface ccyBasisSensi = this.getWeightedNetSensitivity(0, 0, "ccybasis", bucketKey, netSensitivities, concentrationRiskFactor, atTime);
-		return aggregatedSensi.add(inflationSensi.add(ccyBasisSensi));
+		Map<String, Double[][]> riskWeightMap = calculationSchemeInitialMarginISDA.getParameterCollection().MapRiskClassRiskweightMap.get(riskTypeKey).get("INTEREST_RATE");
+		return IRDeltaMarginKernel.getFactorS(netSensitivities, ArrayUtils.toPrimitive(getRiskWeights(bucketKey)),
+				riskWeightMap.get("inflation")[0][0], riskWeightMap.get("ccybasis")[0][0], concentrationRiskFactor, K);
 	}
 
+	/**
+	 * Returns the concentration risk factor of a currency.
+	 *
+	 * @param bucketKey        The currency
+	 * @param netSensitivities The net sensitivities [curve][tenor] of the currency, with the rows inflation and ccybasis after the IR curves
+	 * @param atTime           The time of evaluation
+	 * @return The concentration risk factor
+	 * @deprecated The margin is aggregated by the {@link IRDeltaMarginKernel}, use {@link IRDeltaMarginKernel#getConcentrationRiskFactor}.
+	 */
+	@Deprecated
 	public RandomVariableInterface getConcentrationRiskFactor(String bucketKey, RandomVariableInterface[][] netSensitivities, double atTime) {
-		RandomVariableInterface sensitivitySum = new RandomVariable(atTime, 0.0);
-		for (int iIndex = 0; iIndex < calculationSchemeInitialMarginISDA.getParameterCollection().IRCurveIndexNames.length; iIndex++) {
-			for (int iTenor = 0; iTenor < calculationSchemeInitialMarginISDA.getParameterCollection().IRMaturityBuckets.length; iTenor++) {
-				String key = calculationSchemeInitialMarginISDA.getParameterCollection().IRCurveIndexNames[iIndex];
-				RandomVariableInterface summand = netSensitivities[iIndex][iTenor];//calculationSchemeInitialMarginISDA.getNetSensitivity(this.productClassKey,this.riskClassKey,iTenor,key,bucketKey,"delta",atTime);//"ccybasis",bucketKey,"delta",atTime);//getWeightedNetSensitivity(iTenor, key, bucketKey, atTime);
-				if (summand != null) {
-					sensitivitySum = sensitivitySum == null ? sensitivitySum = summand : sensitivitySum.add(summand);
-				}
-			}
-		}
-		RandomVariableInterface inflationSensi = calculationSchemeInitialMarginISDA.getNetSensitivity(this.productClassKey, this.riskClassKey, "", "inflation", bucketKey, "delta", atTime);
-		if (sensitivitySum != null && inflationSensi != null) {
-			sensitivitySum = sensitivitySum.add(inflationSensi); // Inflation Sensi are included in Sum, CCYBasis not
-		}
-
-		Optional<Map.Entry<String, String>> optional = calculationSchemeInitialMarginISDA.getParameterCollection().IRCurrencyMap.entrySet().stream().filter(entry -> entry.getKey().contains(bucketKey)).findAny();
-		String currencyMapKey;
-		if (!optional.isPresent()) {
-			currencyMapKey = "High_Volatility_Currencies";
-		} else {
-			currencyMapKey = optional.get().getValue();
-		}
-
-		double concentrationThreshold = calculationSchemeInitialMarginISDA.getParameterCollection().MapRiskClassThresholdMap.get(this.riskTypeKey).get(riskClassKey).get(currencyMapKey)[0][0];
-		RandomVariableInterface CR = (sensitivitySum.abs().div(concentrationThreshold)).sqrt();
-		CR = CR.barrier(CR.sub(1.0), CR, 1.0);
-		return CR;
+		return IRDeltaMarginKernel.getConcentrationRiskFactor(netSensitivities, getConcentrationThreshold(bucketKey));
 	}
 }
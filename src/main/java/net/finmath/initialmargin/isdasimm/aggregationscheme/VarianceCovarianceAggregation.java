@@ -0,0 +1,130 @@
+package net.finmath.initialmargin.isdasimm.aggregationscheme;
+
+import java.util.Arrays;
+
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+
+/**
+ * Path-wise variance covariance aggregation sqrt(&sum;<sub>i,j</sub> &rho;<sub>ij</sub> x<sub>i</sub> x<sub>j</sub>) of SIMM contributions.
+ *
+ * The quadratic form is evaluated on blocks of paths into a single output array, using the symmetry of the correlation, i.e.,
+ * the diagonal terms x<sub>i</sub><sup>2</sup> and the terms 2 &rho;<sub>ij</sub> x<sub>i</sub> x<sub>j</sub> for i &lt; j.
+ * The diagonal of the correlation is not read (it is one). Contributions which are <code>null</code> are ignored.
+ * If all contributions are <code>null</code>, the aggregation is <code>null</code>.
+ */
+public final class VarianceCovarianceAggregation {
+
+	private static final int BLOCK_SIZE = 1024;
+
+	private VarianceCovarianceAggregation() {
+	}
+
+	/**
+	 * Aggregate contributions with a correlation matrix.
+	 *
+	 * @param contributions The contributions x<sub>i</sub> (may contain <code>null</code>)
+	 * @param correlation   The correlation matrix &rho;<sub>ij</sub>. Only the entries i &lt; j of non-null contributions are read.
+	 * @return sqrt(&sum;<sub>i,j</sub> &rho;<sub>ij</sub> x<sub>i</sub> x<sub>j</sub>) or <code>null</code> if all contributions are <code>null</code>
+	 */
+	public static RandomVariableInterface getAggregation(RandomVariableInterface[] contributions, double[][] correlation) {
+		return getAggregation(contributions, correlation, Double.NaN);
+	}
+
+	/**
+	 * Aggregate contributions with the same correlation for all pairs.
+	 *
+	 * @param contributions The contributions x<sub>i</sub> (may contain <code>null</code>)
+	 * @param correlation   The correlation &rho; of all pairs i &ne; j
+	 * @return sqrt(&sum;<sub>i</sub> x<sub>i</sub><sup>2</sup> + &sum;<sub>i &ne; j</sub> &rho; x<sub>i</sub> x<sub>j</sub>) or <code>null</code> if all contributions are <code>null</code>
+	 */
+	public static RandomVariableInterface getAggregation(RandomVariableInterface[] contributions, double correlation) {
+		return getAggregation(contributions, null, correlation);
+	}
+
+	/**
+	 * Convert a correlation matrix of boxed values. Entries which are <code>null</code> (e.g. an unset diagonal) are converted to NaN.
+	 *
+	 * @param correlation The correlation matrix
+	 * @return The correlation matrix as primitive array
+	 */
+	public static double[][] toPrimitive(Double[][] correlation) {
+		double[][] primitiveCorrelation = new double[correlation.length][];
+		for (int i = 0; i < correlation.length; i++) {
+			primitiveCorrelation[i] = new double[correlation[i].length];
+			for (int j = 0; j < correlation[i].length; j++) {
+				primitiveCorrelation[i][j] = correlation[i][j] != null ? correlation[i][j] : Double.NaN;
+			}
+		}
+		return primitiveCorrelation;
+	}
+
+	private static RandomVariableInterface getAggregation(RandomVariableInterface[] contributions, double[][] correlationMatrix, double constantCorrelation) {
+
+		// The non-null contributions
+		int[] indices = new int[contributions.length];
+		int numberOfContributions = 0;
+		int numberOfPaths = 1;
+		double filtrationTime = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < contributions.length; i++) {
+			RandomVariableInterface contribution = contributions[i];
+			if (contribution == null) {
+				continue;
+			}
+			indices[numberOfContributions++] = i;
+			filtrationTime = Math.max(filtrationTime, contribution.getFiltrationTime());
+			if (!contribution.isDeterministic()) {
+				if (numberOfPaths > 1 && contribution.size() != numberOfPaths) {
+					throw new IllegalArgumentException("Contributions must have the same number of paths.");
+				}
+				numberOfPaths = contribution.size();
+			}
+		}
+		if (numberOfContributions == 0) {
+			return null;
+		}
+
+		// Symmetric weights 2 rho_ij of the pairs i < j
+		double[][] weights = new double[numberOfContributions][numberOfContributions];
+		for (int k = 0; k < numberOfContributions; k++) {
+			for (int l = k + 1; l < numberOfContributions; l++) {
+				double correlation = correlationMatrix != null ? correlationMatrix[indices[k]][indices[l]] : constantCorrelation;
+				weights[k][l] = 2.0 * correlation;
+			}
+		}
+
+		double[][] values = new double[numberOfContributions][];
+		for (int k = 0; k < numberOfContributions; k++) {
+			RandomVariableInterface contribution = contributions[indices[k]];
+			if (contribution.isDeterministic()) {
+				values[k] = new double[numberOfPaths];
+				Arrays.fill(values[k], contribution.get(0));
+			} else {
+				values[k] = contribution.getRealizations();
+			}
+		}
+
+		double[] result = new double[numberOfPaths];
+		for (int blockStart = 0; blockStart < numberOfPaths; blockStart += BLOCK_SIZE) {
+			int blockEnd = Math.min(blockStart + BLOCK_SIZE, numberOfPaths);
+			for (int k = 0; k < numberOfContributions; k++) {
+				double[] valuesK = values[k];
+				for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+					result[pathIndex] += valuesK[pathIndex] * valuesK[pathIndex];
+				}
+				for (int l = k + 1; l < numberOfContributions; l++) {
+					double weight = weights[k][l];
+					double[] valuesL = values[l];
+					for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+						result[pathIndex] += weight * valuesK[pathIndex] * valuesL[pathIndex];
+					}
+				}
+			}
+			for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+				result[pathIndex] = Math.sqrt(result[pathIndex]);
+			}
+		}
+
+		return numberOfPaths == 1 ? new RandomVariable(filtrationTime, result[0]) : new RandomVariable(filtrationTime, result);
+	}
+}
@@ -17,6 +17,7 @@ import net.finmath.initialmargin.isdasimm.changedfinmath.LIBORModelMonteCarloSim
 import net.finmath.initialmargin.isdasimm.sensitivity.AbstractSIMMSensitivityCalculation;
 import net.finmath.initialmargin.isdasimm.sensitivity.AbstractSIMMSensitivityCalculation.SensitivityMode;
 import net.finmath.initialmargin.isdasimm.sensitivity.AbstractSIMMSensitivityCalculation.WeightMode;
+import net.finmath.initialmargin.isdasimm.sensitivity.BatchedConditionalExpectationRegression;
 import net.finmath.initialmargin.isdasimm.sensitivity.SIMMSensitivityCalculation;
 import net.finmath.montecarlo.RandomVariable;
 import net.finmath.montecarlo.automaticdifferentiation.RandomVariableDifferentiableInterface;
@@ -69,6 +70,8 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 	protected LIBORModelMonteCarloSimulationInterface modelCache;
 	protected double lastEvaluationTime = -1;
 	protected ConditionalExpectationEstimatorInterface conditionalExpectationOperator;
+	private double conditionalExpectationTime = Double.NaN;   // The time and model of the conditional expectation operator
+	private LIBORModelMonteCarloSimulationInterface conditionalExpectationModel = null;
 	protected AbstractSIMMSensitivityCalculation sensitivityCalculationScheme;
 	private CalculationSchemeInitialMarginISDA simmScheme;
 
@@ -86,10 +89,18 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 
 	/**
 	 * The cache for the exact delta sensitivities as given by AAD (or analytic). Unlike the map
-	 * "deltaAtTime", this map is not cleared if evaluationTime differs from lastEvaluationTime
+	 * "deltaAtTime", this cache is not cleared if evaluationTime differs from lastEvaluationTime.
+	 * It is created for the time discretization of the model upon first use.
 	 */
-	private HashMap<Double /*time*/, List<HashMap<String/*RiskClass*/, List<HashMap<String/*curveIndexName*/,
-	RandomVariableInterface[]>>>>> exactDeltaCache = new HashMap<Double /*time*/, List<HashMap<String/*RiskClass*/, List<HashMap<String/*curveIndexName*/, RandomVariableInterface[]>>>>>();
+	private ExactDeltaCache exactDeltaCache = null;
+	private long exactDeltaCacheMaximumSizeInBytes = Runtime.getRuntime().maxMemory() / 8;
+
+	/**
+	 * The delta sensitivities of the risk class INTEREST_RATE calculated in advance for all times of an MVA calculation
+	 * (see <code> getMVA </code>). The function <code> getSensitivity </code> reads the sensitivities from this map
+	 * instead of calculating them time by time. The map is cleared if the sensitivity calculation is reset.
+	 */
+	private Map<Double/*evaluationTime*/, Map<String/*curveIndexName*/, RandomVariableInterface[]>> deltaSweep = new HashMap<>();
 
 	//private RandomVariableInterface vegaSensitivity=null;
 
@@ -143,18 +154,33 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 			return new RandomVariable(0.0);
 		}
 
+		setSensitivityCalculation(model, calculationCCY, sensitivityMode, liborWeightMode, interpolationStep, isUseAnalyticSwapSensis, isConsiderOISSensitivities);
+
+		return simmScheme.getValue(evaluationTime);
+	}
+
+	/**
+	 * Reset the sensitivity calculation and the SIMM scheme of this product if the model or the sensitivity modes have changed.
+	 */
+	private void setSensitivityCalculation(LIBORModelMonteCarloSimulationInterface model,
+			String calculationCCY,
+			SensitivityMode sensitivityMode,
+			WeightMode liborWeightMode,
+			double interpolationStep,
+			boolean isUseAnalyticSwapSensis,
+			boolean isConsiderOISSensitivities) throws CalculationException {
+
 		if (this.modelCache == null || !model.equals(this.modelCache) || (sensitivityCalculationScheme != null && (sensitivityMode != sensitivityCalculationScheme.getSensitivityMode() || liborWeightMode != sensitivityCalculationScheme.getWeightMode()))) { // At inception (t=0) or if the model is reset
 			setGradient(model); // Set the (new) gradient. The method setModel also clears the sensitivity maps and sets the model as modelCache.
 			this.exerciseIndicator = null;
-			this.exactDeltaCache.clear();
+			clearDeltaCache();
+			deltaSweep.clear();
 			if (this instanceof SIMMBermudanSwaption) {
 				((SIMMBermudanSwaption) this).clearSwapSensitivityMap();
 			}
 			this.sensitivityCalculationScheme = new SIMMSensitivityCalculation(sensitivityMode, liborWeightMode, interpolationStep, model, isUseAnalyticSwapSensis, isConsiderOISSensitivities);
 			this.simmScheme = new CalculationSchemeInitialMarginISDA(this, calculationCCY);
 		}
-
-		return simmScheme.getValue(evaluationTime);
 	}
 
 	// for risk weight calibration only. Not used in the thesis.
@@ -169,7 +195,8 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 		if (this.modelCache == null || !model.equals(this.modelCache) || sensitivityCalculationScheme != null) { // At inception (t=0) or if the model is reset
 			setGradient(model); // Set the (new) gradient. The method setModel also clears the sensitivity maps and sets the model as modelCache.
 			this.exerciseIndicator = null;
-			this.exactDeltaCache.clear();
+			clearDeltaCache();
+			deltaSweep.clear();
 			this.sensitivityCalculationScheme = new SIMMSensitivityCalculation(SensitivityMode.MELTINGSIMMBUCKETS, WeightMode.TIMEDEPENDENT, 1.0, model, true /*isUseAnalyticSwapSensis*/, true /*isConsiderOISSensitivities*/);
 		}
 
@@ -207,8 +234,13 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 
 						if (!deltaAtTime.containsKey(riskClass) || !deltaAtTime.get(riskClass).stream().filter(n -> n.containsKey(curveIndexName)).findAny().isPresent()) {
 
-							// The sensitivities need to be calculated for the given riskClass and riskType
-							maturityBucketSensis = sensitivityCalculationScheme.getDeltaSensitivities(this, riskClass, curveIndexName, evaluationTime, modelCache);
+							// The sensitivities need to be calculated for the given riskClass and riskType, unless they have been calculated in advance
+							Map<String, RandomVariableInterface[]> deltaSweepAtTime = deltaSweep.get(evaluationTime);
+							if (deltaSweepAtTime != null && deltaSweepAtTime.containsKey(curveIndexName)) {
+								maturityBucketSensis = deltaSweepAtTime.get(curveIndexName);
+							} else {
+								maturityBucketSensis = sensitivityCalculationScheme.getDeltaSensitivities(this, riskClass, curveIndexName, evaluationTime, modelCache);
+							}
 
 							if (isPrintSensis && curveIndexName == "Libor6m") {
 								System.out.println(evaluationTime + "\t" + maturityBucketSensis[3].getAverage() + "\t" + maturityBucketSensis[4].getAverage() + "\t" + maturityBucketSensis[5].getAverage() + "\t" + maturityBucketSensis[6].getAverage() + "\t" + maturityBucketSensis[7].getAverage() + "\t" + maturityBucketSensis[8].getAverage() + "\t" + maturityBucketSensis[9].getAverage() + "\t" + maturityBucketSensis[10].getAverage() + "\t" + maturityBucketSensis[11].getAverage());
@@ -264,6 +296,27 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 		return result;
 	} // end getSensitivity()
 
+	@Override
+	public RandomVariableInterface[] getSensitivities(String productClass,
+			String riskClass,
+			String curveIndexName,
+			String bucketKey,
+			String riskType, double evaluationTime) throws SolverException, CloneNotSupportedException, CalculationException {
+
+		// Only delta sensitivities of the risk class INTEREST_RATE are available, see getSensitivity
+		if (productClass != this.productClass || !riskClass.equals("INTEREST_RATE") || !riskType.equals("delta") || !Arrays.asList(this.riskClass).contains(riskClass)
+				|| !Arrays.asList(curveIndexNames).contains(curveIndexName) || bucketKey != this.currency) {
+			return null;
+		}
+
+		// The first call calculates the sensitivities on all maturity buckets, the others are read from the cache
+		RandomVariableInterface[] maturityBucketSensis = new RandomVariableInterface[IRMaturityBuckets.length];
+		for (int i = 0; i < IRMaturityBuckets.length; i++) {
+			maturityBucketSensis[i] = getSensitivity(productClass, riskClass, IRMaturityBuckets[i], curveIndexName, bucketKey, riskType, evaluationTime);
+		}
+		return maturityBucketSensis;
+	}
+
 	/**
 	 * Returns the cache of numeraire adjustments of the LIBOR market model. We need the numeraire adjustments
 	 * to calculate the sensitivities w.r.t. the OIS curve.
@@ -295,21 +348,22 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 	}
 
 	/**
-	 * Set the cache of exact delta sensitivities (calculated by AAD or analytically for Swaps). This cache is used in the class
-	 * <code> SIMMSensitivityCalculation </code> to obtain the sensitivities used for melting and interpolation.
+	 * Calculate the exact delta sensitivities (by AAD or analytically for Swaps) to be stored in the cache of exact delta sensitivities.
+	 * This cache is used in the class <code> SIMMSensitivityCalculation </code> to obtain the sensitivities used for melting and interpolation.
 	 *
-	 * @param riskClass      The risk class
-	 * @param curveIndexName The name of the curve (OIS or Libor6m)
-	 * @param time           The time for which the forward sensitivity is calculated
-	 * @param model          The LIBOR Market model
+	 * @param riskClass         The risk class
+	 * @param curveIndexName    The name of the curve (OIS or Libor6m)
+	 * @param time              The time for which the forward sensitivity is calculated
+	 * @param model             The LIBOR Market model
+	 * @param isMarketRateSensi true for market rate sensitivities, false for model sensitivities
+	 * @return The exact delta sensitivities
 	 * @throws SolverException
 	 * @throws CloneNotSupportedException
 	 * @throws CalculationException
 	 */
-	private void setExactDeltaCache(String riskClass, String curveIndexName,
+	private RandomVariableInterface[] calculateExactDelta(String riskClass, String curveIndexName,
 			double time, LIBORModelMonteCarloSimulationInterface model, boolean isMarketRateSensi) throws SolverException, CloneNotSupportedException, CalculationException {
 
-		// Calculate the sensitivities
 		RandomVariableInterface[] deltaSensis = null;
 		if (isMarketRateSensi) {
 			deltaSensis = sensitivityCalculationScheme.getExactDeltaSensitivities(this, curveIndexName, riskClass, time, model);
@@ -321,30 +375,7 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 				deltaSensis = getOISModelSensitivities(riskClass, time, model);
 			}
 		}
-		// Create a new element of the curveIndex List for given risk class
-		HashMap<String, RandomVariableInterface[]> curveIndexNameDeltaCache = new HashMap<String, RandomVariableInterface[]>();
-		curveIndexNameDeltaCache.put(curveIndexName, deltaSensis);
-
-		// Check if the list of riskClasses in the HashMap already exist
-		if (exactDeltaCache.containsKey(new Double(time))) {
-			if (exactDeltaCache.get(new Double(time)).stream().filter(n -> n.containsKey(riskClass)).findAny().isPresent()) {
-				exactDeltaCache.get(new Double(time)).stream().filter(n -> n.containsKey(riskClass)).findAny().get().get(riskClass).add(curveIndexNameDeltaCache);
-			} else { // there is no of risk classes. Set it.
-				List<HashMap<String/*curveIndexName*/, RandomVariableInterface[]>> curveList = new ArrayList<HashMap<String/*curveIndexName*/, RandomVariableInterface[]>>();
-				curveList.add(curveIndexNameDeltaCache);
-				HashMap<String/*RiskClass*/, List<HashMap<String/*curveIndexName*/, RandomVariableInterface[]>>> riskClassMap = new HashMap<String/*RiskClass*/, List<HashMap<String/*curveIndexName*/, RandomVariableInterface[]>>>();
-				riskClassMap.put(riskClass, curveList);
-				exactDeltaCache.get(time).add(riskClassMap);
-			}
-		} else { // no entry at time
-			List<HashMap<String/*curveIndexName*/, RandomVariableInterface[]>> curveList = new ArrayList<HashMap<String/*curveIndexName*/, RandomVariableInterface[]>>();
-			curveList.add(curveIndexNameDeltaCache);
-			HashMap<String/*RiskClass*/, List<HashMap<String/*curveIndexName*/, RandomVariableInterface[]>>> riskClassMap = new HashMap<String/*RiskClass*/, List<HashMap<String/*curveIndexName*/, RandomVariableInterface[]>>>();
-			riskClassMap.put(riskClass, curveList);
-			List<HashMap<String/*RiskClass*/, List<HashMap<String/*curveIndexName*/, RandomVariableInterface[]>>>> riskClassList = new ArrayList<HashMap<String/*RiskClass*/, List<HashMap<String/*curveIndexName*/, RandomVariableInterface[]>>>>();
-			riskClassList.add(riskClassMap);
-			exactDeltaCache.put(time, riskClassList);
-		}
+		return deltaSensis;
 	}
 
 	/**
@@ -360,7 +391,6 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 	 */
 	@Override
 	public RandomVariableInterface[] getLiborModelSensitivities(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
-		setConditionalExpectationOperator(evaluationTime, model);
 		RandomVariableDifferentiableInterface numeraire = (RandomVariableDifferentiableInterface) model.getNumeraire(evaluationTime);
 
 		// Calculate forward sensitivities
@@ -382,11 +412,14 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 			valueLiborSensitivities[0] = dVdL.mult(numeraire);
 		}
 
+		// The conditional expectations of all remaining LIBORs are calculated in one regression
+		RandomVariableInterface[] dVdLTimesNumeraire = new RandomVariableInterface[model.getNumberOfLibors() - lastLiborIndex - timeGridIndicator];
 		for (int liborIndex = lastLiborIndex + timeGridIndicator; liborIndex < model.getNumberOfLibors(); liborIndex++) {
 			RandomVariableInterface liborAtTimeIndex = model.getLIBOR(timeIndexAtEval, liborIndex);
 			RandomVariableInterface dVdL = getDerivative(liborAtTimeIndex, model);
-			valueLiborSensitivities[liborIndex - lastLiborIndex] = dVdL.mult(numeraire).getConditionalExpectation(conditionalExpectationOperator);
+			dVdLTimesNumeraire[liborIndex - lastLiborIndex - timeGridIndicator] = dVdL.mult(numeraire);
 		}
+		System.arraycopy(getConditionalExpectations(dVdLTimesNumeraire, evaluationTime, model), 0, valueLiborSensitivities, timeGridIndicator, dVdLTimesNumeraire.length);
 
 		return valueLiborSensitivities;
 	}
@@ -426,15 +459,21 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 			//Calculate derivative w.r.t. adjustment
 			ArrayList<RandomVariableInterface> dVdPList = new ArrayList<RandomVariableInterface>();
 			ArrayList<Double> relevantDiscountTimes = new ArrayList<Double>();
-			setConditionalExpectationOperator(evaluationTime, model);
 			RandomVariableInterface numeraireAtEval = model.getNumeraire(evaluationTime);
 			RandomVariableInterface adjustmentAtEval = model.getNumeraireOISAdjustmentFactor(evaluationTime);
 
+			// The conditional expectations of the derivatives w.r.t. all adjustments are calculated in one regression
+			RandomVariableInterface[] dVdAUnconditional = new RandomVariableInterface[adjustmentTimesAfterEval.length];
+			for (int i = 0; i < adjustmentTimesAfterEval.length; i++) {
+				dVdAUnconditional[i] = getDerivative(adjustmentMap.get(adjustmentTimesAfterEval[i]), model);
+			}
+			RandomVariableInterface[] dVdAConditional = getConditionalExpectations(dVdAUnconditional, evaluationTime, model);
+
 			for (int i = 0; i < adjustmentTimesAfterEval.length; i++) {
 
 				// Calculate dVdA
 				RandomVariableInterface adjustment = adjustmentMap.get(adjustmentTimesAfterEval[i]);
-				RandomVariableInterface dVdA = getDerivative(adjustment, model).getConditionalExpectation(conditionalExpectationOperator).mult(numeraireAtEval);
+				RandomVariableInterface dVdA = dVdAConditional[i].mult(numeraireAtEval);
 
 				if (!(dVdA.getMin() == 0 && dVdA.getMax() == 0)) { // If dVdA is zero the adjustment is assumed to belong to a different product.
 					// Calculate dV(t)/dP(t_cf;t) where t_cf are the cash flow times of this product
@@ -487,14 +526,25 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 	@Override
 	public RandomVariableInterface[] getExactDeltaFromCache(double time, String riskClass, String curveIndexName, boolean isMarketRateSensi) throws SolverException, CloneNotSupportedException, CalculationException {
 
-		if (!exactDeltaCache.containsKey(time) || !exactDeltaCache.get(time).stream().filter(n -> n.containsKey(riskClass)).findAny().isPresent()) {
+		ExactDeltaCache cache = getExactDeltaCache();
+		ExactDeltaCache.RiskClass riskClassKey = ExactDeltaCache.RiskClass.valueOf(riskClass);
+		RandomVariableInterface[] sensitivities = cache.get(time, riskClassKey, ExactDeltaCache.CurveIndex.valueOf(curveIndexName), isMarketRateSensi);
 
+		if (sensitivities == null) {
+			// Calculate the sensitivities of all curves of the product at once
 			for (String curveName : curveIndexNames) {
-				setExactDeltaCache(riskClass, curveName, time, modelCache, isMarketRateSensi);
+				RandomVariableInterface[] deltaSensis = calculateExactDelta(riskClass, curveName, time, modelCache, isMarketRateSensi);
+				cache.put(time, riskClassKey, ExactDeltaCache.CurveIndex.valueOf(curveName), isMarketRateSensi, deltaSensis);
+				if (curveName.equals(curveIndexName)) {
+					sensitivities = deltaSensis;
+				}
+			}
+			if (sensitivities == null) {
+				throw new IllegalArgumentException("Curve " + curveIndexName + " is not a curve of the product.");
 			}
 		}
 
-		return exactDeltaCache.get(time).stream().filter(n -> n.containsKey(riskClass)).findAny().get().get(riskClass).stream().filter(n -> n.containsKey(curveIndexName)).findAny().get().get(curveIndexName);
+		return sensitivities;
 	}
 
 
@@ -513,6 +563,7 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 		clearMaps(); //...the maps containing sensitivities are reset to null (they have to be recalculated under the new model)
 		this.modelCache = model;
 		this.gradient = null;
+		this.conditionalExpectationOperator = null;
 		this.gradient = getGradient(model);
 		this.isGradientOfDeliveryProduct = false; // for (bermudan) swaptions
 	}
@@ -543,13 +594,33 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 		return this.bucketKey;
 	}
 
-	public HashMap<Double /*time*/, List<HashMap<String/*RiskClass*/, List<HashMap<String/*curveIndexName*/,
-	RandomVariableInterface[]>>>>> getExactDeltaCache() {
+	/**
+	 * Returns the cache of exact delta sensitivities for the time discretization of the current model.
+	 *
+	 * @return The cache of exact delta sensitivities
+	 */
+	public ExactDeltaCache getExactDeltaCache() {
+		if (exactDeltaCache == null || exactDeltaCache.getTimeDiscretization() != modelCache.getTimeDiscretization()) {
+			exactDeltaCache = new ExactDeltaCache(modelCache.getTimeDiscretization(), exactDeltaCacheMaximumSizeInBytes);
+		}
 		return this.exactDeltaCache;
 	}
 
 	public void clearDeltaCache() {
-		this.exactDeltaCache.clear();
+		this.exactDeltaCache = null;
+	}
+
+	/**
+	 * Set the memory budget of the cache of exact delta sensitivities. Clears the cache.
+	 *
+	 * @param maximumSizeInBytes The maximum (estimated) number of bytes held by the cache
+	 */
+	public void setExactDeltaCacheMaximumSizeInBytes(long maximumSizeInBytes) {
+		if (maximumSizeInBytes < 0) {
+			throw new IllegalArgumentException("Maximum size must not be negative.");
+		}
+		this.exactDeltaCacheMaximumSizeInBytes = maximumSizeInBytes;
+		clearDeltaCache();
 	}
 
 	public void setSIMMSensitivityCalculation(AbstractSIMMSensitivityCalculation sensitivityCalculation) {
@@ -558,6 +629,68 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 
 	public void setNullExerciseIndicator() {
 		this.exerciseIndicator = null;
+		this.conditionalExpectationOperator = null; // The regression of products with optionality depends on the exercise indicator
+	}
+
+	/**
+	 * Returns the conditional expectation operator of this product at a given evaluation time. The operator is set up (see
+	 * <code> setConditionalExpectationOperator </code>) once per evaluation time and model. If the product has a regression basis key
+	 * (see {@link #getRegressionBasisKey()}), the operator is shared with all products of the same sensitivity calculation.
+	 *
+	 * @param evaluationTime The time of the conditional expectation
+	 * @param model          The LIBOR market model
+	 * @return The conditional expectation operator
+	 * @throws CalculationException
+	 */
+	protected ConditionalExpectationEstimatorInterface getConditionalExpectationOperator(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+		if (conditionalExpectationOperator == null || evaluationTime != conditionalExpectationTime || model != conditionalExpectationModel) {
+			String basisKey = getRegressionBasisKey();
+			if (basisKey != null && sensitivityCalculationScheme != null) {
+				conditionalExpectationOperator = sensitivityCalculationScheme.getConditionalExpectationOperator(basisKey, evaluationTime, model, () -> {
+					setConditionalExpectationOperator(evaluationTime, model);
+					return conditionalExpectationOperator;
+				});
+			} else {
+				setConditionalExpectationOperator(evaluationTime, model);
+			}
+			conditionalExpectationTime = evaluationTime;
+			conditionalExpectationModel = model;
+		}
+		return conditionalExpectationOperator;
+	}
+
+	/**
+	 * Returns a key identifying the basis functions of the regression of this product. Products with the same key must have the same
+	 * basis functions at all times, such that they may share their conditional expectation operator. The default is <code> null </code>,
+	 * i.e. the operator is not shared.
+	 *
+	 * @return The key of the regression basis functions or <code> null </code>
+	 */
+	protected String getRegressionBasisKey() {
+		return null;
+	}
+
+	/**
+	 * Calculate the conditional expectations of some random variables with the conditional expectation operator of this product.
+	 * If the operator supports it, all random variables are regressed in one pass.
+	 *
+	 * @param randomVariables The random variables
+	 * @param evaluationTime  The time of the conditional expectation
+	 * @param model           The LIBOR market model
+	 * @return The conditional expectations
+	 * @throws CalculationException
+	 */
+	protected RandomVariableInterface[] getConditionalExpectations(RandomVariableInterface[] randomVariables, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+		ConditionalExpectationEstimatorInterface operator = getConditionalExpectationOperator(evaluationTime, model);
+		if (operator instanceof BatchedConditionalExpectationRegression) {
+			return ((BatchedConditionalExpectationRegression) operator).getConditionalExpectations(randomVariables);
+		}
+
+		RandomVariableInterface[] conditionalExpectations = new RandomVariableInterface[randomVariables.length];
+		for (int i = 0; i < randomVariables.length; i++) {
+			conditionalExpectations[i] = randomVariables[i].getConditionalExpectation(operator);
+		}
+		return conditionalExpectations;
 	}
 
 	protected RandomVariableInterface getDerivative(RandomVariableInterface parameter, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
@@ -584,23 +717,77 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 		return model.getLiborPeriodDiscretization().getTime(nextLiborIndex - 1);
 	}
 
+	/**
+	 * Calculate the MVA of this product. The delta sensitivities of all initial margin times are calculated in one sweep
+	 * (see {@link AbstractSIMMSensitivityCalculation#getDeltaSensitivities(AbstractSIMMProduct, String, String, TimeDiscretizationInterface, LIBORModelMonteCarloSimulationInterface)}),
+	 * such that the intermediates shared by the times are calculated once. Hence, the initial margin is evaluated on the
+	 * times of a <code> TimeDiscretization </code>, i.e., rounded to its time tick size.
+	 *
+	 * @param model           The LIBOR market model
+	 * @param sensitivityMode The sensitivity mode of the initial margin
+	 * @param weightMode      The weight mode of the sensitivity approximation
+	 * @param timeStep        The time step of the initial margin times
+	 * @param fundingSpread   The funding spread of the initial margin
+	 * @param mvaMode         The MVA calculation method
+	 * @return The MVA
+	 * @throws CalculationException
+	 */
 	public double getMVA(LIBORModelMonteCarloSimulationInterface model, SensitivityMode sensitivityMode, WeightMode weightMode, double timeStep, double fundingSpread, MVAMode mvaMode) throws CalculationException {
 		double finalMaturity = this.getFinalMaturity();
+		int numberOfTimeSteps = (int) Math.ceil((int) finalMaturity / timeStep);
+		if (numberOfTimeSteps <= 0) {
+			return 0.0;
+		}
+		TimeDiscretizationInterface initialMarginTimes = new TimeDiscretization(0.0, numberOfTimeSteps - 1, timeStep);
+
+		// Calculate the delta sensitivities of all times at once
+		setSensitivityCalculation(model, "EUR", sensitivityMode, weightMode, 1.0, false, true);
+		setDeltaSweep(initialMarginTimes);
+
 		RandomVariableInterface forwardBond;
 		RandomVariableInterface initialMargin;
 		RandomVariableInterface MVA = new RandomVariable(0.0);
-		for (int i = 0; i < ((int) finalMaturity / timeStep); i++) {
-			forwardBond = model.getNumeraire((i + 1) * timeStep).mult(Math.exp((i + 1) * timeStep * fundingSpread)).invert();
-			forwardBond = forwardBond.sub(model.getNumeraire(i * timeStep).mult(Math.exp(i * timeStep * fundingSpread)).invert());
-			initialMargin = getInitialMargin(i * timeStep, model, "EUR", sensitivityMode, weightMode, 1.0, false, true);
-			if (mvaMode == MVAMode.APPROXIMATION) {
-				initialMargin = initialMargin.average();
+		try {
+			for (int i = 0; i < numberOfTimeSteps; i++) {
+				forwardBond = model.getNumeraire((i + 1) * timeStep).mult(Math.exp((i + 1) * timeStep * fundingSpread)).invert();
+				forwardBond = forwardBond.sub(model.getNumeraire(i * timeStep).mult(Math.exp(i * timeStep * fundingSpread)).invert());
+				initialMargin = getInitialMargin(initialMarginTimes.getTime(i), model, "EUR", sensitivityMode, weightMode, 1.0, false, true);
+				if (mvaMode == MVAMode.APPROXIMATION) {
+					initialMargin = initialMargin.average();
+				}
+				MVA = MVA.add(forwardBond.mult(initialMargin));
 			}
-			MVA = MVA.add(forwardBond.mult(initialMargin));
+		} finally {
+			deltaSweep.clear();
 		}
 		return -MVA.getAverage();
 	}
 
+	/**
+	 * Calculate the delta sensitivities of the risk class INTEREST_RATE of all curves of this product at the given times
+	 * in advance, such that <code> getSensitivity </code> reads them instead of calculating them time by time.
+	 *
+	 * @param evaluationTimes The times at which the sensitivities are calculated
+	 * @throws CalculationException
+	 */
+	private void setDeltaSweep(TimeDiscretizationInterface evaluationTimes) throws CalculationException {
+		deltaSweep.clear();
+		if (!Arrays.asList(riskClass).contains("INTEREST_RATE")) {
+			return;
+		}
+		for (String curveIndexName : curveIndexNames) {
+			RandomVariableInterface[][] sensitivities;
+			try {
+				sensitivities = sensitivityCalculationScheme.getDeltaSensitivities(this, "INTEREST_RATE", curveIndexName, evaluationTimes, modelCache);
+			} catch (SolverException | CloneNotSupportedException e) {
+				throw new CalculationException(e);
+			}
+			for (int timeIndex = 0; timeIndex < evaluationTimes.getNumberOfTimes(); timeIndex++) {
+				deltaSweep.computeIfAbsent(evaluationTimes.getTime(timeIndex), time -> new HashMap<>()).put(curveIndexName, sensitivities[timeIndex]);
+			}
+		}
+	}
+
 	//----------------------------------------------------------------------------------------------------------------------------------
 	// Additional method for the case SensitivityMode.ExactConsideringDependencies, i.e. correct OIS-Libor dependence
 	// NOT USED IN THE THESIS! PRELIMINARY TRIAL
@@ -621,8 +808,7 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 
 		RandomVariableInterface numeraireAtEval = model.getNumeraire(evaluationTime);
 		Map<Long, RandomVariableInterface> gradientOfNumeraireAtEval = ((RandomVariableDifferentiableInterface) numeraireAtEval).getGradient();
-		setConditionalExpectationOperator(evaluationTime, model);
-		RandomVariableInterface productValueAtEval = getLIBORMonteCarloProduct(evaluationTime).getValue(evaluationTime, model).getConditionalExpectation(conditionalExpectationOperator);
+		RandomVariableInterface productValueAtEval = getLIBORMonteCarloProduct(evaluationTime).getValue(evaluationTime, model).getConditionalExpectation(getConditionalExpectationOperator(evaluationTime, model));
 		// Calculate forward sensitivities
 		int numberOfRemainingLibors = getNumberOfRemainingLibors(evaluationTime, model);
 		int numberOfSensis = evaluationTime == getNextLiborTime(evaluationTime, model) ? numberOfRemainingLibors : numberOfRemainingLibors + 1;
@@ -646,7 +832,7 @@ public abstract class AbstractSIMMProduct implements SIMMProductInterface {
 			RandomVariableInterface dVdN = getDerivative(numeraire, model);
 			RandomVariableInterface numeraireDerivative = gradientOfNumeraireAtEval.get(((RandomVariableDifferentiableInterface) numeraire).getID());
 			RandomVariableInterface dVdNSummand = numeraireDerivative == null ? new RandomVariable(0.0) : numeraireDerivative.mult(productValueAtEval);
-			valueNumeraireSensitivities[liborIndex - lastLiborIndex] = dVdN.mult(numeraireAtEval).getConditionalExpectation(conditionalExpectationOperator).add(dVdNSummand);
+			valueNumeraireSensitivities[liborIndex - lastLiborIndex] = dVdN.mult(numeraireAtEval).getConditionalExpectation(getConditionalExpectationOperator(evaluationTime, model)).add(dVdNSummand);
 		}
 
 		return valueNumeraireSensitivities;
@@ -0,0 +1,217 @@
+package net.finmath.initialmargin.isdasimm.products;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.time.TimeDiscretizationInterface;
+
+/**
+ * Cache for the exact delta sensitivities (calculated by AAD or analytically) of a product, used by melting and interpolation.
+ *
+ * The sensitivities are stored in a flat table keyed by the index of the time on the time discretization of the model,
+ * the risk class, the curve and the kind of sensitivity (market rate or model sensitivity). Lookups of times on the time
+ * discretization do not allocate. Times which are not on the time discretization are held in a separate map.
+ *
+ * The cache holds at most a given number of bytes (estimated from the number of realizations of the entries).
+ * If an insertion exceeds the budget, the least recently used times are evicted.
+ * The cache is not meant to be shared by products, but its methods are synchronized such that a product may be read by parallel time slices.
+ */
+public class ExactDeltaCache {
+
+	/**
+	 * The SIMM risk classes.
+	 */
+	public enum RiskClass {
+		INTEREST_RATE,
+		CREDIT_Q,
+		CREDIT_NON_Q,
+		EQUITY,
+		COMMODITY,
+		FX
+	}
+
+	/**
+	 * The index curves.
+	 */
+	public enum CurveIndex {
+		OIS,
+		Libor1m,
+		Libor3m,
+		Libor6m,
+		Libor12m
+	}
+
+	private static class TimeSlice {
+		private final RandomVariableInterface[][] sensitivities = new RandomVariableInterface[NUMBER_OF_SLOTS][];
+		private long sizeInBytes;
+		private long lastAccess;
+	}
+
+	private static final int NUMBER_OF_CURVES = CurveIndex.values().length;
+	private static final int NUMBER_OF_SLOTS = RiskClass.values().length * NUMBER_OF_CURVES * 2;
+	private static final long BYTES_PER_ENTRY_OVERHEAD = 32;
+
+	private final TimeDiscretizationInterface timeDiscretization;
+	private final long maximumSizeInBytes;
+
+	private final TimeSlice[] slices;
+	private final Map<Double, TimeSlice> offGridSlices = new HashMap<>();
+	private long accessCounter;
+	private long sizeInBytes;
+	private long evictions;
+
+	/**
+	 * Create a cache for the times of a given time discretization with a given memory budget.
+	 *
+	 * @param timeDiscretization The time discretization of the model.
+	 * @param maximumSizeInBytes The maximum (estimated) number of bytes held by the cache.
+	 */
+	public ExactDeltaCache(TimeDiscretizationInterface timeDiscretization, long maximumSizeInBytes) {
+		if (timeDiscretization == null) {
+			throw new IllegalArgumentException("Time discretization must not be null.");
+		}
+		if (maximumSizeInBytes < 0) {
+			throw new IllegalArgumentException("Maximum size must not be negative.");
+		}
+		this.timeDiscretization = timeDiscretization;
+		this.maximumSizeInBytes = maximumSizeInBytes;
+		this.slices = new TimeSlice[timeDiscretization.getNumberOfTimes()];
+	}
+
+	/**
+	 * Get the cached sensitivities.
+	 *
+	 * @param time                    The time of the sensitivities.
+	 * @param riskClass               The risk class.
+	 * @param curveIndex              The curve.
+	 * @param isMarketRateSensitivity true for market rate sensitivities, false for model sensitivities.
+	 * @return The sensitivities or <code>null</code> if they are not cached.
+	 */
+	public synchronized RandomVariableInterface[] get(double time, RiskClass riskClass, CurveIndex curveIndex, boolean isMarketRateSensitivity) {
+		TimeSlice slice = getSlice(time);
+		if (slice == null) {
+			return null;
+		}
+		slice.lastAccess = ++accessCounter;
+		return slice.sensitivities[getSlot(riskClass, curveIndex, isMarketRateSensitivity)];
+	}
+
+	/**
+	 * Store sensitivities. If the sensitivities alone exceed the memory budget they are not stored.
+	 *
+	 * @param time                    The time of the sensitivities.
+	 * @param riskClass               The risk class.
+	 * @param curveIndex              The curve.
+	 * @param isMarketRateSensitivity true for market rate sensitivities, false for model sensitivities.
+	 * @param sensitivities           The sensitivities.
+	 */
+	public synchronized void put(double time, RiskClass riskClass, CurveIndex curveIndex, boolean isMarketRateSensitivity, RandomVariableInterface[] sensitivities) {
+		long size = getSizeInBytes(sensitivities);
+		if (size > maximumSizeInBytes) {
+			return;
+		}
+
+		TimeSlice slice = getSlice(time);
+		if (slice == null) {
+			slice = new TimeSlice();
+			int timeIndex = timeDiscretization.getTimeIndex(time);
+			if (timeIndex >= 0) {
+				slices[timeIndex] = slice;
+			} else {
+				offGridSlices.put(time, slice);
+			}
+		}
+
+		int slot = getSlot(riskClass, curveIndex, isMarketRateSensitivity);
+		long previousSize = slice.sensitivities[slot] != null ? getSizeInBytes(slice.sensitivities[slot]) : 0;
+		slice.sensitivities[slot] = sensitivities;
+		slice.sizeInBytes += size - previousSize;
+		slice.lastAccess = ++accessCounter;
+		sizeInBytes += size - previousSize;
+
+		while (sizeInBytes > maximumSizeInBytes && evictLeastRecentlyUsed(slice)) {
+			evictions++;
+		}
+	}
+
+	public synchronized void clear() {
+		Arrays.fill(slices, null);
+		offGridSlices.clear();
+		sizeInBytes = 0;
+	}
+
+	public synchronized long getSizeInBytes() {
+		return sizeInBytes;
+	}
+
+	public long getMaximumSizeInBytes() {
+		return maximumSizeInBytes;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	public TimeDiscretizationInterface getTimeDiscretization() {
+		return timeDiscretization;
+	}
+
+	private TimeSlice getSlice(double time) {
+		int timeIndex = timeDiscretization.getTimeIndex(time);
+		return timeIndex >= 0 ? slices[timeIndex] : offGridSlices.get(time);
+	}
+
+	/**
+	 * Remove the least recently used time slice other than the given one.
+	 *
+	 * @return false if there is nothing to remove.
+	 */
+	private boolean evictLeastRecentlyUsed(TimeSlice protectedSlice) {
+		int victimIndex = -1;
+		Double victimTime = null;
+		TimeSlice victim = null;
+		for (int timeIndex = 0; timeIndex < slices.length; timeIndex++) {
+			TimeSlice slice = slices[timeIndex];
+			if (slice != null && slice != protectedSlice && (victim == null || slice.lastAccess < victim.lastAccess)) {
+				victimIndex = timeIndex;
+				victim = slice;
+			}
+		}
+		for (Map.Entry<Double, TimeSlice> entry : offGridSlices.entrySet()) {
+			TimeSlice slice = entry.getValue();
+			if (slice != protectedSlice && (victim == null || slice.lastAccess < victim.lastAccess)) {
+				victimIndex = -1;
+				victimTime = entry.getKey();
+				victim = slice;
+			}
+		}
+
+		if (victim == null) {
+			return false;
+		}
+		if (victimTime != null) {
+			offGridSlices.remove(victimTime);
+		} else {
+			slices[victimIndex] = null;
+		}
+		sizeInBytes -= victim.sizeInBytes;
+		return true;
+	}
+
+	private static int getSlot(RiskClass riskClass, CurveIndex curveIndex, boolean isMarketRateSensitivity) {
+		return (riskClass.ordinal() * NUMBER_OF_CURVES + curveIndex.ordinal()) * 2 + (isMarketRateSensitivity ? 1 : 0);
+	}
+
+	private static long getSizeInBytes(RandomVariableInterface[] sensitivities) {
+		long size = 0;
+		for (RandomVariableInterface sensitivity : sensitivities) {
+			size += BYTES_PER_ENTRY_OVERHEAD;
+			if (sensitivity != null) {
+				size += 8L * sensitivity.size();
+			}
+		}
+		return size;
+	}
+}
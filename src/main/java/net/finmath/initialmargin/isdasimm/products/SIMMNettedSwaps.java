@@ -0,0 +1,187 @@
+package net.finmath.initialmargin.isdasimm.products;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import net.finmath.exception.CalculationException;
+import net.finmath.initialmargin.isdasimm.changedfinmath.LIBORModelMonteCarloSimulationInterface;
+import net.finmath.initialmargin.isdasimm.sensitivity.AbstractSIMMSensitivityCalculation;
+import net.finmath.initialmargin.isdasimm.sensitivity.BatchedConditionalExpectationRegression;
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.montecarlo.interestrate.products.AbstractLIBORMonteCarloProduct;
+import net.finmath.montecarlo.interestrate.products.SimpleSwap;
+import net.finmath.stochastic.RandomVariableInterface;
+
+/**
+ * This class nets swaps of the same currency and curves into one product for SIMM initial margin calculation.
+ * The value of the netted product is the sum of the values of the swaps. Hence, with AAD, a single backward sweep
+ * provides the netted sensitivities dV/dL and dV/dP of all swaps, instead of one sweep per swap.
+ * Since swaps have no optionality, the exercise indicator is one and there is no melting reset.
+ */
+public class SIMMNettedSwaps extends AbstractSIMMProduct {
+
+	// SIMM classification
+	static final String productClass = "RATES_FX";
+	static final String[] riskClass = new String[]{"INTEREST_RATE"};
+
+	private final SIMMSimpleSwap[] swaps;
+	private final AbstractLIBORMonteCarloProduct nettedSwap;
+
+	/**
+	 * Construct the netted product of some swaps. All swaps must have the same currency and curves.
+	 *
+	 * @param swaps The swaps to be netted
+	 */
+	public SIMMNettedSwaps(SIMMSimpleSwap[] swaps) {
+		super(productClass, riskClass, getCurveIndexNames(swaps), swaps[0].getCurrency(), null /*bucketKey*/, false /*hasOptionality*/);
+
+		for (SIMMSimpleSwap swap : swaps) {
+			if (!swap.getCurrency().equals(getCurrency()) || !Arrays.equals(swap.getCurveIndexNames(), getCurveIndexNames())) {
+				throw new IllegalArgumentException("Netted swaps must have the same currency and curves.");
+			}
+		}
+
+		this.swaps = swaps;
+
+		AbstractLIBORMonteCarloProduct[] products = new AbstractLIBORMonteCarloProduct[swaps.length];
+		for (int swapIndex = 0; swapIndex < swaps.length; swapIndex++) {
+			products[swapIndex] = swaps[swapIndex].getLIBORMonteCarloProduct(0.0);
+		}
+		this.nettedSwap = new NettedValue(products);
+	}
+
+	/**
+	 * The sum of the values of some products. Unlike <code> net.finmath.montecarlo.interestrate.products.Portfolio </code> the products do not need a currency.
+	 */
+	private static class NettedValue extends AbstractLIBORMonteCarloProduct {
+
+		private final AbstractLIBORMonteCarloProduct[] products;
+
+		NettedValue(AbstractLIBORMonteCarloProduct[] products) {
+			this.products = products;
+		}
+
+		@Override
+		public RandomVariableInterface getValue(double evaluationTime, net.finmath.montecarlo.interestrate.LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+			RandomVariableInterface value = products[0].getValue(evaluationTime, model);
+			for (int productIndex = 1; productIndex < products.length; productIndex++) {
+				value = value.add(products[productIndex].getValue(evaluationTime, model));
+			}
+			return value;
+		}
+	}
+
+	private static String[] getCurveIndexNames(SIMMSimpleSwap[] swaps) {
+		if (swaps == null || swaps.length == 0) {
+			throw new IllegalArgumentException("At least one swap is required.");
+		}
+		return swaps[0].getCurveIndexNames();
+	}
+
+	public SIMMSimpleSwap[] getSwaps() {
+		return swaps;
+	}
+
+	@Override
+	public AbstractLIBORMonteCarloProduct getLIBORMonteCarloProduct(double time) {
+		return nettedSwap;
+	}
+
+	@Override
+	public RandomVariableInterface[] getLiborModelSensitivities(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+
+		if (sensitivityCalculationScheme.isUseAnalyticSwapSensitivities) {
+
+			// The analytic sensitivities of all swaps are w.r.t. the same LIBORs, hence they are added.
+			double periodLength = model.getLiborPeriodDiscretization().getTimeStep(0);
+			RandomVariableInterface[] nettedSensis = null;
+			for (SIMMSimpleSwap swap : swaps) {
+				RandomVariableInterface[] swapSensis = swap.getAnalyticSensitivities(evaluationTime, periodLength, model, "Libor");
+				if (nettedSensis == null) {
+					nettedSensis = swapSensis;
+				} else {
+					for (int liborIndex = 0; liborIndex < nettedSensis.length; liborIndex++) {
+						nettedSensis[liborIndex] = nettedSensis[liborIndex].add(swapSensis[liborIndex]);
+					}
+				}
+			}
+			return nettedSensis;
+		}
+
+		return super.getLiborModelSensitivities(evaluationTime, model);
+	}
+
+	@Override
+	public RandomVariableInterface[] getOISModelSensitivities(String riskClass,
+			double evaluationTime,
+			LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+
+		double[] futureDiscountTimes = null;
+		RandomVariableInterface[] dVdP = null;
+
+		if (sensitivityCalculationScheme.isUseAnalyticSwapSensitivities) {
+
+			// Collect the bond sensitivities at the cash flow times of all swaps. The mapping on the OIS bonds is linear.
+			double periodLength = model.getLiborPeriodDiscretization().getTimeStep(0);
+			ArrayList<RandomVariableInterface> dVdPList = new ArrayList<RandomVariableInterface>();
+			ArrayList<Double> discountTimeList = new ArrayList<Double>();
+			for (SIMMSimpleSwap swap : swaps) {
+				double[] paymentDates = ((SimpleSwap) swap.getLIBORMonteCarloProduct(0.0)).getPaymentDates();
+				if (!Arrays.stream(paymentDates).filter(time -> time > evaluationTime).findAny().isPresent()) {
+					continue;
+				}
+				dVdPList.addAll(Arrays.asList(swap.getAnalyticSensitivities(evaluationTime, periodLength, model, "OIS")));
+				Arrays.stream(paymentDates).filter(time -> time > evaluationTime).forEach(discountTimeList::add);
+			}
+
+			// Return zero if evaluationTime is later than the last cash flow of all swaps
+			if (dVdPList.isEmpty()) {
+				return AbstractSIMMSensitivityCalculation.zeroBucketsIR;
+			}
+
+			dVdP = dVdPList.toArray(new RandomVariableInterface[0]);
+			futureDiscountTimes = discountTimeList.stream().mapToDouble(Double::doubleValue).toArray();
+		}
+
+		return super.getOISModelSensitivities(evaluationTime, futureDiscountTimes, dVdP /* null => use AAD*/, riskClass, model);
+	}
+
+	@Override
+	public RandomVariableInterface getExerciseIndicator(double time, LIBORModelMonteCarloSimulationInterface model) {
+		return new RandomVariable(1.0);
+	}
+
+	@Override
+	public double getFinalMaturity() {
+		return Arrays.stream(swaps).mapToDouble(SIMMSimpleSwap::getFinalMaturity).max().getAsDouble();
+	}
+
+	@Override
+	public double getMeltingResetTime(LIBORModelMonteCarloSimulationInterface model) {
+		return 0; // No Reset
+	}
+
+	@Override
+	public double[] getExerciseDates() {
+		return new double[0];
+	}
+
+	@Override
+	public void setConditionalExpectationOperator(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+
+		// Same regression as for a single swap, such that the netted sensitivities are the sum of the sensitivities of the swaps.
+		ArrayList<RandomVariableInterface> basisFunctions = SIMMSimpleSwap.getRegressionBasisFunctions(evaluationTime, model);
+		this.conditionalExpectationOperator = new BatchedConditionalExpectationRegression(basisFunctions.toArray(new RandomVariableInterface[0]));
+	}
+
+	@Override
+	protected String getRegressionBasisKey() {
+		return SIMMSimpleSwap.regressionBasisKey;
+	}
+
+	@Override
+	public RandomVariableInterface[] getValueNumeraireSensitivities(double evaluationTime,
+			LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+		return getValueNumeraireSensitivitiesAAD(evaluationTime, model);
+	}
+}
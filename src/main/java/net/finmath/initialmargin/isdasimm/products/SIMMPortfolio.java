@@ -1,5 +1,11 @@
 package net.finmath.initialmargin.isdasimm.products;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import net.finmath.exception.CalculationException;
 import net.finmath.initialmargin.isdasimm.aggregationscheme.CalculationSchemeInitialMarginISDA;
 import net.finmath.initialmargin.isdasimm.changedfinmath.LIBORModelMonteCarloSimulationInterface;
@@ -15,6 +21,8 @@ import net.finmath.stochastic.RandomVariableInterface;
  * have the same sensitivity mapping <code> SIMMSensitivityMapping </code> (i.e. the weights used for converting
  * LIBOR sensitivities into Swap-rate sensitivities are the same for all products. Moreover, the WeightMode and
  * SensitivityMode (Exact, Melting, Interpolation) are the same for all products.
+ * Optionally, the swaps of the portfolio are netted per currency and curves into a <code> SIMMNettedSwaps </code>, such that
+ * a single AAD backward sweep provides their netted sensitivities. Products with optionality keep their own sweep.
  *
  * @author Mario Viehmann
  */
@@ -24,6 +32,8 @@ public class SIMMPortfolio {
 	private AbstractSIMMSensitivityCalculation sensitivityCalculationScheme;  // WeightMode and SensitivityMode are set in the class SIMMSensitivityMapping
 	private CalculationSchemeInitialMarginISDA SIMMScheme;
 	private LIBORModelMonteCarloSimulationInterface model;
+	private final boolean isUseNettedGradient;
+	private AbstractSIMMProduct[] nettedProducts;
 
 	/**
 	 * Construct a <code> SIMMPortfolio </code>.
@@ -35,7 +45,21 @@ public class SIMMPortfolio {
 	 * @throws CalculationException
 	 */
 	public SIMMPortfolio(AbstractSIMMProduct[] products, String currency) throws CalculationException {
+		this(products, currency, false);
+	}
+
+	/**
+	 * Construct a <code> SIMMPortfolio </code>.
+	 *
+	 * @param products            The products of which the portfolio consists
+	 * @param currency            The calculation currency
+	 * @param isUseNettedGradient true if the swaps are netted such that one backward sweep provides the sensitivities of all swaps
+	 * @throws CalculationException
+	 */
+	public SIMMPortfolio(AbstractSIMMProduct[] products, String currency, boolean isUseNettedGradient) throws CalculationException {
 		this.products = products;
+		this.isUseNettedGradient = isUseNettedGradient;
+		this.nettedProducts = products;
 		this.SIMMScheme = new CalculationSchemeInitialMarginISDA(this, currency);
 	}
 
@@ -43,6 +67,20 @@ public class SIMMPortfolio {
 		return this.products;
 	}
 
+	/**
+	 * Returns the products whose sensitivities enter the SIMM. If the netted gradient is used, the swaps of the portfolio are
+	 * replaced by their netted products once a model is set. Otherwise these are the products of the portfolio.
+	 *
+	 * @return The products whose sensitivities enter the SIMM
+	 */
+	public AbstractSIMMProduct[] getNettedProducts() {
+		return this.nettedProducts;
+	}
+
+	public boolean isUseNettedGradient() {
+		return this.isUseNettedGradient;
+	}
+
 	/**
 	 * Calculate the forward initial margin of the portfolio.
 	 *
@@ -86,14 +124,59 @@ public class SIMMPortfolio {
 			boolean isUseAnalyticSwapSensis,
 			boolean isConsiderOISSensis) throws CalculationException {
 
+		setSIMMScheme(model, calculationCCY, sensitivityMode, liborWeightMode, interpolationStep, isUseAnalyticSwapSensis, isConsiderOISSensis);
+
+		return SIMMScheme.getValue(evaluationTime);
+	}
+
+	/**
+	 * Allocate the forward initial margin of the portfolio to its products, such that the allocations add up to the initial margin on each path
+	 * (Euler allocation, see {@link CalculationSchemeInitialMarginISDA#getInitialMarginAllocation(double)}). The sensitivities of the products
+	 * are shared with the calculation of the initial margin, hence calculating both costs about one additional aggregation.
+	 * The allocations are given for the products of {@link #getNettedProducts()}, i.e., if the netted gradient is used, netted swaps
+	 * receive a single allocation.
+	 *
+	 * @param evaluationTime                 The forward initial margin time
+	 * @param model                          The Libor market model
+	 * @param calculationCCY                 The currency in which the IM is calculated
+	 * @param sensitivityMode                The method to be used for sensitivity calculation (Exact, LinearMelting or Interpolation)
+	 * @param liborWeightMode                The method to be used for converting the libor sensitivities to swap sensitivities (Constant or Stochastic)
+	 * @param isUseAnalyticSwapSensis        true if for swaps we use analytic sensitivities
+	 * @param isConsiderOISSensis            true if we consider OIS sensitivities for the SIMM calculation
+	 * @return The allocated forward initial margin of each product of {@link #getNettedProducts()}
+	 * @throws CalculationException
+	 */
+	public RandomVariableInterface[] getInitialMarginAllocation(double evaluationTime,
+			LIBORModelMonteCarloSimulationInterface model,
+			String calculationCCY,
+			SensitivityMode sensitivityMode,
+			WeightMode liborWeightMode,
+			double interpolationStep,
+			boolean isUseAnalyticSwapSensis,
+			boolean isConsiderOISSensis) throws CalculationException {
+
+		setSIMMScheme(model, calculationCCY, sensitivityMode, liborWeightMode, interpolationStep, isUseAnalyticSwapSensis, isConsiderOISSensis);
+
+		return SIMMScheme.getInitialMarginAllocation(evaluationTime);
+	}
+
+	/**
+	 * Set up the sensitivity calculation and the SIMM scheme at inception or if the model or sensitivity modes change.
+	 */
+	private void setSIMMScheme(LIBORModelMonteCarloSimulationInterface model,
+			String calculationCCY,
+			SensitivityMode sensitivityMode,
+			WeightMode liborWeightMode,
+			double interpolationStep,
+			boolean isUseAnalyticSwapSensis,
+			boolean isConsiderOISSensis) throws CalculationException {
+
 		if (this.model == null || !model.equals(this.model) || (sensitivityCalculationScheme != null && (sensitivityMode != sensitivityCalculationScheme.getSensitivityMode() || liborWeightMode != sensitivityCalculationScheme.getWeightMode()))) { // At inception (t=0) or if the model is reset
 
 			this.sensitivityCalculationScheme = new SIMMSensitivityCalculation(sensitivityMode, liborWeightMode, interpolationStep, model, isUseAnalyticSwapSensis, isConsiderOISSensis);
 			setModel(model); // Set the (new) model. The method setModel also clears the sensitivity maps and the gradient.
 			this.SIMMScheme = new CalculationSchemeInitialMarginISDA(this, calculationCCY);
 		}
-
-		return SIMMScheme.getValue(evaluationTime);
 	}
 
 	/**
@@ -105,7 +188,8 @@ public class SIMMPortfolio {
 	private void setModel(LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
 
 		this.model = model;
-		for (AbstractSIMMProduct product : products) {
+		this.nettedProducts = isUseNettedGradient ? getNettedSwaps(products) : products;
+		for (AbstractSIMMProduct product : nettedProducts) {
 			// Within the method setModel sensitivity maps are cleared and the gradient of each product is set to null.
 			product.setGradient(model);
 			product.clearDeltaCache();
@@ -113,4 +197,32 @@ public class SIMMPortfolio {
 			product.setSIMMSensitivityCalculation(sensitivityCalculationScheme);
 		}
 	}
+
+	/**
+	 * Net the swaps of the given products per currency and curves. Other products are not changed.
+	 *
+	 * @param products The products
+	 * @return The netted swaps followed by the products which are not netted
+	 */
+	private static AbstractSIMMProduct[] getNettedSwaps(AbstractSIMMProduct[] products) {
+
+		Map<String, List<SIMMSimpleSwap>> swapsByNettingKey = new LinkedHashMap<String, List<SIMMSimpleSwap>>();
+		List<AbstractSIMMProduct> otherProducts = new ArrayList<AbstractSIMMProduct>();
+		for (AbstractSIMMProduct product : products) {
+			if (product instanceof SIMMSimpleSwap) {
+				String nettingKey = product.getCurrency() + Arrays.toString(product.getCurveIndexNames());
+				swapsByNettingKey.computeIfAbsent(nettingKey, key -> new ArrayList<SIMMSimpleSwap>()).add((SIMMSimpleSwap) product);
+			} else {
+				otherProducts.add(product);
+			}
+		}
+
+		List<AbstractSIMMProduct> nettedSwaps = new ArrayList<AbstractSIMMProduct>();
+		for (List<SIMMSimpleSwap> swaps : swapsByNettingKey.values()) {
+			nettedSwaps.add(swaps.size() == 1 ? swaps.get(0) : new SIMMNettedSwaps(swaps.toArray(new SIMMSimpleSwap[0])));
+		}
+		nettedSwaps.addAll(otherProducts);
+
+		return nettedSwaps.toArray(new AbstractSIMMProduct[0]);
+	}
 }
\ No newline at end of file
@@ -48,6 +48,27 @@ public interface SIMMProductInterface {
 			String bucketKey,      // currency for IR otherwise bucket nr.
 			String riskType, double evaluationTime) throws SolverException, CloneNotSupportedException, CalculationException;
 
+	/**
+	 * Returns the sensitivities of the SimmProduct on all maturity buckets of a curve, or <code>null</code> if the product has no such sensitivity.
+	 * This function will be called once per curve and time by the <code> CalculationSchemeInitialMarginISDA </code> to net the sensitivities of a portfolio.
+	 *
+	 * @param productClass   The SIMM product class (RatesFx etc.)
+	 * @param riskClass      The SIMM risk class (INTEREST_RATE etc.)
+	 * @param curveIndexName The name of the curve (OIS, Libor6m etc.)
+	 * @param bucketKey      The SIMM bucket key (the currency for risk class INTEREST_RATE)
+	 * @param riskType       The risk type (delta etc.)
+	 * @param evaluationTime The time of evaluation
+	 * @return The SIMM sensitivities of the product on the IR maturity buckets, or <code>null</code>
+	 * @throws CalculationException
+	 * @throws CloneNotSupportedException
+	 * @throws SolverException
+	 */
+	RandomVariableInterface[] getSensitivities(String productClass,
+			String riskClass,
+			String curveIndexName,
+			String bucketKey,
+			String riskType, double evaluationTime) throws SolverException, CloneNotSupportedException, CalculationException;
+
 	/**
 	 * Calculate the delta sensitivities of the product w.r.t. the forward curve, i.e. dV/dL.
 	 *
@@ -129,6 +150,14 @@ public interface SIMMProductInterface {
 	 */
 	double getMeltingResetTime(LIBORModelMonteCarloSimulationInterface model) throws CalculationException;
 
+	/**
+	 * Returns the exercise dates of the product (an empty array if the product has no optionality).
+	 * The sensitivities may change abruptly at these times, hence they are always used as anchor times of the adaptive interpolation.
+	 *
+	 * @return The exercise dates of the product.
+	 */
+	double[] getExerciseDates();
+
 	/**
 	 * Get the exact delta sensitivities from cache <code> exactDeltaCache </code>: Return for a given time, index curve, risk class and model (class variable) the sensitivities of the product.
 	 * calculated by AAD or analytically. The sensitivities may be later obtained from the map instead of being re-calculated over and over.
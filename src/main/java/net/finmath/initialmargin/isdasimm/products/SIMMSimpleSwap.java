@@ -6,8 +6,8 @@ import java.util.Arrays;
 import net.finmath.exception.CalculationException;
 import net.finmath.initialmargin.isdasimm.changedfinmath.LIBORModelMonteCarloSimulationInterface;
 import net.finmath.initialmargin.isdasimm.sensitivity.AbstractSIMMSensitivityCalculation;
+import net.finmath.initialmargin.isdasimm.sensitivity.BatchedConditionalExpectationRegression;
 import net.finmath.montecarlo.RandomVariable;
-import net.finmath.montecarlo.conditionalexpectation.MonteCarloConditionalExpectationRegression;
 import net.finmath.montecarlo.interestrate.products.AbstractLIBORMonteCarloProduct;
 import net.finmath.montecarlo.interestrate.products.SimpleSwap;
 import net.finmath.stochastic.RandomVariableInterface;
@@ -23,6 +23,7 @@ public class SIMMSimpleSwap extends AbstractSIMMProduct {
 	// SIMM classification
 	static final String productClass = "RATES_FX";
 	static final String[] riskClass = new String[]{"INTEREST_RATE"};
+	static final String regressionBasisKey = "SWAP_SHORT_AND_LONG_LIBOR_ORDER_2"; // The basis functions of the regression do not depend on the swap
 	private SimpleSwap swap = null;
 
 	/**
@@ -211,15 +212,32 @@ public class SIMMSimpleSwap extends AbstractSIMMProduct {
 		return 0; // No Reset
 	}
 
+	@Override
+	public double[] getExerciseDates() {
+		return new double[0];
+	}
+
 	@Override
 	public void setConditionalExpectationOperator(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
 
 		// Create a conditional expectation estimator with some basis functions (predictor variables) for conditional expectation estimation.
+		ArrayList<RandomVariableInterface> basisFunctions = getRegressionBasisFunctions(evaluationTime, model);
+		this.conditionalExpectationOperator = new BatchedConditionalExpectationRegression(basisFunctions.toArray(new RandomVariableInterface[0]));
+	}
+
+	@Override
+	protected String getRegressionBasisKey() {
+		return regressionBasisKey;
+	}
+
+	/**
+	 * Returns the basis functions identified by {@link #regressionBasisKey}: monomials up to order 2 of the short and the long LIBOR.
+	 */
+	static ArrayList<RandomVariableInterface> getRegressionBasisFunctions(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
 		RandomVariableInterface[] regressor = new RandomVariableInterface[2];
 		regressor[0] = model.getLIBOR(evaluationTime, evaluationTime, evaluationTime + model.getLiborPeriodDiscretization().getTimeStep(0));
 		regressor[1] = model.getLIBOR(evaluationTime, evaluationTime, model.getLiborPeriodDiscretization().getTime(model.getNumberOfLibors() - 1));
-		ArrayList<RandomVariableInterface> basisFunctions = getRegressionBasisFunctions(regressor, 2);
-		this.conditionalExpectationOperator = new MonteCarloConditionalExpectationRegression(basisFunctions.toArray(new RandomVariableInterface[0]));
+		return getRegressionBasisFunctions(regressor, 2);
 	}
 
 	private static ArrayList<RandomVariableInterface> getRegressionBasisFunctions(RandomVariableInterface[] libors, int order) {
@@ -3,23 +3,26 @@ package net.finmath.initialmargin.isdasimm.sensitivity;
 import java.lang.ref.SoftReference;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.IntStream;
 
 import org.apache.commons.lang3.ArrayUtils;
-import org.apache.commons.math3.linear.MatrixUtils;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.SingularValueDecomposition;
 
 import net.finmath.exception.CalculationException;
 import net.finmath.initialmargin.isdasimm.changedfinmath.LIBORModelMonteCarloSimulationInterface;
 import net.finmath.initialmargin.isdasimm.products.AbstractSIMMProduct;
+import net.finmath.initialmargin.isdasimm.sensitivity.RiskWeightCache.WeightType;
 import net.finmath.marketdata.model.curves.DiscountCurveInterface;
 import net.finmath.montecarlo.RandomVariable;
 import net.finmath.montecarlo.automaticdifferentiation.RandomVariableDifferentiableInterface;
 import net.finmath.optimizer.SolverException;
+import net.finmath.stochastic.ConditionalExpectationEstimatorInterface;
 import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.time.TimeDiscretizationInterface;
 
 /**
  * This class contains some functions and methods which we need to calculate forward initial margin.
@@ -57,6 +60,11 @@ public abstract class AbstractSIMMSensitivityCalculation {
 		 */
 		INTERPOLATION,
 
+		/**
+		 * Interpolation between exact (AAD) sensitivities at adaptively placed anchor times. Anchors are refined where the interpolation deviates from melting.
+		 */
+		ADAPTIVEINTERPOLATION,
+
 		/**
 		 * AAD or Analytic (for Swaps) assuming independence of OIS and LIBOR for the sensitivity transformation.
 		 */
@@ -88,8 +96,20 @@ public abstract class AbstractSIMMSensitivityCalculation {
 	public static final RandomVariableInterface[] zeroBucketsIR = IntStream.range(0, 12 /*IRMaturityBuckets.length*/).mapToObj(i -> new RandomVariable(0.0)).toArray(RandomVariableInterface[]::new);
 
 	private WeightMode weightTransformationMethod;
-	private HashMap<Double /*time*/, RandomVariableInterface[][]> riskWeightMapLibor = new HashMap<>(); // Contains the weights for conversion from model sensitivities to market sensitivities for the Forward Curve.
-	private HashMap<Double /*time*/, RandomVariableInterface[][]> riskWeightMapOIS = new HashMap<>(); // Contains the weights for conversion from model sensitivities to market sensitivities for the OIS Curve.
+	private RiskWeightCache riskWeightCache = new RiskWeightCache(); // Contains the weights for conversion from model sensitivities to market sensitivities for the Forward and the OIS Curve.
+	private PathwisePseudoInverse pseudoInverseEngine = PathwisePseudoInverse.getDefaultInstance();
+	private ForkJoinPool timeSlicePool = null; // If not null, independent time slices of a sensitivity sweep are calculated in parallel on this pool.
+
+	private static final int MAXIMUM_NUMBER_OF_SHARED_CONDITIONAL_EXPECTATIONS = 8;
+	private LIBORModelMonteCarloSimulationInterface conditionalExpectationModel = null;
+	private final Map<String, ConditionalExpectationEstimatorInterface> sharedConditionalExpectationOperators = new LinkedHashMap<String, ConditionalExpectationEstimatorInterface>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ConditionalExpectationEstimatorInterface> eldest) {
+			return size() > MAXIMUM_NUMBER_OF_SHARED_CONDITIONAL_EXPECTATIONS;
+		}
+	};
 
 	/*
 	 * Reference for sensitivity cache in case OIS - LIBOR dependencies are considered. Not used in the thesis! In this case we must calculate
@@ -144,6 +164,37 @@ public abstract class AbstractSIMMSensitivityCalculation {
 			double evaluationTime,
 			LIBORModelMonteCarloSimulationInterface model) throws SolverException, CloneNotSupportedException, CalculationException;
 
+	/**
+	 * Calculate the delta SIMM sensitivities for a given risk class and index curve at all times of a time discretization.
+	 * Sensitivities at times on or after the final maturity of the product are zero.
+	 *
+	 * This implementation calls {@link #getDeltaSensitivities(AbstractSIMMProduct, String, String, double, LIBORModelMonteCarloSimulationInterface)}
+	 * for each time. Subclasses may override it to share intermediate results between the times.
+	 *
+	 * @param product         The product
+	 * @param riskClass       The risk class of the product
+	 * @param curveIndexName  The name of the index curve
+	 * @param evaluationTimes The times at which the sensitivities should be calculated
+	 * @param model           The LIBOR market model
+	 * @return The sensitivities (first index: time index of evaluationTimes, second index: SIMM bucket)
+	 * @throws SolverException
+	 * @throws CloneNotSupportedException
+	 * @throws CalculationException
+	 */
+	public RandomVariableInterface[][] getDeltaSensitivities(AbstractSIMMProduct product,
+			String riskClass,
+			String curveIndexName,
+			TimeDiscretizationInterface evaluationTimes,
+			LIBORModelMonteCarloSimulationInterface model) throws SolverException, CloneNotSupportedException, CalculationException {
+
+		RandomVariableInterface[][] sensitivities = new RandomVariableInterface[evaluationTimes.getNumberOfTimes()][];
+		for (int timeIndex = 0; timeIndex < sensitivities.length; timeIndex++) {
+			double evaluationTime = evaluationTimes.getTime(timeIndex);
+			sensitivities[timeIndex] = evaluationTime >= product.getFinalMaturity() ? zeroBucketsIR : getDeltaSensitivities(product, riskClass, curveIndexName, evaluationTime, model);
+		}
+		return sensitivities;
+	}
+
 	/**
 	 * This function calculates the exact delta sensitivities as in SensitivityMode.Exact. The function is used for melting or
 	 * interpolation where the sensitivity mode is not SensitivityMode.Exact but we still want to calculate exact sensitivities
@@ -246,25 +297,14 @@ public abstract class AbstractSIMMSensitivityCalculation {
 		if (dVdP == null) {
 			return zeroBucketsIR;
 		}
-		RandomVariableInterface[] delta = new RandomVariableInterface[dVdP.length];
 		RandomVariableInterface[][] dPdS;
 		if (this.weightTransformationMethod == WeightMode.TIMEDEPENDENT) {
 			dPdS = getSensitivityWeightOIS(evaluationTime, model);
 		} else {
 			dPdS = getSensitivityWeightOIS(0.0, model);
 		}
-		// Calculate Sensitivities wrt Swaps
-		// return multiply(dVdP,dPdS);
-		for (int swapIndex = 0; swapIndex < dVdP.length; swapIndex++) {
-			RandomVariableInterface dVdS = new RandomVariable(0.0);
-			RandomVariableInterface factor;
-			for (int bondIndex = 0; bondIndex < dVdP.length; bondIndex++) {
-				factor = dPdS[bondIndex][swapIndex] == null ? new RandomVariable(0.0) : dPdS[bondIndex][swapIndex];
-				dVdS = dVdS.addProduct(dVdP[bondIndex], factor);
-			}
-			delta[swapIndex] = dVdS;
-		}
-		return delta;
+		// Calculate Sensitivities wrt Swaps: dV/dS = dV/dP * dP/dS
+		return multiply(dVdP, 0, dPdS, dVdP.length, dVdP.length);
 	}
 
 	/**
@@ -294,18 +334,8 @@ public abstract class AbstractSIMMSensitivityCalculation {
 			timeGridIndicator = onLiborPeriodDiscretization(evaluationTime, model) ? 0 : 1;
 			numberOfSwaps = dVdL.length - timeGridIndicator;
 		}
-		// Calculate sensitivities w.r.t. Swaps
-		RandomVariableInterface[] delta = new RandomVariableInterface[numberOfSwaps];
-		for (int swapIndex = 0; swapIndex < numberOfSwaps; swapIndex++) {
-			RandomVariableInterface dVdS = new RandomVariable(0.0);
-			RandomVariableInterface factor;
-			for (int liborIndex = 0; liborIndex < dVdL.length - timeGridIndicator; liborIndex++) {
-				factor = dLdS[liborIndex][swapIndex] == null ? new RandomVariable(0.0) : dLdS[liborIndex][swapIndex];
-				dVdS = dVdS.addProduct(dVdL[liborIndex + timeGridIndicator], factor);
-			}
-			delta[swapIndex] = dVdS;
-		}
-		return delta;
+		// Calculate sensitivities w.r.t. Swaps: dV/dS = dV/dL * dL/dS
+		return multiply(dVdL, timeGridIndicator, dLdS, dVdL.length - timeGridIndicator, numberOfSwaps);
 	}
 
 	/**
@@ -319,8 +349,9 @@ public abstract class AbstractSIMMSensitivityCalculation {
 	 */
 	private RandomVariableInterface[][] getSensitivityWeightLIBOR(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
 
-		if (riskWeightMapLibor.containsKey(evaluationTime)) {
-			return riskWeightMapLibor.get(evaluationTime);
+		RandomVariableInterface[][] cachedWeights = riskWeightCache.get(WeightType.LIBOR, evaluationTime);
+		if (cachedWeights != null) {
+			return cachedWeights;
 		}
 
 		RandomVariableInterface[][] dLdS = null;
@@ -344,11 +375,10 @@ public abstract class AbstractSIMMSensitivityCalculation {
 		}
 
 		// Calculate dLdS = dLd\tilde{L} * d\tilde{L}dS
-		RandomVariableInterface[][] dLdL = getLiborTimeGridAdjustment(evaluationTime, model);
+		RandomVariableInterface[][] dLdL = getLiborTimeGridAdjustment(evaluationTime, model, pseudoInverseEngine);
 		dLdS = multiply(dLdL, dLdS);
 
-		riskWeightMapLibor.put(evaluationTime, dLdS);
-		return dLdS;
+		return riskWeightCache.put(WeightType.LIBOR, evaluationTime, dLdS);
 	}
 
 	/**
@@ -362,8 +392,9 @@ public abstract class AbstractSIMMSensitivityCalculation {
 	private RandomVariableInterface[][] getSensitivityWeightOIS(double evaluationTime,
 			LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
 
-		if (riskWeightMapOIS.containsKey(evaluationTime)) {
-			return riskWeightMapOIS.get(evaluationTime);
+		RandomVariableInterface[][] cachedWeights = riskWeightCache.get(WeightType.OIS, evaluationTime);
+		if (cachedWeights != null) {
+			return cachedWeights;
 		}
 
 		int numberOfBonds = getNumberOfRemainingLibors(evaluationTime, model);
@@ -387,9 +418,8 @@ public abstract class AbstractSIMMSensitivityCalculation {
 			}
 		}
 
-		RandomVariableInterface[][] dPdS = getPseudoInverse(dSdP, model.getNumberOfPaths()); // PseudoInverse == Inverse for n x n matrix.
-		riskWeightMapOIS.put(evaluationTime, dPdS);
-		return dPdS;
+		RandomVariableInterface[][] dPdS = getPseudoInverse(dSdP, model.getNumberOfPaths(), pseudoInverseEngine); // PseudoInverse == Inverse for n x n matrix.
+		return riskWeightCache.put(WeightType.OIS, evaluationTime, dPdS);
 	}
 
 	/**
@@ -402,6 +432,20 @@ public abstract class AbstractSIMMSensitivityCalculation {
 	 * @throws CalculationException
 	 */
 	public static RandomVariableInterface[][] getLiborTimeGridAdjustment(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+		return getLiborTimeGridAdjustment(evaluationTime, model, PathwisePseudoInverse.getDefaultInstance());
+	}
+
+	/**
+	 * Since dV/dL is w.r.t. the incorrect LIBOR times this function provides a matrix dL/dL to be multiplied with dV/dL in order to
+	 * have the correct LIBOR times starting at evaluationTime.
+	 *
+	 * @param evaluationTime      The time at which the adjustment should be calculated.
+	 * @param model               The LIBOR market model
+	 * @param pseudoInverseEngine The engine used to calculate the path-wise pseudo inverse
+	 * @return Pseudo Inverse of derivative band matrix; Identity matrix in case of evaluationTime on LiborPeriodDiscretization;
+	 * @throws CalculationException
+	 */
+	public static RandomVariableInterface[][] getLiborTimeGridAdjustment(double evaluationTime, LIBORModelMonteCarloSimulationInterface model, PathwisePseudoInverse pseudoInverseEngine) throws CalculationException {
 		int numberOfRemainingLibors = getNumberOfRemainingLibors(evaluationTime, model);
 
 		// If evaluationTime lies on Libor Time Grid - return identity matrix
@@ -440,7 +484,7 @@ public abstract class AbstractSIMMSensitivityCalculation {
 		}
 
 		// dLdL is (n-1) x n matrix. Get PseudoInverse for all paths and then put it back together as RV
-		return getPseudoInverse(dLdL, model.getNumberOfPaths());
+		return getPseudoInverse(dLdL, model.getNumberOfPaths(), pseudoInverseEngine);
 	}
 
 	/**
@@ -553,12 +597,110 @@ public abstract class AbstractSIMMSensitivityCalculation {
 	}
 
 	public void clearRiskWeights() {
-		if (riskWeightMapLibor != null) {
-			riskWeightMapLibor.clear();
+		riskWeightCache.clear();
+	}
+
+	public RiskWeightCache getRiskWeightCache() {
+		return riskWeightCache;
+	}
+
+	/**
+	 * Set the cache for the risk weights, e.g., to change the memory budget or the eviction policy.
+	 *
+	 * @param riskWeightCache The cache for the risk weights
+	 */
+	public void setRiskWeightCache(RiskWeightCache riskWeightCache) {
+		if (riskWeightCache == null) {
+			throw new IllegalArgumentException("Risk weight cache must not be null.");
+		}
+		this.riskWeightCache = riskWeightCache;
+	}
+
+	/**
+	 * Calculate (and cache) the model-to-market-rate weights of a curve at a given time.
+	 * Used to calculate weights shared by several time slices of a sensitivity sweep before the slices are evaluated in parallel.
+	 *
+	 * @param curveIndexName The name of the curve (OIS or Libor6m)
+	 * @param evaluationTime The time of the weights
+	 * @param model          The LIBOR market model
+	 * @throws CalculationException
+	 */
+	protected void prepareRiskWeights(String curveIndexName, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+		if (curveIndexName.equals("OIS")) {
+			getSensitivityWeightOIS(evaluationTime, model);
+		} else {
+			getSensitivityWeightLIBOR(evaluationTime, model);
+		}
+	}
+
+	/**
+	 * @return The pool on which time slices of a sensitivity sweep are calculated in parallel, or null if they are calculated sequentially.
+	 */
+	public ForkJoinPool getTimeSlicePool() {
+		return timeSlicePool;
+	}
+
+	/**
+	 * Set the pool on which independent time slices of a sensitivity sweep
+	 * (see {@link #getDeltaSensitivities(AbstractSIMMProduct, String, String, TimeDiscretizationInterface, LIBORModelMonteCarloSimulationInterface)})
+	 * are calculated in parallel.
+	 *
+	 * @param timeSlicePool The pool or null for sequential calculation.
+	 */
+	public void setTimeSlicePool(ForkJoinPool timeSlicePool) {
+		this.timeSlicePool = timeSlicePool;
+	}
+
+	public PathwisePseudoInverse getPseudoInverseEngine() {
+		return pseudoInverseEngine;
+	}
+
+	/**
+	 * Set the engine used for the path-wise pseudo inverse of the sensitivity weights, e.g., to run the calculation on a dedicated fork join pool.
+	 *
+	 * @param pseudoInverseEngine The engine used to calculate the path-wise pseudo inverse
+	 */
+	public void setPseudoInverseEngine(PathwisePseudoInverse pseudoInverseEngine) {
+		if (pseudoInverseEngine == null) {
+			throw new IllegalArgumentException("Pseudo inverse engine must not be null.");
 		}
-		if (riskWeightMapOIS != null) {
-			riskWeightMapOIS.clear();
+		this.pseudoInverseEngine = pseudoInverseEngine;
+	}
+
+	/**
+	 * Returns the conditional expectation operator for the regression basis functions identified by a key at a given evaluation time.
+	 * If the operator is not held by this calculation it is created by the given factory. Hence, all products using this calculation
+	 * (e.g. the products of a <code> SIMMPortfolio </code>) with the same basis functions share the factorization of the regression.
+	 * The operators of the most recently used evaluation times are held.
+	 *
+	 * @param basisKey       The key identifying the basis functions
+	 * @param evaluationTime The time of the conditional expectation
+	 * @param model          The LIBOR market model
+	 * @param factory        Creates the operator if it is not held by this calculation
+	 * @return The conditional expectation operator
+	 * @throws CalculationException
+	 */
+	public synchronized ConditionalExpectationEstimatorInterface getConditionalExpectationOperator(String basisKey, double evaluationTime,
+			LIBORModelMonteCarloSimulationInterface model, Callable<ConditionalExpectationEstimatorInterface> factory) throws CalculationException {
+
+		if (model != conditionalExpectationModel) {
+			sharedConditionalExpectationOperators.clear();
+			conditionalExpectationModel = model;
+		}
+
+		String key = basisKey + "@" + evaluationTime;
+		ConditionalExpectationEstimatorInterface operator = sharedConditionalExpectationOperators.get(key);
+		if (operator == null) {
+			try {
+				operator = factory.call();
+			} catch (CalculationException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new CalculationException(e);
+			}
+			sharedConditionalExpectationOperators.put(key, operator);
 		}
+		return operator;
 	}
 
 	public void setWeightMode(WeightMode mode) {
@@ -576,40 +718,27 @@ public abstract class AbstractSIMMSensitivityCalculation {
 	/**
 	 * Calculate Pseudo Inverse of matrix of type RandomVariableInterface[][]
 	 *
-	 * @param matrix The matrix for which the pseudo inverse is calculated
+	 * @param matrix        The matrix for which the pseudo inverse is calculated
+	 * @param numberOfPaths The number of paths of the entries of the matrix
 	 * @return The pseudo inverse of the matrix
 	 */
 	public static RandomVariableInterface[][] getPseudoInverse(RandomVariableInterface[][] matrix, int numberOfPaths) {
+		return getPseudoInverse(matrix, numberOfPaths, PathwisePseudoInverse.getDefaultInstance());
+	}
 
-		double[][][] inv = new double[matrix[0].length][matrix.length][numberOfPaths];
+	/**
+	 * Calculate Pseudo Inverse of matrix of type RandomVariableInterface[][] using a given engine.
+	 *
+	 * @param matrix              The matrix for which the pseudo inverse is calculated
+	 * @param numberOfPaths       The number of paths of the entries of the matrix
+	 * @param pseudoInverseEngine The engine used to calculate the path-wise pseudo inverse
+	 * @return The pseudo inverse of the matrix
+	 */
+	public static RandomVariableInterface[][] getPseudoInverse(RandomVariableInterface[][] matrix, int numberOfPaths, PathwisePseudoInverse pseudoInverseEngine) {
 		long start = System.currentTimeMillis();
-		IntStream.range(0, numberOfPaths).parallel().forEach(pathIndex -> {
-			double[][] matrixOnPath = new double[matrix.length][matrix[0].length];
-			for (int i = 0; i < matrixOnPath.length; i++) {
-				for (int j = 0; j < matrixOnPath[0].length; j++) {
-					matrixOnPath[i][j] = matrix[i][j] == null ? 0 : matrix[i][j].get(pathIndex);
-				}
-			}
-			// Get Pseudo Inverse
-			RealMatrix pseudoInverse = new SingularValueDecomposition(MatrixUtils.createRealMatrix(matrixOnPath)).getSolver().getInverse();
-			for (int j = 0; j < pseudoInverse.getColumnDimension(); j++) {
-				double[] columnValues = pseudoInverse.getColumn(j);
-				for (int i = 0; i < pseudoInverse.getRowDimension(); i++) {
-					inv[i][j][pathIndex] = columnValues[i];
-				}
-			}
-		});
-
-		// Wrap to RandomVariableInterface[][]
-		RandomVariableInterface[][] pseudoInverse = new RandomVariableInterface[matrix[0].length][matrix.length];
-		for (int i = 0; i < pseudoInverse.length; i++) {
-			for (int j = 0; j < pseudoInverse[0].length; j++) {
-				pseudoInverse[i][j] = new RandomVariable(0.0 /*should be evaluationTime*/, inv[i][j]);
-			}
-		}
+		RandomVariableInterface[][] pseudoInverse = pseudoInverseEngine.getPseudoInverse(matrix, numberOfPaths);
 		long end = System.currentTimeMillis();
 		secondsPseudoInverse = secondsPseudoInverse + ((end - start) / 1000.0);
-		//			System.out.println("Total time of pseudo inverse: " + secondsPseudoInverse);
 		return pseudoInverse;
 	}
 
@@ -632,6 +761,93 @@ public abstract class AbstractSIMMSensitivityCalculation {
 		return AB;
 	}
 
+	/**
+	 * Calculate the vector-matrix product x * A of the sub-vector x = (vector[vectorOffset], ..., vector[vectorOffset + numberOfRows - 1])
+	 * and the first numberOfRows x numberOfColumns entries of the matrix A.
+	 *
+	 * The product is calculated directly on the realizations and written to one array per result entry. Null entries are
+	 * skipped, all other entries are multiplied, such that a NaN propagates as with <code>mult</code> and <code>add</code>.
+	 * The result is deterministic if all entries used are deterministic.
+	 *
+	 * @param vector          The vector x (e.g. dV/dL), null entries are treated as zero
+	 * @param vectorOffset    The index of the first entry of the vector to use
+	 * @param matrix          The matrix A (e.g. dL/dS), null entries are treated as zero
+	 * @param numberOfRows    The number of rows of A (and entries of x) to use
+	 * @param numberOfColumns The number of columns of A, i.e. the length of the result
+	 * @return The vector x * A
+	 */
+	public static RandomVariableInterface[] multiply(RandomVariableInterface[] vector, int vectorOffset, RandomVariableInterface[][] matrix, int numberOfRows, int numberOfColumns) {
+
+		// Determine the number of paths and the filtration time of the result
+		int numberOfPaths = 1;
+		double filtrationTime = Double.NEGATIVE_INFINITY;
+		for (int rowIndex = 0; rowIndex < numberOfRows; rowIndex++) {
+			RandomVariableInterface x = vector[rowIndex + vectorOffset];
+			if (x == null) {
+				continue;
+			}
+			numberOfPaths = Math.max(numberOfPaths, x.size());
+			filtrationTime = Math.max(filtrationTime, x.getFiltrationTime());
+			for (int columnIndex = 0; columnIndex < numberOfColumns; columnIndex++) {
+				RandomVariableInterface a = matrix[rowIndex][columnIndex];
+				if (a != null) {
+					numberOfPaths = Math.max(numberOfPaths, a.size());
+					filtrationTime = Math.max(filtrationTime, a.getFiltrationTime());
+				}
+			}
+		}
+		if (filtrationTime == Double.NEGATIVE_INFINITY) {
+			filtrationTime = 0.0;
+		}
+
+		double[][] result = new double[numberOfColumns][numberOfPaths];
+		for (int rowIndex = 0; rowIndex < numberOfRows; rowIndex++) {
+			RandomVariableInterface x = vector[rowIndex + vectorOffset];
+			if (x == null) {
+				continue;
+			}
+			double[] xValues = x.isDeterministic() ? null : x.getRealizations();
+			double xValue = x.isDeterministic() ? x.get(0) : 0.0;
+			for (int columnIndex = 0; columnIndex < numberOfColumns; columnIndex++) {
+				RandomVariableInterface a = matrix[rowIndex][columnIndex];
+				if (a == null) {
+					continue;
+				}
+				double[] sum = result[columnIndex];
+				if (a.isDeterministic()) {
+					double aValue = a.get(0);
+					if (xValues == null) {
+						double product = xValue * aValue;
+						for (int pathIndex = 0; pathIndex < numberOfPaths; pathIndex++) {
+							sum[pathIndex] += product;
+						}
+					} else {
+						for (int pathIndex = 0; pathIndex < numberOfPaths; pathIndex++) {
+							sum[pathIndex] += xValues[pathIndex] * aValue;
+						}
+					}
+				} else {
+					double[] aValues = a.getRealizations();
+					if (xValues == null) {
+						for (int pathIndex = 0; pathIndex < numberOfPaths; pathIndex++) {
+							sum[pathIndex] += xValue * aValues[pathIndex];
+						}
+					} else {
+						for (int pathIndex = 0; pathIndex < numberOfPaths; pathIndex++) {
+							sum[pathIndex] += xValues[pathIndex] * aValues[pathIndex];
+						}
+					}
+				}
+			}
+		}
+
+		RandomVariableInterface[] product = new RandomVariableInterface[numberOfColumns];
+		for (int columnIndex = 0; columnIndex < numberOfColumns; columnIndex++) {
+			product[columnIndex] = numberOfPaths == 1 ? new RandomVariable(filtrationTime, result[columnIndex][0]) : new RandomVariable(filtrationTime, result[columnIndex]);
+		}
+		return product;
+	}
+
 	public static RandomVariableInterface[] multiply(RandomVariableInterface[] A, RandomVariableInterface[][] B) {
 		RandomVariableInterface[] AB = new RandomVariableInterface[B[0].length];
 		RandomVariableInterface ABproduct;
@@ -654,11 +870,6 @@ public abstract class AbstractSIMMSensitivityCalculation {
 	// NOT USED IN THE THESIS!
 	//----------------------------------------------------------------------------------------------------------------------------------
 
-	/**
-	 * This is a cache for the risk weight transformation matrix in the (new) SensitivityMode.ExactConsideringDependencies
-	 */
-	private HashMap<Double /*time*/, RandomVariableInterface[][]> riskWeightMapJacobi = new HashMap<>();
-
 	/**
 	 * Calculate the sensitivities dV/dS with respect to all swap rates for given product and curve
 	 * considering exact OIS-Libor dependencies (SensitivityMode.ExactConsideringDependencies).
@@ -797,8 +1008,9 @@ public abstract class AbstractSIMMSensitivityCalculation {
 	 */
 	private RandomVariableInterface[][] getModelToMarketRateJacobianMatrix(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
 
-		if (riskWeightMapJacobi.containsKey(evaluationTime)) {
-			return riskWeightMapJacobi.get(evaluationTime);
+		RandomVariableInterface[][] cachedWeights = riskWeightCache.get(WeightType.JACOBIAN, evaluationTime);
+		if (cachedWeights != null) {
+			return cachedWeights;
 		}
 
 		double periodLength = model.getLiborPeriodDiscretization().getTimeStep(0);
@@ -896,9 +1108,8 @@ public abstract class AbstractSIMMSensitivityCalculation {
 				}
 			}
 		}
-		jacobian = getPseudoInverse(jacobian, model.getNumberOfPaths());
-		riskWeightMapJacobi.put(evaluationTime, jacobian);
-		return jacobian;
+		jacobian = getPseudoInverse(jacobian, model.getNumberOfPaths(), pseudoInverseEngine);
+		return riskWeightCache.put(WeightType.JACOBIAN, evaluationTime, jacobian);
 	}
 
 	private RandomVariableInterface[][] getBondJacobian(double time, LIBORModelMonteCarloSimulationInterface model, int numberOfLibors, int numberOfNumeraires) throws CalculationException {
@@ -956,6 +1167,6 @@ public abstract class AbstractSIMMSensitivityCalculation {
 				}
 			}
 		}
-		return getPseudoInverse(jacobian, model.getNumberOfPaths());
+		return getPseudoInverse(jacobian, model.getNumberOfPaths(), pseudoInverseEngine);
 	}
 }
@@ -0,0 +1,183 @@
+package net.finmath.initialmargin.isdasimm.sensitivity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.ConditionalExpectationEstimatorInterface;
+import net.finmath.stochastic.RandomVariableInterface;
+
+/**
+ * Conditional expectation by least square regression on a fixed set of basis functions, for many random variables at once.
+ *
+ * The normal equations are the same as those of <code> MonteCarloConditionalExpectationRegression </code>. The matrix X^T X of
+ * the basis functions is factorized (singular value decomposition) once, when the first conditional expectation is requested.
+ * {@link #getConditionalExpectations(RandomVariableInterface[])} then calculates the right hand sides X^T y of all random variables
+ * in one pass over the paths, solves for all of them with the same factorization and projects them back in a second pass.
+ * Hence, one instance may be shared by all sensitivities (and all products) using the same basis functions at the same time.
+ *
+ * Basis functions which are zero on all paths are ignored. If all basis functions are deterministic, the conditional expectations
+ * are deterministic. Instances are thread safe.
+ */
+public class BatchedConditionalExpectationRegression implements ConditionalExpectationEstimatorInterface {
+
+	private final double[][] basisFunctions;	// [basisFunctionIndex][pathIndex]
+	private final int numberOfPaths;
+	private final double filtrationTime;
+
+	private volatile DecompositionSolver solver;
+
+	/**
+	 * Create the conditional expectation operator for given basis functions.
+	 *
+	 * @param basisFunctions The basis functions (predictor variables) of the regression
+	 */
+	public BatchedConditionalExpectationRegression(RandomVariableInterface[] basisFunctions) {
+		if (basisFunctions == null || basisFunctions.length == 0) {
+			throw new IllegalArgumentException("At least one basis function is required.");
+		}
+
+		int numberOfPaths = 1;
+		double filtrationTime = Double.NEGATIVE_INFINITY;
+		for (RandomVariableInterface basisFunction : basisFunctions) {
+			numberOfPaths = Math.max(numberOfPaths, basisFunction.size());
+			filtrationTime = Math.max(filtrationTime, basisFunction.getFiltrationTime());
+		}
+
+		List<double[]> nonZeroBasisFunctions = new ArrayList<>();
+		for (RandomVariableInterface basisFunction : basisFunctions) {
+			if (basisFunction.getMin() == 0.0 && basisFunction.getMax() == 0.0) {
+				continue;
+			}
+			nonZeroBasisFunctions.add(getRealizations(basisFunction, numberOfPaths));
+		}
+		if (nonZeroBasisFunctions.isEmpty()) {
+			nonZeroBasisFunctions.add(new double[numberOfPaths]);
+		}
+
+		this.basisFunctions = nonZeroBasisFunctions.toArray(new double[0][]);
+		this.numberOfPaths = numberOfPaths;
+		this.filtrationTime = filtrationTime;
+	}
+
+	@Override
+	public RandomVariableInterface getConditionalExpectation(RandomVariableInterface randomVariable) {
+		return getConditionalExpectations(new RandomVariableInterface[]{randomVariable})[0];
+	}
+
+	/**
+	 * Calculate the conditional expectations of some random variables.
+	 *
+	 * @param randomVariables The random variables
+	 * @return The conditional expectations, in the order of the random variables
+	 */
+	public RandomVariableInterface[] getConditionalExpectations(RandomVariableInterface[] randomVariables) {
+		int numberOfBasisFunctions = basisFunctions.length;
+		int numberOfRandomVariables = randomVariables.length;
+		if (numberOfRandomVariables == 0) {
+			return new RandomVariableInterface[0];
+		}
+
+		// If all basis functions are deterministic, the regression only depends on the averages of the random variables
+		double[][] dependents = new double[numberOfRandomVariables][];
+		for (int variableIndex = 0; variableIndex < numberOfRandomVariables; variableIndex++) {
+			RandomVariableInterface randomVariable = randomVariables[variableIndex];
+			if (numberOfPaths == 1) {
+				dependents[variableIndex] = new double[]{randomVariable.getAverage()};
+			} else if (randomVariable.isDeterministic() || randomVariable.size() == numberOfPaths) {
+				dependents[variableIndex] = getRealizations(randomVariable, numberOfPaths);
+			} else {
+				throw new IllegalArgumentException("Random variable has " + randomVariable.size() + " paths, basis functions have " + numberOfPaths + " paths.");
+			}
+		}
+
+		// X^T y for all random variables in one pass over the paths
+		double[][] xTy = new double[numberOfBasisFunctions][numberOfRandomVariables];
+		double[] basisFunctionsOnPath = new double[numberOfBasisFunctions];
+		for (int pathIndex = 0; pathIndex < numberOfPaths; pathIndex++) {
+			for (int basisIndex = 0; basisIndex < numberOfBasisFunctions; basisIndex++) {
+				basisFunctionsOnPath[basisIndex] = basisFunctions[basisIndex][pathIndex];
+			}
+			for (int variableIndex = 0; variableIndex < numberOfRandomVariables; variableIndex++) {
+				double dependent = dependents[variableIndex][pathIndex];
+				for (int basisIndex = 0; basisIndex < numberOfBasisFunctions; basisIndex++) {
+					xTy[basisIndex][variableIndex] += basisFunctionsOnPath[basisIndex] * dependent;
+				}
+			}
+		}
+		for (double[] row : xTy) {
+			for (int variableIndex = 0; variableIndex < numberOfRandomVariables; variableIndex++) {
+				row[variableIndex] /= numberOfPaths;
+			}
+		}
+
+		// Regression parameters of all random variables with the same factorization
+		double[][] parameters = getSolver().solve(new Array2DRowRealMatrix(xTy, false)).getData();
+
+		// Projection on the basis functions
+		RandomVariableInterface[] conditionalExpectations = new RandomVariableInterface[numberOfRandomVariables];
+		for (int variableIndex = 0; variableIndex < numberOfRandomVariables; variableIndex++) {
+			double[] values = new double[numberOfPaths];
+			for (int basisIndex = 0; basisIndex < numberOfBasisFunctions; basisIndex++) {
+				double parameter = parameters[basisIndex][variableIndex];
+				double[] basisFunction = basisFunctions[basisIndex];
+				for (int pathIndex = 0; pathIndex < numberOfPaths; pathIndex++) {
+					values[pathIndex] += parameter * basisFunction[pathIndex];
+				}
+			}
+			conditionalExpectations[variableIndex] = numberOfPaths == 1 ? new RandomVariable(filtrationTime, values[0]) : new RandomVariable(filtrationTime, values);
+		}
+		return conditionalExpectations;
+	}
+
+	public int getNumberOfBasisFunctions() {
+		return basisFunctions.length;
+	}
+
+	/**
+	 * Returns the solver of the normal equations. The factorization of X^T X is calculated upon the first call.
+	 *
+	 * @return The solver of the normal equations
+	 */
+	private DecompositionSolver getSolver() {
+		DecompositionSolver solver = this.solver;
+		if (solver == null) {
+			synchronized (this) {
+				solver = this.solver;
+				if (solver == null) {
+					int numberOfBasisFunctions = basisFunctions.length;
+					double[][] xTx = new double[numberOfBasisFunctions][numberOfBasisFunctions];
+					for (int i = 0; i < numberOfBasisFunctions; i++) {
+						for (int j = 0; j <= i; j++) {
+							double sum = 0.0;
+							for (int pathIndex = 0; pathIndex < numberOfPaths; pathIndex++) {
+								sum += basisFunctions[i][pathIndex] * basisFunctions[j][pathIndex];
+							}
+							xTx[i][j] = sum / numberOfPaths;
+							xTx[j][i] = xTx[i][j];
+						}
+					}
+					RealMatrix matrix = new Array2DRowRealMatrix(xTx, false);
+					solver = new SingularValueDecomposition(matrix).getSolver();
+					this.solver = solver;
+				}
+			}
+		}
+		return solver;
+	}
+
+	private static double[] getRealizations(RandomVariableInterface randomVariable, int numberOfPaths) {
+		if (randomVariable.isDeterministic()) {
+			double[] realizations = new double[numberOfPaths];
+			Arrays.fill(realizations, randomVariable.get(0));
+			return realizations;
+		}
+		return randomVariable.getRealizations();
+	}
+}
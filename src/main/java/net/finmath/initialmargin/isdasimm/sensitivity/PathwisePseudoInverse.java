@@ -0,0 +1,332 @@
+package net.finmath.initialmargin.isdasimm.sensitivity;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.stream.IntStream;
+
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+
+/**
+ * Path-batched calculation of the Moore-Penrose pseudo inverse of a random matrix.
+ *
+ * The paths are processed in blocks. For each block the matrices are copied into a flat primitive array in
+ * path-major order (path, row, column) which is held in a per-thread workspace together with the buffers of the
+ * singular value decomposition. The decomposition itself is a one-sided Jacobi SVD working on these buffers,
+ * hence no objects are allocated per path. The blocks are distributed on a configurable {@link ForkJoinPool}.
+ *
+ * If all entries of the matrix are deterministic, the pseudo inverse is calculated only once and returned as a
+ * matrix of deterministic random variables.
+ *
+ * Singular values below <code>max(m,n) * sigma_max * 2^-52</code> are treated as zero, which is the same threshold
+ * as used by the solver of commons-math's <code>SingularValueDecomposition</code>.
+ */
+public class PathwisePseudoInverse {
+
+	private static final double EPSILON = 0x1p-52;
+	private static final double SAFE_MINIMUM = Math.sqrt(Double.MIN_NORMAL);
+	private static final int MAXIMUM_NUMBER_OF_SWEEPS = 100;
+	private static final int DEFAULT_BLOCK_SIZE = 256;
+
+	private static final PathwisePseudoInverse DEFAULT_INSTANCE = new PathwisePseudoInverse(ForkJoinPool.commonPool());
+
+	private final ForkJoinPool pool;
+	private final int blockSize;
+	private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+	/**
+	 * Buffers re-used by all blocks processed on the same thread.
+	 */
+	private static class Workspace {
+		private double[] block = new double[0];		// Matrices of a block of paths, path-major
+		private double[] inverse = new double[0];	// Pseudo inverse of a single path, row-major
+		private double[] u = new double[0];			// Column-major working copy, converges to U * Sigma
+		private double[] v = new double[0];			// Column-major right singular vectors
+		private double[] singularValues = new double[0];
+
+		private void ensureCapacity(int blockLength, int rows, int columns) {
+			int m = Math.max(rows, columns);
+			int n = Math.min(rows, columns);
+			if (block.length < blockLength) {
+				block = new double[blockLength];
+			}
+			if (inverse.length < rows * columns) {
+				inverse = new double[rows * columns];
+			}
+			if (u.length < m * n) {
+				u = new double[m * n];
+			}
+			if (v.length < n * n) {
+				v = new double[n * n];
+			}
+			if (singularValues.length < n) {
+				singularValues = new double[n];
+			}
+		}
+	}
+
+	/**
+	 * Create the engine running on a given fork join pool.
+	 *
+	 * @param pool      The pool used to process the blocks of paths.
+	 * @param blockSize The number of paths processed by a single task.
+	 */
+	public PathwisePseudoInverse(ForkJoinPool pool, int blockSize) {
+		if (pool == null) {
+			throw new IllegalArgumentException("Pool must not be null.");
+		}
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("Block size must be positive.");
+		}
+		this.pool = pool;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Create the engine running on a given fork join pool.
+	 *
+	 * @param pool The pool used to process the blocks of paths.
+	 */
+	public PathwisePseudoInverse(ForkJoinPool pool) {
+		this(pool, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @return The shared instance running on the common fork join pool.
+	 */
+	public static PathwisePseudoInverse getDefaultInstance() {
+		return DEFAULT_INSTANCE;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Calculate the pseudo inverse of matrix of type RandomVariableInterface[][] on every path.
+	 * Entries which are <code>null</code> are treated as zero.
+	 *
+	 * @param matrix        The matrix (row-column) for which the pseudo inverse is calculated
+	 * @param numberOfPaths The number of paths of the stochastic entries
+	 * @return The pseudo inverse of the matrix (a columns x rows matrix)
+	 */
+	public RandomVariableInterface[][] getPseudoInverse(RandomVariableInterface[][] matrix, int numberOfPaths) {
+		final int rows = matrix.length;
+		final int columns = matrix[0].length;
+
+		// Collect the realizations once. Deterministic entries are kept as constants.
+		final double[] constants = new double[rows * columns];
+		final double[][] realizations = new double[rows * columns][];
+		boolean isDeterministic = true;
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < columns; j++) {
+				RandomVariableInterface entry = matrix[i][j];
+				if (entry == null) {
+					continue;
+				}
+				if (entry.isDeterministic()) {
+					constants[i * columns + j] = entry.get(0);
+				} else {
+					realizations[i * columns + j] = entry.getRealizations();
+					isDeterministic = false;
+				}
+			}
+		}
+
+		RandomVariableInterface[][] pseudoInverse = new RandomVariableInterface[columns][rows];
+
+		if (isDeterministic) {
+			double[] inverse = new double[columns * rows];
+			getPseudoInverse(constants, 0, rows, columns, inverse, 0, workspaces.get());
+			for (int i = 0; i < columns; i++) {
+				for (int j = 0; j < rows; j++) {
+					pseudoInverse[i][j] = new RandomVariable(0.0, inverse[i * rows + j]);
+				}
+			}
+			return pseudoInverse;
+		}
+
+		final double[][] inverseRealizations = new double[columns * rows][numberOfPaths];
+		final int matrixLength = rows * columns;
+		final int numberOfBlocks = (numberOfPaths + blockSize - 1) / blockSize;
+
+		runInPool(() -> IntStream.range(0, numberOfBlocks).parallel().forEach(blockIndex -> {
+			int firstPath = blockIndex * blockSize;
+			int lastPath = Math.min(firstPath + blockSize, numberOfPaths);
+			Workspace workspace = workspaces.get();
+			workspace.ensureCapacity((lastPath - firstPath) * matrixLength, rows, columns);
+			double[] block = workspace.block;
+
+			// Gather the block in path-major order
+			for (int entryIndex = 0; entryIndex < matrixLength; entryIndex++) {
+				double[] values = realizations[entryIndex];
+				if (values == null) {
+					double constant = constants[entryIndex];
+					for (int pathIndex = firstPath; pathIndex < lastPath; pathIndex++) {
+						block[(pathIndex - firstPath) * matrixLength + entryIndex] = constant;
+					}
+				} else {
+					for (int pathIndex = firstPath; pathIndex < lastPath; pathIndex++) {
+						block[(pathIndex - firstPath) * matrixLength + entryIndex] = values[pathIndex];
+					}
+				}
+			}
+
+			// Invert path by path and scatter the result to the entries
+			double[] inverse = workspace.inverse;
+			for (int pathIndex = firstPath; pathIndex < lastPath; pathIndex++) {
+				getPseudoInverse(block, (pathIndex - firstPath) * matrixLength, rows, columns, inverse, 0, workspace);
+				for (int entryIndex = 0; entryIndex < matrixLength; entryIndex++) {
+					inverseRealizations[entryIndex][pathIndex] = inverse[entryIndex];
+				}
+			}
+		}));
+
+		// Wrap to RandomVariableInterface[][]
+		for (int i = 0; i < columns; i++) {
+			for (int j = 0; j < rows; j++) {
+				pseudoInverse[i][j] = new RandomVariable(0.0 /*should be evaluationTime*/, inverseRealizations[i * rows + j]);
+			}
+		}
+		return pseudoInverse;
+	}
+
+	/**
+	 * Calculate the pseudo inverses of a batch of matrices given in flat path-major layout, i.e., the entry (i,j) on
+	 * path k is <code>matrices[k * rows * columns + i * columns + j]</code>.
+	 *
+	 * @param matrices      The matrices on all paths in path-major layout
+	 * @param rows          The number of rows of each matrix
+	 * @param columns       The number of columns of each matrix
+	 * @param numberOfPaths The number of paths
+	 * @return The pseudo inverses (columns x rows on each path) in path-major layout
+	 */
+	public double[] getPseudoInverse(double[] matrices, int rows, int columns, int numberOfPaths) {
+		final int matrixLength = rows * columns;
+		if (matrices.length < numberOfPaths * matrixLength) {
+			throw new IllegalArgumentException("Array of length " + matrices.length + " does not hold " + numberOfPaths + " matrices of dimension " + rows + "x" + columns + ".");
+		}
+
+		final double[] inverses = new double[numberOfPaths * matrixLength];
+		final int numberOfBlocks = (numberOfPaths + blockSize - 1) / blockSize;
+		runInPool(() -> IntStream.range(0, numberOfBlocks).parallel().forEach(blockIndex -> {
+			Workspace workspace = workspaces.get();
+			workspace.ensureCapacity(0, rows, columns);
+			int lastPath = Math.min((blockIndex + 1) * blockSize, numberOfPaths);
+			for (int pathIndex = blockIndex * blockSize; pathIndex < lastPath; pathIndex++) {
+				getPseudoInverse(matrices, pathIndex * matrixLength, rows, columns, inverses, pathIndex * matrixLength, workspace);
+			}
+		}));
+		return inverses;
+	}
+
+	private void runInPool(Runnable task) {
+		Thread thread = Thread.currentThread();
+		if (thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool) {
+			// Already running in our pool (nested call), avoid submitting and blocking a worker.
+			task.run();
+		} else {
+			pool.submit(task).join();
+		}
+	}
+
+	/**
+	 * Calculate the pseudo inverse of a single row-major matrix by a one-sided Jacobi SVD.
+	 * The result is written in row-major order (columns x rows) to <code>result</code>.
+	 */
+	private static void getPseudoInverse(double[] matrix, int offset, int rows, int columns, double[] result, int resultOffset, Workspace workspace) {
+		workspace.ensureCapacity(0, rows, columns);
+
+		// Work on A if rows >= columns, otherwise on A^T, such that the working matrix is m x n with m >= n
+		boolean isTransposed = rows < columns;
+		int m = isTransposed ? columns : rows;
+		int n = isTransposed ? rows : columns;
+		double[] u = workspace.u;
+		double[] v = workspace.v;
+		double[] singularValues = workspace.singularValues;
+
+		for (int j = 0; j < n; j++) {
+			for (int k = 0; k < m; k++) {
+				u[j * m + k] = isTransposed ? matrix[offset + j * columns + k] : matrix[offset + k * columns + j];
+			}
+			for (int k = 0; k < n; k++) {
+				v[j * n + k] = j == k ? 1.0 : 0.0;
+			}
+		}
+
+		// Orthogonalize the columns of u by plane rotations, accumulating the rotations in v
+		for (int sweep = 0; sweep < MAXIMUM_NUMBER_OF_SWEEPS; sweep++) {
+			boolean isRotated = false;
+			for (int p = 0; p < n - 1; p++) {
+				for (int q = p + 1; q < n; q++) {
+					double alpha = 0.0;
+					double beta = 0.0;
+					double gamma = 0.0;
+					for (int k = 0; k < m; k++) {
+						double up = u[p * m + k];
+						double uq = u[q * m + k];
+						alpha += up * up;
+						beta += uq * uq;
+						gamma += up * uq;
+					}
+					if (gamma == 0.0 || Math.abs(gamma) <= EPSILON * Math.sqrt(alpha * beta)) {
+						continue;
+					}
+					isRotated = true;
+					double zeta = (beta - alpha) / (2.0 * gamma);
+					double t = Math.signum(zeta) / (Math.abs(zeta) + Math.sqrt(1.0 + zeta * zeta));
+					if (zeta == 0.0) {
+						t = 1.0;
+					}
+					double c = 1.0 / Math.sqrt(1.0 + t * t);
+					double s = c * t;
+					for (int k = 0; k < m; k++) {
+						double up = u[p * m + k];
+						double uq = u[q * m + k];
+						u[p * m + k] = c * up - s * uq;
+						u[q * m + k] = s * up + c * uq;
+					}
+					for (int k = 0; k < n; k++) {
+						double vp = v[p * n + k];
+						double vq = v[q * n + k];
+						v[p * n + k] = c * vp - s * vq;
+						v[q * n + k] = s * vp + c * vq;
+					}
+				}
+			}
+			if (!isRotated) {
+				break;
+			}
+		}
+
+		double maximumSingularValue = 0.0;
+		for (int j = 0; j < n; j++) {
+			double sumOfSquares = 0.0;
+			for (int k = 0; k < m; k++) {
+				sumOfSquares += u[j * m + k] * u[j * m + k];
+			}
+			singularValues[j] = Math.sqrt(sumOfSquares);
+			maximumSingularValue = Math.max(maximumSingularValue, singularValues[j]);
+		}
+		double tolerance = Math.max(m * maximumSingularValue * EPSILON, SAFE_MINIMUM);
+
+		// pinv(W)[i][k] = sum_j V[i][j] U[k][j] / sigma_j^2, since the columns of u are sigma_j times the left singular vectors
+		for (int j = 0; j < n; j++) {
+			singularValues[j] = singularValues[j] > tolerance ? 1.0 / (singularValues[j] * singularValues[j]) : 0.0;
+		}
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < m; k++) {
+				double value = 0.0;
+				for (int j = 0; j < n; j++) {
+					value += v[j * n + i] * u[j * m + k] * singularValues[j];
+				}
+				// pinv(A) = pinv(A^T)^T
+				if (isTransposed) {
+					result[resultOffset + k * rows + i] = value;
+				} else {
+					result[resultOffset + i * rows + k] = value;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package net.finmath.initialmargin.isdasimm.sensitivity;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.finmath.stochastic.RandomVariableInterface;
+
+/**
+ * Cache for the risk weight matrices (model-to-market-rate transformation) used by {@link AbstractSIMMSensitivityCalculation}.
+ *
+ * The matrices are keyed by their type and the evaluation time, which need not be on the time discretization of the model.
+ * Reads and writes are lock free, hence one cache may be used by a parallel forward initial margin calculation.
+ * The cache holds at most a given number of bytes (estimated from the number of realizations of the entries).
+ * If an insertion exceeds the budget, entries are evicted according to the {@link EvictionPolicy}.
+ *
+ * Note: Two threads requesting the same missing matrix at the same time may both calculate it, the first one stored is kept.
+ */
+public class RiskWeightCache {
+
+	/**
+	 * The kind of risk weight matrix.
+	 */
+	public enum WeightType {
+		/**
+		 * dL/dS of the forward curve
+		 */
+		LIBOR,
+
+		/**
+		 * dP/dS of the discount curve
+		 */
+		OIS,
+
+		/**
+		 * Inverse Jacobian of SensitivityMode.EXACTCONSIDERINGDEPENDENCIES
+		 */
+		JACOBIAN
+	}
+
+	/**
+	 * The order in which entries are removed if the memory budget is exceeded.
+	 */
+	public enum EvictionPolicy {
+		/**
+		 * Remove the entry which has not been accessed for the longest time.
+		 */
+		LEAST_RECENTLY_USED,
+
+		/**
+		 * Remove the entry with the smallest evaluation time. Suited for forward sweeps over the time grid.
+		 */
+		EARLIEST_TIME
+	}
+
+	private static class CacheEntry {
+		private final RandomVariableInterface[][] weights;
+		private final long sizeInBytes;
+		private volatile long lastAccess;
+
+		private CacheEntry(RandomVariableInterface[][] weights, long sizeInBytes, long lastAccess) {
+			this.weights = weights;
+			this.sizeInBytes = sizeInBytes;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	private static final class Key {
+		private final WeightType weightType;
+		private final double evaluationTime;
+
+		private Key(WeightType weightType, double evaluationTime) {
+			this.weightType = weightType;
+			this.evaluationTime = evaluationTime;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return weightType == key.weightType && Double.compare(evaluationTime, key.evaluationTime) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * weightType.hashCode() + Double.hashCode(evaluationTime);
+		}
+	}
+
+	private static final long BYTES_PER_ENTRY_OVERHEAD = 32;
+
+	private final long maximumSizeInBytes;
+	private final EvictionPolicy evictionPolicy;
+
+	private final Map<Key, CacheEntry> entries = new ConcurrentHashMap<>();
+	private final AtomicLong accessCounter = new AtomicLong();
+	private final AtomicLong sizeInBytes = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Create a cache with a given memory budget.
+	 *
+	 * @param maximumSizeInBytes The maximum (estimated) number of bytes held by the cache.
+	 * @param evictionPolicy     The order in which entries are removed if the budget is exceeded.
+	 */
+	public RiskWeightCache(long maximumSizeInBytes, EvictionPolicy evictionPolicy) {
+		if (maximumSizeInBytes < 0) {
+			throw new IllegalArgumentException("Maximum size must not be negative.");
+		}
+		if (evictionPolicy == null) {
+			throw new IllegalArgumentException("Eviction policy must not be null.");
+		}
+		this.maximumSizeInBytes = maximumSizeInBytes;
+		this.evictionPolicy = evictionPolicy;
+	}
+
+	/**
+	 * Create a least-recently-used cache using at most a quarter of the maximum heap.
+	 */
+	public RiskWeightCache() {
+		this(Runtime.getRuntime().maxMemory() / 4, EvictionPolicy.LEAST_RECENTLY_USED);
+	}
+
+	/**
+	 * Get the cached matrix.
+	 *
+	 * @param weightType     The type of the matrix.
+	 * @param evaluationTime The evaluation time of the matrix.
+	 * @return The matrix or <code>null</code> if the matrix is not cached.
+	 */
+	public RandomVariableInterface[][] get(WeightType weightType, double evaluationTime) {
+		CacheEntry entry = entries.get(new Key(weightType, evaluationTime));
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		entry.lastAccess = accessCounter.incrementAndGet();
+		hits.incrementAndGet();
+		return entry.weights;
+	}
+
+	/**
+	 * Store a matrix. If the matrix alone exceeds the memory budget it is not stored.
+	 *
+	 * @param weightType     The type of the matrix.
+	 * @param evaluationTime The evaluation time of the matrix.
+	 * @param weights        The matrix.
+	 * @return The matrix held by the cache, which is the previously stored one if another thread was faster.
+	 */
+	public RandomVariableInterface[][] put(WeightType weightType, double evaluationTime, RandomVariableInterface[][] weights) {
+		long size = getSizeInBytes(weights);
+		if (size > maximumSizeInBytes) {
+			return weights;
+		}
+
+		CacheEntry entry = new CacheEntry(weights, size, accessCounter.incrementAndGet());
+		CacheEntry previous = entries.putIfAbsent(new Key(weightType, evaluationTime), entry);
+		if (previous != null) {
+			return previous.weights;
+		}
+
+		if (sizeInBytes.addAndGet(size) > maximumSizeInBytes) {
+			evict(entry);
+		}
+		return weights;
+	}
+
+	/**
+	 * Remove all entries. Entries are removed one by one, like evictions, such that the size stays consistent with concurrent insertions.
+	 */
+	public void clear() {
+		for (Map.Entry<Key, CacheEntry> entry : entries.entrySet()) {
+			if (entries.remove(entry.getKey(), entry.getValue())) {
+				sizeInBytes.addAndGet(-entry.getValue().sizeInBytes);
+			}
+		}
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	public long getSizeInBytes() {
+		return sizeInBytes.get();
+	}
+
+	public long getMaximumSizeInBytes() {
+		return maximumSizeInBytes;
+	}
+
+	public EvictionPolicy getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	public int getNumberOfEntries() {
+		return entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return "RiskWeightCache [entries=" + entries.size() + ", sizeInBytes=" + sizeInBytes.get() + ", maximumSizeInBytes=" + maximumSizeInBytes
+				+ ", hits=" + hits.get() + ", misses=" + misses.get() + ", evictions=" + evictions.get() + "]";
+	}
+
+	/**
+	 * Remove entries (other than the one just inserted) until the cache is within its budget.
+	 */
+	private synchronized void evict(CacheEntry insertedEntry) {
+		while (sizeInBytes.get() > maximumSizeInBytes) {
+			Key victimKey = null;
+			CacheEntry victim = null;
+			for (Map.Entry<Key, CacheEntry> candidate : entries.entrySet()) {
+				if (candidate.getValue() == insertedEntry) {
+					continue;
+				}
+				if (victim == null || isEvictedBefore(candidate.getKey(), candidate.getValue(), victimKey, victim)) {
+					victimKey = candidate.getKey();
+					victim = candidate.getValue();
+				}
+			}
+			if (victim == null) {
+				return;
+			}
+			if (entries.remove(victimKey, victim)) {
+				sizeInBytes.addAndGet(-victim.sizeInBytes);
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private boolean isEvictedBefore(Key key, CacheEntry entry, Key otherKey, CacheEntry other) {
+		switch (evictionPolicy) {
+		case EARLIEST_TIME:
+			int order = Double.compare(key.evaluationTime, otherKey.evaluationTime);
+			return order < 0 || (order == 0 && entry.lastAccess < other.lastAccess);
+		case LEAST_RECENTLY_USED:
+		default:
+			return entry.lastAccess < other.lastAccess;
+		}
+	}
+
+	private static long getSizeInBytes(RandomVariableInterface[][] weights) {
+		long size = 0;
+		for (RandomVariableInterface[] row : weights) {
+			for (RandomVariableInterface entry : row) {
+				size += BYTES_PER_ENTRY_OVERHEAD;
+				if (entry != null) {
+					size += 8L * entry.size();
+				}
+			}
+		}
+		return size;
+	}
+}
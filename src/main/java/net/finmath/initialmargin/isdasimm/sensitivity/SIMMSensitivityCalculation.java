@@ -1,6 +1,12 @@
 package net.finmath.initialmargin.isdasimm.sensitivity;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.IntStream;
 
 import org.apache.commons.lang3.ArrayUtils;
@@ -25,34 +31,68 @@ import net.finmath.time.TimeDiscretizationInterface;
  * (possibly with a reset of the sensitivities to the true sensitivity values obtained by AAD).
  * <p>
  * Moreover, linear interpolation of sensitivities
- * on the SIMM buckets may be done with this class.
+ * on the SIMM buckets may be done with this class, either between exact sensitivities on an equidistant time grid or
+ * between exact sensitivities at adaptively placed anchor times (see {@link SensitivityMode#ADAPTIVEINTERPOLATION}).
  *
  * @author Mario Viehmann
  * @author Christian Fries
  */
 public class SIMMSensitivityCalculation extends AbstractSIMMSensitivityCalculation {
 
+	/**
+	 * Default relative tolerance of the adaptive interpolation.
+	 */
+	public static final double DEFAULT_ADAPTIVE_TOLERANCE = 0.05;
+
 	private double interpolationStep;
+	private double adaptiveTolerance;
 	private LIBORModelMonteCarloSimulationInterface model;
 
+	// The anchor times of the adaptive interpolation per product and risk class
+	private final Map<AbstractSIMMProduct, Map<String, double[]>> adaptiveAnchorTimes = new ConcurrentHashMap<>();
+
 	/**
 	 * Construct a SIMM sensitivity calculation scheme
 	 *
 	 * @param sensitivityMode                The approximation method for sensitivities (Exact, Melting, Interpolation)
 	 * @param liborWeightMode                The model-to-market-rate sensitivity transformation mode: Constant or Time Dependent weights
-	 * @param interpolationStep              The time step of equidistant intervals between points at which exact AAD sensitivities are calculated
+	 * @param interpolationStep              The time step of equidistant intervals between points at which exact AAD sensitivities are calculated. For adaptive interpolation the smallest distance of two anchor times
 	 * @param model                          The LIBOR market model
 	 * @param isUseAnalyticSwapSensitivities
 	 * @param isConsiderOISSensitivities
+	 * @param adaptiveTolerance              The relative tolerance of the adaptive interpolation (only used for SensitivityMode.ADAPTIVEINTERPOLATION)
 	 */
 	public SIMMSensitivityCalculation(SensitivityMode sensitivityMode, WeightMode liborWeightMode,
-			double interpolationStep, LIBORModelMonteCarloSimulationInterface model, boolean isUseAnalyticSwapSensitivities, boolean isConsiderOISSensitivities) {
+			double interpolationStep, LIBORModelMonteCarloSimulationInterface model, boolean isUseAnalyticSwapSensitivities, boolean isConsiderOISSensitivities, double adaptiveTolerance) {
 
 		super(sensitivityMode, liborWeightMode, isUseAnalyticSwapSensitivities, isConsiderOISSensitivities);
+		if (sensitivityMode == SensitivityMode.ADAPTIVEINTERPOLATION && !(interpolationStep > 0)) {
+			throw new IllegalArgumentException("Adaptive interpolation requires a positive interpolation step.");
+		}
+		if (adaptiveTolerance < 0) {
+			throw new IllegalArgumentException("Adaptive tolerance must not be negative.");
+		}
 		this.interpolationStep = interpolationStep;
+		this.adaptiveTolerance = adaptiveTolerance;
 		this.model = model;
 	}
 
+	/**
+	 * Construct a SIMM sensitivity calculation scheme
+	 *
+	 * @param sensitivityMode                The approximation method for sensitivities (Exact, Melting, Interpolation)
+	 * @param liborWeightMode                The model-to-market-rate sensitivity transformation mode: Constant or Time Dependent weights
+	 * @param interpolationStep              The time step of equidistant intervals between points at which exact AAD sensitivities are calculated
+	 * @param model                          The LIBOR market model
+	 * @param isUseAnalyticSwapSensitivities
+	 * @param isConsiderOISSensitivities
+	 */
+	public SIMMSensitivityCalculation(SensitivityMode sensitivityMode, WeightMode liborWeightMode,
+			double interpolationStep, LIBORModelMonteCarloSimulationInterface model, boolean isUseAnalyticSwapSensitivities, boolean isConsiderOISSensitivities) {
+
+		this(sensitivityMode, liborWeightMode, interpolationStep, model, isUseAnalyticSwapSensitivities, isConsiderOISSensitivities, DEFAULT_ADAPTIVE_TOLERANCE);
+	}
+
 	/**
 	 * Construct a SIMM sensitivity calculation scheme which takes into consideration OIS sensitivities
 	 *
@@ -103,23 +143,11 @@ public class SIMMSensitivityCalculation extends AbstractSIMMSensitivityCalculati
 			break;
 
 		case INTERPOLATION:
-			maturityBucketSensis = getInterpolatedSensitivities(product, riskClass, curveIndexName, evaluationTime, model);
-
-			break;
-
+		case ADAPTIVEINTERPOLATION:
 		case MELTINGSIMMBUCKETS:   // Melting on SIMM Buckets
 		case MELTINGSWAPRATEBUCKETS:   // Melting on SIMM Buckets
 		case MELTINGLIBORBUCKETS:  // Melting on Libor Buckets
-			// The time of the exact sensitivities being melted: Initial Melting Time
-			double initialMeltingTime = evaluationTime < product.getMeltingResetTime(model) ? 0 : product.getMeltingResetTime(model);
-
-			// The sensitivities obtained from getMeltedSensitivities are always on SIMM buckets
-			maturityBucketSensis = getMeltedSensitivities(product, null /*given sensitivities*/, initialMeltingTime, evaluationTime, curveIndexName, riskClass);
-
-			if (product instanceof SIMMBermudanSwaption) {
-
-				maturityBucketSensis = ((SIMMBermudanSwaption) product).changeMeltedSensitivitiesOnExercisedPaths(evaluationTime, model, curveIndexName, maturityBucketSensis);
-			}
+			maturityBucketSensis = getApproximatedSensitivities(product, riskClass, curveIndexName, evaluationTime, product.getMeltingResetTime(model), null /*anchorSensitivities*/, model);
 
 			break;
 
@@ -130,6 +158,96 @@ public class SIMMSensitivityCalculation extends AbstractSIMMSensitivityCalculati
 		return maturityBucketSensis;
 	}
 
+	/**
+	 * Calculate the delta SIMM sensitivities at all times of a time discretization.
+	 *
+	 * For interpolation and melting the work is ordered such that the intermediates shared by the time slices are calculated once
+	 * per sweep and in time order: the melting reset time of the product, the exact (AAD) sensitivities at the anchor times
+	 * (mapped on the SIMM buckets where applicable) and the constant risk weights. The time slices then only read these intermediates
+	 * and are calculated in parallel if a time slice pool is set (see {@link #setTimeSlicePool(java.util.concurrent.ForkJoinPool)}).
+	 * Melting of Bermudan swaptions changes the sensitivities on exercised paths by a valuation of the product, hence these slices are
+	 * calculated sequentially.
+	 *
+	 * For the exact sensitivity modes the slices depend on the conditional expectation operator of the product and are calculated sequentially.
+	 */
+	@Override
+	public RandomVariableInterface[][] getDeltaSensitivities(AbstractSIMMProduct product,
+			String riskClass,
+			String curveIndexName,
+			TimeDiscretizationInterface evaluationTimes,
+			LIBORModelMonteCarloSimulationInterface model) throws SolverException, CloneNotSupportedException, CalculationException {
+
+		if (!isApproximation()) {
+			return super.getDeltaSensitivities(product, riskClass, curveIndexName, evaluationTimes, model);
+		}
+
+		final double finalMaturity = product.getFinalMaturity();
+		final double meltingResetTime = product.getMeltingResetTime(model);
+
+		// Shared intermediates, calculated once and in time order
+		final Map<Double, RandomVariableInterface[]> anchorSensitivities = new HashMap<>();
+		for (int timeIndex = 0; timeIndex < evaluationTimes.getNumberOfTimes(); timeIndex++) {
+			double evaluationTime = evaluationTimes.getTime(timeIndex);
+			if (evaluationTime >= finalMaturity) {
+				continue;
+			}
+			for (double anchorTime : getAnchorTimes(product, riskClass, evaluationTime, meltingResetTime)) {
+				if (!anchorSensitivities.containsKey(anchorTime)) {
+					anchorSensitivities.put(anchorTime, getAnchorSensitivities(product, riskClass, curveIndexName, anchorTime));
+				}
+			}
+		}
+		if (sensitivityMode == SensitivityMode.MELTINGLIBORBUCKETS && getWeightMode() == WeightMode.CONSTANT) {
+			prepareRiskWeights(curveIndexName, 0.0, model);
+		}
+
+		// The time slices
+		final RandomVariableInterface[][] sensitivities = new RandomVariableInterface[evaluationTimes.getNumberOfTimes()][];
+		boolean isParallel = getTimeSlicePool() != null && !(!isInterpolation() && product instanceof SIMMBermudanSwaption);
+		if (!isParallel) {
+			for (int timeIndex = 0; timeIndex < sensitivities.length; timeIndex++) {
+				double evaluationTime = evaluationTimes.getTime(timeIndex);
+				sensitivities[timeIndex] = evaluationTime >= finalMaturity ? zeroBucketsIR : getApproximatedSensitivities(product, riskClass, curveIndexName, evaluationTime, meltingResetTime, anchorSensitivities, model);
+			}
+			return sensitivities;
+		}
+
+		try {
+			getTimeSlicePool().submit(() -> IntStream.range(0, sensitivities.length).parallel().forEach(timeIndex -> {
+				double evaluationTime = evaluationTimes.getTime(timeIndex);
+				try {
+					sensitivities[timeIndex] = evaluationTime >= finalMaturity ? zeroBucketsIR : getApproximatedSensitivities(product, riskClass, curveIndexName, evaluationTime, meltingResetTime, anchorSensitivities, model);
+				} catch (SolverException | CloneNotSupportedException | CalculationException e) {
+					throw new CompletionException(e);
+				}
+			})).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CalculationException(e);
+		} catch (ExecutionException e) {
+			// Checked exceptions of a time slice are wrapped in a CompletionException, which may be wrapped again when it crosses the worker threads
+			Throwable cause = e.getCause();
+			while (cause instanceof CompletionException && cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof CalculationException) {
+				throw (CalculationException) cause;
+			} else if (cause instanceof SolverException) {
+				throw (SolverException) cause;
+			} else if (cause instanceof CloneNotSupportedException) {
+				throw (CloneNotSupportedException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new CalculationException(cause);
+			}
+		}
+
+		return sensitivities;
+	}
+
 	@Override
 	public RandomVariableInterface[] getExactDeltaSensitivities(AbstractSIMMProduct product, String curveIndexName, String riskClass,
 			double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws SolverException, CloneNotSupportedException, CalculationException {
@@ -162,39 +280,16 @@ public class SIMMSensitivityCalculation extends AbstractSIMMSensitivityCalculati
 			RandomVariableInterface[] sensitivities, double meltingZeroTime,
 			double evaluationTime, String curveIndexName, String riskClass) throws SolverException, CloneNotSupportedException, CalculationException {
 
-		boolean isMarketRateSensi = sensitivityMode == SensitivityMode.MELTINGSIMMBUCKETS || sensitivityMode == SensitivityMode.MELTINGSWAPRATEBUCKETS;
 		RandomVariableInterface[] meltedSensis = null;
 		int[] riskFactorDays = null;
 		// Get sensitivities to melt if not provided as input to the function
 		if (sensitivities == null) {
-			sensitivities = product.getExactDeltaFromCache(meltingZeroTime, riskClass, curveIndexName, isMarketRateSensi);
-
-			if (sensitivityMode == SensitivityMode.MELTINGSIMMBUCKETS) {
-				// Map sensitivities on SIMM buckets
-				sensitivities = mapSensitivitiesOnBuckets(sensitivities, "INTEREST_RATE" /*riskClass*/, null, model);
-			}
+			sensitivities = getAnchorSensitivities(product, riskClass, curveIndexName, meltingZeroTime);
 		}
 
 		switch (sensitivityMode) {
 		case MELTINGSIMMBUCKETS: // Melting of market-rate sensitivities on SIMM Buckets
-		{
-			int[] riskFactorsSIMM = riskClass == "INTEREST_RATE" ? new int[]{14, 30, 90, 180, 365, 730, 1095, 1825, 3650, 5475, 7300, 10950} : /*CREDIT*/ new int[]{365, 730, 1095, 1825, 3650};
-
-			// Get new riskFactor times
-			riskFactorDays = Arrays.stream(riskFactorsSIMM).filter(n -> n > (int) Math.round(365 * (evaluationTime - meltingZeroTime))).map(n -> n - (int) Math.round(365 * (evaluationTime - meltingZeroTime))).toArray();
-
-			// Find first bucket later than evaluationTime
-			int firstIndex = IntStream.range(0, riskFactorsSIMM.length)
-					.filter(i -> riskFactorsSIMM[i] > (int) Math.round(365 * (evaluationTime - meltingZeroTime))).findFirst().getAsInt();
-
-			//Calculate melted sensitivities
-			meltedSensis = new RandomVariableInterface[sensitivities.length - firstIndex];
-
-			for (int i = 0; i < meltedSensis.length; i++) {
-				meltedSensis[i] = sensitivities[i + firstIndex].mult(1.0 - (double) Math.round(365 * (evaluationTime - meltingZeroTime)) / (double) riskFactorsSIMM[i + firstIndex]);
-			}
-		}
-		break;
+			return getMeltedSensitivitiesOnSIMMBuckets(sensitivities, meltingZeroTime, evaluationTime, riskClass);
 
 		case MELTINGSWAPRATEBUCKETS: // Melting of market-rate sensitivities on model buckets
 		{
@@ -249,39 +344,155 @@ public class SIMMSensitivityCalculation extends AbstractSIMMSensitivityCalculati
 	}
 
 	/**
-	 * Interpolates sensitivities on SIMM buckets linearly between two exact sensitivities obtained by AAD.
-	 * Information of future sensitivities (after evaluation time) is used.
+	 * Linear melting of market-rate sensitivities given on the SIMM buckets (SensitivityMode.MELTINGSIMMBUCKETS).
+	 * This is also the probe of the adaptive interpolation.
 	 *
-	 * @param product        The product whose sensitivities are interpolated
-	 * @param riskClass      The risk class of the product
-	 * @param curveIndexName The name of the index curve
-	 * @param evaluationTime The time of evaluation
-	 * @param model          The Libor market model
-	 * @return The interpolated sensitivities on SIMM buckets at evaluation time
+	 * @param sensitivities   The sensitivities on SIMM buckets to be melted
+	 * @param meltingZeroTime The time at which the melting starts
+	 * @param evaluationTime  The time at which the melted sensitivites are calculated
+	 * @param riskClass       The SIMM risk class of the product whose sensitivities we consider
+	 * @return The melted sensitivities on SIMM buckets
+	 */
+	private RandomVariableInterface[] getMeltedSensitivitiesOnSIMMBuckets(RandomVariableInterface[] sensitivities, double meltingZeroTime, double evaluationTime, String riskClass) {
+		int[] riskFactorsSIMM = riskClass == "INTEREST_RATE" ? new int[]{14, 30, 90, 180, 365, 730, 1095, 1825, 3650, 5475, 7300, 10950} : /*CREDIT*/ new int[]{365, 730, 1095, 1825, 3650};
+
+		// Get new riskFactor times
+		int[] riskFactorDays = Arrays.stream(riskFactorsSIMM).filter(n -> n > (int) Math.round(365 * (evaluationTime - meltingZeroTime))).map(n -> n - (int) Math.round(365 * (evaluationTime - meltingZeroTime))).toArray();
+
+		// Find first bucket later than evaluationTime
+		int firstIndex = IntStream.range(0, riskFactorsSIMM.length)
+				.filter(i -> riskFactorsSIMM[i] > (int) Math.round(365 * (evaluationTime - meltingZeroTime))).findFirst().getAsInt();
+
+		//Calculate melted sensitivities
+		RandomVariableInterface[] meltedSensis = new RandomVariableInterface[sensitivities.length - firstIndex];
+
+		for (int i = 0; i < meltedSensis.length; i++) {
+			meltedSensis[i] = sensitivities[i + firstIndex].mult(1.0 - (double) Math.round(365 * (evaluationTime - meltingZeroTime)) / (double) riskFactorsSIMM[i + firstIndex]);
+		}
+
+		return mapSensitivitiesOnBuckets(meltedSensis, riskClass, riskFactorDays, model);
+	}
+
+	/**
+	 * Calculate the sensitivities at a given time by interpolation or melting of the exact sensitivities at the anchor times.
+	 *
+	 * @param product             The product whose sensitivities are approximated
+	 * @param riskClass           The risk class of the product
+	 * @param curveIndexName      The name of the index curve
+	 * @param evaluationTime      The time of evaluation
+	 * @param meltingResetTime    The melting reset time of the product
+	 * @param anchorSensitivities (may be null) The sensitivities at the anchor times as given by <code>getAnchorSensitivities</code>
+	 * @param model               The Libor market model
+	 * @return The sensitivities on SIMM buckets at evaluation time
 	 * @throws SolverException
 	 * @throws CloneNotSupportedException
 	 * @throws CalculationException
 	 */
-	private RandomVariableInterface[] getInterpolatedSensitivities(AbstractSIMMProduct product,
+	private RandomVariableInterface[] getApproximatedSensitivities(AbstractSIMMProduct product,
 			String riskClass,
 			String curveIndexName,
 			double evaluationTime,
+			double meltingResetTime,
+			Map<Double, RandomVariableInterface[]> anchorSensitivities,
 			LIBORModelMonteCarloSimulationInterface model) throws SolverException, CloneNotSupportedException, CalculationException {
 
+		double[] anchorTimes = getAnchorTimes(product, riskClass, evaluationTime, meltingResetTime);
+		RandomVariableInterface[][] sensitivitiesAtAnchorTimes = new RandomVariableInterface[anchorTimes.length][];
+		for (int anchorIndex = 0; anchorIndex < anchorTimes.length; anchorIndex++) {
+			sensitivitiesAtAnchorTimes[anchorIndex] = anchorSensitivities != null && anchorSensitivities.containsKey(anchorTimes[anchorIndex]) ?
+					anchorSensitivities.get(anchorTimes[anchorIndex]) : getAnchorSensitivities(product, riskClass, curveIndexName, anchorTimes[anchorIndex]);
+		}
+
+		if (isInterpolation()) {
+			return getInterpolatedSensitivities(sensitivitiesAtAnchorTimes[0], sensitivitiesAtAnchorTimes[1], anchorTimes[0], anchorTimes[1], evaluationTime);
+		}
+
+		// The sensitivities obtained from getMeltedSensitivities are always on SIMM buckets
+		RandomVariableInterface[] maturityBucketSensis = getMeltedSensitivities(product, sensitivitiesAtAnchorTimes[0], anchorTimes[0], evaluationTime, curveIndexName, riskClass);
+
+		if (product instanceof SIMMBermudanSwaption) {
+			maturityBucketSensis = ((SIMMBermudanSwaption) product).changeMeltedSensitivitiesOnExercisedPaths(evaluationTime, model, curveIndexName, maturityBucketSensis);
+		}
+
+		return maturityBucketSensis;
+	}
+
+	/**
+	 * Returns the times of the exact sensitivities used for the approximation at a given time: the initial melting time for melting,
+	 * the times of the initial and final sensitivities for interpolation.
+	 *
+	 * @param product          The product
+	 * @param riskClass        The risk class of the product
+	 * @param evaluationTime   The time of evaluation
+	 * @param meltingResetTime The melting reset time of the product
+	 * @return The anchor times
+	 * @throws SolverException
+	 * @throws CloneNotSupportedException
+	 * @throws CalculationException
+	 */
+	private double[] getAnchorTimes(AbstractSIMMProduct product, String riskClass, double evaluationTime, double meltingResetTime) throws SolverException, CloneNotSupportedException, CalculationException {
+		if (!isInterpolation()) {
+			// The time of the exact sensitivities being melted: Initial Melting Time
+			return new double[]{evaluationTime < meltingResetTime ? 0 : meltingResetTime};
+		}
+
+		if (sensitivityMode == SensitivityMode.ADAPTIVEINTERPOLATION) {
+			double[] anchorTimes = getAdaptiveAnchorTimes(product, riskClass);
+			int initialIndex = 0;
+			while (initialIndex < anchorTimes.length - 1 && anchorTimes[initialIndex + 1] <= evaluationTime) {
+				initialIndex++;
+			}
+			return new double[]{anchorTimes[initialIndex], anchorTimes[Math.min(initialIndex + 1, anchorTimes.length - 1)]};
+		}
+
 		// time of initial and final sensitivities
 		TimeDiscretizationInterface exactSensiTimes = new TimeDiscretization(0, 50, interpolationStep);
 		int initialIndex = exactSensiTimes.getTimeIndexNearestLessOrEqual(evaluationTime);
-		double initialTime = (exactSensiTimes.getTime(initialIndex) <= product.getMeltingResetTime(model)) && (exactSensiTimes.getTime(initialIndex + 1) > product.getMeltingResetTime(model)) ? product.getMeltingResetTime(model) : exactSensiTimes.getTime(initialIndex);
-		double finalTime = initialTime < product.getMeltingResetTime(model) ? Math.min(product.getMeltingResetTime(model), exactSensiTimes.getTime(initialIndex + 1)) : exactSensiTimes.getTime(initialIndex + 1);
+		double initialTime = (exactSensiTimes.getTime(initialIndex) <= meltingResetTime) && (exactSensiTimes.getTime(initialIndex + 1) > meltingResetTime) ? meltingResetTime : exactSensiTimes.getTime(initialIndex);
+		double finalTime = initialTime < meltingResetTime ? Math.min(meltingResetTime, exactSensiTimes.getTime(initialIndex + 1)) : exactSensiTimes.getTime(initialIndex + 1);
+
+		return new double[]{initialTime, finalTime};
+	}
+
+	/**
+	 * Returns the exact sensitivities at an anchor time in the form used by the sensitivity mode: on SIMM buckets for interpolation and
+	 * melting on SIMM buckets, on model buckets otherwise.
+	 *
+	 * @param product        The product
+	 * @param riskClass      The risk class of the product
+	 * @param curveIndexName The name of the index curve
+	 * @param anchorTime     The time of the exact sensitivities
+	 * @return The exact sensitivities
+	 * @throws SolverException
+	 * @throws CloneNotSupportedException
+	 * @throws CalculationException
+	 */
+	private RandomVariableInterface[] getAnchorSensitivities(AbstractSIMMProduct product, String riskClass, String curveIndexName, double anchorTime) throws SolverException, CloneNotSupportedException, CalculationException {
+		boolean isMarketRateSensi = sensitivityMode != SensitivityMode.MELTINGLIBORBUCKETS;
 
 		// Get Sensitivities from exactDeltaCache
-		RandomVariableInterface[] initialSensitivities = product.getExactDeltaFromCache(initialTime, riskClass, curveIndexName, true /*isMarketRateSensi*/);
-		// Map sensitivities on SIMM buckets
-		initialSensitivities = mapSensitivitiesOnBuckets(initialSensitivities, "INTEREST_RATE" /*riskClass*/, null, model);
+		RandomVariableInterface[] sensitivities = product.getExactDeltaFromCache(anchorTime, riskClass, curveIndexName, isMarketRateSensi);
 
-		RandomVariableInterface[] finalSensitivities = product.getExactDeltaFromCache(finalTime, riskClass, curveIndexName, true /*isMarketRateSensi*/);
-		// Map sensitivities on SIMM buckets
-		finalSensitivities = mapSensitivitiesOnBuckets(finalSensitivities, "INTEREST_RATE" /*riskClass*/, null, model);
+		if (isInterpolation() || sensitivityMode == SensitivityMode.MELTINGSIMMBUCKETS) {
+			// Map sensitivities on SIMM buckets
+			sensitivities = mapSensitivitiesOnBuckets(sensitivities, "INTEREST_RATE" /*riskClass*/, null, model);
+		}
+		return sensitivities;
+	}
+
+	/**
+	 * Interpolates sensitivities on SIMM buckets linearly between two exact sensitivities obtained by AAD.
+	 * Information of future sensitivities (after evaluation time) is used.
+	 *
+	 * @param initialSensitivities The sensitivities on SIMM buckets at the initial time
+	 * @param finalSensitivities   The sensitivities on SIMM buckets at the final time
+	 * @param initialTime          The initial time
+	 * @param finalTime            The final time
+	 * @param evaluationTime       The time of evaluation
+	 * @return The interpolated sensitivities on SIMM buckets at evaluation time
+	 */
+	private static RandomVariableInterface[] getInterpolatedSensitivities(RandomVariableInterface[] initialSensitivities, RandomVariableInterface[] finalSensitivities,
+			double initialTime, double finalTime, double evaluationTime) {
 
 		// Perform linear interpolation
 		double deltaT = finalTime - initialTime;
@@ -300,6 +511,127 @@ public class SIMMSensitivityCalculation extends AbstractSIMMSensitivityCalculati
 		return interpolatedSensis;
 	}
 
+	/**
+	 * Returns the anchor times of the adaptive interpolation for a product. The anchors are placed once per product and risk class (and model):
+	 * <ol>
+	 * <li>Time zero, the melting reset time, the exercise dates and the final maturity of the product are always anchors.</li>
+	 * <li>An interval between two anchors is bisected (at a time of the model's time discretization) if the interpolated sensitivities at its
+	 * midpoint deviate from the sensitivities melted from the left anchor by more than the relative tolerance (in the L1 norm over
+	 * buckets and paths) for any of the curves of the product.</li>
+	 * <li>Intervals shorter than twice the interpolation step are not bisected.</li>
+	 * </ol>
+	 * The exact sensitivities at the anchors are calculated in time order of the bisection and kept in the exact delta cache of the product.
+	 *
+	 * @param product   The product
+	 * @param riskClass The risk class of the product
+	 * @return The sorted anchor times
+	 * @throws SolverException
+	 * @throws CloneNotSupportedException
+	 * @throws CalculationException
+	 */
+	public double[] getAdaptiveAnchorTimes(AbstractSIMMProduct product, String riskClass) throws SolverException, CloneNotSupportedException, CalculationException {
+		Map<String, double[]> anchorTimesOfProduct = adaptiveAnchorTimes.computeIfAbsent(product, key -> new ConcurrentHashMap<>());
+		double[] anchorTimes = anchorTimesOfProduct.get(riskClass);
+		if (anchorTimes != null) {
+			return anchorTimes;
+		}
+
+		double finalMaturity = product.getFinalMaturity();
+		TreeSet<Double> anchors = new TreeSet<>();
+		anchors.add(0.0);
+		anchors.add(finalMaturity);
+		double meltingResetTime = product.getMeltingResetTime(model);
+		if (meltingResetTime > 0 && meltingResetTime < finalMaturity) {
+			anchors.add(meltingResetTime);
+		}
+		for (double exerciseDate : product.getExerciseDates()) {
+			if (exerciseDate > 0 && exerciseDate < finalMaturity) {
+				anchors.add(exerciseDate);
+			}
+		}
+
+		Double[] initialAnchors = anchors.toArray(new Double[0]);
+		for (int anchorIndex = 0; anchorIndex < initialAnchors.length - 1; anchorIndex++) {
+			refineAnchors(product, riskClass, initialAnchors[anchorIndex], initialAnchors[anchorIndex + 1], anchors);
+		}
+
+		anchorTimes = anchors.stream().mapToDouble(Double::doubleValue).toArray();
+		anchorTimesOfProduct.put(riskClass, anchorTimes);
+		return anchorTimes;
+	}
+
+	/**
+	 * Returns the number of anchor times (exact sensitivity evaluations per curve) placed by the adaptive interpolation for all products so far.
+	 *
+	 * @return The number of anchor times.
+	 */
+	public int getNumberOfAnchors() {
+		return adaptiveAnchorTimes.values().stream().flatMap(anchorTimesOfProduct -> anchorTimesOfProduct.values().stream()).mapToInt(anchorTimes -> anchorTimes.length).sum();
+	}
+
+	/**
+	 * Remove the anchor times of the adaptive interpolation, e.g. if the model has changed.
+	 */
+	public void clearAdaptiveAnchorTimes() {
+		adaptiveAnchorTimes.clear();
+	}
+
+	private void refineAnchors(AbstractSIMMProduct product, String riskClass, double initialTime, double finalTime, TreeSet<Double> anchors) throws SolverException, CloneNotSupportedException, CalculationException {
+		if (finalTime - initialTime < 2 * interpolationStep) {
+			return;
+		}
+
+		// Bisect on the time discretization of the model
+		TimeDiscretizationInterface timeDiscretization = model.getTimeDiscretization();
+		double midTime = timeDiscretization.getTime(timeDiscretization.getTimeIndexNearestLessOrEqual(0.5 * (initialTime + finalTime)));
+		if (midTime <= initialTime || midTime >= finalTime) {
+			return;
+		}
+
+		boolean isRefine = false;
+		for (String curveIndexName : product.getCurveIndexNames()) {
+			RandomVariableInterface[] initialSensitivities = getAnchorSensitivities(product, riskClass, curveIndexName, initialTime);
+			RandomVariableInterface[] finalSensitivities = getAnchorSensitivities(product, riskClass, curveIndexName, finalTime);
+
+			RandomVariableInterface[] interpolatedSensitivities = getInterpolatedSensitivities(initialSensitivities, finalSensitivities, initialTime, finalTime, midTime);
+			RandomVariableInterface[] meltedSensitivities = getMeltedSensitivitiesOnSIMMBuckets(initialSensitivities, initialTime, midTime, riskClass);
+
+			double error = 0.0;
+			double norm = 0.0;
+			for (int bucketIndex = 0; bucketIndex < meltedSensitivities.length; bucketIndex++) {
+				error += interpolatedSensitivities[bucketIndex].sub(meltedSensitivities[bucketIndex]).abs().getAverage();
+				norm += meltedSensitivities[bucketIndex].abs().getAverage();
+			}
+			if (error > adaptiveTolerance * norm) {
+				isRefine = true;
+				break;
+			}
+		}
+
+		if (isRefine) {
+			anchors.add(midTime);
+			refineAnchors(product, riskClass, initialTime, midTime, anchors);
+			refineAnchors(product, riskClass, midTime, finalTime, anchors);
+		}
+	}
+
+	private boolean isInterpolation() {
+		return sensitivityMode == SensitivityMode.INTERPOLATION || sensitivityMode == SensitivityMode.ADAPTIVEINTERPOLATION;
+	}
+
+	private boolean isApproximation() {
+		switch (sensitivityMode) {
+		case INTERPOLATION:
+		case ADAPTIVEINTERPOLATION:
+		case MELTINGSIMMBUCKETS:
+		case MELTINGSWAPRATEBUCKETS:
+		case MELTINGLIBORBUCKETS:
+			return true;
+		default:
+			return false;
+		}
+	}
+
 	/**
 	 * Returns the interpolation time step, i.e. the length of equidistant intervals of points at which we
 	 * calculate the exact AAD sensitivities
@@ -309,5 +641,14 @@ public class SIMMSensitivityCalculation extends AbstractSIMMSensitivityCalculati
 	public double getInterpolationStep() {
 		return this.interpolationStep;
 	}
+
+	/**
+	 * Returns the relative tolerance of the adaptive interpolation.
+	 *
+	 * @return The relative tolerance of the adaptive interpolation
+	 */
+	public double getAdaptiveTolerance() {
+		return this.adaptiveTolerance;
+	}
 }
 
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 import java.util.stream.IntStream;
 
 import net.finmath.exception.CalculationException;
@@ -30,6 +31,7 @@ import net.finmath.marketdata.model.curves.ForwardCurveInterface;
 import net.finmath.montecarlo.AbstractRandomVariableFactory;
 import net.finmath.montecarlo.BrownianMotion;
 import net.finmath.montecarlo.BrownianMotionInterface;
+import net.finmath.montecarlo.RandomVariable;
 import net.finmath.montecarlo.RandomVariableFactory;
 import net.finmath.montecarlo.automaticdifferentiation.backward.RandomVariableDifferentiableAAD;
 import net.finmath.montecarlo.automaticdifferentiation.backward.RandomVariableDifferentiableAADFactory;
@@ -563,6 +565,68 @@ public class SIMMTest {
 		return new LIBORModelMonteCarloSimulation(liborMarketModel, process);
 	}
 
+	/**
+	 * Creates the OIS discount curve of the unit tests.
+	 *
+	 * @return The discount curve "OIS"
+	 */
+	public static DiscountCurve createTestDiscountCurve() {
+		return DiscountCurve.createDiscountCurveFromDiscountFactors("OIS",
+				new double[]{0.5, 1.0, 2.0, 5.0, 30.0} /*times*/,
+				new double[]{0.996, 0.995, 0.994, 0.993, 0.98} /*discountFactors*/);
+	}
+
+	/**
+	 * Creates the 6m Libor forward curve of the unit tests.
+	 *
+	 * @return The forward curve "Libor6m"
+	 */
+	public static ForwardCurve createTestForwardCurve() {
+		return ForwardCurve.createForwardCurveFromForwards("Libor6m",
+				new double[]{0.5, 1.0, 2.0, 5.0, 30.0} /*fixings of the forward*/,
+				new double[]{0.005, 0.01, 0.015, 0.02, 0.025},
+				0.5 /*tenor / period length*/);
+	}
+
+	/**
+	 * Creates the one factor Libor market model of the unit tests with AAD random variables on the given curves.
+	 *
+	 * @param numberOfPaths The number of paths
+	 * @param discountCurve The discount curve, e.g. {@link #createTestDiscountCurve()}
+	 * @param forwardCurve  The forward curve, e.g. {@link #createTestForwardCurve()}
+	 * @return The Libor market model
+	 * @throws CalculationException Thrown if the model cannot be created.
+	 */
+	public static LIBORModelMonteCarloSimulationInterface createTestLIBORMarketModel(int numberOfPaths, DiscountCurveInterface discountCurve, ForwardCurve forwardCurve) throws CalculationException {
+		return createLIBORMarketModel(false, createRandomVariableFactoryAAD(), numberOfPaths, 1 /*numberOfFactors*/, discountCurve, forwardCurve, 0.1 /*simulationTimeDt*/);
+	}
+
+	/**
+	 * Creates the one factor Libor market model of the unit tests with AAD random variables on the test curves.
+	 *
+	 * @param numberOfPaths The number of paths
+	 * @return The Libor market model
+	 * @throws CalculationException Thrown if the model cannot be created.
+	 */
+	public static LIBORModelMonteCarloSimulationInterface createTestLIBORMarketModel(int numberOfPaths) throws CalculationException {
+		return createTestLIBORMarketModel(numberOfPaths, createTestDiscountCurve(), createTestForwardCurve());
+	}
+
+	/**
+	 * Creates a random variable of independent standard normal realizations, e.g. a contribution or sensitivity of the unit tests.
+	 *
+	 * @param random        The source of the realizations
+	 * @param numberOfPaths The number of paths
+	 * @return The random variable at time zero
+	 */
+	public static RandomVariableInterface createRandomVariable(Random random, int numberOfPaths) {
+		double[] realizations = new double[numberOfPaths];
+		for (int pathIndex = 0; pathIndex < numberOfPaths; pathIndex++) {
+			realizations[pathIndex] = random.nextGaussian();
+		}
+		return new RandomVariable(0.0, realizations);
+	}
+
 	public static AbstractRandomVariableFactory createRandomVariableFactoryAAD() {
 		Map<String, Object> properties = new HashMap<String, Object>();
 		properties.put("isGradientRetainsLeafNodesOnly", new Boolean(false));
@@ -0,0 +1,268 @@
+package net.finmath.xva.beans;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+import net.finmath.xva.coordinates.simm2.Simm2SensitivityMap;
+
+/**
+ * Streams a CRIF file (JSON or CSV) record by record into netted sensitivities.
+ *
+ * Each record is mapped to the key of its {@link Simm2Coordinate} in the key space of the map of its netting set, see
+ * {@link CrifSensitivityBean#getSensitivityCoordinateKey(net.finmath.xva.coordinates.simm2.Simm2CoordinateKey)}, and its amount is
+ * added to the amount of the coordinate, hence only the netted sensitivities are held in memory, not the records.
+ * The sensitivities are split into netting sets, by default one per counterparty.
+ *
+ * Records which do not describe a SIMM sensitivity (e.g. notionals or parameters) or have no amount are skipped.
+ *
+ * The JSON format is an array of objects, the CSV format has a header row; in both the fields are named as in
+ * {@link CrifSensitivityBean}, e.g. <code>Counterparty</code>, <code>RiskType</code>, <code>Qualifier</code>, <code>Amount</code>.
+ */
+public class CrifReader {
+
+	private final Function<CrifSensitivityBean, String> nettingSetKey;
+
+	/**
+	 * Create a reader splitting the sensitivities by counterparty.
+	 */
+	public CrifReader() {
+		this(CrifSensitivityBean::getCounterparty);
+	}
+
+	/**
+	 * Create a reader splitting the sensitivities into netting sets.
+	 *
+	 * @param nettingSetKey Returns the key of the netting set of a record
+	 */
+	public CrifReader(Function<CrifSensitivityBean, String> nettingSetKey) {
+		this.nettingSetKey = nettingSetKey;
+	}
+
+	/**
+	 * Reads a CRIF file in JSON format.
+	 *
+	 * @param reader The reader of the file
+	 * @return The netted sensitivities per netting set
+	 * @throws IOException Thrown if the file cannot be read or is malformed.
+	 */
+	public Map<String, Simm2SensitivityMap> readJson(Reader reader) throws IOException {
+		Map<String, Simm2SensitivityMap> sensitivities = new HashMap<>();
+		CrifSensitivityBean record = new CrifSensitivityBean(null, null, null, null, null, null, null, null, null, null, null);
+
+		JsonReader jsonReader = new JsonReader(reader);
+		jsonReader.beginArray();
+		while (jsonReader.hasNext()) {
+			clear(record);
+			jsonReader.beginObject();
+			while (jsonReader.hasNext()) {
+				String name = jsonReader.nextName();
+				if (jsonReader.peek() == JsonToken.NULL) {
+					jsonReader.nextNull();
+				} else if (jsonReader.peek() == JsonToken.STRING || jsonReader.peek() == JsonToken.NUMBER) {
+					set(record, name, jsonReader.nextString());
+				} else {
+					jsonReader.skipValue();
+				}
+			}
+			jsonReader.endObject();
+			add(sensitivities, record);
+		}
+		jsonReader.endArray();
+
+		return sensitivities;
+	}
+
+	/**
+	 * Reads a comma separated CRIF file with header row.
+	 *
+	 * @param reader The reader of the file
+	 * @return The netted sensitivities per netting set
+	 * @throws IOException Thrown if the file cannot be read or is malformed.
+	 */
+	public Map<String, Simm2SensitivityMap> readCsv(Reader reader) throws IOException {
+		return readCsv(reader, ',');
+	}
+
+	/**
+	 * Reads a delimiter separated CRIF file with header row. Fields may be quoted with <code>"</code>.
+	 *
+	 * @param reader    The reader of the file
+	 * @param delimiter The field delimiter, e.g. <code>','</code> or <code>'\t'</code>
+	 * @return The netted sensitivities per netting set
+	 * @throws IOException Thrown if the file cannot be read or is malformed.
+	 */
+	public Map<String, Simm2SensitivityMap> readCsv(Reader reader, char delimiter) throws IOException {
+		Map<String, Simm2SensitivityMap> sensitivities = new HashMap<>();
+		CrifSensitivityBean record = new CrifSensitivityBean(null, null, null, null, null, null, null, null, null, null, null);
+
+		CsvTokenizer tokenizer = new CsvTokenizer(reader, delimiter);
+		List<String> fields = new ArrayList<>();
+		if (!tokenizer.readRecord(fields)) {
+			return sensitivities;
+		}
+		String[] header = fields.stream().map(String::trim).toArray(String[]::new);
+
+		while (tokenizer.readRecord(fields)) {
+			if (fields.size() == 1 && fields.get(0).isEmpty()) {
+				continue;	// Empty line
+			}
+			clear(record);
+			for (int i = 0; i < header.length && i < fields.size(); i++) {
+				if (!fields.get(i).isEmpty()) {
+					set(record, header[i], fields.get(i));
+				}
+			}
+			add(sensitivities, record);
+		}
+
+		return sensitivities;
+	}
+
+	private void add(Map<String, Simm2SensitivityMap> sensitivities, CrifSensitivityBean record) {
+		if (record.getRiskType() == null || record.getAmount() == null) {
+			return;
+		}
+		if (!record.isSensitivity()) {
+			return;
+		}
+		Simm2SensitivityMap nettingSetSensitivities = sensitivities.computeIfAbsent(nettingSetKey.apply(record), nettingSet -> new Simm2SensitivityMap());
+		nettingSetSensitivities.add(record.getSensitivityCoordinateKey(nettingSetSensitivities.getCoordinateKeys()), record.getAmount());
+	}
+
+	private static void clear(CrifSensitivityBean record) {
+		record.counterparty = null;
+		record.tradeId = null;
+		record.productClass = null;
+		record.riskType = null;
+		record.qualifier = null;
+		record.bucket = null;
+		record.label1 = null;
+		record.label2 = null;
+		record.amount = null;
+		record.amountCcy = null;
+		record.amountUsd = null;
+	}
+
+	private static void set(CrifSensitivityBean record, String name, String value) {
+		switch (name) {
+		case "Counterparty":
+			record.counterparty = value;
+			break;
+		case "TradeID":
+			record.tradeId = value;
+			break;
+		case "ProductClass":
+			record.productClass = value;
+			break;
+		case "RiskType":
+			record.riskType = value;
+			break;
+		case "Qualifier":
+			record.qualifier = value;
+			break;
+		case "Bucket":
+			record.bucket = value;
+			break;
+		case "Label1":
+			record.label1 = value;
+			break;
+		case "Label2":
+			record.label2 = value;
+			break;
+		case "Amount":
+			record.amount = parseAmount(name, value);
+			break;
+		case "AmountCCY":
+			record.amountCcy = value;
+			break;
+		case "AmountUSD":
+			record.amountUsd = parseAmount(name, value);
+			break;
+		default:
+			break;	// Other fields are not needed
+		}
+	}
+
+	private static Double parseAmount(String name, String value) {
+		try {
+			return Double.valueOf(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Field " + name + " is not a number: " + value, e);
+		}
+	}
+
+	/**
+	 * Splits delimiter separated text into records of fields. Quoted fields may contain delimiters, line breaks and
+	 * quotes escaped as <code>""</code>.
+	 */
+	private static final class CsvTokenizer {
+		private final Reader reader;
+		private final char delimiter;
+		private final StringBuilder field = new StringBuilder();
+		private int next;
+
+		private CsvTokenizer(Reader reader, char delimiter) throws IOException {
+			this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader);
+			this.delimiter = delimiter;
+			this.next = this.reader.read();
+		}
+
+		/**
+		 * Reads the next record.
+		 *
+		 * @param fields The list receiving the fields of the record (is cleared first)
+		 * @return False if the end of the input is reached
+		 * @throws IOException Thrown if the input cannot be read.
+		 */
+		private boolean readRecord(List<String> fields) throws IOException {
+			fields.clear();
+			if (next == -1) {
+				return false;
+			}
+
+			boolean isQuoted = false;
+			field.setLength(0);
+			while (next != -1) {
+				char c = (char) next;
+				next = reader.read();
+				if (isQuoted) {
+					if (c != '"') {
+						field.append(c);
+					} else if (next == '"') {
+						field.append('"');
+						next = reader.read();
+					} else {
+						isQuoted = false;
+					}
+				} else if (c == '"') {
+					isQuoted = true;
+				} else if (c == delimiter) {
+					fields.add(field.toString());
+					field.setLength(0);
+				} else if (c == '\n' || c == '\r') {
+					if (c == '\r' && next == '\n') {
+						next = reader.read();
+					}
+					break;
+				} else {
+					field.append(c);
+				}
+			}
+			if (isQuoted) {
+				throw new IOException("Unterminated quoted field at end of input.");
+			}
+			fields.add(field.toString());
+			return true;
+		}
+	}
+}
@@ -1,11 +1,18 @@
 package net.finmath.xva.beans;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.google.gson.annotations.SerializedName;
 
 import net.finmath.xva.coordinates.simm2.MarginType;
 import net.finmath.xva.coordinates.simm2.ProductClass;
+import net.finmath.xva.coordinates.simm2.Qualifier;
 import net.finmath.xva.coordinates.simm2.RiskClass;
 import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+import net.finmath.xva.coordinates.simm2.Simm2CoordinateKey;
 import net.finmath.xva.coordinates.simm2.Vertex;
 
 /**
@@ -13,6 +20,30 @@ import net.finmath.xva.coordinates.simm2.Vertex;
  */
 public class CrifSensitivityBean {
 
+	/**
+	 * The CRIF risk types, classified once. Other names are classified on each use and not added, hence the table does not grow.
+	 */
+	private static final Map<String, CrifRiskType> RISK_TYPES = new HashMap<>();
+	private static final Map<String, Vertex> TENORS = new HashMap<>();
+	private static final Map<String, ProductClass> PRODUCT_CLASSES = new HashMap<>();
+	private static final Map<String, String> CURRENCY_PAIRS = new ConcurrentHashMap<>();
+
+	static {
+		for (String riskType : new String[]{"Risk_IRCurve", "Risk_IRVol", "Risk_Inflation", "Risk_InflationVol", "Risk_XCcyBasis",
+				"Risk_FX", "Risk_FXVol", "Risk_Equity", "Risk_EquityVol", "Risk_Commodity", "Risk_CommodityVol",
+				"Risk_CreditQ", "Risk_CreditNonQ", "Risk_CreditVol", "Risk_CreditVolNonQ", "Risk_BaseCorr",
+				"Notional", "PV", "Param_ProductClassMultiplier", "Param_AddOnNotionalFactor", "Param_AddOnFixedAmount"}) {
+			RISK_TYPES.put(riskType, CrifRiskType.classify(riskType));
+		}
+		for (Vertex vertex : Vertex.values()) {
+			TENORS.put(vertex.getCrifTenor(), vertex);
+			TENORS.put(vertex.getCrifTenor().toUpperCase(), vertex);
+		}
+		for (ProductClass productClass : ProductClass.values()) {
+			PRODUCT_CLASSES.put(productClass.getCrifName(), productClass);
+		}
+	}
+
 	@SerializedName("Counterparty")
 	String counterparty;
 	@SerializedName("TradeID")
@@ -49,45 +80,239 @@ public class CrifSensitivityBean {
 		return counterparty;
 	}
 
+	/**
+	 * Returns the coordinate of the sensitivity of this record.
+	 *
+	 * @return The coordinate or <code>null</code> if the record is no sensitivity (e.g. a notional)
+	 */
 	public Simm2Coordinate getSensitivityKey() {
-		Simm2Coordinate key = null;
-		if (riskType.contains("IR") && !riskType.contains("Vol")) {
-			key = new Simm2Coordinate(Vertex.parseCrifTenor(label1), label2, qualifier, RiskClass.INTEREST_RATE, MarginType.DELTA, getParsedProductClass());
-		} else if (riskType.contains("IR") && riskType.contains("Vol")) {
-			key = new Simm2Coordinate(Vertex.parseCrifTenor(label1), label2, qualifier, RiskClass.INTEREST_RATE, MarginType.VEGA, getParsedProductClass());
-		} else if (riskType.contains("Equity") && !riskType.contains("Vol")) {
-			key = new Simm2Coordinate(null, qualifier, bucket, RiskClass.EQUITY, MarginType.DELTA, getParsedProductClass());
-		} else if (riskType.contains("Equity") && riskType.contains("Vol")) {
-			key = new Simm2Coordinate(Vertex.parseCrifTenor(label1), qualifier, bucket, RiskClass.EQUITY, MarginType.VEGA, getParsedProductClass());
-		} else if (riskType.contains("Commodity") && !riskType.contains("Vol")) {
-			key = new Simm2Coordinate(null, qualifier, bucket, RiskClass.COMMODITY, MarginType.DELTA, getParsedProductClass());
-		} else if (riskType.contains("Commodity") && riskType.contains("Vol")) {
-			key = new Simm2Coordinate(Vertex.parseCrifTenor(label1), qualifier, bucket, RiskClass.COMMODITY, MarginType.VEGA, getParsedProductClass());
-		} else if (riskType.contains("FX") && !riskType.contains("Vol")) {
-			key = new Simm2Coordinate(null, qualifier, "0", RiskClass.FX, MarginType.DELTA, getParsedProductClass());
-		} else if (riskType.contains("FX") && riskType.contains("Vol")) {
+		CrifRiskType type = getCrifRiskType(riskType);
+		if (type == CrifRiskType.NONE) {
+			return null;
+		}
+		return new Simm2Coordinate(getVertex(type), getQualifierText(type), getBucketKey(type), type.riskClass, type.marginType, getParsedProductClass());
+	}
+
+	/**
+	 * Returns whether this record is a sensitivity, i.e., has a coordinate.
+	 *
+	 * @return True unless the record is no sensitivity (e.g. a notional)
+	 */
+	public boolean isSensitivity() {
+		return getCrifRiskType(riskType) != CrifRiskType.NONE;
+	}
+
+	/**
+	 * Returns the key of the coordinate of the sensitivity of this record, without creating the coordinate.
+	 *
+	 * @param coordinateKeys The key space encoding the coordinate, e.g. the one of the {@link net.finmath.xva.coordinates.simm2.Simm2SensitivityMap} collecting the records
+	 * @return The key or zero if the record is no sensitivity (e.g. a notional)
+	 */
+	public long getSensitivityCoordinateKey(Simm2CoordinateKey coordinateKeys) {
+		CrifRiskType type = getCrifRiskType(riskType);
+		if (type == CrifRiskType.NONE) {
+			return 0;
+		}
+		return coordinateKeys.encode(getVertex(type), getQualifierText(type), getBucketKey(type), type.riskClass, type.marginType, getParsedProductClass());
+	}
+
+	/**
+	 * Returns the coordinates of the sensitivities of a batch of records. The records of the batch share the qualifiers of equal text.
+	 *
+	 * @param records The records
+	 * @return The coordinates, <code>null</code> for records which are no sensitivities
+	 */
+	public static Simm2Coordinate[] getSensitivityKeys(List<CrifSensitivityBean> records) {
+		Map<String, Qualifier> qualifiers = new HashMap<>();
+		Simm2Coordinate[] coordinates = new Simm2Coordinate[records.size()];
+		int i = 0;
+		for (CrifSensitivityBean record : records) {
+			CrifRiskType type = getCrifRiskType(record.riskType);
+			if (type != CrifRiskType.NONE) {
+				Qualifier qualifier = qualifiers.computeIfAbsent(record.getQualifierText(type), Qualifier::new);
+				coordinates[i] = new Simm2Coordinate(record.getVertex(type), qualifier, record.getBucketKey(type), type.riskClass, type.marginType, record.getParsedProductClass());
+			}
+			i++;
+		}
+		return coordinates;
+	}
+
+	/**
+	 * Returns the coordinate keys of the sensitivities of a batch of records.
+	 *
+	 * @param records        The records
+	 * @param coordinateKeys The key space encoding the coordinates
+	 * @return The keys, zero for records which are no sensitivities
+	 */
+	public static long[] getSensitivityCoordinateKeys(List<CrifSensitivityBean> records, Simm2CoordinateKey coordinateKeys) {
+		long[] keys = new long[records.size()];
+		int i = 0;
+		for (CrifSensitivityBean record : records) {
+			keys[i++] = record.getSensitivityCoordinateKey(coordinateKeys);
+		}
+		return keys;
+	}
+
+	/**
+	 * Returns the vertex of the coordinate of this record.
+	 */
+	private Vertex getVertex(CrifRiskType type) {
+		switch (type.shape) {
+		case CURVE:
+		case TENOR:
+		case FX_VOL:
+			return parseTenor(label1);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the text of the qualifier of the coordinate of this record.
+	 */
+	private String getQualifierText(CrifRiskType type) {
+		switch (type.shape) {
+		case CURVE:
+			return label2;
+		case TENOR:
+		case NO_TENOR:
+		case FX:
+			return qualifier;
+		case FX_VOL:
+			return getCurrencyPair(qualifier);
+		case INFLATION:
+			return "inflation";
+		case CCY_BASIS:
+			return "ccybasis";
+		default:
+			throw new IllegalStateException("Unknown coordinate shape " + type.shape);
+		}
+	}
+
+	/**
+	 * Returns the bucket key of the coordinate of this record.
+	 */
+	private String getBucketKey(CrifRiskType type) {
+		switch (type.shape) {
+		case CURVE:
+		case INFLATION:
+		case CCY_BASIS:
+			return qualifier;
+		case TENOR:
+		case NO_TENOR:
+			return bucket;
+		case FX:
+		case FX_VOL:
+			return "0";
+		default:
+			throw new IllegalStateException("Unknown coordinate shape " + type.shape);
+		}
+	}
+
+	private static CrifRiskType getCrifRiskType(String riskType) {
+		CrifRiskType type = RISK_TYPES.get(riskType);
+		// Not in the CRIF vocabulary, classify by the name
+		return type != null ? type : CrifRiskType.classify(riskType);
+	}
+
+	private static Vertex parseTenor(String tenor) {
+		Vertex vertex = TENORS.get(tenor);
+		return vertex != null ? vertex : Vertex.parseCrifTenor(tenor);
+	}
+
+	/**
+	 * Returns the FX volatility qualifier with the currencies in descending order, e.g. USDEUR for EURUSD.
+	 */
+	private static String getCurrencyPair(String qualifier) {
+		String currencyPair = CURRENCY_PAIRS.get(qualifier);
+		if (currencyPair == null) {
+			currencyPair = qualifier;
 			if (qualifier.length() == 6) {
 				String ccy1 = qualifier.substring(0, 3);
 				String ccy2 = qualifier.substring(3, 6);
 				if (ccy2.compareTo(ccy1) > 0) {
-					qualifier = ccy2 + ccy1;
+					currencyPair = ccy2 + ccy1;
 				}
 			}
-			key = new Simm2Coordinate(Vertex.parseCrifTenor(label1), qualifier, "0", RiskClass.FX, MarginType.VEGA, getParsedProductClass());
-		} else if (riskType.contains("CreditQ")) {
-			key = new Simm2Coordinate(Vertex.parseCrifTenor(label1), qualifier, bucket, RiskClass.CREDIT_Q, MarginType.DELTA, getParsedProductClass());
-		} else if (riskType.contains("CreditNonQ")) {
-			key = new Simm2Coordinate(Vertex.parseCrifTenor(label1), qualifier, bucket, RiskClass.CREDIT_NON_Q, MarginType.DELTA, getParsedProductClass());
-		} else if (riskType.contains("Credit") && riskType.contains("Vol")) {
-			key = new Simm2Coordinate(Vertex.parseCrifTenor(label1), qualifier, bucket, RiskClass.CREDIT_Q, MarginType.VEGA, getParsedProductClass());
-		} else if (riskType.contains("Inflation") && !riskType.contains("Vol")) {
-			key = new Simm2Coordinate(null, "inflation", qualifier, RiskClass.INTEREST_RATE, MarginType.DELTA, getParsedProductClass());
-		} else if (riskType.contains("Inflation") && riskType.contains("Vol")) {
-			key = new Simm2Coordinate(null, "inflation", qualifier, RiskClass.INTEREST_RATE, MarginType.VEGA, getParsedProductClass());
-		} else if (riskType.contains("XCcy")) {
-			key = new Simm2Coordinate(null, "ccybasis", qualifier, RiskClass.INTEREST_RATE, MarginType.DELTA, getParsedProductClass());
+			CURRENCY_PAIRS.putIfAbsent(qualifier, currencyPair);
+		}
+		return currencyPair;
+	}
+
+	/**
+	 * The shape of a coordinate, i.e. where its vertex, qualifier and bucket key come from.
+	 */
+	private enum Shape {
+		/** Vertex from label 1, qualifier from label 2 (the curve), bucket key from the qualifier (the currency). */
+		CURVE,
+		/** Vertex from label 1, qualifier and bucket key from the record. */
+		TENOR,
+		/** No vertex, qualifier and bucket key from the record. */
+		NO_TENOR,
+		/** No vertex, qualifier from the record, bucket key 0. */
+		FX,
+		/** Vertex from label 1, qualifier is the normalized currency pair, bucket key 0. */
+		FX_VOL,
+		/** No vertex, qualifier inflation, bucket key from the qualifier. */
+		INFLATION,
+		/** No vertex, qualifier ccybasis, bucket key from the qualifier. */
+		CCY_BASIS
+	}
+
+	/**
+	 * The classification of a CRIF risk type.
+	 */
+	private static final class CrifRiskType {
+		private static final CrifRiskType NONE = new CrifRiskType(null, null, null);
+
+		private final RiskClass riskClass;
+		private final MarginType marginType;
+		private final Shape shape;
+
+		private CrifRiskType(RiskClass riskClass, MarginType marginType, Shape shape) {
+			this.riskClass = riskClass;
+			this.marginType = marginType;
+			this.shape = shape;
+		}
+
+		/**
+		 * Classifies a risk type by its name, e.g. Risk_IRCurve is interest rate delta.
+		 *
+		 * @param riskType The CRIF risk type
+		 * @return The classification, {@link #NONE} if the risk type is no sensitivity
+		 */
+		private static CrifRiskType classify(String riskType) {
+			if (riskType.contains("IR") && !riskType.contains("Vol")) {
+				return new CrifRiskType(RiskClass.INTEREST_RATE, MarginType.DELTA, Shape.CURVE);
+			} else if (riskType.contains("IR") && riskType.contains("Vol")) {
+				return new CrifRiskType(RiskClass.INTEREST_RATE, MarginType.VEGA, Shape.CURVE);
+			} else if (riskType.contains("Equity") && !riskType.contains("Vol")) {
+				return new CrifRiskType(RiskClass.EQUITY, MarginType.DELTA, Shape.NO_TENOR);
+			} else if (riskType.contains("Equity") && riskType.contains("Vol")) {
+				return new CrifRiskType(RiskClass.EQUITY, MarginType.VEGA, Shape.TENOR);
+			} else if (riskType.contains("Commodity") && !riskType.contains("Vol")) {
+				return new CrifRiskType(RiskClass.COMMODITY, MarginType.DELTA, Shape.NO_TENOR);
+			} else if (riskType.contains("Commodity") && riskType.contains("Vol")) {
+				return new CrifRiskType(RiskClass.COMMODITY, MarginType.VEGA, Shape.TENOR);
+			} else if (riskType.contains("FX") && !riskType.contains("Vol")) {
+				return new CrifRiskType(RiskClass.FX, MarginType.DELTA, Shape.FX);
+			} else if (riskType.contains("FX") && riskType.contains("Vol")) {
+				return new CrifRiskType(RiskClass.FX, MarginType.VEGA, Shape.FX_VOL);
+			} else if (riskType.contains("CreditQ")) {
+				return new CrifRiskType(RiskClass.CREDIT_Q, MarginType.DELTA, Shape.TENOR);
+			} else if (riskType.contains("CreditNonQ")) {
+				return new CrifRiskType(RiskClass.CREDIT_NON_Q, MarginType.DELTA, Shape.TENOR);
+			} else if (riskType.contains("Credit") && riskType.contains("Vol")) {
+				return new CrifRiskType(RiskClass.CREDIT_Q, MarginType.VEGA, Shape.TENOR);
+			} else if (riskType.contains("Inflation") && !riskType.contains("Vol")) {
+				return new CrifRiskType(RiskClass.INTEREST_RATE, MarginType.DELTA, Shape.INFLATION);
+			} else if (riskType.contains("Inflation") && riskType.contains("Vol")) {
+				return new CrifRiskType(RiskClass.INTEREST_RATE, MarginType.VEGA, Shape.INFLATION);
+			} else if (riskType.contains("XCcy")) {
+				return new CrifRiskType(RiskClass.INTEREST_RATE, MarginType.DELTA, Shape.CCY_BASIS);
+			}
+			return NONE;
 		}
-		return key;
 	}
 
 	public CrifSensitivityBean(String counterparty, String tradeId, String productClass, String riskType, String qualifier, String bucket, String label1, String label2, Double amount, String amountCcy, Double amountUsd) {
@@ -117,7 +342,8 @@ public class CrifSensitivityBean {
 	}
 
 	public ProductClass getParsedProductClass() {
-		return ProductClass.parseCrifProductClass(productClass);
+		ProductClass parsedProductClass = PRODUCT_CLASSES.get(productClass);
+		return parsedProductClass != null ? parsedProductClass : ProductClass.parseCrifProductClass(productClass);
 	}
 
 	public void setProductClass(String productClass) {
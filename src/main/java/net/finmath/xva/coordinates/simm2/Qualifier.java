@@ -6,7 +6,7 @@ import org.apache.commons.lang3.tuple.Pair;
  * Represents the additional of a SIMM coordinate which corresponds to the CRIF qualifier.
  */
 public class Qualifier {
-	private String text;
+	private final String text;
 
 	public Qualifier(String text) {
 		this.text = text;
@@ -35,4 +35,19 @@ public class Qualifier {
 	public String getText() {
 		return text;
 	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		Qualifier qualifier = (Qualifier) o;
+
+		return text != null ? text.equals(qualifier.text) : qualifier.text == null;
+	}
+
+	@Override
+	public int hashCode() {
+		return text != null ? text.hashCode() : 0;
+	}
 }
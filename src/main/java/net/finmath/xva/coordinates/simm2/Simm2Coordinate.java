@@ -1,14 +1,23 @@
 package net.finmath.xva.coordinates.simm2;
 
-import java.util.Objects;
-
 public final class Simm2Coordinate {
-	private Vertex vertex;
-	private Qualifier qualifier;//~qualifier
-	private String bucketKey;//~label2
-	private RiskClass riskClass;
-	private MarginType marginType;
-	private ProductClass productClass;
+	/**
+	 * The bucket index of the residual bucket, see {@link #getBucketIndex()}.
+	 */
+	public static final int RESIDUAL_BUCKET_INDEX = -1;
+	private static final String RESIDUAL_BUCKET = "Residual";
+	private static final int UNRESOLVED_BUCKET_INDEX = Integer.MIN_VALUE;
+
+	private final Vertex vertex;
+	private final Qualifier qualifier;//~qualifier
+	private final String bucketKey;//~label2
+	private final RiskClass riskClass;
+	private final MarginType marginType;
+	private final ProductClass productClass;
+
+	private final int hashCode;
+	// Lazily calculated, coordinates are immutable
+	private int bucketIndex = UNRESOLVED_BUCKET_INDEX;
 
 	@Deprecated
 	public Simm2Coordinate(String maturityBucket, String qualifier, String bucketID, String riskClass, String riskType, String productClass) {
@@ -26,6 +35,16 @@ public final class Simm2Coordinate {
 		this.riskClass = riskClass;
 		this.marginType = marginType;
 		this.productClass = productClass;
+
+		// Same as Objects.hash, without the varargs array
+		int result = 1;
+		result = 31 * result + (vertex != null ? vertex.hashCode() : 0);
+		result = 31 * result + (qualifier != null ? qualifier.hashCode() : 0);
+		result = 31 * result + (bucketKey != null ? bucketKey.hashCode() : 0);
+		result = 31 * result + (riskClass != null ? riskClass.hashCode() : 0);
+		result = 31 * result + (marginType != null ? marginType.hashCode() : 0);
+		result = 31 * result + (productClass != null ? productClass.hashCode() : 0);
+		this.hashCode = result;
 	}
 
 	public Vertex getVertex() {
@@ -49,6 +68,20 @@ public final class Simm2Coordinate {
 		return bucketKey;
 	}
 
+	/**
+	 * Returns the bucket key as number, e.g. for looking up bucket-wise parameters. The key is parsed once.
+	 * @return The number of the bucket or {@link #RESIDUAL_BUCKET_INDEX} for the residual bucket.
+	 * @throws NumberFormatException Thrown if the bucket key is neither a number nor the residual bucket.
+	 */
+	public int getBucketIndex() {
+		int result = bucketIndex;
+		if (result == UNRESOLVED_BUCKET_INDEX) {
+			result = bucketKey.equalsIgnoreCase(RESIDUAL_BUCKET) ? RESIDUAL_BUCKET_INDEX : Integer.parseInt(bucketKey);
+			bucketIndex = result;
+		}
+		return result;
+	}
+
 	public RiskClass getRiskClass() {
 		return riskClass;
 	}
@@ -68,18 +101,15 @@ public final class Simm2Coordinate {
 
 		Simm2Coordinate key = (Simm2Coordinate) o;
 
-		if (vertex != null ? !vertex.equals(key.vertex) : key.vertex != null)
-			return false;
-		if (qualifier != null ? !qualifier.equals(key.qualifier) : key.qualifier != null)
-			return false;
-		if (bucketKey != null ? !bucketKey.equals(key.bucketKey) : key.bucketKey != null) return false;
-		if (riskClass != null ? !riskClass.equals(key.riskClass) : key.riskClass != null) return false;
-		if (marginType != null ? !marginType.equals(key.marginType) : key.marginType != null) return false;
-		return productClass != null ? productClass.equals(key.productClass) : key.productClass == null;
+		// Enums and hash first, then the qualifier and bucket key
+		if (vertex != key.vertex || riskClass != key.riskClass || marginType != key.marginType || productClass != key.productClass) return false;
+		if (hashCode != key.hashCode) return false;
+		if (qualifier != null ? !qualifier.equals(key.qualifier) : key.qualifier != null) return false;
+		return bucketKey != null ? bucketKey.equals(key.bucketKey) : key.bucketKey == null;
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(vertex, qualifier, bucketKey, riskClass,marginType, productClass);
+		return hashCode;
 	}
 }
@@ -0,0 +1,227 @@
+package net.finmath.xva.coordinates.simm2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A key space, encoding a {@link Simm2Coordinate} into a primitive <code>long</code>.
+ *
+ * The enums are stored by their ordinals, the qualifier and the bucket key by ids of a dictionary of this key space, which
+ * interns each text once. Within a key space two coordinates have the same key if and only if they are equal. The key of a
+ * coordinate is never zero. Keys of different key spaces must not be mixed: each {@link Simm2SensitivityMap} and
+ * {@link Simm2SensitivitySnapshot} owns its key space, hence the dictionaries only grow with the texts of their sensitivities
+ * and are released together with them.
+ *
+ * <table summary="Bit layout">
+ * <tr><th>Bits</th><th>Content</th></tr>
+ * <tr><td>0-2</td><td>product class</td></tr>
+ * <tr><td>3-5</td><td>margin type</td></tr>
+ * <tr><td>6-8</td><td>risk class</td></tr>
+ * <tr><td>9-13</td><td>vertex</td></tr>
+ * <tr><td>14-33</td><td>bucket key id</td></tr>
+ * <tr><td>34-61</td><td>qualifier id</td></tr>
+ * <tr><td>62</td><td>always set</td></tr>
+ * </table>
+ *
+ * Each field is stored as (ordinal or id) + 1, such that <code>null</code> is encoded as zero.
+ */
+public final class Simm2CoordinateKey {
+
+	private static final int PRODUCT_CLASS_SHIFT = 0;
+	private static final int MARGIN_TYPE_SHIFT = 3;
+	private static final int RISK_CLASS_SHIFT = 6;
+	private static final int VERTEX_SHIFT = 9;
+	private static final int BUCKET_SHIFT = 14;
+	private static final int QUALIFIER_SHIFT = 34;
+	private static final long MARKER = 1L << 62;
+
+	private static final long ENUM_MASK = (1L << 3) - 1;
+	private static final long VERTEX_MASK = (1L << 5) - 1;
+	private static final long BUCKET_MASK = (1L << 20) - 1;
+	private static final long QUALIFIER_MASK = (1L << 28) - 1;
+
+	private final Dictionary bucketKeys = new Dictionary((int) BUCKET_MASK);
+	private final Dictionary qualifiers = new Dictionary((int) QUALIFIER_MASK);
+
+	/**
+	 * Create an empty key space.
+	 */
+	public Simm2CoordinateKey() {
+	}
+
+	/**
+	 * Create a key space with the given texts, e.g. those of {@link #getQualifierTexts()} and {@link #getBucketKeyTexts()} of another key space.
+	 * The key space encodes the coordinates with these texts to the same keys as the other key space.
+	 *
+	 * @param qualifierTexts The qualifiers, in the order of their ids
+	 * @param bucketKeyTexts The bucket keys, in the order of their ids
+	 * @throws IllegalArgumentException Thrown if a text is null or not unique.
+	 */
+	Simm2CoordinateKey(List<String> qualifierTexts, List<String> bucketKeyTexts) {
+		qualifiers.addAll(qualifierTexts);
+		bucketKeys.addAll(bucketKeyTexts);
+	}
+
+	/**
+	 * Returns the key of a coordinate.
+	 *
+	 * @param coordinate The coordinate
+	 * @return The key of the coordinate
+	 */
+	public long encode(Simm2Coordinate coordinate) {
+		return encode(coordinate.getVertex(), getText(coordinate.getQualifier()), coordinate.getBucketKey(),
+				coordinate.getRiskClass(), coordinate.getRiskType(), coordinate.getProductClass());
+	}
+
+	/**
+	 * Returns the key of the coordinate with the given components, without creating the coordinate.
+	 *
+	 * @param vertex       The vertex (may be null)
+	 * @param qualifier    The text of the qualifier (may be null)
+	 * @param bucketKey    The bucket key (may be null)
+	 * @param riskClass    The risk class (may be null)
+	 * @param marginType   The margin type (may be null)
+	 * @param productClass The product class (may be null)
+	 * @return The key of the coordinate
+	 */
+	public long encode(Vertex vertex, String qualifier, String bucketKey, RiskClass riskClass, MarginType marginType, ProductClass productClass) {
+		return getKey(qualifiers.getId(qualifier), bucketKeys.getId(bucketKey), vertex, riskClass, marginType, productClass);
+	}
+
+	/**
+	 * Returns the key of a coordinate if its texts are known to this key space, without interning them.
+	 * Lookups of coordinates which may be unknown, e.g. of a sensitivity provider, do not let the key space grow.
+	 *
+	 * @param coordinate The coordinate
+	 * @return The key of the coordinate or zero if no coordinate with its texts has been encoded in this key space
+	 */
+	public long find(Simm2Coordinate coordinate) {
+		int qualifierId = qualifiers.findId(getText(coordinate.getQualifier()));
+		int bucketKeyId = bucketKeys.findId(coordinate.getBucketKey());
+		if (qualifierId < 0 || bucketKeyId < 0) {
+			return 0;
+		}
+		return getKey(qualifierId, bucketKeyId, coordinate.getVertex(), coordinate.getRiskClass(), coordinate.getRiskType(), coordinate.getProductClass());
+	}
+
+	/**
+	 * @return The qualifiers of this key space, in the order of their ids.
+	 */
+	List<String> getQualifierTexts() {
+		return qualifiers.getTexts();
+	}
+
+	/**
+	 * @return The bucket keys of this key space, in the order of their ids.
+	 */
+	List<String> getBucketKeyTexts() {
+		return bucketKeys.getTexts();
+	}
+
+	/**
+	 * Returns the coordinate of a key.
+	 *
+	 * @param key The key of a coordinate
+	 * @return The coordinate
+	 */
+	public Simm2Coordinate decode(long key) {
+		if ((key & MARKER) == 0) {
+			throw new IllegalArgumentException("Not a coordinate key: " + key);
+		}
+		String qualifier = qualifiers.getText((int) (key >>> QUALIFIER_SHIFT & QUALIFIER_MASK));
+		return new Simm2Coordinate(
+				value(Vertex.values(), (int) (key >>> VERTEX_SHIFT & VERTEX_MASK)),
+				qualifier != null ? new Qualifier(qualifier) : null,
+				bucketKeys.getText((int) (key >>> BUCKET_SHIFT & BUCKET_MASK)),
+				value(RiskClass.values(), (int) (key >>> RISK_CLASS_SHIFT & ENUM_MASK)),
+				value(MarginType.values(), (int) (key >>> MARGIN_TYPE_SHIFT & ENUM_MASK)),
+				value(ProductClass.values(), (int) (key >>> PRODUCT_CLASS_SHIFT & ENUM_MASK)));
+	}
+
+	private static long getKey(int qualifierId, int bucketKeyId, Vertex vertex, RiskClass riskClass, MarginType marginType, ProductClass productClass) {
+		return MARKER
+				| (long) qualifierId << QUALIFIER_SHIFT
+				| (long) bucketKeyId << BUCKET_SHIFT
+				| (long) ordinal(vertex) << VERTEX_SHIFT
+				| (long) ordinal(riskClass) << RISK_CLASS_SHIFT
+				| (long) ordinal(marginType) << MARGIN_TYPE_SHIFT
+				| (long) ordinal(productClass) << PRODUCT_CLASS_SHIFT;
+	}
+
+	private static String getText(Qualifier qualifier) {
+		return qualifier != null ? qualifier.getText() : null;
+	}
+
+	private static int ordinal(Enum<?> value) {
+		return value != null ? value.ordinal() + 1 : 0;
+	}
+
+	private static <E> E value(E[] values, int ordinal) {
+		return ordinal != 0 ? values[ordinal - 1] : null;
+	}
+
+	/**
+	 * Assigns the ids 1, 2, ... to texts in the order of their first use. The id of <code>null</code> is zero.
+	 */
+	private static final class Dictionary {
+		private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+		private final List<String> texts = new ArrayList<>();
+		private final int maxId;
+
+		private Dictionary(int maxId) {
+			this.maxId = maxId;
+		}
+
+		private int getId(String text) {
+			if (text == null) {
+				return 0;
+			}
+			Integer id = ids.get(text);
+			if (id != null) {
+				return id;
+			}
+			synchronized (this) {
+				id = ids.get(text);
+				if (id == null) {
+					if (texts.size() >= maxId) {
+						throw new IllegalStateException("Too many distinct coordinate components in one key space (maximum " + maxId + ").");
+					}
+					texts.add(text);
+					id = texts.size();
+					ids.put(text, id);
+				}
+				return id;
+			}
+		}
+
+		private int findId(String text) {
+			if (text == null) {
+				return 0;
+			}
+			Integer id = ids.get(text);
+			return id != null ? id : -1;
+		}
+
+		private void addAll(List<String> newTexts) {
+			for (String text : newTexts) {
+				int expectedId = texts.size() + 1;
+				if (text == null || getId(text) != expectedId) {
+					throw new IllegalArgumentException("Text " + text + " is null or not unique.");
+				}
+			}
+		}
+
+		private synchronized List<String> getTexts() {
+			return new ArrayList<>(texts);
+		}
+
+		private synchronized String getText(int id) {
+			if (id > texts.size()) {
+				throw new IllegalArgumentException("Not a key of this key space.");
+			}
+			return id != 0 ? texts.get(id - 1) : null;
+		}
+	}
+}
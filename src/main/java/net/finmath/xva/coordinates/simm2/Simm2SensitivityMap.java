@@ -0,0 +1,227 @@
+package net.finmath.xva.coordinates.simm2;
+
+import java.util.Map;
+
+import net.finmath.stochastic.RandomVariableInterface;
+
+/**
+ * A map from coordinate keys to sensitivities, using open addressing on primitive arrays.
+ *
+ * The keys are those of the key space of this map, see {@link #getCoordinateKeys()}.
+ * A sensitivity is either a scalar (e.g. the amount of a CRIF record) or a random variable (a path-wise sensitivity).
+ * Lookups do not allocate. Instances are not thread safe while they are modified.
+ */
+public class Simm2SensitivityMap {
+
+	private static final long EMPTY = 0L;	// Coordinate keys are never zero
+	private static final double MAX_LOAD_FACTOR = 0.5;
+
+	private final Simm2CoordinateKey coordinateKeys = new Simm2CoordinateKey();
+	private long[] keys;
+	private double[] values;
+	private RandomVariableInterface[] randomVariables;	// Created upon the first path-wise sensitivity
+	private int size;
+
+	public Simm2SensitivityMap() {
+		this(16);
+	}
+
+	/**
+	 * Create an empty map.
+	 *
+	 * @param expectedSize The expected number of sensitivities
+	 */
+	public Simm2SensitivityMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(8, (int) (expectedSize / MAX_LOAD_FACTOR)) - 1) << 1;
+		keys = new long[capacity];
+		values = new double[capacity];
+	}
+
+	/**
+	 * Create a map of scalar sensitivities.
+	 *
+	 * @param sensitivities The sensitivities per coordinate
+	 */
+	public Simm2SensitivityMap(Map<Simm2Coordinate, Double> sensitivities) {
+		this(sensitivities.size());
+		for (Map.Entry<Simm2Coordinate, Double> sensitivity : sensitivities.entrySet()) {
+			add(coordinateKeys.encode(sensitivity.getKey()), sensitivity.getValue());
+		}
+	}
+
+	/**
+	 * Returns the key space of this map, which encodes the coordinates of its sensitivities.
+	 *
+	 * @return The key space
+	 */
+	public Simm2CoordinateKey getCoordinateKeys() {
+		return coordinateKeys;
+	}
+
+	/**
+	 * Adds a scalar sensitivity to the scalar sensitivity of a key.
+	 *
+	 * @param key   The coordinate key
+	 * @param value The sensitivity to add
+	 */
+	public void add(long key, double value) {
+		int slot = insert(key);	// May rehash, hence before reading the values array
+		values[slot] += value;
+	}
+
+	/**
+	 * Sets the scalar sensitivity of a key.
+	 *
+	 * @param key   The coordinate key
+	 * @param value The sensitivity
+	 */
+	public void put(long key, double value) {
+		int slot = insert(key);
+		values[slot] = value;
+	}
+
+	/**
+	 * Sets the path-wise sensitivity of a key.
+	 *
+	 * @param key   The coordinate key
+	 * @param value The sensitivity
+	 */
+	public void put(long key, RandomVariableInterface value) {
+		int slot = insert(key);
+		if (randomVariables == null) {
+			randomVariables = new RandomVariableInterface[keys.length];
+		}
+		randomVariables[slot] = value;
+	}
+
+	public boolean containsKey(long key) {
+		return find(key) >= 0;
+	}
+
+	public boolean containsKey(Simm2Coordinate coordinate) {
+		return containsKey(coordinateKeys.find(coordinate));
+	}
+
+	/**
+	 * Returns the scalar sensitivity of a key.
+	 *
+	 * @param key The coordinate key
+	 * @return The scalar sensitivity or zero if the map does not contain the key
+	 */
+	public double get(long key) {
+		int slot = find(key);
+		return slot >= 0 ? values[slot] : 0.0;
+	}
+
+	/**
+	 * Returns the scalar sensitivity of a coordinate.
+	 *
+	 * @param coordinate The coordinate
+	 * @return The scalar sensitivity or zero if the map does not contain the coordinate
+	 */
+	public double get(Simm2Coordinate coordinate) {
+		return get(coordinateKeys.find(coordinate));
+	}
+
+	/**
+	 * Returns the path-wise sensitivity of a key.
+	 *
+	 * @param key The coordinate key
+	 * @return The path-wise sensitivity or <code>null</code> if there is none
+	 */
+	public RandomVariableInterface getRandomVariable(long key) {
+		if (randomVariables == null) {
+			return null;
+		}
+		int slot = find(key);
+		return slot >= 0 ? randomVariables[slot] : null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the keys of this map, in no particular order.
+	 *
+	 * @return The coordinate keys
+	 */
+	public long[] getKeys() {
+		long[] result = new long[size];
+		int i = 0;
+		for (long key : keys) {
+			if (key != EMPTY) {
+				result[i++] = key;
+			}
+		}
+		return result;
+	}
+
+	private int find(long key) {
+		if (key == EMPTY) {
+			return -1;
+		}
+		int mask = keys.length - 1;
+		for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				return slot;
+			}
+			if (keys[slot] == EMPTY) {
+				return -1;
+			}
+		}
+	}
+
+	private int insert(long key) {
+		if (key == EMPTY) {
+			throw new IllegalArgumentException("Not a coordinate key: " + key);
+		}
+		int slot = find(key);
+		if (slot >= 0) {
+			return slot;
+		}
+		if (size + 1 > keys.length * MAX_LOAD_FACTOR) {
+			rehash(keys.length * 2);
+		}
+		int mask = keys.length - 1;
+		slot = hash(key) & mask;
+		while (keys[slot] != EMPTY) {
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		size++;
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		double[] oldValues = values;
+		RandomVariableInterface[] oldRandomVariables = randomVariables;
+
+		keys = new long[capacity];
+		values = new double[capacity];
+		randomVariables = oldRandomVariables != null ? new RandomVariableInterface[capacity] : null;
+
+		int mask = capacity - 1;
+		for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+			if (oldKeys[oldSlot] == EMPTY) {
+				continue;
+			}
+			int slot = hash(oldKeys[oldSlot]) & mask;
+			while (keys[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = oldKeys[oldSlot];
+			values[slot] = oldValues[oldSlot];
+			if (oldRandomVariables != null) {
+				randomVariables[slot] = oldRandomVariables[oldSlot];
+			}
+		}
+	}
+
+	private static int hash(long key) {
+		// Mix the bits, since the low bits of a key are the (few) enum ordinals
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,374 @@
+package net.finmath.xva.coordinates.simm2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.BufferUnderflowException;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+
+/**
+ * A binary snapshot of netted sensitivities, read through a memory mapped file.
+ *
+ * A snapshot holds either scalar sensitivities (e.g. netted CRIF amounts) or a path-wise sensitivity cube, i.e. one
+ * random variable per coordinate at a common filtration time. The file is columnar:
+ *
+ * <table summary="File layout">
+ * <tr><th>Content</th><th>Type</th></tr>
+ * <tr><td>magic, version, number of coordinates, number of paths (0 for scalars)</td><td>int</td></tr>
+ * <tr><td>filtration time</td><td>double</td></tr>
+ * <tr><td>number of qualifiers, then each qualifier as length and UTF-8 bytes</td><td>int, byte[]</td></tr>
+ * <tr><td>number of bucket keys, then each bucket key as length and UTF-8 bytes</td><td>int, byte[]</td></tr>
+ * <tr><td>padding to a multiple of 8 bytes</td><td></td></tr>
+ * <tr><td>coordinate keys in ascending order</td><td>long[]</td></tr>
+ * <tr><td>values, coordinate by coordinate in the order of the keys (one value per path)</td><td>double[]</td></tr>
+ * </table>
+ *
+ * Since coordinate keys are specific to a key space (see {@link Simm2CoordinateKey}), the file stores the texts of the key
+ * space of the writer in the order of their ids. Reading restores this key space from the (few) texts and maps the keys and
+ * the values without copying or sorting them, see {@link #getCoordinateKeys()}.
+ * Files larger than 2 GB are not supported.
+ */
+public class Simm2SensitivitySnapshot {
+
+	private static final int MAGIC = 0x53324E53;	// S2NS
+	private static final int VERSION = 2;
+	private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+	private static final double TIME_TOLERANCE = 1E-10;
+
+	private final Simm2CoordinateKey coordinateKeys;
+	private final int numberOfPaths;
+	private final double time;
+	private final LongBuffer sortedKeys;
+	private final DoubleBuffer values;		// The values of sortedKeys.get(i) start at i * max(numberOfPaths, 1)
+
+	private Simm2SensitivitySnapshot(Simm2CoordinateKey coordinateKeys, int numberOfPaths, double time, LongBuffer sortedKeys, DoubleBuffer values) {
+		this.coordinateKeys = coordinateKeys;
+		this.numberOfPaths = numberOfPaths;
+		this.time = time;
+		this.sortedKeys = sortedKeys;
+		this.values = values;
+	}
+
+	/**
+	 * Maps a snapshot file.
+	 *
+	 * @param file The file
+	 * @return The snapshot
+	 * @throws IOException Thrown if the file cannot be read or is no snapshot.
+	 */
+	public static Simm2SensitivitySnapshot read(Path file) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Snapshot " + file + " is larger than 2 GB.");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(BYTE_ORDER);
+		}
+
+		if (buffer.remaining() < 24 || buffer.getInt() != MAGIC) {
+			throw new IOException("File " + file + " is no sensitivity snapshot.");
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported sensitivity snapshot version " + version + ".");
+		}
+		int numberOfCoordinates = buffer.getInt();
+		int numberOfPaths = buffer.getInt();
+		double time = buffer.getDouble();
+
+		Simm2CoordinateKey coordinateKeys;
+		try {
+			List<String> qualifiers = readTexts(buffer);
+			List<String> bucketKeys = readTexts(buffer);
+			coordinateKeys = new Simm2CoordinateKey(qualifiers, bucketKeys);
+		} catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+			throw new IOException("Sensitivity snapshot " + file + " is corrupt.", e);
+		}
+		buffer.position(align(buffer.position()));
+
+		if (numberOfCoordinates < 0 || numberOfPaths < 0) {
+			throw new IOException("Sensitivity snapshot " + file + " is corrupt.");
+		}
+		long numberOfValues = (long) numberOfCoordinates * Math.max(numberOfPaths, 1);
+		if (buffer.remaining() < Long.BYTES * (numberOfCoordinates + numberOfValues)) {
+			throw new IOException("Sensitivity snapshot " + file + " is truncated.");
+		}
+		LongBuffer sortedKeys = buffer.slice().order(BYTE_ORDER).asLongBuffer();
+		sortedKeys.limit(numberOfCoordinates);
+		buffer.position(buffer.position() + Long.BYTES * numberOfCoordinates);
+		DoubleBuffer values = buffer.slice().order(BYTE_ORDER).asDoubleBuffer();
+
+		return new Simm2SensitivitySnapshot(coordinateKeys, numberOfPaths, time, sortedKeys, values);
+	}
+
+	/**
+	 * Writes scalar sensitivities to a snapshot file.
+	 *
+	 * @param file          The file
+	 * @param sensitivities The sensitivities per coordinate
+	 * @throws IOException Thrown if the file cannot be written.
+	 */
+	public static void write(Path file, Map<Simm2Coordinate, Double> sensitivities) throws IOException {
+		write(file, new Simm2SensitivityMap(sensitivities));
+	}
+
+	/**
+	 * Writes scalar sensitivities to a snapshot file. The snapshot uses the key space of the sensitivities.
+	 *
+	 * @param file          The file
+	 * @param sensitivities The sensitivities per coordinate key
+	 * @throws IOException Thrown if the file cannot be written.
+	 */
+	public static void write(Path file, Simm2SensitivityMap sensitivities) throws IOException {
+		long[] keys = sensitivities.getKeys();
+		Arrays.sort(keys);
+		try (FileChannel channel = openForWriting(file)) {
+			writeKeys(channel, sensitivities.getCoordinateKeys(), keys, 0, 0.0);
+
+			ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(BYTE_ORDER);
+			for (long key : keys) {
+				putDouble(channel, buffer, sensitivities.get(key));
+			}
+			flush(channel, buffer);
+		}
+	}
+
+	/**
+	 * Writes a path-wise sensitivity cube to a snapshot file. Deterministic sensitivities are stored on all paths.
+	 *
+	 * @param file          The file
+	 * @param time          The filtration time of the sensitivities
+	 * @param sensitivities The sensitivities per coordinate
+	 * @throws IOException Thrown if the file cannot be written.
+	 */
+	public static void writeCube(Path file, double time, Map<Simm2Coordinate, RandomVariableInterface> sensitivities) throws IOException {
+		Simm2SensitivityMap sensitivityMap = new Simm2SensitivityMap(sensitivities.size());
+		for (Map.Entry<Simm2Coordinate, RandomVariableInterface> sensitivity : sensitivities.entrySet()) {
+			sensitivityMap.put(sensitivityMap.getCoordinateKeys().encode(sensitivity.getKey()), sensitivity.getValue());
+		}
+		long[] keys = sensitivityMap.getKeys();
+		Arrays.sort(keys);
+		int numberOfPaths = sensitivities.values().stream().mapToInt(RandomVariableInterface::size).max().orElse(1);
+
+		try (FileChannel channel = openForWriting(file)) {
+			writeKeys(channel, sensitivityMap.getCoordinateKeys(), keys, numberOfPaths, time);
+
+			ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(BYTE_ORDER);
+			for (long key : keys) {
+				RandomVariableInterface sensitivity = sensitivityMap.getRandomVariable(key);
+				if (!sensitivity.isDeterministic() && sensitivity.size() != numberOfPaths) {
+					throw new IllegalArgumentException("Sensitivity of " + sensitivityMap.getCoordinateKeys().decode(key) + " has " + sensitivity.size() + " paths, expected " + numberOfPaths + ".");
+				}
+				for (int path = 0; path < numberOfPaths; path++) {
+					putDouble(channel, buffer, sensitivity.get(path));
+				}
+			}
+			flush(channel, buffer);
+		}
+	}
+
+	/**
+	 * @return The key space of this snapshot, which encodes the coordinates of its sensitivities.
+	 */
+	public Simm2CoordinateKey getCoordinateKeys() {
+		return coordinateKeys;
+	}
+
+	/**
+	 * @return The number of paths of a sensitivity cube, 0 for scalar sensitivities.
+	 */
+	public int getNumberOfPaths() {
+		return numberOfPaths;
+	}
+
+	/**
+	 * @return The filtration time of a sensitivity cube.
+	 */
+	public double getTime() {
+		return time;
+	}
+
+	public int size() {
+		return sortedKeys.limit();
+	}
+
+	public boolean containsKey(long key) {
+		return find(key) >= 0;
+	}
+
+	public boolean containsKey(Simm2Coordinate coordinate) {
+		return containsKey(coordinateKeys.find(coordinate));
+	}
+
+	/**
+	 * Returns the keys of this snapshot, in ascending order.
+	 *
+	 * @return The coordinate keys
+	 */
+	public long[] getKeys() {
+		long[] keys = new long[size()];
+		sortedKeys.duplicate().get(keys);
+		return keys;
+	}
+
+	/**
+	 * Returns the scalar sensitivity of a key, for a sensitivity cube the average over the paths.
+	 *
+	 * @param key The coordinate key
+	 * @return The sensitivity or zero if the snapshot does not contain the key
+	 */
+	public double get(long key) {
+		int slot = find(key);
+		if (slot < 0) {
+			return 0.0;
+		}
+		if (numberOfPaths == 0) {
+			return values.get(slot);
+		}
+		int offset = slot * numberOfPaths;
+		double sum = 0.0;
+		for (int path = 0; path < numberOfPaths; path++) {
+			sum += values.get(offset + path);
+		}
+		return sum / numberOfPaths;
+	}
+
+	/**
+	 * Returns the scalar sensitivity of a coordinate, for a sensitivity cube the average over the paths.
+	 *
+	 * @param coordinate The coordinate
+	 * @return The sensitivity or zero if the snapshot does not contain the coordinate
+	 */
+	public double get(Simm2Coordinate coordinate) {
+		return get(coordinateKeys.find(coordinate));
+	}
+
+	/**
+	 * Returns the sensitivity of a key as random variable, deterministic for scalar sensitivities.
+	 *
+	 * @param key            The coordinate key
+	 * @param evaluationTime The filtration time of scalar sensitivities, for a sensitivity cube its time
+	 * @return The sensitivity or zero if the snapshot does not contain the key
+	 * @throws IllegalArgumentException Thrown if the snapshot is a sensitivity cube of another time.
+	 */
+	public RandomVariableInterface getRandomVariable(long key, double evaluationTime) {
+		if (numberOfPaths != 0 && Math.abs(evaluationTime - time) > TIME_TOLERANCE) {
+			throw new IllegalArgumentException("Sensitivity cube of time " + time + " requested at time " + evaluationTime + ".");
+		}
+		int slot = find(key);
+		if (slot < 0) {
+			return new RandomVariable(numberOfPaths == 0 ? evaluationTime : time, 0.0);
+		}
+		if (numberOfPaths == 0) {
+			return new RandomVariable(evaluationTime, values.get(slot));
+		}
+		double[] realizations = new double[numberOfPaths];
+		DoubleBuffer column = values.duplicate();
+		column.position(slot * numberOfPaths);
+		column.get(realizations);
+		return new RandomVariable(time, realizations);
+	}
+
+	/**
+	 * Returns the index of a key in the sorted keys, -1 if the snapshot does not contain the key.
+	 */
+	private int find(long key) {
+		int low = 0;
+		int high = sortedKeys.limit() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long middleKey = sortedKeys.get(middle);
+			if (middleKey < key) {
+				low = middle + 1;
+			} else if (middleKey > key) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private static FileChannel openForWriting(Path file) throws IOException {
+		return FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	private static List<String> readTexts(ByteBuffer buffer) {
+		int numberOfTexts = buffer.getInt();
+		List<String> texts = new ArrayList<>(Math.min(numberOfTexts, buffer.remaining() / 4));
+		for (int i = 0; i < numberOfTexts; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			texts.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+		return texts;
+	}
+
+	private static void writeKeys(FileChannel channel, Simm2CoordinateKey coordinateKeys, long[] sortedKeys, int numberOfPaths, double time) throws IOException {
+		List<byte[]> qualifiers = getBytes(coordinateKeys.getQualifierTexts());
+		List<byte[]> bucketKeys = getBytes(coordinateKeys.getBucketKeyTexts());
+		int textBytes = 0;
+		for (List<byte[]> texts : Arrays.asList(qualifiers, bucketKeys)) {
+			for (byte[] text : texts) {
+				textBytes += 4 + text.length;
+			}
+		}
+
+		int size = align(32 + textBytes) + Long.BYTES * sortedKeys.length;
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(BYTE_ORDER);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(sortedKeys.length).putInt(numberOfPaths).putDouble(time);
+		for (List<byte[]> texts : Arrays.asList(qualifiers, bucketKeys)) {
+			buffer.putInt(texts.size());
+			for (byte[] text : texts) {
+				buffer.putInt(text.length).put(text);
+			}
+		}
+		buffer.position(align(buffer.position()));
+		buffer.asLongBuffer().put(sortedKeys);
+
+		buffer.rewind();	// Including the padding
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static List<byte[]> getBytes(List<String> texts) {
+		List<byte[]> bytes = new ArrayList<>(texts.size());
+		for (String text : texts) {
+			bytes.add(text.getBytes(StandardCharsets.UTF_8));
+		}
+		return bytes;
+	}
+
+	private static void putDouble(FileChannel channel, ByteBuffer buffer, double value) throws IOException {
+		if (buffer.remaining() < Double.BYTES) {
+			flush(channel, buffer);
+		}
+		buffer.putDouble(value);
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private static int align(int position) {
+		return (position + 7) & ~7;
+	}
+}
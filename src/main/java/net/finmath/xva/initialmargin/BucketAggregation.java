@@ -0,0 +1,129 @@
+package net.finmath.xva.initialmargin;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.xva.coordinates.simm2.MarginType;
+import net.finmath.xva.coordinates.simm2.ProductClass;
+import net.finmath.xva.coordinates.simm2.RiskClass;
+import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+import net.finmath.xva.coordinates.simm2.Vertex;
+
+/**
+ * Path-wise intra-bucket aggregation of weighted sensitivities (cf. ISDA SIMM v2.0, B.8 (c)), i.e.,
+ * K = sqrt(&sum;<sub>k,l</sub> &rho;<sub>kl</sub> f<sub>kl</sub> WS<sub>k</sub> WS<sub>l</sub>) with
+ * f<sub>kl</sub> = min(CR<sub>k</sub>, CR<sub>l</sub>) / max(CR<sub>k</sub>, CR<sub>l</sub>), and S = max(min(&sum;<sub>k</sub> WS<sub>k</sub>, K), -K).
+ *
+ * The weighted sensitivities and concentration risk factors are copied into primitive arrays, the correlations are read as
+ * one block per bucket and K and S are evaluated in one pass over blocks of paths, using the symmetry of the pairs.
+ * The sensitivities are visited in the order of their coordinates, hence the result does not depend on the iteration
+ * order of the set.
+ */
+public final class BucketAggregation {
+
+	private static final int BLOCK_SIZE = 1024;
+
+	private static final Comparator<Simm2Coordinate> COORDINATE_ORDER = Comparator
+			.comparing(Simm2Coordinate::getProductClass, Comparator.nullsFirst(Comparator.<ProductClass>naturalOrder()))
+			.thenComparing(Simm2Coordinate::getRiskClass, Comparator.nullsFirst(Comparator.<RiskClass>naturalOrder()))
+			.thenComparing(Simm2Coordinate::getRiskType, Comparator.nullsFirst(Comparator.<MarginType>naturalOrder()))
+			.thenComparing(Simm2Coordinate::getVertex, Comparator.nullsFirst(Comparator.<Vertex>naturalOrder()))
+			.thenComparing(Simm2Coordinate::getBucketKey, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+			.thenComparing(coordinate -> coordinate.getQualifier() != null ? coordinate.getQualifier().getText() : null, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+
+	private BucketAggregation() {
+	}
+
+	/**
+	 * Aggregates the weighted sensitivities of a bucket.
+	 *
+	 * @param bucketName            The name of the bucket
+	 * @param weightedSensitivities The weighted sensitivities of the bucket
+	 * @param parameter             The parameters providing the intra-bucket correlations
+	 * @return The {@link BucketResult} with K and S
+	 */
+	public static BucketResult getBucketAggregation(String bucketName, Set<WeightedSensitivity> weightedSensitivities, Simm2Parameter parameter) {
+		WeightedSensitivity[] sensitivities = weightedSensitivities.toArray(new WeightedSensitivity[0]);
+		Arrays.sort(sensitivities, Comparator.comparing(WeightedSensitivity::getCoordinate, COORDINATE_ORDER));
+		int numberOfSensitivities = sensitivities.length;
+
+		int numberOfPaths = 1;
+		double filtrationTime = Double.NEGATIVE_INFINITY;
+		for (WeightedSensitivity sensitivity : sensitivities) {
+			for (RandomVariableInterface value : new RandomVariableInterface[]{sensitivity.getWeightedSensitivity(), sensitivity.getConcentrationRiskFactor()}) {
+				filtrationTime = Math.max(filtrationTime, value.getFiltrationTime());
+				if (!value.isDeterministic()) {
+					if (numberOfPaths > 1 && value.size() != numberOfPaths) {
+						throw new IllegalArgumentException("Weighted sensitivities must have the same number of paths.");
+					}
+					numberOfPaths = value.size();
+				}
+			}
+		}
+		if (numberOfSensitivities == 0) {
+			filtrationTime = 0.0;
+		}
+
+		// The correlation block, the off-diagonal pairs counted twice
+		double[][] weights = parameter.getIntraBucketCorrelations(Arrays.stream(sensitivities).map(WeightedSensitivity::getCoordinate).toArray(Simm2Coordinate[]::new));
+		for (int k = 0; k < numberOfSensitivities; k++) {
+			for (int l = k + 1; l < numberOfSensitivities; l++) {
+				weights[k][l] *= 2.0;
+			}
+		}
+
+		double[][] weightedSensitivityValues = new double[numberOfSensitivities][];
+		double[][] concentrationRiskFactors = new double[numberOfSensitivities][];
+		for (int k = 0; k < numberOfSensitivities; k++) {
+			weightedSensitivityValues[k] = getValues(sensitivities[k].getWeightedSensitivity(), numberOfPaths);
+			concentrationRiskFactors[k] = getValues(sensitivities[k].getConcentrationRiskFactor(), numberOfPaths);
+		}
+
+		double[] aggregated = new double[numberOfPaths];
+		double[] sum = new double[numberOfPaths];
+		for (int blockStart = 0; blockStart < numberOfPaths; blockStart += BLOCK_SIZE) {
+			int blockEnd = Math.min(blockStart + BLOCK_SIZE, numberOfPaths);
+			for (int k = 0; k < numberOfSensitivities; k++) {
+				double[] valuesK = weightedSensitivityValues[k];
+				double[] factorsK = concentrationRiskFactors[k];
+				double weight = weights[k][k];
+				for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+					aggregated[pathIndex] += weight * valuesK[pathIndex] * valuesK[pathIndex];
+					sum[pathIndex] += valuesK[pathIndex];
+				}
+				for (int l = k + 1; l < numberOfSensitivities; l++) {
+					double[] valuesL = weightedSensitivityValues[l];
+					double[] factorsL = concentrationRiskFactors[l];
+					weight = weights[k][l];
+					for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+						double factorK = factorsK[pathIndex];
+						double factorL = factorsL[pathIndex];
+						double f = factorK < factorL ? factorK / factorL : factorL / factorK;
+						aggregated[pathIndex] += weight * f * valuesK[pathIndex] * valuesL[pathIndex];
+					}
+				}
+			}
+			for (int pathIndex = blockStart; pathIndex < blockEnd; pathIndex++) {
+				double k = Math.sqrt(aggregated[pathIndex]);
+				aggregated[pathIndex] = k;
+				sum[pathIndex] = Math.max(Math.min(sum[pathIndex], k), -k);
+			}
+		}
+
+		RandomVariableInterface k = numberOfPaths == 1 ? new RandomVariable(filtrationTime, aggregated[0]) : new RandomVariable(filtrationTime, aggregated);
+		RandomVariableInterface s = numberOfPaths == 1 ? new RandomVariable(filtrationTime, sum[0]) : new RandomVariable(filtrationTime, sum);
+		return new BucketResult(bucketName, weightedSensitivities, k, s);
+	}
+
+	private static double[] getValues(RandomVariableInterface value, int numberOfPaths) {
+		if (value.isDeterministic()) {
+			double[] values = new double[numberOfPaths];
+			Arrays.fill(values, value.get(0));
+			return values;
+		}
+		return value.getRealizations();
+	}
+}
@@ -12,6 +12,7 @@ public class BucketResult {
 	private String bucketName;
 	private Set<WeightedSensitivity> singleSensitivities;
 	private RandomVariableInterface aggregatedResult;
+	private RandomVariableInterface s;
 
 	/**
 	 * @param bucketName
@@ -24,6 +25,17 @@ public class BucketResult {
 		this.aggregatedResult = aggregatedResult;
 	}
 
+	/**
+	 * @param bucketName
+	 * @param singleSensitivities
+	 * @param aggregatedResult The figure K_b.
+	 * @param s The figure S_b, see {@link #getS()}.
+	 */
+	public BucketResult(String bucketName, Set<WeightedSensitivity> singleSensitivities, RandomVariableInterface aggregatedResult, RandomVariableInterface s) {
+		this(bucketName, singleSensitivities, aggregatedResult);
+		this.s = s;
+	}
+
 	public RandomVariableInterface getK() {
 		return aggregatedResult;
 	}
@@ -33,6 +45,9 @@ public class BucketResult {
 	 * @return The figure S_b of ISDA SIMM v2.0, B.8 (d)'s formula.
 	 */
 	public RandomVariableInterface getS() {
+		if (s != null) {
+			return s;
+		}
 		return singleSensitivities.stream().
 				map(WeightedSensitivity::getWeightedSensitivity).
 				reduce(new Scalar(0.0), RandomVariableInterface::add).
@@ -0,0 +1,348 @@
+package net.finmath.xva.initialmargin;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.finmath.xva.coordinates.simm2.MarginType;
+import net.finmath.xva.coordinates.simm2.RiskClass;
+import net.finmath.xva.coordinates.simm2.Vertex;
+
+/**
+ * An immutable view of a {@link SIMMParameter} on primitive tables, compiled once from the (JSON) parameter set.
+ *
+ * The nested, string keyed maps of the parameter set are resolved when the view is created: the interest rate risk weights are
+ * indexed by {@link VolatilityClass} and vertex, the correlations by curve, vertex and {@link RiskClass}. A currency is resolved
+ * to its {@link IRCurrencyClass} once and the result is interned, hence the evaluation of a sensitivity does not search the maps.
+ *
+ * The nested maps may be keyed by enums or their names (in any case), and the values may be <code>Double[][]</code> or the nested
+ * lists created by Gson for untyped maps.
+ */
+public final class CompiledSIMMParameter {
+
+	/**
+	 * The volatility classes of the interest rate currencies, ISDA SIMM v2.0, C.1.1.
+	 */
+	public enum VolatilityClass {
+		REGULAR("Regular_Volatility_Currencies"),
+		LOW("Low_Volatility_Currencies"),
+		HIGH("High_Volatility_Currencies");
+
+		private final String parameterKey;
+
+		VolatilityClass(String parameterKey) {
+			this.parameterKey = parameterKey;
+		}
+
+		/**
+		 * @return The key of the volatility class in the maps of {@link SIMMParameter}.
+		 */
+		public String getParameterKey() {
+			return parameterKey;
+		}
+
+		/**
+		 * Returns the volatility class of a currency group of {@link SIMMParameter#IRCurrencyMap}, ignoring the liquidity suffixes
+		 * (e.g. <code>Regular_Volatility_Currencies_Well_Traded</code>).
+		 *
+		 * @param currencyGroup The currency group
+		 * @return The volatility class
+		 */
+		public static VolatilityClass parseCurrencyGroup(String currencyGroup) {
+			String parameterKey = currencyGroup.replace("_Traded", "").replace("_Well", "").replace("_Less", "");
+			for (VolatilityClass volatilityClass : values()) {
+				if (volatilityClass.parameterKey.equalsIgnoreCase(parameterKey)) {
+					return volatilityClass;
+				}
+			}
+			throw new IllegalArgumentException("Unknown interest rate currency group " + currencyGroup);
+		}
+	}
+
+	/**
+	 * The interest rate parameters of a currency group: its volatility class, the risk weights per vertex and the concentration threshold.
+	 */
+	public static final class IRCurrencyClass {
+		private final String currencyGroup;
+		private final VolatilityClass volatilityClass;
+		private final double[] riskWeights;
+		private final double concentrationThreshold;
+
+		private IRCurrencyClass(String currencyGroup, VolatilityClass volatilityClass, double[] riskWeights, double concentrationThreshold) {
+			this.currencyGroup = currencyGroup;
+			this.volatilityClass = volatilityClass;
+			this.riskWeights = riskWeights;
+			this.concentrationThreshold = concentrationThreshold;
+		}
+
+		public String getCurrencyGroup() {
+			return currencyGroup;
+		}
+
+		public VolatilityClass getVolatilityClass() {
+			return volatilityClass;
+		}
+
+		/**
+		 * @return The delta risk weights, indexed like {@link CompiledSIMMParameter#getIRVertices()}.
+		 */
+		public double[] getRiskWeights() {
+			return riskWeights.clone();
+		}
+
+		public double getConcentrationThreshold() {
+			return concentrationThreshold;
+		}
+	}
+
+	private static final String DEFAULT_CURRENCY_GROUP = VolatilityClass.HIGH.getParameterKey();
+
+	private final Vertex[] irVertices;
+	private final SIMMParameter.RatesCurveNames[] irCurves = SIMMParameter.RatesCurveNames.values();
+
+	private final double[][] irRiskWeights;					// [volatility class][tenor], a row is null if the parameter set has none
+	private final double inflationRiskWeight;
+	private final double ccyBasisRiskWeight;
+	private final double[][] irIntraBucketCorrelations;		// [curve * tenors + tenor (+ inflation, ccy basis)][...]
+	private final double irCrossCurrencyCorrelation;
+	private final double[][] crossRiskClassCorrelations;	// [risk class][risk class]
+
+	private final Map<String, IRCurrencyClass> irCurrencyGroups;	// By currency group
+	private final Map<String, String> irCurrencyMap;
+	private final Map<String, IRCurrencyClass> irCurrencyClasses = new ConcurrentHashMap<>();	// By currency, interned upon first use
+
+	/**
+	 * Compiles a parameter set.
+	 *
+	 * @param parameterSet The parameter set, e.g. loaded from JSON by {@link SIMMParameter#SIMMParameter(String)}
+	 * @throws IllegalArgumentException Thrown if the parameter set misses an interest rate parameter.
+	 */
+	public CompiledSIMMParameter(SIMMParameter parameterSet) {
+		irVertices = Arrays.stream(parameterSet.IRMaturityBuckets).map(Vertex::parseCrifTenor).toArray(Vertex[]::new);
+
+		Map<?, ?> irRiskWeightMap = getIRMap(parameterSet.MapRiskClassRiskweightMap, "risk weights");
+		irRiskWeights = new double[VolatilityClass.values().length][];
+		for (VolatilityClass volatilityClass : VolatilityClass.values()) {
+			Object riskWeights = get(irRiskWeightMap, volatilityClass.getParameterKey());
+			if (riskWeights != null) {
+				irRiskWeights[volatilityClass.ordinal()] = toMatrix(riskWeights)[0];
+				if (irRiskWeights[volatilityClass.ordinal()].length < irVertices.length) {
+					throw new IllegalArgumentException("Missing interest rate risk weights of " + volatilityClass.getParameterKey());
+				}
+			}
+		}
+		inflationRiskWeight = getScalar(irRiskWeightMap, SIMMParameter.inflationKey, "inflation risk weight");
+		ccyBasisRiskWeight = getScalar(irRiskWeightMap, SIMMParameter.ccyBasisKey, "currency basis risk weight");
+
+		Object intraBucketCorrelations = parameterSet.MapRiskClassCorrelationIntraBucketMap != null ? get(parameterSet.MapRiskClassCorrelationIntraBucketMap, RiskClass.INTEREST_RATE) : null;
+		if (intraBucketCorrelations == null) {
+			throw new IllegalArgumentException("Missing interest rate intra-bucket correlations.");
+		}
+		irIntraBucketCorrelations = toMatrix(intraBucketCorrelations);
+		if (irIntraBucketCorrelations.length != irCurves.length * irVertices.length + 2) {
+			throw new IllegalArgumentException("The interest rate intra-bucket correlations must have dimension " + (irCurves.length * irVertices.length + 2) + ".");
+		}
+
+		irCrossCurrencyCorrelation = parameterSet.IRCorrelationCrossCurrency != null ? parameterSet.IRCorrelationCrossCurrency : Double.NaN;
+		crossRiskClassCorrelations = parameterSet.CrossRiskClassCorrelationMatrix != null ? toMatrix(parameterSet.CrossRiskClassCorrelationMatrix) : null;
+
+		Map<?, ?> irThresholdMap = getIRMap(parameterSet.MapRiskClassThresholdMap, "concentration thresholds");
+		irCurrencyMap = parameterSet.IRCurrencyMap != null ? new HashMap<>(parameterSet.IRCurrencyMap) : new HashMap<>();
+		irCurrencyGroups = new ConcurrentHashMap<>();
+		for (String currencyGroup : irCurrencyMap.values()) {
+			irCurrencyGroups.computeIfAbsent(currencyGroup, group -> compileCurrencyGroup(group, irThresholdMap));
+		}
+		if (get(irThresholdMap, DEFAULT_CURRENCY_GROUP) != null && irRiskWeights[VolatilityClass.HIGH.ordinal()] != null) {
+			irCurrencyGroups.computeIfAbsent(DEFAULT_CURRENCY_GROUP, group -> compileCurrencyGroup(group, irThresholdMap));
+		}
+	}
+
+	private IRCurrencyClass compileCurrencyGroup(String currencyGroup, Map<?, ?> irThresholdMap) {
+		VolatilityClass volatilityClass = VolatilityClass.parseCurrencyGroup(currencyGroup);
+		double[] riskWeights = irRiskWeights[volatilityClass.ordinal()];
+		if (riskWeights == null) {
+			throw new IllegalArgumentException("Missing interest rate risk weights of " + volatilityClass.getParameterKey());
+		}
+		return new IRCurrencyClass(currencyGroup, volatilityClass, riskWeights, getScalar(irThresholdMap, currencyGroup, "concentration threshold of " + currencyGroup));
+	}
+
+	/**
+	 * Returns the interest rate parameters of a currency. The currency is looked up in the currency groups of {@link SIMMParameter#IRCurrencyMap},
+	 * a currency of no group belongs to the high volatility currencies. The result is interned.
+	 *
+	 * @param currency The currency, i.e., the interest rate bucket key
+	 * @return The parameters of the currency
+	 * @throws IllegalArgumentException Thrown if the parameter set has no parameters for the currency group.
+	 */
+	public IRCurrencyClass getIRCurrencyClass(String currency) {
+		IRCurrencyClass currencyClass = irCurrencyClasses.get(currency);
+		if (currencyClass == null) {
+			currencyClass = irCurrencyClasses.computeIfAbsent(currency, this::resolveIRCurrencyClass);
+		}
+		return currencyClass;
+	}
+
+	private IRCurrencyClass resolveIRCurrencyClass(String currency) {
+		// The keys of the currency map are lists of currencies
+		String currencyGroup = irCurrencyMap.entrySet().stream().filter(entry -> entry.getKey().contains(currency)).map(Map.Entry::getValue).findAny().orElse(DEFAULT_CURRENCY_GROUP);
+		IRCurrencyClass currencyClass = irCurrencyGroups.get(currencyGroup);
+		if (currencyClass == null) {
+			throw new IllegalArgumentException("Missing interest rate parameters of " + currencyGroup);
+		}
+		return currencyClass;
+	}
+
+	/**
+	 * @return The interest rate vertices, in the order of the tenor indices.
+	 */
+	public Vertex[] getIRVertices() {
+		return irVertices.clone();
+	}
+
+	public int getNumberOfIRVertices() {
+		return irVertices.length;
+	}
+
+	public Vertex getIRVertex(int tenorIndex) {
+		return irVertices[tenorIndex];
+	}
+
+	/**
+	 * @return The interest rate curves, in the order of the curve indices.
+	 */
+	public SIMMParameter.RatesCurveNames[] getIRCurves() {
+		return irCurves.clone();
+	}
+
+	public int getNumberOfIRCurves() {
+		return irCurves.length;
+	}
+
+	public SIMMParameter.RatesCurveNames getIRCurve(int curveIndex) {
+		return irCurves[curveIndex];
+	}
+
+	/**
+	 * @param volatilityClass The volatility class
+	 * @param tenorIndex      The index of the vertex
+	 * @return The interest rate delta risk weight
+	 */
+	public double getIRRiskWeight(VolatilityClass volatilityClass, int tenorIndex) {
+		double[] riskWeights = irRiskWeights[volatilityClass.ordinal()];
+		if (riskWeights == null) {
+			throw new IllegalArgumentException("Missing interest rate risk weights of " + volatilityClass.getParameterKey());
+		}
+		return riskWeights[tenorIndex];
+	}
+
+	public double getInflationRiskWeight() {
+		return inflationRiskWeight;
+	}
+
+	public double getCcyBasisRiskWeight() {
+		return ccyBasisRiskWeight;
+	}
+
+	/**
+	 * Returns the intra-bucket correlation of two interest rate risk factors, i.e., the tenor correlation times the curve correlation.
+	 *
+	 * @param curveIndex1 The index of the curve of the first risk factor
+	 * @param tenorIndex1 The index of the vertex of the first risk factor
+	 * @param curveIndex2 The index of the curve of the second risk factor
+	 * @param tenorIndex2 The index of the vertex of the second risk factor
+	 * @return The correlation
+	 */
+	public double getIRCorrelation(int curveIndex1, int tenorIndex1, int curveIndex2, int tenorIndex2) {
+		return irIntraBucketCorrelations[curveIndex1 * irVertices.length + tenorIndex1][curveIndex2 * irVertices.length + tenorIndex2];
+	}
+
+	/**
+	 * Returns the intra-bucket correlations of the interest rate risk factors. The factor (curve, tenor) has the index
+	 * curve * {@link #getNumberOfIRVertices()} + tenor, followed by inflation and currency basis.
+	 *
+	 * @return A copy of the correlation matrix
+	 */
+	public double[][] getIRIntraBucketCorrelations() {
+		return Arrays.stream(irIntraBucketCorrelations).map(double[]::clone).toArray(double[][]::new);
+	}
+
+	public double getIRCrossCurrencyCorrelation() {
+		return irCrossCurrencyCorrelation;
+	}
+
+	/**
+	 * @param riskClass1 The first risk class
+	 * @param riskClass2 The second risk class
+	 * @return The correlation of the risk classes
+	 */
+	public double getCrossRiskClassCorrelation(RiskClass riskClass1, RiskClass riskClass2) {
+		return getCrossRiskClassCorrelationMatrix()[riskClass1.ordinal()][riskClass2.ordinal()];
+	}
+
+	/**
+	 * Returns the correlations of the risk classes. The risk class has the index {@link RiskClass#ordinal()}.
+	 *
+	 * @return A copy of the correlation matrix
+	 */
+	public double[][] getCrossRiskClassCorrelations() {
+		return Arrays.stream(getCrossRiskClassCorrelationMatrix()).map(double[]::clone).toArray(double[][]::new);
+	}
+
+	private double[][] getCrossRiskClassCorrelationMatrix() {
+		if (crossRiskClassCorrelations == null) {
+			throw new IllegalArgumentException("Missing cross risk class correlations.");
+		}
+		return crossRiskClassCorrelations;
+	}
+
+	private static Map<?, ?> getIRMap(Map<?, ?> marginTypeMap, String name) {
+		Object riskClassMap = marginTypeMap != null ? get(marginTypeMap, MarginType.DELTA) : null;
+		Object irMap = riskClassMap instanceof Map ? get((Map<?, ?>) riskClassMap, RiskClass.INTEREST_RATE) : null;
+		if (!(irMap instanceof Map)) {
+			throw new IllegalArgumentException("Missing interest rate delta " + name + ".");
+		}
+		return (Map<?, ?>) irMap;
+	}
+
+	private static double getScalar(Map<?, ?> map, String key, String name) {
+		Object value = get(map, key);
+		if (value == null) {
+			throw new IllegalArgumentException("Missing " + name + ".");
+		}
+		return toMatrix(value)[0][0];
+	}
+
+	/**
+	 * Looks up a key, an enum key also by its name. Names are compared ignoring case.
+	 */
+	private static Object get(Map<?, ?> map, Object key) {
+		Object value = map.get(key);
+		if (value == null) {
+			String name = key instanceof Enum ? ((Enum<?>) key).name() : key.toString();
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				if (entry.getKey() != null && entry.getKey().toString().equalsIgnoreCase(name)) {
+					return entry.getValue();
+				}
+			}
+		}
+		return value;
+	}
+
+	private static double[][] toMatrix(Object value) {
+		if (value instanceof Number) {
+			return new double[][]{{((Number) value).doubleValue()}};
+		}
+		Object[] rows = value instanceof List ? ((List<?>) value).toArray() : (Object[]) value;
+		double[][] matrix = new double[rows.length][];
+		for (int i = 0; i < rows.length; i++) {
+			Object[] row = rows[i] instanceof Number ? new Object[]{rows[i]} : rows[i] instanceof List ? ((List<?>) rows[i]).toArray() : (Object[]) rows[i];
+			matrix[i] = new double[row.length];
+			for (int j = 0; j < row.length; j++) {
+				matrix[i][j] = ((Number) row[j]).doubleValue();
+			}
+		}
+		return matrix;
+	}
+}
@@ -1,13 +1,16 @@
 package net.finmath.xva.initialmargin;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.function.ToDoubleBiFunction;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import net.finmath.initialmargin.isdasimm.aggregationscheme.VarianceCovarianceAggregation;
 import net.finmath.stochastic.RandomVariableInterface;
 import net.finmath.stochastic.Scalar;
 import net.finmath.xva.coordinates.simm2.MarginType;
@@ -16,41 +19,108 @@ import net.finmath.xva.coordinates.simm2.Qualifier;
 import net.finmath.xva.coordinates.simm2.RiskClass;
 import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
 
+/**
+ * Queries on a set of SIMM coordinates.
+ *
+ * The coordinates are indexed once by product class, risk class, margin type and bucket, holding the qualifiers of each bucket,
+ * and by margin type and risk class. Queries read the index and return unmodifiable views (or maps of views).
+ * Like the sets of coordinates they are built from, the index accepts coordinates with <code>null</code> classes or types.
+ * Coordinates may be added later, which only updates the index. Instances are not thread safe while coordinates are added.
+ */
 public class SIMMHelper {
 	Set<Simm2Coordinate> coordinates;
 
+	private final Map<ProductClass, Map<RiskClass, Map<MarginType, Map<String, Set<Qualifier>>>>> index = new HashMap<>();
+	private final Map<MarginType, Map<RiskClass, Set<Simm2Coordinate>>> coordinatesByMarginType = new HashMap<>();
+
 	public SIMMHelper(Set<Simm2Coordinate> coordinates) {
-		this.coordinates = coordinates;
+		this.coordinates = new HashSet<>();
+		addCoordinates(coordinates);
 		//this.tradeSet = tradeSet.stream().map(trade->(SIMMTradeSpecification)trade).collect(Collectors.toSet());
 	}
 
+	/**
+	 * Adds coordinates to this helper and its index. Coordinates which are <code>null</code> or already present are ignored.
+	 *
+	 * @param coordinates The coordinates to add
+	 */
+	public void addCoordinates(Collection<Simm2Coordinate> coordinates) {
+		for (Simm2Coordinate coordinate : coordinates) {
+			if (coordinate == null || !this.coordinates.add(coordinate)) {
+				continue;
+			}
+			index.computeIfAbsent(coordinate.getProductClass(), k -> new HashMap<>())
+			.computeIfAbsent(coordinate.getRiskClass(), k -> new HashMap<>())
+			.computeIfAbsent(coordinate.getRiskType(), k -> new HashMap<>())
+			.computeIfAbsent(coordinate.getBucketKey(), k -> new HashSet<>())
+			.add(coordinate.getQualifier());
+			coordinatesByMarginType.computeIfAbsent(coordinate.getRiskType(), k -> new HashMap<>())
+			.computeIfAbsent(coordinate.getRiskClass(), k -> new HashSet<>())
+			.add(coordinate);
+		}
+	}
+
+	/**
+	 * Returns the coordinates of a margin type and risk class over all product classes.
+	 *
+	 * @param margin The margin type
+	 * @param rc     The risk class
+	 * @return An unmodifiable view of the coordinates (empty if there are none)
+	 */
 	public Set<Simm2Coordinate> getCoordinates(MarginType margin, RiskClass rc) {
-		return coordinates.stream().filter(k -> k.getRiskType() == margin && k.getRiskClass() == rc).collect(Collectors.toSet());
+		Map<RiskClass, Set<Simm2Coordinate>> coordinatesOfMarginType = coordinatesByMarginType.get(margin);
+		Set<Simm2Coordinate> result = coordinatesOfMarginType != null ? coordinatesOfMarginType.get(rc) : null;
+		return result != null ? Collections.unmodifiableSet(result) : Collections.emptySet();
+	}
+
+	/**
+	 * Returns the buckets of a product class, risk class and margin type.
+	 *
+	 * @param productClass The product class
+	 * @param riskClass    The risk class
+	 * @param marginType   The margin type
+	 * @return An unmodifiable view of the bucket keys (empty if there are none)
+	 */
+	public Set<String> getBucketKeys(ProductClass productClass, RiskClass riskClass, MarginType marginType) {
+		Map<String, Set<Qualifier>> buckets = getBuckets(productClass, riskClass, marginType);
+		return buckets != null ? Collections.unmodifiableSet(buckets.keySet()) : Collections.emptySet();
+	}
+
+	/**
+	 * Returns the qualifiers of a bucket.
+	 *
+	 * @param productClass The product class
+	 * @param riskClass    The risk class
+	 * @param marginType   The margin type
+	 * @param bucketKey    The bucket
+	 * @return An unmodifiable view of the qualifiers of the bucket (empty if there are none)
+	 */
+	public Set<Qualifier> getQualifiers(ProductClass productClass, RiskClass riskClass, MarginType marginType, String bucketKey) {
+		Map<String, Set<Qualifier>> buckets = getBuckets(productClass, riskClass, marginType);
+		Set<Qualifier> qualifiers = buckets != null ? buckets.get(bucketKey) : null;
+		return qualifiers != null ? Collections.unmodifiableSet(qualifiers) : Collections.emptySet();
 	}
 
 	public static RandomVariableInterface getVarianceCovarianceAggregation(RandomVariableInterface[] contributions, Double[][] correlationMatrix) {
-		int i = 0;
-		RandomVariableInterface value = null;
-		for (RandomVariableInterface contribution1 : contributions) {
-			if (contribution1 != null) {
-				value = value == null ? contribution1.squared() : value.add(contribution1.squared());
-				int j = 0;
-				for (RandomVariableInterface contribution2 : contributions) {
-					if (contribution2 != null && i != j) {
-						double correlation = correlationMatrix.length == 1 ? correlationMatrix[0][0] : correlationMatrix[i][j];
-						RandomVariableInterface contribution = contribution1.mult(contribution2).mult(correlation);
-						value = value == null ? contribution : value.add(contribution);
-					}
-					j++;
-				}
-			}
-			i++;
+		if (correlationMatrix.length == 1) {
+			return VarianceCovarianceAggregation.getAggregation(contributions, correlationMatrix[0][0].doubleValue());
 		}
-		if (value == null) {
-			return null;
+		return VarianceCovarianceAggregation.getAggregation(contributions, VarianceCovarianceAggregation.toPrimitive(correlationMatrix));
+	}
+
+	/**
+	 * Aggregate contributions with a correlation matrix which is already primitive, e.g., converted once by the caller.
+	 * A matrix of a single entry is the correlation of all pairs.
+	 *
+	 * @param contributions     The contributions (may contain <code>null</code>)
+	 * @param correlationMatrix The correlation matrix
+	 * @return The aggregation or <code>null</code> if all contributions are <code>null</code>
+	 */
+	public static RandomVariableInterface getVarianceCovarianceAggregation(RandomVariableInterface[] contributions, double[][] correlationMatrix) {
+		if (correlationMatrix.length == 1) {
+			return VarianceCovarianceAggregation.getAggregation(contributions, correlationMatrix[0][0]);
 		}
-		value = value.sqrt();
-		return value;
+		return VarianceCovarianceAggregation.getAggregation(contributions, correlationMatrix);
 	}
 
 	public static RandomVariableInterface doAgg(RandomVariableInterface[] contributions, ToDoubleBiFunction<Integer, Integer> correlator) {
@@ -62,40 +132,52 @@ public class SIMMHelper {
 	}
 
 	public Set<ProductClass> getAvailableProductClasses(double evaluationTime) {
-		return this.coordinates.stream().
-				filter(Objects::nonNull).
-				map(Simm2Coordinate::getProductClass).
-				collect(Collectors.toSet());
+		return Collections.unmodifiableSet(index.keySet());
 	}
 
 	public Set<RiskClass> getRiskClassesForProductClass(ProductClass productClass, double evaluationTime) {
-		return coordinates.stream().
-				filter(Objects::nonNull).
-				filter(k -> k.getProductClass() == productClass).
-				map(Simm2Coordinate::getRiskClass).
-				collect(Collectors.toSet());
+		Map<RiskClass, Map<MarginType, Map<String, Set<Qualifier>>>> riskClasses = index.get(productClass);
+		return riskClasses != null ? Collections.unmodifiableSet(riskClasses.keySet()) : Collections.emptySet();
 	}
 
 	public Set<RiskClass> getAvailableRiskClasses(double evaluationTime) {
-		return this.coordinates.stream().
-				filter(Objects::nonNull).
-				map(Simm2Coordinate::getRiskClass).
-				collect(Collectors.toSet());
+		Set<RiskClass> riskClasses = new HashSet<>();
+		for (Map<RiskClass, Map<MarginType, Map<String, Set<Qualifier>>>> riskClassesOfProductClass : index.values()) {
+			riskClasses.addAll(riskClassesOfProductClass.keySet());
+		}
+		return Collections.unmodifiableSet(riskClasses);
 	}
 
 	public Map<RiskClass, Set<String>> getBucketsByRiskClass(MarginType marginType, double evaluationTime) {
-		return coordinates.stream().
-				filter(Objects::nonNull).
-				filter(k -> k.getRiskType() == marginType).
-				collect(Collectors.groupingBy(Simm2Coordinate::getRiskClass,
-						Collectors.mapping(Simm2Coordinate::getBucketKey, Collectors.toSet())));
+		Map<RiskClass, Set<String>> bucketsByRiskClass = new HashMap<>();
+		for (Map<RiskClass, Map<MarginType, Map<String, Set<Qualifier>>>> riskClasses : index.values()) {
+			for (Map.Entry<RiskClass, Map<MarginType, Map<String, Set<Qualifier>>>> riskClass : riskClasses.entrySet()) {
+				Map<String, Set<Qualifier>> buckets = riskClass.getValue().get(marginType);
+				if (buckets != null) {
+					bucketsByRiskClass.computeIfAbsent(riskClass.getKey(), k -> new HashSet<>()).addAll(buckets.keySet());
+				}
+			}
+		}
+		return Collections.unmodifiableMap(bucketsByRiskClass);
 	}
 
 	public Map<RiskClass, Set<Qualifier>> getRiskFactorKeysByRiskClass(MarginType riskTypeString, String bucketKey, double evaluationTime) {
-		return coordinates.stream().
-				filter(Objects::nonNull).
-				filter(k -> k.getRiskType() == riskTypeString && k.getBucketKey().equals(bucketKey)).
-				collect(Collectors.groupingBy(Simm2Coordinate::getRiskClass,
-						Collectors.mapping(Simm2Coordinate::getQualifier, Collectors.toSet())));
+		Map<RiskClass, Set<Qualifier>> qualifiersByRiskClass = new HashMap<>();
+		for (Map<RiskClass, Map<MarginType, Map<String, Set<Qualifier>>>> riskClasses : index.values()) {
+			for (Map.Entry<RiskClass, Map<MarginType, Map<String, Set<Qualifier>>>> riskClass : riskClasses.entrySet()) {
+				Map<String, Set<Qualifier>> buckets = riskClass.getValue().get(riskTypeString);
+				Set<Qualifier> qualifiers = buckets != null ? buckets.get(bucketKey) : null;
+				if (qualifiers != null) {
+					qualifiersByRiskClass.computeIfAbsent(riskClass.getKey(), k -> new HashSet<>()).addAll(qualifiers);
+				}
+			}
+		}
+		return Collections.unmodifiableMap(qualifiersByRiskClass);
+	}
+
+	private Map<String, Set<Qualifier>> getBuckets(ProductClass productClass, RiskClass riskClass, MarginType marginType) {
+		Map<RiskClass, Map<MarginType, Map<String, Set<Qualifier>>>> riskClasses = index.get(productClass);
+		Map<MarginType, Map<String, Set<Qualifier>>> marginTypes = riskClasses != null ? riskClasses.get(riskClass) : null;
+		return marginTypes != null ? marginTypes.get(marginType) : null;
 	}
 }
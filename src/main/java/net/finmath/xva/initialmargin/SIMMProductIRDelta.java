@@ -1,215 +1,244 @@
 package net.finmath.xva.initialmargin;
 
-import java.util.Map;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 import java.util.stream.Collectors;
 
+import net.finmath.exception.CalculationException;
+import net.finmath.initialmargin.isdasimm.aggregationscheme.IRDeltaMarginKernel;
 import net.finmath.montecarlo.RandomVariable;
 import net.finmath.montecarlo.interestrate.LIBORModelMonteCarloSimulationInterface;
 import net.finmath.montecarlo.interestrate.products.AbstractLIBORMonteCarloProduct;
 import net.finmath.stochastic.RandomVariableInterface;
 import net.finmath.xva.coordinates.simm2.MarginType;
+import net.finmath.xva.coordinates.simm2.ProductClass;
 import net.finmath.xva.coordinates.simm2.Qualifier;
 import net.finmath.xva.coordinates.simm2.RiskClass;
 import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+import net.finmath.xva.coordinates.simm2.Vertex;
+import net.finmath.xva.initialmargin.CompiledSIMMParameter.IRCurrencyClass;
 import net.finmath.xva.sensitivityproviders.simmsensitivityproviders.SIMMSensitivityProviderInterface;
 
+/**
+ * The interest rate delta margin of a product class.
+ *
+ * The net sensitivities of the currencies are fetched independently, on an executor if one is given, and then aggregated by the
+ * {@link IRDeltaMarginKernel}. The currencies are processed in alphabetical order, hence the result does not depend on the scheduling.
+ */
 public class SIMMProductIRDelta extends AbstractLIBORMonteCarloProduct {
 	final RiskClass riskClassKey = RiskClass.INTEREST_RATE;
 	final MarginType riskTypeKey = MarginType.DELTA;
-	final String productClassKey;
-	final Set<String> currencyKeys;
-	final SIMMParameter parameterSet;
+	final ProductClass productClass;
+	final String[] currencyKeys;
+	final CompiledSIMMParameter parameter;
 	final SIMMHelper helper;
+	private final double[][] crossTenorCorrelation;
+	private final ExecutorService executor;
+	private final IRDeltaMarginKernel kernel;
 	private SIMMSensitivityProviderInterface simmSensitivitivityProvider;
 
 	public SIMMProductIRDelta(SIMMSensitivityProviderInterface simmSensitivitivityProvider, String productClassKey, SIMMParameter parameterSet, double atTime) {
+		this(simmSensitivitivityProvider, ProductClass.valueOf(productClassKey), new CompiledSIMMParameter(parameterSet), atTime);
+	}
 
-		this.helper = null;//new SIMMHelper(simmSensitivitivityProvider.getTradeSpecs());
-		this.productClassKey = productClassKey;
-		this.currencyKeys = this.helper.getBucketsByRiskClass(riskTypeKey, atTime).get(this.riskClassKey);
-		this.parameterSet = parameterSet;
-		this.simmSensitivitivityProvider = simmSensitivitivityProvider;
+	/**
+	 * Create the interest rate delta margin of a product class.
+	 *
+	 * @param simmSensitivitivityProvider The provider of the SIMM sensitivities
+	 * @param productClass                The product class
+	 * @param parameter                   The compiled parameter set, see {@link SimmModality#getCompiledParameterSet()}
+	 * @param atTime                      The time of the margin calculation
+	 */
+	public SIMMProductIRDelta(SIMMSensitivityProviderInterface simmSensitivitivityProvider, ProductClass productClass, CompiledSIMMParameter parameter, double atTime) {
+		this(simmSensitivitivityProvider, productClass, parameter, atTime, null);
 	}
 
-	public RandomVariableInterface getValue(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
+	/**
+	 * Create the interest rate delta margin of a product class.
+	 *
+	 * @param simmSensitivitivityProvider The provider of the SIMM sensitivities
+	 * @param productClass                The product class
+	 * @param parameter                   The compiled parameter set, see {@link SimmModality#getCompiledParameterSet()}
+	 * @param atTime                      The time of the margin calculation
+	 * @param executor                    The executor fetching the net sensitivities of the currencies concurrently, may be null for a sequential calculation
+	 */
+	public SIMMProductIRDelta(SIMMSensitivityProviderInterface simmSensitivitivityProvider, ProductClass productClass, CompiledSIMMParameter parameter, double atTime, ExecutorService executor) {
+		this(simmSensitivitivityProvider, new SIMMHelper(simmSensitivitivityProvider.getCoordinates()), productClass, parameter, atTime, executor);
+	}
 
-		if (this.currencyKeys.size() == 0)
-			return new RandomVariable(evaluationTime, model.getNumberOfPaths(), 0.0);
+	/**
+	 * Create the interest rate delta margin of a product class.
+	 *
+	 * @param simmSensitivitivityProvider The provider of the SIMM sensitivities
+	 * @param helper                      The coordinates of the provider, see {@link SIMMSensitivityProviderInterface#getCoordinates()}
+	 * @param productClass                The product class
+	 * @param parameter                   The compiled parameter set, see {@link SimmModality#getCompiledParameterSet()}
+	 * @param atTime                      The time of the margin calculation
+	 * @param executor                    The executor fetching the net sensitivities of the currencies concurrently, may be null for a sequential calculation
+	 */
+	public SIMMProductIRDelta(SIMMSensitivityProviderInterface simmSensitivitivityProvider, SIMMHelper helper, ProductClass productClass, CompiledSIMMParameter parameter, double atTime, ExecutorService executor) {
+		this(simmSensitivitivityProvider, helper, productClass, parameter, atTime, executor, IRDeltaMarginKernel.getDefaultInstance());
+	}
 
-		RandomVariableInterface[] S1Contributions = new RandomVariableInterface[this.currencyKeys.size()];
-		RandomVariableInterface[] KContributions = new RandomVariableInterface[this.currencyKeys.size()];
-		int i = 0;
+	/**
+	 * Create the interest rate delta margin of a product class.
+	 *
+	 * @param simmSensitivitivityProvider The provider of the SIMM sensitivities
+	 * @param helper                      The coordinates of the provider, see {@link SIMMSensitivityProviderInterface#getCoordinates()}
+	 * @param productClass                The product class
+	 * @param parameter                   The compiled parameter set, see {@link SimmModality#getCompiledParameterSet()}
+	 * @param atTime                      The time of the margin calculation
+	 * @param executor                    The executor fetching the net sensitivities of the currencies concurrently, may be null for a sequential calculation
+	 * @param kernel                      The kernel aggregating the currencies, determines the pool on which they are processed
+	 */
+	public SIMMProductIRDelta(SIMMSensitivityProviderInterface simmSensitivitivityProvider, SIMMHelper helper, ProductClass productClass, CompiledSIMMParameter parameter, double atTime, ExecutorService executor, IRDeltaMarginKernel kernel) {
+
+		this.helper = helper;
+		this.productClass = productClass;
+		this.currencyKeys = this.helper.getBucketKeys(productClass, riskClassKey, riskTypeKey).stream().sorted().toArray(String[]::new);
+		this.parameter = parameter;
+		this.crossTenorCorrelation = parameter.getIRIntraBucketCorrelations();
+		this.executor = executor;
+		this.kernel = kernel;
+		this.simmSensitivitivityProvider = simmSensitivitivityProvider;
+	}
 
-		RandomVariableInterface[] concentrationFactors = new RandomVariableInterface[this.currencyKeys.size()];
+	@Override
+	public RandomVariableInterface getValue(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+
+		if (this.currencyKeys.length == 0)
+			return new RandomVariable(evaluationTime, 0.0);
+
+		// The net sensitivities [currency][curve][tenor], followed by the rows inflation and currency basis
+		List<FutureTask<RandomVariableInterface[][]>> tasks = new ArrayList<>(this.currencyKeys.length);
 		for (String bucketKey : this.currencyKeys) {
-			RandomVariableInterface[][] netSensitivities = this.getNetSensitivityMatrix(bucketKey, evaluationTime, model);
-			concentrationFactors[i] = getConcentrationRiskFactor(bucketKey, netSensitivities, evaluationTime, model);
-			RandomVariableInterface K1 = this.getAggregatedSensitivityForBucket(bucketKey, netSensitivities, concentrationFactors[i], evaluationTime, model);
-			RandomVariableInterface S1 = this.getFactorS(bucketKey, K1, netSensitivities, concentrationFactors[i], evaluationTime, model);
-			S1Contributions[i] = S1;
-			KContributions[i] = K1;
-			i++;
+			FutureTask<RandomVariableInterface[][]> task = new FutureTask<>(() -> getNetSensitivities(bucketKey, evaluationTime, model));
+			if (executor != null) {
+				executor.execute(task);
+			}
+			tasks.add(task);
 		}
 
-		double singleCorrelation = parameterSet.IRCorrelationCrossCurrency;
-		Double[][] correlationMatrix = new Double[this.currencyKeys.size()][this.currencyKeys.size()];
-		for (i = 0; i < currencyKeys.size(); i++)
-			for (int j = 0; j < currencyKeys.size(); j++)
-				if (i != j)
-					correlationMatrix[i][j] = getParameterG(concentrationFactors[i], concentrationFactors[j]).getAverage() * singleCorrelation;
-		RandomVariableInterface VarCovar = helper.getVarianceCovarianceAggregation(S1Contributions, correlationMatrix);
-
-
-		/*Adjustment on Diagonal*/
-		VarCovar = VarCovar.squared();
-		RandomVariableInterface SSumSQ = null;
-		RandomVariableInterface KSumSQ = null;
-		for (int k = 0; k < S1Contributions.length; k++) {
-			SSumSQ = SSumSQ == null ? SSumSQ = S1Contributions[k].squared() : SSumSQ.add(S1Contributions[k].squared());
-			KSumSQ = KSumSQ == null ? KSumSQ = KContributions[k].squared() : KSumSQ.add(KContributions[k].squared());
+		RandomVariableInterface[][][] netSensitivityTensor = new RandomVariableInterface[this.currencyKeys.length][][];
+		double[][] riskWeights = new double[this.currencyKeys.length][];
+		double[] concentrationThresholds = new double[this.currencyKeys.length];
+		for (int i = 0; i < this.currencyKeys.length; i++) {
+			// Runs the task here if no thread of the executor has started it, hence waiting cannot starve the executor
+			tasks.get(i).run();
+			netSensitivityTensor[i] = getResult(tasks.get(i));
+
+			IRCurrencyClass currencyClass = parameter.getIRCurrencyClass(this.currencyKeys[i]);
+			riskWeights[i] = currencyClass.getRiskWeights();
+			concentrationThresholds[i] = currencyClass.getConcentrationThreshold();
 		}
-		VarCovar = VarCovar.sub(SSumSQ).add(KSumSQ);
-		RandomVariableInterface deltaMargin = VarCovar.sqrt();
 
-		return deltaMargin;
+		return kernel.getDeltaMargin(netSensitivityTensor, riskWeights, concentrationThresholds,
+				parameter.getInflationRiskWeight(), parameter.getCcyBasisRiskWeight(), crossTenorCorrelation, parameter.getIRCrossCurrencyCorrelation());
 	}
 
-	private RandomVariableInterface[][] getNetSensitivityMatrix(String bucketKey, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
-		int nTenors = parameterSet.IRMaturityBuckets.length;
-		String[] curveKeys = parameterSet.getRateCurveKeys();
-		RandomVariableInterface[][] netSensitivities = new RandomVariableInterface[curveKeys.length][nTenors];
-		Set<String> activeCurveKeys = helper.getRiskFactorKeysByRiskClass(this.riskTypeKey, bucketKey, evaluationTime).get(this.riskClassKey).stream().map(Qualifier::getText).collect(Collectors.toSet());
-		for (int iCurve = 0; iCurve < curveKeys.length; iCurve++) {
-			String curveKey = curveKeys[iCurve];
-			if (activeCurveKeys.contains(curveKey)) {
-				for (int iTenor = 0; iTenor < nTenors; iTenor++) {
-					String maturityBucketKey = parameterSet.IRMaturityBuckets[iTenor];
-					//Set<SIMMTradeSpecification> selectedTrades = helper.getTadeSelection(productClassKey,riskClassKey.name(),evaluationTime);
-					Simm2Coordinate key = new Simm2Coordinate(maturityBucketKey, curveKey, bucketKey, riskClassKey.name(), riskTypeKey.name(), productClassKey);
-
-					netSensitivities[iCurve][iTenor] = this.simmSensitivitivityProvider.getSIMMSensitivity(key, evaluationTime, model);//thiscalculationSchemeInitialMarginISDA.getNetSensitivity(this.productClassKey, this.riskClassKey, iTenor, curveKey, bucketKey, "delta", atTime);
-				}
-			}
-		}
+	/**
+	 * Returns the net sensitivities [curve][tenor] of a currency, followed by the rows inflation and currency basis.
+	 */
+	private RandomVariableInterface[][] getNetSensitivities(String bucketKey, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
+		return getNetSensitivities(bucketKey, this.getNetSensitivityMatrix(bucketKey, evaluationTime, model), evaluationTime, model);
+	}
 
+	/**
+	 * Returns the net sensitivities [curve][tenor] of the interest rate curves of a currency, followed by the rows inflation and currency basis.
+	 */
+	private RandomVariableInterface[][] getNetSensitivities(String bucketKey, RandomVariableInterface[][] curveNetSensitivities, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
+		RandomVariableInterface[][] netSensitivities = Arrays.copyOf(curveNetSensitivities, parameter.getNumberOfIRCurves() + 2);
+		netSensitivities[parameter.getNumberOfIRCurves()] = new RandomVariableInterface[]{getNetSensitivity(SIMMParameter.inflationKey, bucketKey, evaluationTime, model)};
+		netSensitivities[parameter.getNumberOfIRCurves() + 1] = new RandomVariableInterface[]{getNetSensitivity(SIMMParameter.ccyBasisKey, bucketKey, evaluationTime, model)};
 		return netSensitivities;
 	}
 
-	private RandomVariableInterface getAggregatedSensitivityForBucket(String bucketKey, RandomVariableInterface[][] netSensitivities, RandomVariableInterface concentrationRiskFactor, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
-
-		int nTenors = parameterSet.IRMaturityBuckets.length;
-		String[] curveKeys = parameterSet.getRateCurveKeys();
-
-		int dimensionTotal = nTenors * curveKeys.length + 2;
-		RandomVariableInterface[] contributions = new RandomVariableInterface[dimensionTotal];
-
-		for (int iCurve = 0; iCurve < curveKeys.length; iCurve++)
-			for (int iTenor = 0; iTenor < nTenors; iTenor++) {
-				String curveKey = curveKeys[iCurve];
-				RandomVariableInterface iBucketSensi = this.getWeightedNetSensitivity(iTenor, iCurve, curveKey, bucketKey, netSensitivities, concentrationRiskFactor, evaluationTime, model);
-				contributions[iCurve * nTenors + iTenor] = iBucketSensi;
+	private static RandomVariableInterface[][] getResult(FutureTask<RandomVariableInterface[][]> task) throws CalculationException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CalculationException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CalculationException) {
+				throw (CalculationException) e.getCause();
 			}
+			throw new CalculationException(e.getCause());
+		}
+	}
 
-		RandomVariableInterface inflationSensi = this.getWeightedNetSensitivity(0, 0, SIMMParameter.inflationKey, bucketKey, netSensitivities, concentrationRiskFactor, evaluationTime, model);
-		RandomVariableInterface ccyBasisSensi = this.getWeightedNetSensitivity(0, 0, SIMMParameter.ccyBasisKey, bucketKey, netSensitivities, concentrationRiskFactor, evaluationTime, model);
-		contributions[dimensionTotal - 2] = inflationSensi;
-		contributions[dimensionTotal - 1] = ccyBasisSensi;
-
-		Double[][] crossTenorCorrelation = parameterSet.MapRiskClassCorrelationIntraBucketMap.get(riskClassKey);
-
-		RandomVariableInterface aggregatedSensi = helper.getVarianceCovarianceAggregation(contributions, crossTenorCorrelation);
-
-		return aggregatedSensi;
+	/**
+	 * Returns the net sensitivity of inflation or currency basis, which have no vertex.
+	 */
+	private RandomVariableInterface getNetSensitivity(String indexName, String bucketKey, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
+		Simm2Coordinate key = new Simm2Coordinate((Vertex) null, indexName, bucketKey, riskClassKey, riskTypeKey, productClass);
+		return this.simmSensitivitivityProvider.getSIMMSensitivity(key, evaluationTime, model);
 	}
 
-	private RandomVariableInterface getWeightedNetSensitivity(int iRateTenor, int iIndex, String indexName, String bucketKey, RandomVariableInterface[][] netSensitivities, RandomVariableInterface concentrationRiskFactor, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
-		double riskWeight = 0;
-
-		if (!indexName.equals(SIMMParameter.inflationKey) && !indexName.equals(SIMMParameter.ccyBasisKey)) {
-			Optional<Map.Entry<String, String>> optional = parameterSet.IRCurrencyMap.entrySet().stream().filter(entry -> entry.getKey().contains(bucketKey)).findAny();
-			String currencyMapKey;
-			currencyMapKey = !optional.isPresent() ? "High_Volatility_Currencies" : optional.get().getValue();
-			currencyMapKey = currencyMapKey.replace("_Traded", "").replace("_Well", "").replace("_Less", "");
-			Double[] riskWeights = parameterSet.MapRiskClassRiskweightMap.get(riskTypeKey).get(RiskClass.INTEREST_RATE).get(currencyMapKey)[0];
-			riskWeight = riskWeights[iRateTenor];
-			RandomVariableInterface netSensi = netSensitivities[iIndex][iRateTenor];
-			return netSensi != null ?
-					netSensi.mult(riskWeight).mult(concentrationRiskFactor) :
-						new RandomVariable(evaluationTime, model.getNumberOfPaths(), 0.0);
-		} else { /* Inflation or CCYBasis*/
-			riskWeight = parameterSet.MapRiskClassRiskweightMap.get(riskTypeKey).get(RiskClass.INTEREST_RATE).get(indexName)[0][0];
-
-			String maturityBucketKey = this.parameterSet.IRMaturityBuckets[iRateTenor];
-			Simm2Coordinate key = new Simm2Coordinate(maturityBucketKey, indexName, bucketKey, riskClassKey.name(), riskTypeKey.name(), productClassKey);
-			RandomVariableInterface netSensi = this.simmSensitivitivityProvider.getSIMMSensitivity(key, evaluationTime, model);
-			if (netSensi != null) {
-				netSensi = netSensi.mult(riskWeight);
-				if (!indexName.equals(SIMMParameter.ccyBasisKey)) {
-					netSensi = netSensi.mult(concentrationRiskFactor);
+	private RandomVariableInterface[][] getNetSensitivityMatrix(String bucketKey, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
+		int nTenors = parameter.getNumberOfIRVertices();
+		int nCurves = parameter.getNumberOfIRCurves();
+		RandomVariableInterface[][] netSensitivities = new RandomVariableInterface[nCurves][nTenors];
+		Set<String> activeCurveKeys = helper.getQualifiers(productClass, riskClassKey, riskTypeKey, bucketKey).stream().map(Qualifier::getText).collect(Collectors.toSet());
+		for (int iCurve = 0; iCurve < nCurves; iCurve++) {
+			String curveKey = parameter.getIRCurve(iCurve).name();
+			if (activeCurveKeys.contains(curveKey)) {
+				for (int iTenor = 0; iTenor < nTenors; iTenor++) {
+					//Set<SIMMTradeSpecification> selectedTrades = helper.getTadeSelection(productClassKey,riskClassKey.name(),evaluationTime);
+					Simm2Coordinate key = new Simm2Coordinate(parameter.getIRVertex(iTenor), curveKey, bucketKey, riskClassKey, riskTypeKey, productClass);
+
+					netSensitivities[iCurve][iTenor] = this.simmSensitivitivityProvider.getSIMMSensitivity(key, evaluationTime, model);
 				}
-				return netSensi;
-			} else
-				return null;
+			}
 		}
+
+		return netSensitivities;
 	}
 
+	/**
+	 * @deprecated The margin is aggregated by the {@link IRDeltaMarginKernel}, use {@link IRDeltaMarginKernel#getParameterG}.
+	 */
+	@Deprecated
 	public RandomVariableInterface getParameterG(RandomVariableInterface CR1, RandomVariableInterface CR2) {
-		RandomVariableInterface min = CR1.barrier(CR1.sub(CR2), CR2, CR1);
-		RandomVariableInterface max = CR1.barrier(CR1.sub(CR2), CR1, CR2);
-		return min.div(max);
+		return IRDeltaMarginKernel.getParameterG(CR1, CR2);
 	}
 
+	/**
+	 * Returns the factor S of a currency.
+	 *
+	 * @param bucketKey               The currency
+	 * @param K                       The aggregated weighted sensitivity K of the currency
+	 * @param netSensitivities        The net sensitivities [curve][tenor] of the interest rate curves of the currency
+	 * @param concentrationRiskFactor The concentration risk factor of the currency
+	 * @param evaluationTime          The time of evaluation
+	 * @param model                   The model providing inflation and currency basis sensitivities
+	 * @return The factor S
+	 * @deprecated The margin is aggregated by the {@link IRDeltaMarginKernel}, use {@link IRDeltaMarginKernel#getFactorS}.
+	 */
+	@Deprecated
 	public RandomVariableInterface getFactorS(String bucketKey, RandomVariableInterface K, RandomVariableInterface[][] netSensitivities, RandomVariableInterface concentrationRiskFactor, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
-		RandomVariableInterface sum = this.getWeightedSensitivitySum(bucketKey, netSensitivities, concentrationRiskFactor, evaluationTime, model);
-		RandomVariableInterface S1 = K.barrier(sum.sub(K), K, sum);
-		RandomVariableInterface KNegative = K.mult(-1);
-		S1 = S1.barrier(S1.sub(KNegative), S1, KNegative);
-		return S1;
-	}
-
-	private RandomVariableInterface getWeightedSensitivitySum(String bucketKey, RandomVariableInterface[][] netSensitivities, RandomVariableInterface concentrationRiskFactor, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
-		RandomVariableInterface aggregatedSensi = null;
-		String[] curveKeys = parameterSet.getRateCurveKeys();
-
-		for (int iIndex = 0; iIndex < curveKeys.length; iIndex++) {
-			for (int iTenor = 0; iTenor < parameterSet.IRMaturityBuckets.length; iTenor++) {
-				String key = curveKeys[iIndex];
-				RandomVariableInterface summand = getWeightedNetSensitivity(iTenor, iIndex, key, bucketKey, netSensitivities, concentrationRiskFactor, evaluationTime, model);
-				if (summand != null)
-					aggregatedSensi = aggregatedSensi != null ? aggregatedSensi.add(summand) : new RandomVariable(evaluationTime, model.getNumberOfPaths(), 0.0);
-			}
-		}
-		RandomVariableInterface inflationSensi = this.getWeightedNetSensitivity(0, 0, SIMMParameter.inflationKey, bucketKey, netSensitivities, concentrationRiskFactor, evaluationTime, model);
-		RandomVariableInterface ccyBasisSensi = this.getWeightedNetSensitivity(0, 0, SIMMParameter.ccyBasisKey, bucketKey, netSensitivities, concentrationRiskFactor, evaluationTime, model);
-		return aggregatedSensi.add(inflationSensi.add(ccyBasisSensi));
+		return IRDeltaMarginKernel.getFactorS(getNetSensitivities(bucketKey, netSensitivities, evaluationTime, model), parameter.getIRCurrencyClass(bucketKey).getRiskWeights(),
+				parameter.getInflationRiskWeight(), parameter.getCcyBasisRiskWeight(), concentrationRiskFactor, K);
 	}
 
+	/**
+	 * Returns the concentration risk factor of a currency.
+	 *
+	 * @param bucketKey        The currency
+	 * @param netSensitivities The net sensitivities [curve][tenor] of the interest rate curves of the currency
+	 * @param evaluationTime   The time of evaluation
+	 * @param model            The model providing the inflation sensitivity
+	 * @return The concentration risk factor
+	 * @deprecated The margin is aggregated by the {@link IRDeltaMarginKernel}, use {@link IRDeltaMarginKernel#getConcentrationRiskFactor}.
+	 */
+	@Deprecated
 	public RandomVariableInterface getConcentrationRiskFactor(String bucketKey, RandomVariableInterface[][] netSensitivities, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
-		RandomVariableInterface sensitivitySum = null;
-		String[] curveKeys = parameterSet.getRateCurveKeys();
-		for (int iIndex = 0; iIndex < curveKeys.length; iIndex++) {
-			for (int iTenor = 0; iTenor < parameterSet.IRMaturityBuckets.length; iTenor++) {
-				String key = curveKeys[iIndex];
-				RandomVariableInterface summand = netSensitivities[iIndex][iTenor];
-				if (summand != null)
-					sensitivitySum = sensitivitySum != null ? sensitivitySum.add(summand) : new RandomVariable(evaluationTime, model.getNumberOfPaths(), 0.0);
-			}
-		}
-
-		Simm2Coordinate key = new Simm2Coordinate("", "inflation", bucketKey, riskClassKey.name(), riskTypeKey.name(), productClassKey);
-		RandomVariableInterface inflationSensi = this.simmSensitivitivityProvider.getSIMMSensitivity(key, evaluationTime, model);
-		if (sensitivitySum != null && inflationSensi != null)
-			sensitivitySum = sensitivitySum.add(inflationSensi); // Inflation Sensi are included in Sum, CCYBasis not
-
-		Optional<Map.Entry<String, String>> optional = parameterSet.IRCurrencyMap.entrySet().stream().filter(entry -> entry.getKey().contains(bucketKey)).findAny();
-		String currencyMapKey;
-		currencyMapKey = !optional.isPresent() ? "High_Volatility_Currencies" : optional.get().getValue();
-
-		double concentrationThreshold = parameterSet.MapRiskClassThresholdMap.get(this.riskTypeKey).get(riskClassKey).get(currencyMapKey)[0][0];
-		RandomVariableInterface CR = (sensitivitySum.abs().div(concentrationThreshold)).sqrt();
-		CR = CR.barrier(CR.sub(1.0), CR, 1.0);
-		return CR;
+		return IRDeltaMarginKernel.getConcentrationRiskFactor(getNetSensitivities(bucketKey, netSensitivities, evaluationTime, model),
+				parameter.getIRCurrencyClass(bucketKey).getConcentrationThreshold());
 	}
 }
@@ -9,6 +9,7 @@ import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.Pair;
 
+import net.finmath.initialmargin.isdasimm.aggregationscheme.VarianceCovarianceAggregation;
 import net.finmath.initialmargin.isdasimm.changedfinmath.LIBORModelMonteCarloSimulation;
 import net.finmath.montecarlo.RandomVariable;
 import net.finmath.montecarlo.interestrate.LIBORModelMonteCarloSimulationInterface;
@@ -31,19 +32,49 @@ public class SIMMProductNonIRDeltaVega extends AbstractLIBORMonteCarloProduct {
 	private final SIMMHelper helper;
 	private SIMMSensitivityProviderInterface provider;
 	private Set<Simm2Coordinate> availableCoordinates;
+	private final double[][] crossBucketCorrelations;
+	private final double[][] tenorCorrelations;
 
 	public SIMMProductNonIRDeltaVega(SIMMSensitivityProviderInterface provider,
 			RiskClass riskClass,
 			ProductClass productClass,
 			MarginType marginType, SimmModality modality, double atTime) {
+		this(provider, new SIMMHelper(provider.getCoordinates()), riskClass, productClass, marginType, modality, atTime);
+	}
+
+	/**
+	 * Create the delta or vega margin of a risk class (other than interest rate delta) and product class.
+	 *
+	 * @param provider     The provider of the SIMM sensitivities
+	 * @param helper       The coordinates of the provider, see {@link SIMMSensitivityProviderInterface#getCoordinates()}
+	 * @param riskClass    The risk class
+	 * @param productClass The product class
+	 * @param marginType   The margin type
+	 * @param modality     The SIMM modality
+	 * @param atTime       The time of the margin calculation
+	 */
+	public SIMMProductNonIRDeltaVega(SIMMSensitivityProviderInterface provider,
+			SIMMHelper helper,
+			RiskClass riskClass,
+			ProductClass productClass,
+			MarginType marginType, SimmModality modality, double atTime) {
 		this.modality = modality;
-		this.helper = null;//new SIMMHelper(provider.getTradeSpecs());
+		this.helper = helper;
 		this.provider = provider;
 		this.riskClass = riskClass;
 		this.productClass = productClass;
 		this.marginType = marginType;
-		this.activeBucketKeys = helper.getBucketsByRiskClass(this.marginType, atTime).get(riskClass).stream().filter(e -> !e.equals("Residual")).toArray(String[]::new);
+		this.activeBucketKeys = helper.getBucketKeys(productClass, riskClass, marginType).stream().filter(e -> !e.equals("Residual")).toArray(String[]::new);
 		this.availableCoordinates = helper.getCoordinates(marginType, riskClass);
+
+		// The correlation matrices are converted once per scheme, not per aggregation
+		Map<RiskClass, Double[][]> crossBucketCorrelationMap = modality.getParameterSet().MapRiskClassCorrelationCrossBucketMap;
+		Double[][] crossBucketCorrelation = crossBucketCorrelationMap != null ? crossBucketCorrelationMap.get(riskClass) : null;
+		this.crossBucketCorrelations = crossBucketCorrelation != null ? VarianceCovarianceAggregation.toPrimitive(crossBucketCorrelation) : null;
+		Map<RiskClass, Double[][]> intraBucketCorrelationMap = modality.getParameterSet().MapRiskClassCorrelationIntraBucketMap;
+		Double[][] tenorCorrelation = riskClass == RiskClass.INTEREST_RATE && marginType == MarginType.VEGA && intraBucketCorrelationMap != null ?
+				intraBucketCorrelationMap.get("InterestRate_Tenor") : null;
+		this.tenorCorrelations = tenorCorrelation != null ? VarianceCovarianceAggregation.toPrimitive(tenorCorrelation) : null;
 	}
 
 	/**
@@ -62,16 +93,12 @@ public class SIMMProductNonIRDeltaVega extends AbstractLIBORMonteCarloProduct {
 	}
 
 	/**
-	 * Calculates the result of a bucket aggregation, i. e. the figures K including the constituents' weighted sensitivities.
+	 * Calculates the result of a bucket aggregation, i. e. the figures K and S including the constituents' weighted sensitivities.
 	 * @param weightedSensitivities The set of the weighted sensitivities of the trades in the bucket.
 	 * @return A {@link BucketResult} containing the whole thing.
 	 */
 	public BucketResult getBucketAggregation(String bucketName, Set<WeightedSensitivity> weightedSensitivities) {
-		RandomVariableInterface k = weightedSensitivities.stream().
-				flatMap(w -> weightedSensitivities.stream().map(v -> w.getCrossTerm(v, modality))).
-				reduce(new Scalar(0.0), RandomVariableInterface::add).sqrt();
-
-		return new BucketResult(bucketName, weightedSensitivities, k);
+		return BucketAggregation.getBucketAggregation(bucketName, weightedSensitivities, modality.getParams());
 	}
 
 	/**
@@ -116,11 +143,14 @@ public class SIMMProductNonIRDeltaVega extends AbstractLIBORMonteCarloProduct {
 	public RandomVariableInterface getValue(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
 
 		RandomVariableInterface deltaMargin = model.getRandomVariableForConstant(0.0);
-		Double[][] correlationMatrix = getModality().getParameterSet().MapRiskClassCorrelationCrossBucketMap.get(this.riskClass);
-
-		int length = correlationMatrix.length == 1 ? this.activeBucketKeys.length : correlationMatrix.length;
 
 		if (this.activeBucketKeys.length > 0) {
+			double[][] correlationMatrix = this.crossBucketCorrelations;
+			if (correlationMatrix == null) {
+				throw new IllegalArgumentException("Missing cross bucket correlations of " + riskClass + ".");
+			}
+			int length = correlationMatrix.length == 1 ? this.activeBucketKeys.length : correlationMatrix.length;
+
 			RandomVariableInterface[] kContributions = new RandomVariableInterface[length];
 			RandomVariableInterface[] s1Contributions = new RandomVariableInterface[length];
 			for (int iBucket = 0; iBucket < activeBucketKeys.length; iBucket++) {
@@ -135,11 +165,11 @@ public class SIMMProductNonIRDeltaVega extends AbstractLIBORMonteCarloProduct {
 				}
 
 				/*Check whether we have risk factors in that bucket*/
-				Set<String> activeRiskFactorKeys = helper.getRiskFactorKeysByRiskClass(this.marginType, bucketKey, evaluationTime).get(riskClass).stream().map(Qualifier::getText).collect(Collectors.toSet());
+				Set<String> activeRiskFactorKeys = helper.getQualifiers(productClass, riskClass, marginType, bucketKey).stream().map(Qualifier::getText).collect(Collectors.toSet());
 				if (activeRiskFactorKeys != null && activeRiskFactorKeys.size() > 0) {
 					Map<String, RandomVariableInterface> netSensitivityMap = this.getRiskFactorNetSensitivityMap(bucketKey, activeRiskFactorKeys, evaluationTime, model);
 					RandomVariableInterface k1 = getAggregatedSensitivityForBucket(bucketKey, netSensitivityMap, evaluationTime);
-					RandomVariableInterface sumWeigthedNetSensi = this.getRiskFactorWeightedNetSensitivityMap(bucketKey, netSensitivityMap, evaluationTime).values().stream().reduce(RandomVariableInterface::add).orElseGet(() -> new RandomVariable(evaluationTime, model.getNumberOfPaths(), 0.0));//this.getWeightedSensitivitySum(bucketKey, weightedNetSensitivities, evaluationTime);
+					RandomVariableInterface sumWeigthedNetSensi = this.getRiskFactorWeightedNetSensitivityMap(bucketKey, netSensitivityMap, evaluationTime).values().stream().reduce(RandomVariableInterface::add).orElseGet(() -> new RandomVariable(evaluationTime, 0.0));//this.getWeightedSensitivitySum(bucketKey, weightedNetSensitivities, evaluationTime);
 					RandomVariableInterface s1 = k1.barrier(sumWeigthedNetSensi.sub(k1), k1, sumWeigthedNetSensi);
 					RandomVariableInterface kNegative = k1.mult(-1);
 					s1 = s1.barrier(s1.sub(kNegative), s1, kNegative);
@@ -171,7 +201,7 @@ public class SIMMProductNonIRDeltaVega extends AbstractLIBORMonteCarloProduct {
 		/* RESIDUAL TERM*/
 		if (this.riskClass != RiskClass.FX) {
 			String bucketKey = "Residual";
-			Set<String> activeRiskFactorKeys = this.helper.getRiskFactorKeysByRiskClass(this.marginType, bucketKey, evaluationTime).get(riskClass).stream().map(Qualifier::getText).collect(Collectors.toSet());
+			Set<String> activeRiskFactorKeys = this.helper.getQualifiers(productClass, riskClass, marginType, bucketKey).stream().map(Qualifier::getText).collect(Collectors.toSet());
 			if (activeRiskFactorKeys != null && activeRiskFactorKeys.size() > 0) {
 				Map<String, RandomVariableInterface> netSensitivityMap = this.getRiskFactorNetSensitivityMap(bucketKey, activeRiskFactorKeys, evaluationTime, model);
 				Map<String, RandomVariableInterface> weightedNetSensitivityMap = this.getRiskFactorWeightedNetSensitivityMap(bucketKey, netSensitivityMap, evaluationTime);
@@ -207,13 +237,13 @@ public class SIMMProductNonIRDeltaVega extends AbstractLIBORMonteCarloProduct {
 	private RandomVariableInterface getAggregatedSensitivityForBucket(String bucketKey, Map<String, RandomVariableInterface> netSensitivityMap, double evaluationTime) {
 		RandomVariableInterface aggregatedSensi = null;
 
-		Double[][] correlationMatrix = new Double[netSensitivityMap.size()][netSensitivityMap.size()];
+		double[][] correlationMatrix = new double[netSensitivityMap.size()][netSensitivityMap.size()];
 
 		Map<String, RandomVariableInterface> weightedNetSensitivityMap = this.getRiskFactorWeightedNetSensitivityMap(bucketKey, netSensitivityMap, evaluationTime);
 		String[] activeRiskFactorKeys = netSensitivityMap.keySet().toArray(new String[0]);
 
 		if (riskClass == RiskClass.INTEREST_RATE && marginType == MarginType.VEGA) {
-			correlationMatrix = getModality().getParameterSet().MapRiskClassCorrelationIntraBucketMap.get("InterestRate_Tenor");
+			correlationMatrix = this.tenorCorrelations;
 			RandomVariableInterface[] contributionsReDim = new RandomVariableInterface[correlationMatrix.length];
 			int nTenors = getModality().getParameterSet().IRMaturityBuckets.length;
 			for (String activeRiskFactorKey : activeRiskFactorKeys) {
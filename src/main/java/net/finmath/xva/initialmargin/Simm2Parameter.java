@@ -16,6 +16,21 @@ public interface Simm2Parameter {
 	 */
 	double getIntraBucketCorrelation(Simm2Coordinate left, Simm2Coordinate right);
 
+	/**
+	 * Calculates the correlations of all pairs of sensitivities in the same bucket (of the same risk class).
+	 * @param coordinates The coordinates of the sensitivities.
+	 * @return The matrix of the correlations {@link #getIntraBucketCorrelation(Simm2Coordinate, Simm2Coordinate)} of coordinates i and j.
+	 */
+	default double[][] getIntraBucketCorrelations(Simm2Coordinate[] coordinates) {
+		double[][] correlations = new double[coordinates.length][coordinates.length];
+		for (int i = 0; i < coordinates.length; i++) {
+			for (int j = 0; j < coordinates.length; j++) {
+				correlations[i][j] = getIntraBucketCorrelation(coordinates[i], coordinates[j]);
+			}
+		}
+		return correlations;
+	}
+
 	/**
 	 * Returns the risk weight for a given net sensitivity.
 	 * @param sensitivity The coordinate of the net sensitivity.
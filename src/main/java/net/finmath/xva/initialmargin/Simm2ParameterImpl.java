@@ -2,13 +2,21 @@ package net.finmath.xva.initialmargin;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.finmath.xva.coordinates.simm2.RiskClass;
 import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
 
+/**
+ * The parameters of ISDA SIMM v2.0 as primitive tables.
+ *
+ * The bucket of a coordinate is resolved once (see {@link Simm2Coordinate#getBucketIndex()}) and the FX concentration threshold
+ * once per currency, all other parameters are read from arrays. Instances are immutable (apart from the caches) and may be
+ * shared across threads.
+ */
 public final class Simm2ParameterImpl implements Simm2Parameter {
-	private static final String RESIDUAL_BUCKET = "Residual";
 	private static final double[] EQUITY_INTRA_BUCKET_CORRELATIONS = {0.14, 0.2, 0.19, 0.21, 0.24, 0.35, 0.34, 0.34, 0.2, 0.24, 0.62, 0.62, 0.0};
 	private static final double[][] EQUITY_CROSS_BUCKET_CORRELATIONS = {
 			{1.00, 0.15, 0.14, 0.16, 0.10, 0.12, 0.10, 0.11, 0.13, 0.09, 0.17, 0.17},
@@ -71,6 +79,8 @@ public final class Simm2ParameterImpl implements Simm2Parameter {
 	private static final Set<String> FX_CATEGORY_1 = new HashSet<>(Arrays.asList("USD", "EUR", "JPY", "GBP", "AUD", "CHF", "CAD"));
 	private static final Set<String> FX_CATEGORY_2 = new HashSet<>(Arrays.asList("BRL", "CNY", "HKD", "INR", "KRW", "MXN", "NOK", "NZD", "RUB", "SEK", "SGD", "TRY", "ZAR"));
 
+	private final Map<String, Double> fxDeltaConcentrationThresholds = new ConcurrentHashMap<>();	// By qualifier text
+
 	@Override
 	public double getCrossBucketCorrelation(RiskClass rc, String left, String right) {
 		int i = Integer.parseInt(left);
@@ -123,13 +133,7 @@ public final class Simm2ParameterImpl implements Simm2Parameter {
 	private double getDeltaConcentrationThreshold(Simm2Coordinate coordinate) {
 		switch (coordinate.getRiskClass()) {
 		case FX:
-			if (FX_CATEGORY_1.contains(coordinate.getQualifier().getCurrency())) {
-				return 8400E6;
-			}
-			if (FX_CATEGORY_2.contains(coordinate.getQualifier().getCurrency())) {
-				return 1900E6;
-			}
-			return 560E6;
+			return fxDeltaConcentrationThresholds.computeIfAbsent(coordinate.getQualifier().getText(), text -> getFXDeltaConcentrationThreshold(coordinate.getQualifier().getCurrency()));
 		case EQUITY:
 			return getBucketwiseValue(coordinate, EQUITY_DELTA_THRESHOLDS);
 		case COMMODITY:
@@ -143,6 +147,16 @@ public final class Simm2ParameterImpl implements Simm2Parameter {
 		}
 	}
 
+	private static double getFXDeltaConcentrationThreshold(String currency) {
+		if (FX_CATEGORY_1.contains(currency)) {
+			return 8400E6;
+		}
+		if (FX_CATEGORY_2.contains(currency)) {
+			return 1900E6;
+		}
+		return 560E6;
+	}
+
 	@Override
 	public double getIntraBucketCorrelation(Simm2Coordinate left, Simm2Coordinate right) {
 		switch (left.getRiskClass()) {
@@ -154,7 +168,7 @@ public final class Simm2ParameterImpl implements Simm2Parameter {
 			return getBucketwiseValue(left, COMMODITY_INTRA_BUCKET_CORRELATIONS);
 		case CREDIT_Q:
 		case CREDIT_NON_Q:
-			if (left.getBucketKey().equalsIgnoreCase(RESIDUAL_BUCKET)) {
+			if (left.getBucketIndex() == Simm2Coordinate.RESIDUAL_BUCKET_INDEX) {
 				return 0.5;
 			}
 			throw new UnsupportedOperationException("Cannot retrieve credit intra-bucket correlation yet.");
@@ -163,6 +177,16 @@ public final class Simm2ParameterImpl implements Simm2Parameter {
 		}
 	}
 
+	@Override
+	public double[][] getIntraBucketCorrelations(Simm2Coordinate[] coordinates) {
+		// The correlation only depends on the left coordinate
+		double[][] correlations = new double[coordinates.length][coordinates.length];
+		for (int i = 0; i < coordinates.length; i++) {
+			Arrays.fill(correlations[i], getIntraBucketCorrelation(coordinates[i], coordinates[i]));
+		}
+		return correlations;
+	}
+
 	@Override
 	public double getRiskWeight(Simm2Coordinate sensitivity) {
 		switch (sensitivity.getRiskType()) {
@@ -214,10 +238,7 @@ public final class Simm2ParameterImpl implements Simm2Parameter {
 	 * @return The value in the array at the given bucket.
 	 */
 	private double getBucketwiseValue(Simm2Coordinate coordinate, double[] array) {
-		if (coordinate.getBucketKey().equalsIgnoreCase(RESIDUAL_BUCKET)) {
-			return array[array.length - 1];
-		}
-
-		return array[Integer.parseInt(coordinate.getBucketKey())];
+		int bucketIndex = coordinate.getBucketIndex();
+		return array[bucketIndex == Simm2Coordinate.RESIDUAL_BUCKET_INDEX ? array.length - 1 : bucketIndex];
 	}
 }
@@ -7,6 +7,8 @@ public class SimmModality {
 	private final SIMMParameter parameterSet;
 	private final String calculationCurrency;
 	private final double postingThreshold;
+	private final Simm2Parameter params = new Simm2ParameterImpl();	// Immutable, shared by all calculations of this modality
+	private volatile CompiledSIMMParameter compiledParameterSet;
 
 	public SimmModality(SIMMParameter parameterSet, String calculationCurrency, double postingThreshold) {
 		this.parameterSet = parameterSet;
@@ -18,8 +20,28 @@ public class SimmModality {
 		return parameterSet;
 	}
 
+	/**
+	 * Returns the parameter set compiled into primitive tables. It is compiled upon first use and shared by all calculations of this modality,
+	 * hence changes of the parameter set afterwards are not seen.
+	 *
+	 * @return The compiled parameter set
+	 */
+	public CompiledSIMMParameter getCompiledParameterSet() {
+		CompiledSIMMParameter result = compiledParameterSet;
+		if (result == null) {
+			synchronized (this) {
+				result = compiledParameterSet;
+				if (result == null) {
+					result = new CompiledSIMMParameter(parameterSet);
+					compiledParameterSet = result;
+				}
+			}
+		}
+		return result;
+	}
+
 	public Simm2Parameter getParams() {
-		return new Simm2ParameterImpl();
+		return params;
 	}
 
 	public String getCalculationCurrency() {
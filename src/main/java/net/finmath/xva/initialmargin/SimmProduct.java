@@ -1,12 +1,20 @@
 package net.finmath.xva.initialmargin;
 
-import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import com.google.common.collect.ImmutableSet;
 
 import net.finmath.exception.CalculationException;
+import net.finmath.initialmargin.isdasimm.aggregationscheme.IRDeltaMarginKernel;
 import net.finmath.montecarlo.interestrate.LIBORModelMonteCarloSimulationInterface;
 import net.finmath.montecarlo.interestrate.products.AbstractLIBORMonteCarloProduct;
 import net.finmath.stochastic.RandomVariableInterface;
@@ -21,6 +29,12 @@ import net.finmath.xva.sensitivityproviders.simmsensitivityproviders.SIMMSensiti
 
 /**
  * A product whose value represents the initial margin accordin to be posted at a fixed time according to SIMM.
+ *
+ * The margin schemes of each product class, risk class and margin type are created once and reused for all evaluation times.
+ * They only depend on the coordinates of the sensitivity provider, which do not depend on the evaluation time, see
+ * {@link SIMMSensitivityProviderInterface#getCoordinates()}; the sensitivities themselves are requested at each evaluation time.
+ * If an executor is given, the margins of all product classes, risk classes and margin types are calculated concurrently
+ * and then aggregated.
  */
 public class SimmProduct extends AbstractLIBORMonteCarloProduct {
 	private SIMMSensitivityProviderInterface simmSensitivityProvider;
@@ -28,13 +42,33 @@ public class SimmProduct extends AbstractLIBORMonteCarloProduct {
 	private SimmModality modality;
 	private SIMMHelper helper;
 	private ArbitrarySimm2Transformation transformation;
+	private volatile double[][] crossRiskClassCorrelations;	// Taken once from the compiled parameter set
+	private volatile TimeInvariantSimm timeInvariantSimm;	// The SIMM if the sensitivities are time invariant
+	private final ExecutorService executor;
+	private final IRDeltaMarginKernel irDeltaMarginKernel;
+	private final Map<MarginType, AbstractLIBORMonteCarloProduct[][]> schemes = new EnumMap<>(MarginType.class);	// [product class][risk class]
 
 	public SimmProduct(double marginCalculationTime, SIMMSensitivityProviderInterface provider, SimmModality modality) {
+		this(marginCalculationTime, provider, modality, null);
+	}
+
+	/**
+	 * Create a SIMM product.
+	 *
+	 * @param marginCalculationTime The time at which the margin is calculated
+	 * @param provider              The provider of the SIMM sensitivities
+	 * @param modality              The SIMM modality
+	 * @param executor              The executor calculating the margins concurrently, may be null for a sequential calculation.
+	 *                              If it is a {@link ForkJoinPool}, the currencies of the interest rate delta margins are also aggregated on it.
+	 */
+	public SimmProduct(double marginCalculationTime, SIMMSensitivityProviderInterface provider, SimmModality modality, ExecutorService executor) {
 		this.modality = modality;
 		this.marginCalculationTime = marginCalculationTime;
 		this.simmSensitivityProvider = provider;
-		this.helper = null;
+		this.helper = new SIMMHelper(provider.getCoordinates());
 		this.transformation = getTransformation();
+		this.executor = executor;
+		this.irDeltaMarginKernel = executor instanceof ForkJoinPool ? new IRDeltaMarginKernel((ForkJoinPool) executor) : IRDeltaMarginKernel.getDefaultInstance();
 	}
 
 	private ArbitrarySimm2Transformation getTransformation() {
@@ -43,19 +77,105 @@ public class SimmProduct extends AbstractLIBORMonteCarloProduct {
 				ImmutableSet.of(new ForwardCoordinates()));
 	}
 
+	/**
+	 * Returns the initial margin at the evaluation time multiplied by the numeraire at that time, i.e., {@link #getInitialMargin(double, LIBORModelMonteCarloSimulationInterface)}
+	 * multiplied by N(evaluationTime).
+	 *
+	 * @param evaluationTime The time at which the initial margin is calculated
+	 * @param model          The model
+	 * @return The initial margin multiplied by the numeraire, zero after the margin calculation time
+	 * @throws CalculationException Thrown if the calculation of the margin fails.
+	 */
+	@Override
 	public RandomVariableInterface getValue(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+		RandomVariableInterface initialMargin = getInitialMargin(evaluationTime, model);
+		if (evaluationTime > marginCalculationTime) {
+			return initialMargin;
+		}
+		return initialMargin.mult(model.getNumeraire(evaluationTime));
+	}
+
+	/**
+	 * Returns the initial margin to be posted at the evaluation time, i.e., the SIMM less the posting threshold (floored at zero),
+	 * in units of the currency at that time, that is, <i>not</i> multiplied by the numeraire.
+	 *
+	 * @param evaluationTime The time at which the initial margin is calculated
+	 * @param model          The model
+	 * @return The initial margin, zero after the margin calculation time
+	 * @throws CalculationException Thrown if the calculation of the margin fails.
+	 */
+	public RandomVariableInterface getInitialMargin(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
 		if (evaluationTime > marginCalculationTime) {
 			return model.getRandomVariableForConstant(0.0);
 		}
 
-		RandomVariableInterface simmValue = Arrays.stream(ProductClass.values()).
-				map(pc -> getSimmForProductClass(pc, evaluationTime, model)).
-				reduce(model.getRandomVariableForConstant(0.0), RandomVariableInterface::add);
+		// With time invariant sensitivities the SIMM is a scalar, which is calculated once per model and broadcast by the numeraire
+		TimeInvariantSimm cachedSimm = timeInvariantSimm;
+		RandomVariableInterface simmValue = cachedSimm != null && cachedSimm.model == model ? cachedSimm.value : null;
+		if (simmValue == null) {
+			simmValue = executor != null ? getSimmConcurrently(evaluationTime, model) : Arrays.stream(ProductClass.values()).
+					map(pc -> getSimmForProductClass(pc, evaluationTime, model)).
+					reduce(model.getRandomVariableForConstant(0.0), RandomVariableInterface::add);
+
+			if (simmSensitivityProvider.isTimeInvariant() && simmValue.isDeterministic()) {
+				timeInvariantSimm = new TimeInvariantSimm(model, simmValue);
+			}
+		}
+
+		return simmValue.sub(this.getModality().getPostingThreshold()).floor(0.0);
+	}
+
+	/**
+	 * Calculates the delta and vega margins of all product classes and risk classes concurrently on the executor, then aggregates them.
+	 */
+	private RandomVariableInterface getSimmConcurrently(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+		// The delta margin of a product class and risk class is margins.get(firstMargin[productClass][riskClass]), followed by the vega margin
+		List<Future<RandomVariableInterface>> margins = new ArrayList<>();
+		int[][] firstMargin = new int[ProductClass.values().length][RiskClass.values().length];
+		try {
+			for (ProductClass productClass : ProductClass.values()) {
+				Arrays.fill(firstMargin[productClass.ordinal()], -1);
+				for (RiskClass riskClass : helper.getRiskClassesForProductClass(productClass, evaluationTime)) {
+					firstMargin[productClass.ordinal()][riskClass.ordinal()] = margins.size();
+					for (MarginType marginType : new MarginType[]{MarginType.DELTA, MarginType.VEGA}) {
+						AbstractLIBORMonteCarloProduct scheme = getScheme(marginType, riskClass, productClass);
+						margins.add(executor.submit(() -> scheme.getValue(evaluationTime, model)));
+					}
+				}
+			}
 
-		System.out.println("SimmProduct: simmValue at " + DecimalFormat.getNumberInstance().format(evaluationTime) + ": " + DecimalFormat.getCurrencyInstance().format(simmValue.getAverage()));
+			RandomVariableInterface simmValue = model.getRandomVariableForConstant(0.0);
+			for (ProductClass productClass : ProductClass.values()) {
+				RandomVariableInterface[] contributions = new RandomVariableInterface[RiskClass.values().length];
+				for (RiskClass riskClass : RiskClass.values()) {
+					int marginIndex = firstMargin[productClass.ordinal()][riskClass.ordinal()];
+					contributions[riskClass.ordinal()] = marginIndex >= 0 ?
+							getResult(margins.get(marginIndex)).add(getResult(margins.get(marginIndex + 1))) :
+								model.getRandomVariableForConstant(0.0);
+				}
+				simmValue = simmValue.add(helper.getVarianceCovarianceAggregation(contributions, getCrossRiskClassCorrelations()));
+			}
+			return simmValue;
+		} finally {
+			// Only if a margin failed: nobody reads the margins still in flight
+			for (Future<RandomVariableInterface> margin : margins) {
+				margin.cancel(true);
+			}
+		}
+	}
 
-		RandomVariableInterface numeraireAtEval = model.getNumeraire(evaluationTime);
-		return simmValue.sub(this.getModality().getPostingThreshold()).floor(0.0).mult(numeraireAtEval);
+	private static RandomVariableInterface getResult(Future<RandomVariableInterface> margin) throws CalculationException {
+		try {
+			return margin.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CalculationException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CalculationException) {
+				throw (CalculationException) e.getCause();
+			}
+			throw new CalculationException(e.getCause());
+		}
 	}
 
 	public RandomVariableInterface getSimmForProductClass(ProductClass productClass, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
@@ -73,7 +193,7 @@ public class SimmProduct extends AbstractLIBORMonteCarloProduct {
 			return model.getRandomVariableForConstant(0.0);
 		}).toArray(RandomVariableInterface[]::new);
 
-		RandomVariableInterface simmProductClass = helper.getVarianceCovarianceAggregation(contributions, getModality().getParameterSet().CrossRiskClassCorrelationMatrix);
+		RandomVariableInterface simmProductClass = helper.getVarianceCovarianceAggregation(contributions, getCrossRiskClassCorrelations());
 		return simmProductClass;
 	}
 
@@ -83,20 +203,37 @@ public class SimmProduct extends AbstractLIBORMonteCarloProduct {
 	}
 
 	public RandomVariableInterface getDeltaMargin(RiskClass riskClass, ProductClass productClass, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
-		return getDeltaScheme(riskClass, productClass, evaluationTime).getValue(evaluationTime, model);
+		return getScheme(MarginType.DELTA, riskClass, productClass).getValue(evaluationTime, model);
 	}
 
-	private AbstractLIBORMonteCarloProduct getDeltaScheme(RiskClass riskClass, ProductClass productClass, double evaluationTime) { ;
-	if (riskClass == RiskClass.INTEREST_RATE) {
-		return new SIMMProductIRDelta(this.simmSensitivityProvider, productClass.name(), this.getModality().getParameterSet(), evaluationTime);
+	public RandomVariableInterface getVegaMargin(RiskClass riskClass, ProductClass productClass, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+		return getScheme(MarginType.VEGA, riskClass, productClass).getValue(evaluationTime, model);
 	}
 
-	return new SIMMProductNonIRDeltaVega(this.simmSensitivityProvider, riskClass, productClass, MarginType.DELTA, modality, evaluationTime);
+	private double[][] getCrossRiskClassCorrelations() {
+		double[][] correlations = crossRiskClassCorrelations;
+		if (correlations == null) {
+			// Racing threads take equal copies
+			correlations = crossRiskClassCorrelations = getModality().getCompiledParameterSet().getCrossRiskClassCorrelations();
+		}
+		return correlations;
 	}
 
-	public RandomVariableInterface getVegaMargin(RiskClass riskClass, ProductClass productClass, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
-		SIMMProductNonIRDeltaVega VegaScheme = new SIMMProductNonIRDeltaVega(this.simmSensitivityProvider, riskClass, productClass, MarginType.VEGA, getModality(), evaluationTime);
-		return VegaScheme.getValue(evaluationTime, model);
+	/**
+	 * Returns the margin scheme of a risk class and product class, which is created upon first use, independent of the evaluation time.
+	 */
+	private synchronized AbstractLIBORMonteCarloProduct getScheme(MarginType marginType, RiskClass riskClass, ProductClass productClass) {
+		AbstractLIBORMonteCarloProduct[][] marginTypeSchemes = schemes.computeIfAbsent(marginType, mt -> new AbstractLIBORMonteCarloProduct[ProductClass.values().length][RiskClass.values().length]);
+		AbstractLIBORMonteCarloProduct scheme = marginTypeSchemes[productClass.ordinal()][riskClass.ordinal()];
+		if (scheme == null) {
+			if (marginType == MarginType.DELTA && riskClass == RiskClass.INTEREST_RATE) {
+				scheme = new SIMMProductIRDelta(this.simmSensitivityProvider, helper, productClass, this.getModality().getCompiledParameterSet(), marginCalculationTime, executor, irDeltaMarginKernel);
+			} else {
+				scheme = new SIMMProductNonIRDeltaVega(this.simmSensitivityProvider, helper, riskClass, productClass, marginType, getModality(), marginCalculationTime);
+			}
+			marginTypeSchemes[productClass.ordinal()][riskClass.ordinal()] = scheme;
+		}
+		return scheme;
 	}
 
 	public RandomVariableInterface getCurvatureMargin(RiskClass riskClass, ProductClass productClass, double atTime) {
@@ -106,4 +243,17 @@ public class SimmProduct extends AbstractLIBORMonteCarloProduct {
 	public SimmModality getModality() {
 		return modality;
 	}
+
+	/**
+	 * The SIMM of time invariant sensitivities and the model it has been calculated with.
+	 */
+	private static final class TimeInvariantSimm {
+		private final LIBORModelMonteCarloSimulationInterface model;
+		private final RandomVariableInterface value;
+
+		private TimeInvariantSimm(LIBORModelMonteCarloSimulationInterface model, RandomVariableInterface value) {
+			this.model = model;
+			this.value = value;
+		}
+	}
 }
@@ -1,28 +1,110 @@
 package net.finmath.xva.sensitivityproviders.simmsensitivityproviders;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import net.finmath.montecarlo.RandomVariable;
 import net.finmath.montecarlo.interestrate.LIBORModelMonteCarloSimulationInterface;
 import net.finmath.stochastic.RandomVariableInterface;
 import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+import net.finmath.xva.coordinates.simm2.Simm2CoordinateKey;
+import net.finmath.xva.coordinates.simm2.Simm2SensitivityMap;
+import net.finmath.xva.coordinates.simm2.Simm2SensitivitySnapshot;
 
 public class SIMMCRIFSensititivityProvider implements SIMMSensitivityProviderInterface {
 
-	Map<Simm2Coordinate, Double> SensitivitiyMap;
+	volatile Map<Simm2Coordinate, Double> SensitivitiyMap;	// Created lazily from the keys, may be created more than once if requested concurrently
+	private final Simm2SensitivityMap sensitivities;	// The same sensitivities by coordinate key
+	private final Simm2SensitivitySnapshot snapshot;	// Alternatively the sensitivities of a snapshot file
 
 	public SIMMCRIFSensititivityProvider(Map<Simm2Coordinate, Double> SensitivityMap) {
 		this.SensitivitiyMap = SensitivityMap;
+		this.sensitivities = new Simm2SensitivityMap(SensitivityMap);
+		this.snapshot = null;
 	}
 
+	/**
+	 * Create a provider of netted sensitivities, e.g. as read by {@link net.finmath.xva.beans.CrifReader}.
+	 *
+	 * @param sensitivities The sensitivities by coordinate key
+	 */
+	public SIMMCRIFSensititivityProvider(Simm2SensitivityMap sensitivities) {
+		this.sensitivities = sensitivities;
+		this.snapshot = null;
+	}
+
+	/**
+	 * Create a provider of the sensitivities of a snapshot file, see {@link Simm2SensitivitySnapshot#read(java.nio.file.Path)}.
+	 * The sensitivities are path-wise if the snapshot is a sensitivity cube.
+	 *
+	 * @param snapshot The snapshot
+	 */
+	public SIMMCRIFSensititivityProvider(Simm2SensitivitySnapshot snapshot) {
+		this.sensitivities = null;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Returns the sensitivities per coordinate, for a sensitivity cube the averages over the paths.
+	 *
+	 * @return The sensitivities per coordinate
+	 */
 	public Map<Simm2Coordinate, Double> getSensitivitiyMap() {
-		return SensitivitiyMap;
+		Map<Simm2Coordinate, Double> sensitivityMap = SensitivitiyMap;
+		if (sensitivityMap == null) {
+			sensitivityMap = new HashMap<>();
+			for (long key : getKeys()) {
+				sensitivityMap.put(getCoordinateKeys().decode(key), snapshot != null ? snapshot.get(key) : sensitivities.get(key));
+			}
+			SensitivitiyMap = sensitivityMap;
+		}
+		return sensitivityMap;
+	}
+
+	@Override
+	public Set<Simm2Coordinate> getCoordinates() {
+		return Collections.unmodifiableSet(getSensitivitiyMap().keySet());
 	}
 
 	public RandomVariableInterface getSIMMSensitivity(Simm2Coordinate key, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
-		if (SensitivitiyMap.containsKey(key))
-			return new RandomVariable(evaluationTime, model.getNumberOfPaths(), SensitivitiyMap.get(key));
-		else
-			return new RandomVariable(evaluationTime, model.getNumberOfPaths(), 0.0);
+		return getSIMMSensitivity(getCoordinateKeys().find(key), evaluationTime, model);
+	}
+
+	/**
+	 * Returns the key space of the sensitivities of this provider, see {@link Simm2SensitivityMap#getCoordinateKeys()}.
+	 *
+	 * @return The key space
+	 */
+	public Simm2CoordinateKey getCoordinateKeys() {
+		return snapshot != null ? snapshot.getCoordinateKeys() : sensitivities.getCoordinateKeys();
+	}
+
+	/**
+	 * Returns the sensitivity of a coordinate given by its key in the key space {@link #getCoordinateKeys()}.
+	 *
+	 * @param key            The key of the coordinate
+	 * @param evaluationTime The evaluation time
+	 * @param model          The model
+	 * @return The sensitivity (zero if there is no sensitivity for the coordinate), deterministic unless read from a sensitivity cube
+	 */
+	public RandomVariableInterface getSIMMSensitivity(long key, double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
+		if (snapshot != null) {
+			return snapshot.getRandomVariable(key, evaluationTime);
+		}
+		return new RandomVariable(evaluationTime, sensitivities.get(key));
+	}
+
+	/**
+	 * Netted scalar sensitivities are the same at every evaluation time, a sensitivity cube is path-wise at its own time.
+	 */
+	@Override
+	public boolean isTimeInvariant() {
+		return snapshot == null || snapshot.getNumberOfPaths() == 0;
+	}
+
+	private long[] getKeys() {
+		return snapshot != null ? snapshot.getKeys() : sensitivities.getKeys();
 	}
 }
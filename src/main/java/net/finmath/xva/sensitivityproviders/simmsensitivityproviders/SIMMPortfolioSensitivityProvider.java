@@ -1,5 +1,6 @@
 package net.finmath.xva.sensitivityproviders.simmsensitivityproviders;
 
+import java.util.HashSet;
 import java.util.Set;
 
 import net.finmath.montecarlo.interestrate.LIBORModelMonteCarloSimulationInterface;
@@ -33,4 +34,16 @@ public class SIMMPortfolioSensitivityProvider implements SIMMSensitivityProvider
 				.map(u -> u.getSIMMSensitivity(coordinate, evaluationTime, model))
 				.reduce(RandomVariableInterface::add).orElse(model.getRandomVariableForConstant(0.0));
 	}
+
+	/**
+	 * @return The union of the coordinates of the underlying sensitivity providers.
+	 */
+	@Override
+	public Set<Simm2Coordinate> getCoordinates() {
+		Set<Simm2Coordinate> coordinates = new HashSet<>();
+		for (SIMMSensitivityProviderInterface underlyingSensiProvider : underlyingSensiProviders) {
+			coordinates.addAll(underlyingSensiProvider.getCoordinates());
+		}
+		return coordinates;
+	}
 }
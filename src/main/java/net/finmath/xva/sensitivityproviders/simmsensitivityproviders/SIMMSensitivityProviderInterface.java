@@ -1,5 +1,7 @@
 package net.finmath.xva.sensitivityproviders.simmsensitivityproviders;
 
+import java.util.Set;
+
 import net.finmath.montecarlo.interestrate.LIBORModelMonteCarloSimulationInterface;
 import net.finmath.stochastic.RandomVariableInterface;
 import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
@@ -7,5 +9,33 @@ import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
 public interface SIMMSensitivityProviderInterface {
 
 	public RandomVariableInterface getSIMMSensitivity(Simm2Coordinate key, double evaluationTime, LIBORModelMonteCarloSimulationInterface model);//throws SolverException, CloneNotSupportedException, CalculationException;
+
+	/**
+	 * Returns the coordinates for which this provider may return a non-zero sensitivity, at any evaluation time.
+	 * The SIMM schemes aggregate the sensitivities of these coordinates only, hence a provider has to implement this method
+	 * to be used by them.
+	 *
+	 * @return The coordinates of the sensitivities.
+	 * @throws UnsupportedOperationException If the provider does not know its coordinates (default).
+	 */
+	default Set<Simm2Coordinate> getCoordinates() {
+		throw new UnsupportedOperationException(getClass().getName() + " does not provide its coordinates. "
+				+ "Implement getCoordinates() to use the provider in a SIMM scheme.");
+	}
+
+	/**
+	 * Returns true if the sensitivities of this provider are time invariant, i.e., deterministic (the same on all paths)
+	 * <i>and</i> the same at every evaluation time and for every model, e.g. netted sensitivities read from a CRIF file.
+	 * Then the SIMM is one number, which a {@link net.finmath.xva.initialmargin.SimmProduct} calculates once and reuses for
+	 * all evaluation times.
+	 *
+	 * Sensitivities which are deterministic but change over time (e.g. with the ageing of the trades) are not time invariant.
+	 * Providers have to opt in explicitly.
+	 *
+	 * @return True if the sensitivities are deterministic and constant in time.
+	 */
+	default boolean isTimeInvariant() {
+		return false;
+	}
 }
 
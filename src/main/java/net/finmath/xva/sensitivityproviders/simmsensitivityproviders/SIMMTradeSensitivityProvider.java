@@ -1,5 +1,8 @@
 package net.finmath.xva.sensitivityproviders.simmsensitivityproviders;
 
+import java.util.Collections;
+import java.util.Set;
+
 import net.finmath.montecarlo.interestrate.LIBORModelMonteCarloSimulationInterface;
 import net.finmath.stochastic.RandomVariableInterface;
 import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
@@ -24,6 +27,15 @@ public class SIMMTradeSensitivityProvider implements SIMMSensitivityProviderInte
 		return simmTradeSpecification;
 	}
 
+	/**
+	 * @return The sensitivity keys of the trade specification (as of time zero), empty if the specification has none.
+	 */
+	@Override
+	public Set<Simm2Coordinate> getCoordinates() {
+		Set<Simm2Coordinate> coordinates = simmTradeSpecification.getSensitivityKeySet(0.0);
+		return coordinates != null ? coordinates : Collections.emptySet();
+	}
+
 	public RandomVariableInterface getSIMMSensitivity(Simm2Coordinate key, // null if riskClass is not IR
 			double evaluationTime, LIBORModelMonteCarloSimulationInterface model) {
 
@@ -1,8 +1,10 @@
 package net.finmath.xva.xvaproducts;
 
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import net.finmath.exception.CalculationException;
 import net.finmath.montecarlo.interestrate.LIBORModelMonteCarloSimulationInterface;
@@ -15,14 +17,49 @@ import net.finmath.xva.sensitivityproviders.simmsensitivityproviders.SIMMSensiti
 
 /**
  * Calculates the margin valuation adjustments by calculating the initial margins on a time discretization and integrating them.
+ *
+ * The MVA is the sum over the time slices t<sub>i</sub> &ge; evaluation time of
+ * s &Delta;t<sub>i</sub> IM(t<sub>i</sub>) N(t) / N(t<sub>i</sub>), where s is the funding spread, &Delta;t<sub>i</sub> = t<sub>i+1</sub> - t<sub>i</sub>,
+ * N the numeraire and IM(t<sub>i</sub>) the initial margin in units of the currency at t<sub>i</sub>, see
+ * {@link SimmProduct#getInitialMargin(double, LIBORModelMonteCarloSimulationInterface)}. The last time of the discretization only ends the last slice.
+ *
+ * All time slices share one {@link SimmProduct}, hence its margin schemes (and for deterministic sensitivities the SIMM itself).
+ * The slices are walked in time order and their discounted initial margins are added up on the fly, such that only the slices
+ * in flight are held in memory. If an executor is given, the slices are calculated concurrently.
  */
 public class MvaProduct extends AbstractLIBORMonteCarloProduct {
-	private Set<SimmProduct> initialMargins;
+	private final SimmProduct initialMargin;
+	private final TimeDiscretizationInterface times;
+	private final double fundingSpread;
+	private final ExecutorService executor;
 
+	/**
+	 * Create the MVA of the initial margins of a sensitivity provider with a funding spread of one, i.e., the integral of the
+	 * discounted initial margins over the time discretization. Formerly this was the plain sum of the initial margins at the times
+	 * of the discretization, which is not weighted by the time steps.
+	 *
+	 * @param sensitivityProvider The provider of the SIMM sensitivities
+	 * @param modality            The SIMM modality
+	 * @param times               The time discretization of the initial margins
+	 */
 	public MvaProduct(SIMMSensitivityProviderInterface sensitivityProvider, SimmModality modality, TimeDiscretizationInterface times) {
-		initialMargins = IntStream.range(0, times.getNumberOfTimes())
-				.mapToObj(timeIndex -> new SimmProduct(times.getTime(timeIndex), sensitivityProvider, new SimmModality(null, "EUR", 0.0)))
-				.collect(Collectors.toSet());
+		this(sensitivityProvider, modality, times, 1.0, null);
+	}
+
+	/**
+	 * Create the MVA of the initial margins of a sensitivity provider.
+	 *
+	 * @param sensitivityProvider The provider of the SIMM sensitivities
+	 * @param modality            The SIMM modality
+	 * @param times               The time discretization of the initial margins
+	 * @param fundingSpread       The funding spread of the initial margin
+	 * @param executor            The executor calculating the time slices concurrently, may be null for a sequential calculation
+	 */
+	public MvaProduct(SIMMSensitivityProviderInterface sensitivityProvider, SimmModality modality, TimeDiscretizationInterface times, double fundingSpread, ExecutorService executor) {
+		this.initialMargin = new SimmProduct(times.getTime(times.getNumberOfTimes() - 1), sensitivityProvider, modality);
+		this.times = times;
+		this.fundingSpread = fundingSpread;
+		this.executor = executor;
 	}
 
 	/**
@@ -37,15 +74,133 @@ public class MvaProduct extends AbstractLIBORMonteCarloProduct {
 	 */
 	@Override
 	public RandomVariableInterface getValue(double evaluationTime, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
-		return initialMargins.stream()
-				.map(im -> {
-					try {
-						return im.getValue(evaluationTime, model);
-					} catch (CalculationException e) {
-						return model.getRandomVariableForConstant(Double.NaN);
+		return getMva(evaluationTime, model, false).getValue();
+	}
+
+	/**
+	 * Calculates the MVA and optionally the expected initial margin profile.
+	 *
+	 * @param evaluationTime The time on which the MVA is observed
+	 * @param model          The model used to calculate the initial margins
+	 * @param isProfileRequired If true, the expected initial margin of each time slice (discounted to the evaluation time) is returned as well
+	 * @return The MVA and the expected initial margin profile
+	 * @throws CalculationException Thrown if the calculation of an initial margin fails.
+	 */
+	public MvaResult getMva(double evaluationTime, LIBORModelMonteCarloSimulationInterface model, boolean isProfileRequired) throws CalculationException {
+		RandomVariableInterface numeraireAtEvaluationTime = model.getNumeraire(evaluationTime);
+		double[] expectedInitialMargins = isProfileRequired ? new double[times.getNumberOfTimeSteps()] : null;
+		int maxSlicesInFlight = 2 * Runtime.getRuntime().availableProcessors();
+
+		RandomVariableInterface mva = model.getRandomVariableForConstant(0.0);
+		Deque<Future<TimeSlice>> slicesInFlight = new ArrayDeque<>();
+		try {
+			for (int timeIndex = 0; timeIndex < times.getNumberOfTimeSteps(); timeIndex++) {
+				if (times.getTime(timeIndex) < evaluationTime) {
+					continue;
+				}
+
+				TimeSlice slice;
+				if (executor == null) {
+					slice = getTimeSlice(timeIndex, model);
+				} else {
+					final int sliceIndex = timeIndex;
+					slicesInFlight.add(executor.submit(() -> getTimeSlice(sliceIndex, model)));
+					if (slicesInFlight.size() < maxSlicesInFlight) {
+						continue;
 					}
-				})
-				.reduce(RandomVariableInterface::add)
-				.orElse(model.getRandomVariableForConstant(0.0));
+					slice = getResult(slicesInFlight.poll());
+				}
+				mva = add(mva, slice, numeraireAtEvaluationTime, expectedInitialMargins);
+			}
+			while (!slicesInFlight.isEmpty()) {
+				mva = add(mva, getResult(slicesInFlight.poll()), numeraireAtEvaluationTime, expectedInitialMargins);
+			}
+		} finally {
+			// Only if a slice failed: nobody reads the slices still in flight
+			for (Future<TimeSlice> sliceInFlight : slicesInFlight) {
+				sliceInFlight.cancel(true);
+			}
+		}
+
+		return new MvaResult(mva.mult(numeraireAtEvaluationTime), times, expectedInitialMargins);
+	}
+
+	private TimeSlice getTimeSlice(int timeIndex, LIBORModelMonteCarloSimulationInterface model) throws CalculationException {
+		double time = times.getTime(timeIndex);
+		RandomVariableInterface initialMarginAtTime = initialMargin.getInitialMargin(time, model);
+		return new TimeSlice(timeIndex, initialMarginAtTime.div(model.getNumeraire(time)));
+	}
+
+	private RandomVariableInterface add(RandomVariableInterface mva, TimeSlice slice, RandomVariableInterface numeraireAtEvaluationTime, double[] expectedInitialMargins) {
+		if (expectedInitialMargins != null) {
+			expectedInitialMargins[slice.timeIndex] = slice.discountedInitialMargin.mult(numeraireAtEvaluationTime).getAverage();
+		}
+		return mva.addProduct(slice.discountedInitialMargin, fundingSpread * times.getTimeStep(slice.timeIndex));
+	}
+
+	private static TimeSlice getResult(Future<TimeSlice> slice) throws CalculationException {
+		try {
+			return slice.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CalculationException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CalculationException) {
+				throw (CalculationException) e.getCause();
+			}
+			throw new CalculationException(e.getCause());
+		}
+	}
+
+	/**
+	 * The initial margin of one time slice divided by the numeraire, IM(t<sub>i</sub>) / N(t<sub>i</sub>).
+	 */
+	private static final class TimeSlice {
+		private final int timeIndex;
+		private final RandomVariableInterface discountedInitialMargin;
+
+		private TimeSlice(int timeIndex, RandomVariableInterface discountedInitialMargin) {
+			this.timeIndex = timeIndex;
+			this.discountedInitialMargin = discountedInitialMargin;
+		}
+	}
+
+	/**
+	 * The MVA with the expected initial margin of each time slice.
+	 */
+	public static class MvaResult {
+		private final RandomVariableInterface value;
+		private final TimeDiscretizationInterface times;
+		private final double[] expectedInitialMargins;
+
+		public MvaResult(RandomVariableInterface value, TimeDiscretizationInterface times, double[] expectedInitialMargins) {
+			this.value = value;
+			this.times = times;
+			this.expectedInitialMargins = expectedInitialMargins;
+		}
+
+		/**
+		 * @return The MVA.
+		 */
+		public RandomVariableInterface getValue() {
+			return value;
+		}
+
+		/**
+		 * @return The time discretization of the initial margins.
+		 */
+		public TimeDiscretizationInterface getTimes() {
+			return times;
+		}
+
+		/**
+		 * Returns the expected initial margin of each time slice discounted to the evaluation time, i.e., E[IM(t<sub>i</sub>) N(t) / N(t<sub>i</sub>)]
+		 * (zero for slices before the evaluation time). The MVA is the sum of these weighted by s &Delta;t<sub>i</sub>.
+		 *
+		 * @return The expected initial margins, indexed like the time steps, or <code>null</code> if the profile was not requested
+		 */
+		public double[] getExpectedInitialMargins() {
+			return expectedInitialMargins;
+		}
 	}
 }
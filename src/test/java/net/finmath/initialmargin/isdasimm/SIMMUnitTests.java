@@ -4,19 +4,12 @@ import static java.lang.System.exit;
 
 import java.io.File;
 import java.io.FileReader;
-import java.lang.reflect.Type;
-import java.util.Collection;
-import java.util.List;
+import java.io.Reader;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.stream.Collectors;
 
 import org.junit.Test;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-import com.google.gson.stream.JsonReader;
-
 import net.finmath.montecarlo.BrownianMotionInterface;
 import net.finmath.montecarlo.RandomVariableFactory;
 import net.finmath.montecarlo.interestrate.LIBORMarketModel;
@@ -26,8 +19,8 @@ import net.finmath.montecarlo.interestrate.LIBORModelMonteCarloSimulationInterfa
 import net.finmath.montecarlo.process.ProcessEulerScheme;
 import net.finmath.stochastic.RandomVariableInterface;
 import net.finmath.time.TimeDiscretization;
-import net.finmath.xva.beans.CrifSensitivityBean;
-import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+import net.finmath.xva.beans.CrifReader;
+import net.finmath.xva.coordinates.simm2.Simm2SensitivityMap;
 import net.finmath.xva.initialmargin.SIMMHelper;
 import net.finmath.xva.initialmargin.SIMMParameter;
 import net.finmath.xva.initialmargin.SimmModality;
@@ -41,24 +34,18 @@ public class SIMMUnitTests {
 
 		try {
 
-			Gson gson = new Gson();
-			JsonReader reader = new JsonReader(new FileReader("crif.json"));
-			Type empTypeList = new TypeToken<Collection<CrifSensitivityBean>>() {
-			}.getType();
-			List<CrifSensitivityBean> test = gson.fromJson(reader, new TypeToken<List<CrifSensitivityBean>>() {
-			}.getType());
-
-			List<String> counterpartyList = test.stream().map(entry -> entry.getCounterparty()).distinct().collect(Collectors.toList());
+			Map<String, Simm2SensitivityMap> sensitivitiesByCounterparty;
+			try (Reader reader = new FileReader("crif.json")) {
+				sensitivitiesByCounterparty = new CrifReader().readJson(reader);
+			}
 
 			String content = new Scanner(new File("simm.json")).next();
 			SIMMParameter parameter = new SIMMParameter(content);
-			counterpartyList.stream().forEach(cp -> {
+			sensitivitiesByCounterparty.values().stream().forEach(sensitivities -> {
 
 				try {
 
-					Map<Simm2Coordinate, Double> simmSensitivityKeyDoubleMap = test.stream().filter(entry -> entry.getCounterparty().equals(cp)).collect(Collectors.toMap(entry -> entry.getSensitivityKey(), entry -> entry.getAmount()));
-
-					SIMMCRIFSensititivityProvider provider = new SIMMCRIFSensititivityProvider(simmSensitivityKeyDoubleMap);
+					SIMMCRIFSensititivityProvider provider = new SIMMCRIFSensititivityProvider(sensitivities);
 					SIMMHelper helper = new SIMMHelper(provider.getSensitivitiyMap().keySet());
 
 					SimmProduct simmProduct = new SimmProduct(0.0, provider, new SimmModality(parameter, "EUR", 0.0));
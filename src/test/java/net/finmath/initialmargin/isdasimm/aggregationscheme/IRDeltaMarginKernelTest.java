@@ -0,0 +1,383 @@
+package net.finmath.initialmargin.isdasimm.aggregationscheme;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.junit.Test;
+
+import net.finmath.initialmargin.isdasimm.products.SIMMSimpleSwap;
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+
+public class IRDeltaMarginKernelTest {
+
+	private static final int NUMBER_OF_PATHS = 1000;
+	private static final int NUMBER_OF_CURVES = 2;
+	private static final int NUMBER_OF_TENORS = 4;
+	private static final double INFLATION_RISK_WEIGHT = 32.0;
+	private static final double CCY_BASIS_RISK_WEIGHT = 18.0;
+	private static final double CROSS_CURRENCY_CORRELATION = 0.27;
+
+	@Test
+	public void testAgainstDoubleLoop() {
+		Random random = new Random(1618);
+		RandomVariableInterface[][][] netSensitivities = new RandomVariableInterface[3][][];
+		for (int currencyIndex = 0; currencyIndex < netSensitivities.length; currencyIndex++) {
+			netSensitivities[currencyIndex] = createNetSensitivities(random, currencyIndex);
+		}
+		double[][] riskWeights = {{77, 64, 58, 49}, {10, 13, 16, 18}, {89, 94, 104, 99}};
+		double[] concentrationThresholds = {30.0, 5.0, 1E9};
+		double[][] correlation = createCorrelation();
+
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			for (IRDeltaMarginKernel kernel : new IRDeltaMarginKernel[]{IRDeltaMarginKernel.getDefaultInstance(), new IRDeltaMarginKernel(pool, 64), new IRDeltaMarginKernel(pool, 7)}) {
+				RandomVariableInterface margin = kernel.getDeltaMargin(netSensitivities, riskWeights, concentrationThresholds,
+						INFLATION_RISK_WEIGHT, CCY_BASIS_RISK_WEIGHT, correlation, CROSS_CURRENCY_CORRELATION);
+
+				double[] expected = getMargin(netSensitivities, riskWeights, concentrationThresholds, correlation, NUMBER_OF_PATHS);
+				for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+					assertThat(margin.get(pathIndex), is(closeTo(expected[pathIndex], 1E-9 * expected[pathIndex])));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testDeterministicSensitivities() {
+		RandomVariableInterface[][][] netSensitivities = new RandomVariableInterface[2][NUMBER_OF_CURVES + 2][];
+		for (int currencyIndex = 0; currencyIndex < netSensitivities.length; currencyIndex++) {
+			for (int curveIndex = 0; curveIndex < NUMBER_OF_CURVES + 2; curveIndex++) {
+				netSensitivities[currencyIndex][curveIndex] = new RandomVariableInterface[NUMBER_OF_TENORS];
+				for (int tenorIndex = 0; tenorIndex < NUMBER_OF_TENORS; tenorIndex++) {
+					netSensitivities[currencyIndex][curveIndex][tenorIndex] = new RandomVariable(0.0, (currencyIndex + 1) * (curveIndex - tenorIndex + 0.5));
+				}
+			}
+		}
+		double[][] riskWeights = {{77, 64, 58, 49}, {89, 94, 104, 99}};
+		double[] concentrationThresholds = {2.0, 1E9};
+		double[][] correlation = createCorrelation();
+
+		RandomVariableInterface margin = IRDeltaMarginKernel.getDefaultInstance().getDeltaMargin(netSensitivities, riskWeights, concentrationThresholds,
+				INFLATION_RISK_WEIGHT, CCY_BASIS_RISK_WEIGHT, correlation, CROSS_CURRENCY_CORRELATION);
+
+		assertThat(margin.isDeterministic(), is(true));
+		assertThat(margin.get(0), is(closeTo(getMargin(netSensitivities, riskWeights, concentrationThresholds, correlation, 1)[0], 1E-9)));
+	}
+
+	@Test
+	public void testManyCurrenciesAreDeterministic() {
+		Random random = new Random(2024);
+		int numberOfCurrencies = 24;
+		RandomVariableInterface[][][] netSensitivities = new RandomVariableInterface[numberOfCurrencies][][];
+		double[][] riskWeights = new double[numberOfCurrencies][];
+		double[] concentrationThresholds = new double[numberOfCurrencies];
+		for (int currencyIndex = 0; currencyIndex < numberOfCurrencies; currencyIndex++) {
+			netSensitivities[currencyIndex] = createNetSensitivities(random, currencyIndex % 3);
+			riskWeights[currencyIndex] = new double[]{77, 64, 58, 49};
+			concentrationThresholds[currencyIndex] = 10.0 * (currencyIndex + 1);
+		}
+		double[][] correlation = createCorrelation();
+
+		ForkJoinPool sequentialPool = new ForkJoinPool(1);
+		ForkJoinPool parallelPool = new ForkJoinPool(4);
+		try {
+			RandomVariableInterface sequentialMargin = new IRDeltaMarginKernel(sequentialPool, 128).getDeltaMargin(netSensitivities, riskWeights, concentrationThresholds,
+					INFLATION_RISK_WEIGHT, CCY_BASIS_RISK_WEIGHT, correlation, CROSS_CURRENCY_CORRELATION);
+			for (int run = 0; run < 3; run++) {
+				RandomVariableInterface parallelMargin = new IRDeltaMarginKernel(parallelPool, 128).getDeltaMargin(netSensitivities, riskWeights, concentrationThresholds,
+						INFLATION_RISK_WEIGHT, CCY_BASIS_RISK_WEIGHT, correlation, CROSS_CURRENCY_CORRELATION);
+				for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+					assertThat(parallelMargin.get(pathIndex), is(sequentialMargin.get(pathIndex)));
+				}
+			}
+
+			double[] expected = getMargin(netSensitivities, riskWeights, concentrationThresholds, correlation, NUMBER_OF_PATHS);
+			for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex += 17) {
+				assertThat(sequentialMargin.get(pathIndex), is(closeTo(expected[pathIndex], 1E-9 * expected[pathIndex])));
+			}
+		} finally {
+			sequentialPool.shutdown();
+			parallelPool.shutdown();
+		}
+	}
+
+	@Test
+	public void testGradientIsEulerAllocation() {
+		Random random = new Random(2718);
+		RandomVariableInterface[][][] netSensitivities = new RandomVariableInterface[3][][];
+		for (int currencyIndex = 0; currencyIndex < netSensitivities.length; currencyIndex++) {
+			netSensitivities[currencyIndex] = createNetSensitivities(random, currencyIndex);
+		}
+		double[][] riskWeights = {{77, 64, 58, 49}, {10, 13, 16, 18}, {89, 94, 104, 99}};
+		double[] concentrationThresholds = {30.0, 5.0, 1E9};
+		double[][] correlation = createCorrelation();
+
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			IRDeltaMarginKernel kernel = new IRDeltaMarginKernel(pool, 7);
+			RandomVariableInterface margin = kernel.getDeltaMargin(netSensitivities, riskWeights, concentrationThresholds,
+					INFLATION_RISK_WEIGHT, CCY_BASIS_RISK_WEIGHT, correlation, CROSS_CURRENCY_CORRELATION);
+			RandomVariableInterface[][][] gradient = kernel.getDeltaMarginGradient(netSensitivities, riskWeights, concentrationThresholds,
+					INFLATION_RISK_WEIGHT, CCY_BASIS_RISK_WEIGHT, correlation, CROSS_CURRENCY_CORRELATION);
+
+			// With fixed concentration risk factors the margin is homogeneous of degree one, the allocations add up to the margin
+			for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+				double allocated = 0.0;
+				for (int currencyIndex = 0; currencyIndex < netSensitivities.length; currencyIndex++) {
+					for (int curveIndex = 0; curveIndex < NUMBER_OF_CURVES + 2; curveIndex++) {
+						for (int tenorIndex = 0; tenorIndex < gradient[currencyIndex][curveIndex].length; tenorIndex++) {
+							allocated += getValue(netSensitivities[currencyIndex][curveIndex][tenorIndex], pathIndex) * gradient[currencyIndex][curveIndex][tenorIndex].get(pathIndex);
+						}
+					}
+				}
+				assertThat(allocated, is(closeTo(margin.get(pathIndex), 1E-9 * margin.get(pathIndex))));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testGradientAgainstFiniteDifferences() {
+		Random random = new Random(3141);
+		RandomVariableInterface[][][] netSensitivities = new RandomVariableInterface[2][][];
+		for (int currencyIndex = 0; currencyIndex < netSensitivities.length; currencyIndex++) {
+			netSensitivities[currencyIndex] = createNetSensitivities(random, currencyIndex);
+		}
+		double[][] riskWeights = {{77, 64, 58, 49}, {89, 94, 104, 99}};
+		// Without concentration, the margin is differentiable in the net sensitivities
+		double[] concentrationThresholds = {1E9, 1E9};
+		double[][] correlation = createCorrelation();
+
+		IRDeltaMarginKernel kernel = IRDeltaMarginKernel.getDefaultInstance();
+		RandomVariableInterface[][][] gradient = kernel.getDeltaMarginGradient(netSensitivities, riskWeights, concentrationThresholds,
+				INFLATION_RISK_WEIGHT, CCY_BASIS_RISK_WEIGHT, correlation, CROSS_CURRENCY_CORRELATION);
+
+		// Stochastic, deterministic, zero and null sensitivities, inflation and currency basis
+		int[][] factors = {{0, 0, 1}, {1, 1, 3}, {0, 0, 0}, {1, 1, 2}, {0, NUMBER_OF_CURVES, 0}, {1, NUMBER_OF_CURVES + 1, 0}};
+		double shift = 1E-6;
+		for (int[] factor : factors) {
+			RandomVariableInterface marginUp = kernel.getDeltaMargin(getShifted(netSensitivities, factor, shift), riskWeights, concentrationThresholds,
+					INFLATION_RISK_WEIGHT, CCY_BASIS_RISK_WEIGHT, correlation, CROSS_CURRENCY_CORRELATION);
+			RandomVariableInterface marginDown = kernel.getDeltaMargin(getShifted(netSensitivities, factor, -shift), riskWeights, concentrationThresholds,
+					INFLATION_RISK_WEIGHT, CCY_BASIS_RISK_WEIGHT, correlation, CROSS_CURRENCY_CORRELATION);
+			RandomVariableInterface derivative = gradient[factor[0]][factor[1]][factor[2]];
+			for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+				double finiteDifference = (marginUp.get(pathIndex) - marginDown.get(pathIndex)) / (2 * shift);
+				assertThat(derivative.get(pathIndex), is(closeTo(finiteDifference, 1E-5 * (1.0 + Math.abs(finiteDifference)))));
+			}
+		}
+	}
+
+	@Test
+	public void testCurrencyFactorsAgainstMargin() {
+		Random random = new Random(2718);
+		RandomVariableInterface[][][] netSensitivities = {createNetSensitivities(random, 0), createNetSensitivities(random, 1)};
+		double[][] riskWeights = {{77, 64, 58, 49}, {89, 94, 104, 99}};
+		double[] concentrationThresholds = {0.5, 2.0};
+		double[][] correlation = createCorrelation();
+		IRDeltaMarginKernel kernel = IRDeltaMarginKernel.getDefaultInstance();
+
+		// The margin of a single currency is its aggregation K
+		RandomVariableInterface[] concentrationRiskFactors = new RandomVariableInterface[2];
+		RandomVariableInterface[] aggregatedSensitivities = new RandomVariableInterface[2];
+		RandomVariableInterface[] factorsS = new RandomVariableInterface[2];
+		for (int currencyIndex = 0; currencyIndex < 2; currencyIndex++) {
+			concentrationRiskFactors[currencyIndex] = IRDeltaMarginKernel.getConcentrationRiskFactor(netSensitivities[currencyIndex], concentrationThresholds[currencyIndex]);
+			aggregatedSensitivities[currencyIndex] = kernel.getDeltaMargin(new RandomVariableInterface[][][]{netSensitivities[currencyIndex]}, new double[][]{riskWeights[currencyIndex]},
+					new double[]{concentrationThresholds[currencyIndex]}, INFLATION_RISK_WEIGHT, CCY_BASIS_RISK_WEIGHT, correlation, CROSS_CURRENCY_CORRELATION);
+			factorsS[currencyIndex] = IRDeltaMarginKernel.getFactorS(netSensitivities[currencyIndex], riskWeights[currencyIndex], INFLATION_RISK_WEIGHT, CCY_BASIS_RISK_WEIGHT,
+					concentrationRiskFactors[currencyIndex], aggregatedSensitivities[currencyIndex]);
+		}
+		double parameterG = IRDeltaMarginKernel.getParameterG(concentrationRiskFactors[0], concentrationRiskFactors[1]).getAverage();
+
+		RandomVariableInterface margin = kernel.getDeltaMargin(netSensitivities, riskWeights, concentrationThresholds,
+				INFLATION_RISK_WEIGHT, CCY_BASIS_RISK_WEIGHT, correlation, CROSS_CURRENCY_CORRELATION);
+		RandomVariableInterface expected = aggregatedSensitivities[0].squared().add(aggregatedSensitivities[1].squared())
+				.add(factorsS[0].mult(factorsS[1]).mult(2.0 * CROSS_CURRENCY_CORRELATION * parameterG)).sqrt();
+
+		assertThat(concentrationRiskFactors[0].getMax() > 1.0, is(true));
+		assertThat(parameterG < 1.0, is(true));
+		for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+			assertThat(margin.get(pathIndex), is(closeTo(expected.get(pathIndex), 1E-9 * expected.get(pathIndex))));
+		}
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testDeprecatedHelpersOfMarginSchemeDelegateToKernel() {
+		CalculationSchemeInitialMarginISDA calculationScheme = new CalculationSchemeInitialMarginISDA(
+				new SIMMSimpleSwap(new double[]{0.0, 0.5}, new double[]{0.5, 1.0}, new double[]{0.01, 0.01}, true /*isPayFix*/, 100 /*notional*/, new String[]{"OIS", "Libor6m"}, "EUR"), "EUR");
+		MarginSchemeIRDelta scheme = new MarginSchemeIRDelta(calculationScheme, "RATES_FX");
+		CalculationSchemeInitialMarginISDA.ParameterCollection parameterCollection = calculationScheme.getParameterCollection();
+		Map<String, Double[][]> riskWeightMap = parameterCollection.MapRiskClassRiskweightMap.get("delta").get("INTEREST_RATE");
+		double concentrationThreshold = parameterCollection.MapRiskClassThresholdMap.get("delta").get("INTEREST_RATE").get("Regular_Volatility_Currencies")[0][0];
+
+		// Sensitivities of the order of the threshold, such that the concentration risk factor exceeds one on some paths
+		Random random = new Random(1414);
+		RandomVariableInterface[][] netSensitivities = new RandomVariableInterface[parameterCollection.IRCurveIndexNames.length + 2][parameterCollection.IRMaturityBuckets.length];
+		for (RandomVariableInterface[] row : netSensitivities) {
+			for (int tenorIndex = 0; tenorIndex < row.length; tenorIndex++) {
+				double[] realizations = new double[NUMBER_OF_PATHS];
+				for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+					realizations[pathIndex] = random.nextGaussian() * concentrationThreshold;
+				}
+				row[tenorIndex] = new RandomVariable(0.0, realizations);
+			}
+		}
+		RandomVariableInterface aggregatedSensitivity = new RandomVariable(0.0, 1E6);
+
+		RandomVariableInterface concentrationRiskFactor = scheme.getConcentrationRiskFactor("EUR", netSensitivities, 0.0);
+		RandomVariableInterface expectedConcentrationRiskFactor = IRDeltaMarginKernel.getConcentrationRiskFactor(netSensitivities, concentrationThreshold);
+		RandomVariableInterface factorS = scheme.getFactorS("EUR", aggregatedSensitivity, netSensitivities, concentrationRiskFactor, 0.0);
+		RandomVariableInterface expectedFactorS = IRDeltaMarginKernel.getFactorS(netSensitivities, ArrayUtils.toPrimitive(riskWeightMap.get("Regular_Volatility_Currencies")[0]),
+				riskWeightMap.get("inflation")[0][0], riskWeightMap.get("ccybasis")[0][0], concentrationRiskFactor, aggregatedSensitivity);
+
+		assertThat(concentrationRiskFactor.getMax() > 1.0, is(true));
+		assertThat(concentrationRiskFactor.sub(expectedConcentrationRiskFactor).abs().getMax(), is(0.0));
+		assertThat(factorS.sub(expectedFactorS).abs().getMax(), is(0.0));
+		assertThat(scheme.getParameterG(concentrationRiskFactor, expectedConcentrationRiskFactor.mult(2.0)).getAverage(), is(closeTo(0.5, 1E-12)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCorrelationDimension() {
+		RandomVariableInterface[][][] netSensitivities = {createNetSensitivities(new Random(1), 0)};
+
+		IRDeltaMarginKernel.getDefaultInstance().getDeltaMargin(netSensitivities, new double[][]{{77, 64, 58, 49}}, new double[]{1.0},
+				INFLATION_RISK_WEIGHT, CCY_BASIS_RISK_WEIGHT, new double[3][3], CROSS_CURRENCY_CORRELATION);
+	}
+
+	/**
+	 * The margin as in the scheme, evaluated by straightforward loops per path.
+	 */
+	private static double[] getMargin(RandomVariableInterface[][][] netSensitivities, double[][] riskWeights, double[] concentrationThresholds, double[][] correlation, int numberOfPaths) {
+		int numberOfCurrencies = netSensitivities.length;
+		int dimension = NUMBER_OF_CURVES * NUMBER_OF_TENORS + 2;
+		double[][] concentrationFactors = new double[numberOfCurrencies][numberOfPaths];
+		double[][] aggregated = new double[numberOfCurrencies][numberOfPaths];
+		double[][] factorsS = new double[numberOfCurrencies][numberOfPaths];
+
+		for (int b = 0; b < numberOfCurrencies; b++) {
+			for (int pathIndex = 0; pathIndex < numberOfPaths; pathIndex++) {
+				double[] sensitivities = new double[dimension];
+				double[] weights = new double[dimension];
+				for (int curveIndex = 0; curveIndex < NUMBER_OF_CURVES; curveIndex++) {
+					for (int tenorIndex = 0; tenorIndex < NUMBER_OF_TENORS; tenorIndex++) {
+						sensitivities[curveIndex * NUMBER_OF_TENORS + tenorIndex] = getValue(netSensitivities[b][curveIndex][tenorIndex], pathIndex);
+						weights[curveIndex * NUMBER_OF_TENORS + tenorIndex] = riskWeights[b][tenorIndex];
+					}
+				}
+				sensitivities[dimension - 2] = getValue(netSensitivities[b][NUMBER_OF_CURVES][0], pathIndex);
+				sensitivities[dimension - 1] = getValue(netSensitivities[b][NUMBER_OF_CURVES + 1][0], pathIndex);
+				weights[dimension - 2] = INFLATION_RISK_WEIGHT;
+				weights[dimension - 1] = CCY_BASIS_RISK_WEIGHT;
+
+				double sum = 0.0;
+				for (int k = 0; k < dimension - 1; k++) {
+					sum += sensitivities[k];
+				}
+				double concentrationFactor = Math.max(Math.sqrt(Math.abs(sum) / concentrationThresholds[b]), 1.0);
+
+				double[] weighted = new double[dimension];
+				double weightedSum = 0.0;
+				for (int k = 0; k < dimension; k++) {
+					weighted[k] = sensitivities[k] * weights[k] * (k < dimension - 1 ? concentrationFactor : 1.0);
+					weightedSum += weighted[k];
+				}
+				double variance = 0.0;
+				for (int k = 0; k < dimension; k++) {
+					for (int l = 0; l < dimension; l++) {
+						variance += (k == l ? 1.0 : correlation[k][l]) * weighted[k] * weighted[l];
+					}
+				}
+				concentrationFactors[b][pathIndex] = concentrationFactor;
+				aggregated[b][pathIndex] = Math.sqrt(variance);
+				factorsS[b][pathIndex] = Math.max(Math.min(weightedSum, aggregated[b][pathIndex]), -aggregated[b][pathIndex]);
+			}
+		}
+
+		double[] margin = new double[numberOfPaths];
+		for (int pathIndex = 0; pathIndex < numberOfPaths; pathIndex++) {
+			for (int b = 0; b < numberOfCurrencies; b++) {
+				margin[pathIndex] += aggregated[b][pathIndex] * aggregated[b][pathIndex];
+				for (int c = 0; c < numberOfCurrencies; c++) {
+					if (b != c) {
+						double g = 0.0;
+						for (int i = 0; i < numberOfPaths; i++) {
+							g += Math.min(concentrationFactors[b][i], concentrationFactors[c][i]) / Math.max(concentrationFactors[b][i], concentrationFactors[c][i]);
+						}
+						margin[pathIndex] += CROSS_CURRENCY_CORRELATION * g / numberOfPaths * factorsS[b][pathIndex] * factorsS[c][pathIndex];
+					}
+				}
+			}
+			margin[pathIndex] = Math.sqrt(margin[pathIndex]);
+		}
+		return margin;
+	}
+
+	private static RandomVariableInterface[][][] getShifted(RandomVariableInterface[][][] netSensitivities, int[] factor, double shift) {
+		RandomVariableInterface[][][] shifted = new RandomVariableInterface[netSensitivities.length][][];
+		for (int currencyIndex = 0; currencyIndex < netSensitivities.length; currencyIndex++) {
+			shifted[currencyIndex] = new RandomVariableInterface[netSensitivities[currencyIndex].length][];
+			for (int curveIndex = 0; curveIndex < netSensitivities[currencyIndex].length; curveIndex++) {
+				shifted[currencyIndex][curveIndex] = netSensitivities[currencyIndex][curveIndex].clone();
+			}
+		}
+		RandomVariableInterface sensitivity = netSensitivities[factor[0]][factor[1]][factor[2]];
+		shifted[factor[0]][factor[1]][factor[2]] = sensitivity != null ? sensitivity.add(shift) : new RandomVariable(0.0, shift);
+		return shifted;
+	}
+
+	private static double getValue(RandomVariableInterface value, int pathIndex) {
+		return value == null ? 0.0 : value.get(pathIndex);
+	}
+
+	private static RandomVariableInterface[][] createNetSensitivities(Random random, int currencyIndex) {
+		RandomVariableInterface[][] netSensitivities = new RandomVariableInterface[NUMBER_OF_CURVES + 2][NUMBER_OF_TENORS];
+		for (int curveIndex = 0; curveIndex < NUMBER_OF_CURVES + 2; curveIndex++) {
+			for (int tenorIndex = 0; tenorIndex < NUMBER_OF_TENORS; tenorIndex++) {
+				if (curveIndex == 1 && tenorIndex == 2) {
+					continue;	// null
+				}
+				if (curveIndex == 0 && tenorIndex == currencyIndex) {
+					netSensitivities[curveIndex][tenorIndex] = new RandomVariable(0.0, 0.0);
+				} else if (tenorIndex == 3) {
+					netSensitivities[curveIndex][tenorIndex] = new RandomVariable(0.0, 1.5 - currencyIndex);
+				} else {
+					double[] realizations = new double[NUMBER_OF_PATHS];
+					for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+						realizations[pathIndex] = random.nextGaussian() * (currencyIndex + 1);
+					}
+					netSensitivities[curveIndex][tenorIndex] = new RandomVariable(0.0, realizations);
+				}
+			}
+		}
+		return netSensitivities;
+	}
+
+	private static double[][] createCorrelation() {
+		int dimension = NUMBER_OF_CURVES * NUMBER_OF_TENORS + 2;
+		double[][] correlation = new double[dimension][dimension];
+		for (int i = 0; i < dimension - 2; i++) {
+			for (int j = 0; j < dimension - 2; j++) {
+				double tenorCorrelation = Math.exp(-0.3 * Math.abs(i % NUMBER_OF_TENORS - j % NUMBER_OF_TENORS));
+				correlation[i][j] = tenorCorrelation * (i / NUMBER_OF_TENORS == j / NUMBER_OF_TENORS ? 1.0 : 0.98);
+			}
+		}
+		// Inflation is correlated with the curves, currency basis is not
+		for (int i = 0; i < dimension - 2; i++) {
+			correlation[i][dimension - 2] = 0.33;
+			correlation[dimension - 2][i] = 0.33;
+		}
+		return correlation;
+	}
+}
@@ -0,0 +1,71 @@
+package net.finmath.initialmargin.isdasimm.aggregationscheme;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.finmath.exception.CalculationException;
+import net.finmath.initialmargin.isdasimm.changedfinmath.LIBORModelMonteCarloSimulationInterface;
+import net.finmath.initialmargin.isdasimm.products.SIMMSimpleSwap;
+import net.finmath.initialmargin.isdasimm.test.SIMMTest;
+import net.finmath.marketdata.model.curves.DiscountCurve;
+import net.finmath.marketdata.model.curves.ForwardCurve;
+
+public class RiskWeightCalibrationTest {
+
+	private static final int NUMBER_OF_PATHS = 200;
+	private static final int[] NUMBER_OF_PERIODS = new int[]{4, 8, 12};
+
+	private static LIBORModelMonteCarloSimulationInterface model;
+	private static ForwardCurve forwardCurve;
+	private static DiscountCurve discountCurve;
+
+	@BeforeClass
+	public static void setUp() throws CalculationException {
+		discountCurve = SIMMTest.createTestDiscountCurve();
+		forwardCurve = SIMMTest.createTestForwardCurve();
+		model = SIMMTest.createTestLIBORMarketModel(NUMBER_OF_PATHS, discountCurve, forwardCurve);
+	}
+
+	@Test
+	public void testFrozenSensitivitiesAgainstFullRevaluation() throws CalculationException {
+		double[] targetValues = getTargetValues();
+
+		double[] riskWeights = calibrate(targetValues, false /*isFreezeSensitivities*/);
+		double[] riskWeightsFrozen = calibrate(targetValues, true /*isFreezeSensitivities*/);
+
+		assertThat(riskWeightsFrozen.length, is(riskWeights.length));
+		for (int i = 0; i < riskWeights.length; i++) {
+			assertThat(riskWeightsFrozen[i], is(closeTo(riskWeights[i], 1E-10)));
+		}
+	}
+
+	private static double[] getTargetValues() throws CalculationException {
+		SIMMSimpleSwap[] products = createCalibrationProducts();
+		CalculationSchemeInitialMarginISDA scheme = new CalculationSchemeInitialMarginISDA("EUR");
+		double[] targetValues = new double[products.length];
+		for (int i = 0; i < products.length; i++) {
+			targetValues[i] = 1.05 * products[i].getInitialMargin(0.0, model, scheme).getAverage();
+		}
+		return targetValues;
+	}
+
+	private static double[] calibrate(double[] targetValues, boolean isFreezeSensitivities) throws CalculationException {
+		Map<String, Object> calibrationParameters = new HashMap<String, Object>();
+		calibrationParameters.put("maxIterations", 100);
+		calibrationParameters.put("isFreezeSensitivities", isFreezeSensitivities);
+		calibrationParameters.put("numberOfThreadsForProductValuation", 2);
+
+		return new CalculationSchemeInitialMarginISDA("EUR").getRiskWeightsCalibrated(model, createCalibrationProducts(), targetValues, calibrationParameters);
+	}
+
+	private static SIMMSimpleSwap[] createCalibrationProducts() throws CalculationException {
+		return net.finmath.initialmargin.isdasimm.test.RiskWeightCalibrationTest.createCalibrationProducts(100 /*notional*/, NUMBER_OF_PERIODS, 0.5 /*periodLength*/, forwardCurve, discountCurve);
+	}
+}
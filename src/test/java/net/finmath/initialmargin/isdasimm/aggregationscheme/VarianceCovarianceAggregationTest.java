@@ -0,0 +1,106 @@
+package net.finmath.initialmargin.isdasimm.aggregationscheme;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.finmath.initialmargin.isdasimm.test.SIMMTest;
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.xva.initialmargin.SIMMHelper;
+
+public class VarianceCovarianceAggregationTest {
+
+	private static final int NUMBER_OF_PATHS = 2500;
+
+	@Test
+	public void testAgainstDoubleLoop() {
+		Random random = new Random(3141);
+		RandomVariableInterface[] contributions = new RandomVariableInterface[7];
+		for (int i = 0; i < contributions.length; i++) {
+			contributions[i] = i == 2 ? null : i == 4 ? new RandomVariable(0.3) : SIMMTest.createRandomVariable(random, NUMBER_OF_PATHS);
+		}
+		Double[][] correlation = createCorrelation(contributions.length);
+
+		RandomVariableInterface aggregation = CalculationSchemeInitialMarginISDA.getVarianceCovarianceAggregation(contributions, correlation);
+
+		for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+			double variance = 0.0;
+			for (int i = 0; i < contributions.length; i++) {
+				for (int j = 0; j < contributions.length; j++) {
+					if (contributions[i] != null && contributions[j] != null) {
+						variance += (i == j ? 1.0 : correlation[i][j]) * contributions[i].get(pathIndex) * contributions[j].get(pathIndex);
+					}
+				}
+			}
+			assertThat(aggregation.get(pathIndex), is(closeTo(Math.sqrt(variance), 1E-12)));
+		}
+	}
+
+	@Test
+	public void testConstantCorrelation() {
+		Random random = new Random(2718);
+		RandomVariableInterface[] contributions = new RandomVariableInterface[]{SIMMTest.createRandomVariable(random, NUMBER_OF_PATHS), SIMMTest.createRandomVariable(random, NUMBER_OF_PATHS), SIMMTest.createRandomVariable(random, NUMBER_OF_PATHS)};
+		Double[][] correlation = new Double[][]{{0.27}};
+
+		RandomVariableInterface aggregation = CalculationSchemeInitialMarginISDA.getVarianceCovarianceAggregation(contributions, 0.27);
+		RandomVariableInterface aggregationHelper = SIMMHelper.getVarianceCovarianceAggregation(contributions, correlation);
+
+		for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+			double x = contributions[0].get(pathIndex);
+			double y = contributions[1].get(pathIndex);
+			double z = contributions[2].get(pathIndex);
+			double expected = Math.sqrt(x * x + y * y + z * z + 2 * 0.27 * (x * y + x * z + y * z));
+			assertThat(aggregation.get(pathIndex), is(closeTo(expected, 1E-12)));
+			assertThat(aggregationHelper.get(pathIndex), is(closeTo(expected, 1E-12)));
+		}
+	}
+
+	@Test
+	public void testUnsetDiagonalIsNotRead() {
+		Double[][] correlation = new Double[][]{{null, 0.5}, {0.5, null}};
+		RandomVariableInterface aggregation = CalculationSchemeInitialMarginISDA.getVarianceCovarianceAggregation(
+				new RandomVariableInterface[]{new RandomVariable(3.0), new RandomVariable(4.0)}, correlation);
+
+		assertThat(aggregation.isDeterministic(), is(true));
+		assertThat(aggregation.get(0), is(closeTo(Math.sqrt(9.0 + 16.0 + 12.0), 1E-12)));
+	}
+
+	@Test
+	public void testNullContributions() {
+		RandomVariableInterface[] contributions = new RandomVariableInterface[3];
+		assertThat(SIMMHelper.getVarianceCovarianceAggregation(contributions, createCorrelation(3)), is(nullValue()));
+		assertThat(VarianceCovarianceAggregation.getAggregation(contributions, 0.5), is(nullValue()));
+	}
+
+	@Test
+	public void testCorrelationsOfParameterCollectionAreConvertedOnce() {
+		CalculationSchemeInitialMarginISDA.ParameterCollection parameterCollection = new CalculationSchemeInitialMarginISDA("EUR").getParameterCollection();
+		parameterCollection.setCrossRiskClassCorrelationMatrix(createCorrelation(6));
+
+		double[][] crossRiskClassCorrelations = parameterCollection.getCrossRiskClassCorrelations();
+		assertThat(parameterCollection.getCrossRiskClassCorrelations(), is(sameInstance(crossRiskClassCorrelations)));
+		assertThat(crossRiskClassCorrelations[1][3], is(Math.exp(-0.6)));
+		assertThat(parameterCollection.getIntraBucketCorrelations("INTEREST_RATE"), is(sameInstance(parameterCollection.getIntraBucketCorrelations("INTEREST_RATE"))));
+
+		// A replaced matrix is converted again
+		parameterCollection.setCrossRiskClassCorrelationMatrix(createCorrelation(4));
+		assertThat(parameterCollection.getCrossRiskClassCorrelations().length, is(4));
+	}
+
+	private static Double[][] createCorrelation(int dimension) {
+		Double[][] correlation = new Double[dimension][dimension];
+		for (int i = 0; i < dimension; i++) {
+			for (int j = 0; j < dimension; j++) {
+				correlation[i][j] = i == j ? 1.0 : Math.exp(-0.3 * Math.abs(i - j));
+			}
+		}
+		return correlation;
+	}
+}
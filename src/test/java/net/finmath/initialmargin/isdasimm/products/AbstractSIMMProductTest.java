@@ -0,0 +1,90 @@
+package net.finmath.initialmargin.isdasimm.products;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.finmath.exception.CalculationException;
+import net.finmath.initialmargin.isdasimm.changedfinmath.LIBORModelMonteCarloSimulationInterface;
+import net.finmath.initialmargin.isdasimm.products.AbstractSIMMProduct.MVAMode;
+import net.finmath.initialmargin.isdasimm.sensitivity.AbstractSIMMSensitivityCalculation.SensitivityMode;
+import net.finmath.initialmargin.isdasimm.sensitivity.AbstractSIMMSensitivityCalculation.WeightMode;
+import net.finmath.initialmargin.isdasimm.test.SIMMTest;
+import net.finmath.marketdata.model.curves.DiscountCurve;
+import net.finmath.marketdata.model.curves.ForwardCurve;
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.time.TimeDiscretization;
+import net.finmath.time.TimeDiscretizationInterface;
+
+public class AbstractSIMMProductTest {
+
+	private static final double PERIOD_LENGTH = 0.5;
+	private static final double TIME_STEP = 0.5;
+	private static final double FUNDING_SPREAD = 0.01;
+
+	private static LIBORModelMonteCarloSimulationInterface model;
+	private static ForwardCurve forwardCurve;
+	private static DiscountCurve discountCurve;
+
+	@BeforeClass
+	public static void setUp() throws CalculationException {
+		discountCurve = SIMMTest.createTestDiscountCurve();
+		forwardCurve = SIMMTest.createTestForwardCurve();
+		model = SIMMTest.createTestLIBORMarketModel(100 /*numberOfPaths*/, discountCurve, forwardCurve);
+	}
+
+	@Test
+	public void testMVAOfExactSensitivities() throws CalculationException {
+		assertMVAAgainstInitialMarginOfSingleTimes(SensitivityMode.EXACT, WeightMode.TIMEDEPENDENT);
+	}
+
+	@Test
+	public void testMVAOfMeltingSensitivities() throws CalculationException {
+		assertMVAAgainstInitialMarginOfSingleTimes(SensitivityMode.MELTINGSIMMBUCKETS, WeightMode.CONSTANT);
+	}
+
+	@Test
+	public void testMVAOfInterpolatedSensitivities() throws CalculationException {
+		assertMVAAgainstInitialMarginOfSingleTimes(SensitivityMode.INTERPOLATION, WeightMode.TIMEDEPENDENT);
+	}
+
+	/**
+	 * The MVA of the sensitivities calculated in one sweep equals the MVA of the initial margins calculated time by time.
+	 */
+	private void assertMVAAgainstInitialMarginOfSingleTimes(SensitivityMode sensitivityMode, WeightMode weightMode) throws CalculationException {
+		double mva = createSwap().getMVA(model, sensitivityMode, weightMode, TIME_STEP, FUNDING_SPREAD, MVAMode.EXACT);
+
+		AbstractSIMMProduct product = createSwap();
+		int numberOfTimeSteps = (int) Math.ceil((int) product.getFinalMaturity() / TIME_STEP);
+		TimeDiscretizationInterface initialMarginTimes = new TimeDiscretization(0.0, numberOfTimeSteps - 1, TIME_STEP);
+		RandomVariableInterface expectedMVA = new RandomVariable(0.0);
+		for (int i = 0; i < numberOfTimeSteps; i++) {
+			RandomVariableInterface forwardBond = model.getNumeraire((i + 1) * TIME_STEP).mult(Math.exp((i + 1) * TIME_STEP * FUNDING_SPREAD)).invert()
+					.sub(model.getNumeraire(i * TIME_STEP).mult(Math.exp(i * TIME_STEP * FUNDING_SPREAD)).invert());
+			RandomVariableInterface initialMargin = product.getInitialMargin(initialMarginTimes.getTime(i), model, "EUR", sensitivityMode, weightMode, 1.0, false, true);
+			expectedMVA = expectedMVA.sub(forwardBond.mult(initialMargin));
+		}
+
+		// The regressions of the sweep are calculated in a different order, hence differ by round-off
+		assertThat(mva > 0.0, is(true));
+		assertThat(mva, is(closeTo(expectedMVA.getAverage(), 1E-7 * Math.abs(expectedMVA.getAverage()))));
+	}
+
+	private static AbstractSIMMProduct createSwap() {
+		int numberOfPeriods = 8;
+		double[] fixingDates = IntStream.range(0, numberOfPeriods).mapToDouble(i -> i * PERIOD_LENGTH).toArray();
+		double[] paymentDates = IntStream.range(0, numberOfPeriods).mapToDouble(i -> (i + 1) * PERIOD_LENGTH).toArray();
+		double[] swapTenor = IntStream.range(0, numberOfPeriods + 1).mapToDouble(i -> i * PERIOD_LENGTH).toArray();
+		double[] swapRates = new double[numberOfPeriods];
+		Arrays.fill(swapRates, SIMMTest.getParSwaprate(forwardCurve, discountCurve, swapTenor));
+
+		return new SIMMSimpleSwap(fixingDates, paymentDates, swapRates, true /*isPayFix*/, 100 /*notional*/, new String[]{"OIS", "Libor6m"}, "EUR");
+	}
+}
@@ -0,0 +1,88 @@
+package net.finmath.initialmargin.isdasimm.products;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import net.finmath.initialmargin.isdasimm.products.ExactDeltaCache.CurveIndex;
+import net.finmath.initialmargin.isdasimm.products.ExactDeltaCache.RiskClass;
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.time.TimeDiscretization;
+
+public class ExactDeltaCacheTest {
+
+	private static final int NUMBER_OF_PATHS = 100;
+
+	// A vector of 3 sensitivities with 100 paths each: 3 * (32 + 800) bytes
+	private static final long VECTOR_SIZE = 3 * (32 + 8 * NUMBER_OF_PATHS);
+
+	private final TimeDiscretization timeDiscretization = new TimeDiscretization(0.0, 20, 0.5);
+
+	@Test
+	public void testKeys() {
+		ExactDeltaCache cache = new ExactDeltaCache(timeDiscretization, 10 * VECTOR_SIZE);
+		RandomVariableInterface[] liborMarketRate = createVector();
+		RandomVariableInterface[] liborModel = createVector();
+		RandomVariableInterface[] ois = createVector();
+
+		cache.put(1.0, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, true, liborMarketRate);
+		cache.put(1.0, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, false, liborModel);
+		cache.put(1.0, RiskClass.INTEREST_RATE, CurveIndex.OIS, true, ois);
+
+		assertThat(cache.get(1.0, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, true), is(sameInstance(liborMarketRate)));
+		assertThat(cache.get(1.0, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, false), is(sameInstance(liborModel)));
+		assertThat(cache.get(1.0, RiskClass.INTEREST_RATE, CurveIndex.OIS, true), is(sameInstance(ois)));
+		assertThat(cache.get(1.0, RiskClass.CREDIT_Q, CurveIndex.OIS, true), is(nullValue()));
+		assertThat(cache.get(1.5, RiskClass.INTEREST_RATE, CurveIndex.OIS, true), is(nullValue()));
+		assertThat(cache.getSizeInBytes(), is(3 * VECTOR_SIZE));
+	}
+
+	@Test
+	public void testTimesOffTheTimeDiscretization() {
+		ExactDeltaCache cache = new ExactDeltaCache(timeDiscretization, 10 * VECTOR_SIZE);
+		RandomVariableInterface[] sensitivities = createVector();
+
+		cache.put(1.25, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, true, sensitivities);
+		cache.put(40.0, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, true, createVector());
+
+		assertThat(cache.get(1.25, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, true), is(sameInstance(sensitivities)));
+		assertThat(cache.get(1.0, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, true), is(nullValue()));
+		assertThat(cache.getSizeInBytes(), is(2 * VECTOR_SIZE));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		ExactDeltaCache cache = new ExactDeltaCache(timeDiscretization, 2 * VECTOR_SIZE);
+		cache.put(0.0, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, true, createVector());
+		cache.put(0.5, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, true, createVector());
+		cache.get(0.0, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, true);
+		cache.put(1.0, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, true, createVector());
+
+		assertThat(cache.get(0.5, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, true), is(nullValue()));
+		assertThat(cache.get(0.0, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, true) != null, is(true));
+		assertThat(cache.get(1.0, RiskClass.INTEREST_RATE, CurveIndex.Libor6m, true) != null, is(true));
+		assertThat(cache.getEvictionCount(), is(1L));
+		assertThat(cache.getSizeInBytes(), is(2 * VECTOR_SIZE));
+	}
+
+	@Test
+	public void testVectorExceedingBudgetIsNotStored() {
+		ExactDeltaCache cache = new ExactDeltaCache(timeDiscretization, VECTOR_SIZE - 1);
+		cache.put(0.0, RiskClass.INTEREST_RATE, CurveIndex.OIS, true, createVector());
+
+		assertThat(cache.get(0.0, RiskClass.INTEREST_RATE, CurveIndex.OIS, true), is(nullValue()));
+		assertThat(cache.getSizeInBytes(), is(0L));
+	}
+
+	private static RandomVariableInterface[] createVector() {
+		RandomVariableInterface[] vector = new RandomVariableInterface[3];
+		for (int i = 0; i < vector.length; i++) {
+			vector[i] = new RandomVariable(0.0, NUMBER_OF_PATHS, (double) i);
+		}
+		return vector;
+	}
+}
@@ -0,0 +1,161 @@
+package net.finmath.initialmargin.isdasimm.products;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.finmath.exception.CalculationException;
+import net.finmath.initialmargin.isdasimm.aggregationscheme.CalculationSchemeInitialMarginISDA;
+import net.finmath.initialmargin.isdasimm.changedfinmath.LIBORModelMonteCarloSimulationInterface;
+import net.finmath.initialmargin.isdasimm.sensitivity.AbstractSIMMSensitivityCalculation.SensitivityMode;
+import net.finmath.initialmargin.isdasimm.sensitivity.AbstractSIMMSensitivityCalculation.WeightMode;
+import net.finmath.initialmargin.isdasimm.test.SIMMTest;
+import net.finmath.marketdata.model.curves.DiscountCurve;
+import net.finmath.marketdata.model.curves.ForwardCurve;
+import net.finmath.stochastic.RandomVariableInterface;
+
+public class SIMMPortfolioTest {
+
+	private static final int NUMBER_OF_PATHS = 200;
+	private static final double PERIOD_LENGTH = 0.5;
+
+	private static LIBORModelMonteCarloSimulationInterface model;
+	private static ForwardCurve forwardCurve;
+	private static DiscountCurve discountCurve;
+
+	@BeforeClass
+	public static void setUp() throws CalculationException {
+		discountCurve = SIMMTest.createTestDiscountCurve();
+		forwardCurve = SIMMTest.createTestForwardCurve();
+		model = SIMMTest.createTestLIBORMarketModel(NUMBER_OF_PATHS, discountCurve, forwardCurve);
+	}
+
+	@Test
+	public void testNettedSwapsAreOneProduct() throws CalculationException {
+		SIMMPortfolio portfolio = new SIMMPortfolio(createSwaps(), "EUR", true /*isUseNettedGradient*/);
+		portfolio.getInitialMargin(0.0, model, "EUR", SensitivityMode.EXACT, WeightMode.TIMEDEPENDENT, 1.0);
+
+		assertThat(portfolio.getProducts().length, is(3));
+		assertThat(portfolio.getNettedProducts().length, is(1));
+		assertThat(portfolio.getNettedProducts()[0], is(instanceOf(SIMMNettedSwaps.class)));
+		assertThat(portfolio.getNettedProducts()[0].getFinalMaturity(), is(4.0));
+	}
+
+	@Test
+	public void testSwapsShareConditionalExpectationOperator() throws CalculationException {
+		SIMMPortfolio portfolio = new SIMMPortfolio(createSwaps(), "EUR");
+		portfolio.getInitialMargin(1.2, model, "EUR", SensitivityMode.EXACT, WeightMode.TIMEDEPENDENT, 1.0);
+
+		AbstractSIMMProduct[] products = portfolio.getProducts();
+		assertThat(products[1].getConditionalExpectationOperator(1.2, model), is(sameInstance(products[0].getConditionalExpectationOperator(1.2, model))));
+		assertThat(products[2].getConditionalExpectationOperator(1.2, model), is(sameInstance(products[0].getConditionalExpectationOperator(1.2, model))));
+	}
+
+	@Test
+	public void testNetSensitivityTensorAgainstNetSensitivities() throws CalculationException {
+		SIMMPortfolio portfolio = new SIMMPortfolio(createSwaps(), "EUR");
+		portfolio.getInitialMargin(1.2, model, "EUR", SensitivityMode.EXACT, WeightMode.TIMEDEPENDENT, 1.0);
+
+		CalculationSchemeInitialMarginISDA scheme = new CalculationSchemeInitialMarginISDA(portfolio, "EUR");
+		String[] bucketKeys = new String[]{"EUR", "USD"};
+		String[] curveKeys = new String[]{"OIS", "Libor3m", "Libor6m", "inflation"};
+		String[] maturityBuckets = scheme.getParameterCollection().IRMaturityBuckets;
+		RandomVariableInterface[][][] netSensitivities = scheme.getNetSensitivities("RATES_FX", "INTEREST_RATE", bucketKeys, curveKeys, "delta", 1.2);
+
+		for (int iBucket = 0; iBucket < bucketKeys.length; iBucket++) {
+			for (int iCurve = 0; iCurve < curveKeys.length; iCurve++) {
+				for (int iTenor = 0; iTenor < maturityBuckets.length; iTenor++) {
+					RandomVariableInterface expected = scheme.getNetSensitivity("RATES_FX", "INTEREST_RATE", maturityBuckets[iTenor], curveKeys[iCurve], bucketKeys[iBucket], "delta", 1.2);
+					for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex += 7) {
+						assertThat(netSensitivities[iBucket][iCurve][iTenor].get(pathIndex), is(closeTo(expected.get(pathIndex), 1E-10 * (1.0 + Math.abs(expected.get(pathIndex))))));
+					}
+				}
+			}
+		}
+		assertThat(netSensitivities[0][2][5].getVariance() > 0, is(true));
+	}
+
+	@Test
+	public void testNettedGradientAgainstProductGradients() throws CalculationException {
+		assertNettedAgainstProductGradients(false /*isUseAnalyticSwapSensis*/);
+	}
+
+	@Test
+	public void testNettedAnalyticSensitivitiesAgainstProducts() throws CalculationException {
+		assertNettedAgainstProductGradients(true /*isUseAnalyticSwapSensis*/);
+	}
+
+	@Test
+	public void testInitialMarginAllocationAddsUpToInitialMargin() throws CalculationException {
+		SIMMPortfolio portfolio = new SIMMPortfolio(createSwaps(), "EUR");
+
+		for (double evaluationTime : new double[]{0.0, 1.2, 2.5}) {
+			RandomVariableInterface initialMargin = portfolio.getInitialMargin(evaluationTime, model, "EUR", SensitivityMode.EXACT, WeightMode.TIMEDEPENDENT, 1.0,
+					true /*isUseAnalyticSwapSensis*/, true /*isConsiderOISSensis*/);
+			RandomVariableInterface[] allocations = portfolio.getInitialMarginAllocation(evaluationTime, model, "EUR", SensitivityMode.EXACT, WeightMode.TIMEDEPENDENT, 1.0,
+					true /*isUseAnalyticSwapSensis*/, true /*isConsiderOISSensis*/);
+
+			assertThat(allocations.length, is(3));
+			RandomVariableInterface allocated = allocations[0].add(allocations[1]).add(allocations[2]);
+			for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+				assertThat(allocated.get(pathIndex), is(closeTo(initialMargin.get(pathIndex), 1E-10 * initialMargin.get(pathIndex))));
+			}
+		}
+	}
+
+	@Test
+	public void testInitialMarginAllocationOfSingleProduct() throws CalculationException {
+		SIMMPortfolio portfolio = new SIMMPortfolio(new AbstractSIMMProduct[]{createSwap(0.0, 8, true)}, "EUR");
+
+		RandomVariableInterface initialMargin = portfolio.getInitialMargin(1.2, model, "EUR", SensitivityMode.EXACT, WeightMode.TIMEDEPENDENT, 1.0);
+		RandomVariableInterface[] allocations = portfolio.getInitialMarginAllocation(1.2, model, "EUR", SensitivityMode.EXACT, WeightMode.TIMEDEPENDENT, 1.0,
+				false /*isUseAnalyticSwapSensis*/, true /*isConsiderOISSensis*/);
+
+		for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+			assertThat(allocations[0].get(pathIndex), is(closeTo(initialMargin.get(pathIndex), 1E-10 * initialMargin.get(pathIndex))));
+		}
+	}
+
+	private void assertNettedAgainstProductGradients(boolean isUseAnalyticSwapSensis) throws CalculationException {
+		SIMMPortfolio portfolio = new SIMMPortfolio(createSwaps(), "EUR");
+		SIMMPortfolio nettedPortfolio = new SIMMPortfolio(createSwaps(), "EUR", true /*isUseNettedGradient*/);
+
+		for (double evaluationTime : new double[]{0.0, 0.5, 1.2, 2.5, 3.5}) {
+			RandomVariableInterface initialMargin = portfolio.getInitialMargin(evaluationTime, model, "EUR", SensitivityMode.EXACT, WeightMode.TIMEDEPENDENT, 1.0,
+					isUseAnalyticSwapSensis, true /*isConsiderOISSensis*/);
+			RandomVariableInterface nettedInitialMargin = nettedPortfolio.getInitialMargin(evaluationTime, model, "EUR", SensitivityMode.EXACT, WeightMode.TIMEDEPENDENT, 1.0,
+					isUseAnalyticSwapSensis, true /*isConsiderOISSensis*/);
+
+			// The regression of the netted AAD sensitivities differs from the sum of the regressions by round-off only
+			for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex += 13) {
+				assertThat(nettedInitialMargin.get(pathIndex), is(closeTo(initialMargin.get(pathIndex), 1E-4 * Math.abs(initialMargin.get(pathIndex)))));
+			}
+		}
+	}
+
+	private static AbstractSIMMProduct[] createSwaps() {
+		return new AbstractSIMMProduct[]{
+				createSwap(0.0, 8, true),
+				createSwap(0.5, 4, false),
+				createSwap(1.0, 5, true)
+		};
+	}
+
+	private static AbstractSIMMProduct createSwap(double startTime, int numberOfPeriods, boolean isPayFix) {
+		double[] fixingDates = IntStream.range(0, numberOfPeriods).mapToDouble(i -> startTime + i * PERIOD_LENGTH).toArray();
+		double[] paymentDates = IntStream.range(0, numberOfPeriods).mapToDouble(i -> startTime + (i + 1) * PERIOD_LENGTH).toArray();
+		double[] swapTenor = IntStream.range(0, numberOfPeriods + 1).mapToDouble(i -> startTime + i * PERIOD_LENGTH).toArray();
+		double[] swapRates = new double[numberOfPeriods];
+		Arrays.fill(swapRates, SIMMTest.getParSwaprate(forwardCurve, discountCurve, swapTenor));
+
+		return new SIMMSimpleSwap(fixingDates, paymentDates, swapRates, isPayFix, 100 /*notional*/, new String[]{"OIS", "Libor6m"}, "EUR");
+	}
+}
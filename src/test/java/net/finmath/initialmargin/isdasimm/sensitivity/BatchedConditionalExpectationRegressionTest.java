@@ -0,0 +1,77 @@
+package net.finmath.initialmargin.isdasimm.sensitivity;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.finmath.initialmargin.isdasimm.test.SIMMTest;
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.montecarlo.conditionalexpectation.MonteCarloConditionalExpectationRegression;
+import net.finmath.stochastic.RandomVariableInterface;
+
+public class BatchedConditionalExpectationRegressionTest {
+
+	private static final int NUMBER_OF_PATHS = 1000;
+
+	@Test
+	public void testAgainstMonteCarloConditionalExpectationRegression() {
+		Random random = new Random(3141);
+		RandomVariableInterface regressor = SIMMTest.createRandomVariable(random, NUMBER_OF_PATHS);
+		RandomVariableInterface[] basisFunctions = new RandomVariableInterface[]{new RandomVariable(1.0), regressor, regressor.squared()};
+
+		RandomVariableInterface[] randomVariables = new RandomVariableInterface[5];
+		for (int i = 0; i < randomVariables.length; i++) {
+			randomVariables[i] = regressor.mult(i).add(regressor.squared().mult(0.5)).add(SIMMTest.createRandomVariable(random, NUMBER_OF_PATHS));
+		}
+
+		RandomVariableInterface[] conditionalExpectations = new BatchedConditionalExpectationRegression(basisFunctions).getConditionalExpectations(randomVariables);
+		MonteCarloConditionalExpectationRegression expectedOperator = new MonteCarloConditionalExpectationRegression(basisFunctions);
+
+		assertThat(conditionalExpectations.length, is(randomVariables.length));
+		for (int i = 0; i < randomVariables.length; i++) {
+			RandomVariableInterface expected = expectedOperator.getConditionalExpectation(randomVariables[i]);
+			for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+				assertThat(conditionalExpectations[i].get(pathIndex), is(closeTo(expected.get(pathIndex), 1E-10)));
+			}
+		}
+	}
+
+	@Test
+	public void testZeroBasisFunctionsAreIgnored() {
+		Random random = new Random(2718);
+		RandomVariableInterface regressor = SIMMTest.createRandomVariable(random, NUMBER_OF_PATHS);
+		RandomVariableInterface randomVariable = regressor.mult(2.0).add(1.0);
+
+		BatchedConditionalExpectationRegression operator = new BatchedConditionalExpectationRegression(
+				new RandomVariableInterface[]{new RandomVariable(1.0), regressor, new RandomVariable(0.0, NUMBER_OF_PATHS, 0.0)});
+		RandomVariableInterface conditionalExpectation = operator.getConditionalExpectation(randomVariable);
+
+		assertThat(operator.getNumberOfBasisFunctions(), is(2));
+		for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+			assertThat(conditionalExpectation.get(pathIndex), is(closeTo(randomVariable.get(pathIndex), 1E-10)));
+		}
+	}
+
+	@Test
+	public void testDeterministicBasisFunctionsGiveTheAverage() {
+		RandomVariableInterface randomVariable = SIMMTest.createRandomVariable(new Random(1414), NUMBER_OF_PATHS);
+
+		// Collinear deterministic basis functions, as for a regression on LIBORs at time zero
+		RandomVariableInterface conditionalExpectation = new BatchedConditionalExpectationRegression(
+				new RandomVariableInterface[]{new RandomVariable(1.0), new RandomVariable(0.02), new RandomVariable(0.0004)}).getConditionalExpectation(randomVariable);
+
+		assertThat(conditionalExpectation.isDeterministic(), is(true));
+		assertThat(conditionalExpectation.get(0), is(closeTo(randomVariable.getAverage(), 1E-12)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNumberOfPathsMustMatch() {
+		RandomVariableInterface regressor = SIMMTest.createRandomVariable(new Random(1), NUMBER_OF_PATHS);
+		new BatchedConditionalExpectationRegression(new RandomVariableInterface[]{regressor})
+		.getConditionalExpectation(new RandomVariable(0.0, NUMBER_OF_PATHS + 1, 1.0));
+	}
+}
@@ -0,0 +1,147 @@
+package net.finmath.initialmargin.isdasimm.sensitivity;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+import org.junit.After;
+import org.junit.Test;
+
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.stochastic.Scalar;
+
+public class PathwisePseudoInverseTest {
+
+	private static final int NUMBER_OF_PATHS = 300;
+
+	private final ForkJoinPool pool = new ForkJoinPool(3);
+	private final PathwisePseudoInverse engine = new PathwisePseudoInverse(pool, 64);
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void testSquareMatrixAgainstCommonsMath() {
+		assertAgainstCommonsMath(createRandomMatrix(5, 5, 3141, false));
+	}
+
+	@Test
+	public void testWideMatrixAgainstCommonsMath() {
+		assertAgainstCommonsMath(createRandomMatrix(4, 5, 2718, false));
+	}
+
+	@Test
+	public void testTallMatrixAgainstCommonsMath() {
+		assertAgainstCommonsMath(createRandomMatrix(6, 3, 1414, false));
+	}
+
+	@Test
+	public void testRankDeficientMatrixAgainstCommonsMath() {
+		assertAgainstCommonsMath(createRandomMatrix(5, 5, 1732, true));
+	}
+
+	@Test
+	public void testDeterministicMatrix() {
+		RandomVariableInterface[][] matrix = new RandomVariableInterface[][] {
+			{ new Scalar(2.0), new RandomVariable(1.0), null },
+			{ null, new RandomVariable(0.0, 4.0), new Scalar(0.5) },
+			{ new Scalar(-1.0), null, new RandomVariable(3.0) }
+		};
+
+		RandomVariableInterface[][] pseudoInverse = engine.getPseudoInverse(matrix, NUMBER_OF_PATHS);
+		RealMatrix expected = new SingularValueDecomposition(toRealMatrix(matrix, 0)).getSolver().getInverse();
+
+		for (int i = 0; i < pseudoInverse.length; i++) {
+			for (int j = 0; j < pseudoInverse[i].length; j++) {
+				assertThat(pseudoInverse[i][j].isDeterministic(), is(true));
+				assertThat(pseudoInverse[i][j].get(0), is(closeTo(expected.getEntry(i, j), 1E-12)));
+			}
+		}
+	}
+
+	@Test
+	public void testPathMajorBatch() {
+		int rows = 4;
+		int columns = 3;
+		RandomVariableInterface[][] matrix = createRandomMatrix(rows, columns, 4242, false);
+		double[] matrices = new double[NUMBER_OF_PATHS * rows * columns];
+		for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+			for (int i = 0; i < rows; i++) {
+				for (int j = 0; j < columns; j++) {
+					matrices[(pathIndex * rows + i) * columns + j] = matrix[i][j].get(pathIndex);
+				}
+			}
+		}
+
+		double[] inverses = engine.getPseudoInverse(matrices, rows, columns, NUMBER_OF_PATHS);
+
+		for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+			RealMatrix expected = new SingularValueDecomposition(toRealMatrix(matrix, pathIndex)).getSolver().getInverse();
+			for (int i = 0; i < columns; i++) {
+				for (int j = 0; j < rows; j++) {
+					assertThat(inverses[(pathIndex * columns + i) * rows + j], is(closeTo(expected.getEntry(i, j), 1E-9)));
+				}
+			}
+		}
+	}
+
+	private void assertAgainstCommonsMath(RandomVariableInterface[][] matrix) {
+		RandomVariableInterface[][] pseudoInverse = engine.getPseudoInverse(matrix, NUMBER_OF_PATHS);
+
+		assertThat(pseudoInverse.length, is(matrix[0].length));
+		assertThat(pseudoInverse[0].length, is(matrix.length));
+		for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+			RealMatrix expected = new SingularValueDecomposition(toRealMatrix(matrix, pathIndex)).getSolver().getInverse();
+			for (int i = 0; i < pseudoInverse.length; i++) {
+				for (int j = 0; j < pseudoInverse[i].length; j++) {
+					assertThat(pseudoInverse[i][j].get(pathIndex), is(closeTo(expected.getEntry(i, j), 1E-9)));
+				}
+			}
+		}
+	}
+
+	private static RandomVariableInterface[][] createRandomMatrix(int rows, int columns, long seed, boolean isRankDeficient) {
+		Random random = new Random(seed);
+		double[][][] values = new double[rows][columns][NUMBER_OF_PATHS];
+		for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+			for (int i = 0; i < rows; i++) {
+				for (int j = 0; j < columns; j++) {
+					values[i][j][pathIndex] = (i == j ? 2.0 : 0.0) + random.nextGaussian();
+				}
+			}
+			if (isRankDeficient) {
+				// Last row is the sum of the first two rows
+				for (int j = 0; j < columns; j++) {
+					values[rows - 1][j][pathIndex] = values[0][j][pathIndex] + values[1][j][pathIndex];
+				}
+			}
+		}
+
+		RandomVariableInterface[][] matrix = new RandomVariableInterface[rows][columns];
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < columns; j++) {
+				matrix[i][j] = new RandomVariable(0.0, values[i][j]);
+			}
+		}
+		return matrix;
+	}
+
+	private static RealMatrix toRealMatrix(RandomVariableInterface[][] matrix, int pathIndex) {
+		double[][] values = new double[matrix.length][matrix[0].length];
+		for (int i = 0; i < matrix.length; i++) {
+			for (int j = 0; j < matrix[0].length; j++) {
+				values[i][j] = matrix[i][j] == null ? 0.0 : matrix[i][j].get(pathIndex);
+			}
+		}
+		return MatrixUtils.createRealMatrix(values);
+	}
+}
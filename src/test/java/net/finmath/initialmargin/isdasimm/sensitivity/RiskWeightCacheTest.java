@@ -0,0 +1,115 @@
+package net.finmath.initialmargin.isdasimm.sensitivity;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import net.finmath.initialmargin.isdasimm.sensitivity.RiskWeightCache.EvictionPolicy;
+import net.finmath.initialmargin.isdasimm.sensitivity.RiskWeightCache.WeightType;
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+
+public class RiskWeightCacheTest {
+
+	private static final int NUMBER_OF_PATHS = 100;
+
+	// A 2x2 matrix with 100 paths per entry: 4 * (32 + 800) bytes
+	private static final long MATRIX_SIZE = 4 * (32 + 8 * NUMBER_OF_PATHS);
+
+	@Test
+	public void testHitsAndMisses() {
+		RiskWeightCache cache = new RiskWeightCache(10 * MATRIX_SIZE, EvictionPolicy.LEAST_RECENTLY_USED);
+		RandomVariableInterface[][] weights = createMatrix();
+
+		assertThat(cache.get(WeightType.LIBOR, 3), is(nullValue()));
+		assertThat(cache.put(WeightType.LIBOR, 3, weights), is(sameInstance(weights)));
+		assertThat(cache.get(WeightType.LIBOR, 3), is(sameInstance(weights)));
+		assertThat(cache.get(WeightType.OIS, 3), is(nullValue()));
+
+		assertThat(cache.getHitCount(), is(1L));
+		assertThat(cache.getMissCount(), is(2L));
+		assertThat(cache.getSizeInBytes(), is(MATRIX_SIZE));
+
+		// A second insertion for the same key keeps the first matrix
+		assertThat(cache.put(WeightType.LIBOR, 3, createMatrix()), is(sameInstance(weights)));
+		assertThat(cache.getNumberOfEntries(), is(1));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		RiskWeightCache cache = new RiskWeightCache(2 * MATRIX_SIZE, EvictionPolicy.LEAST_RECENTLY_USED);
+		cache.put(WeightType.LIBOR, 0, createMatrix());
+		cache.put(WeightType.LIBOR, 1, createMatrix());
+		cache.get(WeightType.LIBOR, 0);
+		cache.put(WeightType.LIBOR, 2, createMatrix());
+
+		assertThat(cache.get(WeightType.LIBOR, 0), is(notNullValue()));
+		assertThat(cache.get(WeightType.LIBOR, 1), is(nullValue()));
+		assertThat(cache.get(WeightType.LIBOR, 2), is(notNullValue()));
+		assertThat(cache.getEvictionCount(), is(1L));
+		assertThat(cache.getSizeInBytes(), is(2 * MATRIX_SIZE));
+	}
+
+	@Test
+	public void testEarliestTimeEviction() {
+		RiskWeightCache cache = new RiskWeightCache(2 * MATRIX_SIZE, EvictionPolicy.EARLIEST_TIME);
+		cache.put(WeightType.OIS, 5, createMatrix());
+		cache.put(WeightType.OIS, 7, createMatrix());
+		cache.get(WeightType.OIS, 5);
+		cache.put(WeightType.OIS, 9, createMatrix());
+
+		assertThat(cache.get(WeightType.OIS, 5), is(nullValue()));
+		assertThat(cache.get(WeightType.OIS, 7), is(notNullValue()));
+		assertThat(cache.get(WeightType.OIS, 9), is(notNullValue()));
+		assertThat(cache.getEvictionCount(), is(1L));
+	}
+
+	@Test
+	public void testEvaluationTimesOffTheTimeDiscretization() {
+		RiskWeightCache cache = new RiskWeightCache(10 * MATRIX_SIZE, EvictionPolicy.LEAST_RECENTLY_USED);
+		RandomVariableInterface[][] weights = createMatrix();
+
+		cache.put(WeightType.LIBOR, 0.3, weights);
+
+		assertThat(cache.get(WeightType.LIBOR, 0.3), is(sameInstance(weights)));
+		assertThat(cache.get(WeightType.LIBOR, 0.35), is(nullValue()));
+		assertThat(cache.get(WeightType.LIBOR, 0.0), is(nullValue()));
+	}
+
+	@Test
+	public void testClear() {
+		RiskWeightCache cache = new RiskWeightCache(10 * MATRIX_SIZE, EvictionPolicy.LEAST_RECENTLY_USED);
+		cache.put(WeightType.LIBOR, 0.0, createMatrix());
+		cache.put(WeightType.OIS, 0.5, createMatrix());
+
+		cache.clear();
+
+		assertThat(cache.getNumberOfEntries(), is(0));
+		assertThat(cache.getSizeInBytes(), is(0L));
+		assertThat(cache.get(WeightType.LIBOR, 0.0), is(nullValue()));
+	}
+
+	@Test
+	public void testMatrixExceedingBudgetIsNotStored() {
+		RiskWeightCache cache = new RiskWeightCache(MATRIX_SIZE - 1, EvictionPolicy.LEAST_RECENTLY_USED);
+		RandomVariableInterface[][] weights = createMatrix();
+
+		assertThat(cache.put(WeightType.JACOBIAN, 0, weights), is(sameInstance(weights)));
+		assertThat(cache.get(WeightType.JACOBIAN, 0), is(nullValue()));
+		assertThat(cache.getSizeInBytes(), is(0L));
+	}
+
+	private static RandomVariableInterface[][] createMatrix() {
+		RandomVariableInterface[][] matrix = new RandomVariableInterface[2][2];
+		for (int i = 0; i < 2; i++) {
+			for (int j = 0; j < 2; j++) {
+				matrix[i][j] = new RandomVariable(0.0, NUMBER_OF_PATHS, (double) (i + j));
+			}
+		}
+		return matrix;
+	}
+}
@@ -0,0 +1,203 @@
+package net.finmath.initialmargin.isdasimm.sensitivity;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItemInArray;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.finmath.exception.CalculationException;
+import net.finmath.initialmargin.isdasimm.changedfinmath.LIBORModelMonteCarloSimulationInterface;
+import net.finmath.initialmargin.isdasimm.products.AbstractSIMMProduct;
+import net.finmath.initialmargin.isdasimm.products.SIMMSimpleSwap;
+import net.finmath.initialmargin.isdasimm.products.SIMMSwaption;
+import net.finmath.initialmargin.isdasimm.products.SIMMSwaption.DeliveryType;
+import net.finmath.initialmargin.isdasimm.sensitivity.AbstractSIMMSensitivityCalculation.SensitivityMode;
+import net.finmath.initialmargin.isdasimm.sensitivity.AbstractSIMMSensitivityCalculation.WeightMode;
+import net.finmath.initialmargin.isdasimm.test.SIMMTest;
+import net.finmath.marketdata.model.curves.DiscountCurve;
+import net.finmath.marketdata.model.curves.ForwardCurve;
+import net.finmath.optimizer.SolverException;
+import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.time.TimeDiscretization;
+import net.finmath.time.TimeDiscretizationInterface;
+
+public class SIMMSensitivityCalculationTest {
+
+	private static final int NUMBER_OF_PATHS = 200;
+	private static final double PERIOD_LENGTH = 0.5;
+
+	private static LIBORModelMonteCarloSimulationInterface model;
+	private static ForwardCurve forwardCurve;
+	private static DiscountCurve discountCurve;
+	private static ForkJoinPool timeSlicePool;
+
+	@BeforeClass
+	public static void setUp() throws CalculationException {
+		discountCurve = SIMMTest.createTestDiscountCurve();
+		forwardCurve = SIMMTest.createTestForwardCurve();
+		model = SIMMTest.createTestLIBORMarketModel(NUMBER_OF_PATHS, discountCurve, forwardCurve);
+
+		timeSlicePool = new ForkJoinPool(3);
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		timeSlicePool.shutdown();
+	}
+
+	@Test
+	public void testBatchedMeltingAgainstSingleTimes() throws SolverException, CloneNotSupportedException, CalculationException {
+		assertBatchedAgainstSingleTimes(SensitivityMode.MELTINGSIMMBUCKETS, null);
+	}
+
+	@Test
+	public void testBatchedLiborMeltingInParallelAgainstSingleTimes() throws SolverException, CloneNotSupportedException, CalculationException {
+		assertBatchedAgainstSingleTimes(SensitivityMode.MELTINGLIBORBUCKETS, timeSlicePool);
+	}
+
+	@Test
+	public void testBatchedInterpolationInParallelAgainstSingleTimes() throws SolverException, CloneNotSupportedException, CalculationException {
+		assertBatchedAgainstSingleTimes(SensitivityMode.INTERPOLATION, timeSlicePool);
+	}
+
+	@Test
+	public void testCheckedExceptionOfTimeSliceIsRethrown() throws SolverException, CloneNotSupportedException, CalculationException {
+		AbstractSIMMProduct product = createSwap(10 /*numberOfPeriods*/);
+		product.getInitialMargin(0.0, model, "EUR", SensitivityMode.MELTINGLIBORBUCKETS, WeightMode.TIMEDEPENDENT, 1.0, false, true);
+
+		final double failingTime = 2.0;
+		AbstractSIMMSensitivityCalculation sensitivityCalculation = new SIMMSensitivityCalculation(SensitivityMode.MELTINGLIBORBUCKETS, WeightMode.TIMEDEPENDENT, 1.0, model, false, true) {
+			@Override
+			public RandomVariableInterface[] getMeltedSensitivities(AbstractSIMMProduct product, RandomVariableInterface[] sensitivities, double meltingZeroTime,
+					double evaluationTime, String curveIndexName, String riskClass) throws SolverException, CloneNotSupportedException, CalculationException {
+				if (evaluationTime == failingTime) {
+					throw new CalculationException("Failing time slice.");
+				}
+				return super.getMeltedSensitivities(product, sensitivities, meltingZeroTime, evaluationTime, curveIndexName, riskClass);
+			}
+		};
+		sensitivityCalculation.setTimeSlicePool(timeSlicePool);
+		product.setSIMMSensitivityCalculation(sensitivityCalculation);
+
+		try {
+			sensitivityCalculation.getDeltaSensitivities(product, "INTEREST_RATE", "Libor6m", new TimeDiscretization(0.0, 8, 0.5), model);
+			fail("The exception of the time slice was not thrown.");
+		} catch (CalculationException e) {
+			assertThat(e.getClass(), is(equalTo(CalculationException.class)));
+			assertThat(e.getMessage(), is("Failing time slice."));
+		}
+	}
+
+	@Test
+	public void testAdaptiveAnchorsOfSwap() throws SolverException, CloneNotSupportedException, CalculationException {
+		AbstractSIMMProduct product = createSwap(10 /*numberOfPeriods*/);
+		SIMMSensitivityCalculation sensitivityCalculation = setUpAdaptiveInterpolation(product, SIMMSensitivityCalculation.DEFAULT_ADAPTIVE_TOLERANCE);
+
+		double[] anchorTimes = sensitivityCalculation.getAdaptiveAnchorTimes(product, "INTEREST_RATE");
+
+		assertThat(anchorTimes[0], is(0.0));
+		assertThat(anchorTimes[anchorTimes.length - 1], is(product.getFinalMaturity()));
+		for (int anchorIndex = 1; anchorIndex < anchorTimes.length; anchorIndex++) {
+			assertThat(anchorTimes[anchorIndex] - anchorTimes[anchorIndex - 1], is(greaterThanOrEqualTo(0.5 - 1E-10)));
+		}
+		assertThat(sensitivityCalculation.getNumberOfAnchors(), is(anchorTimes.length));
+
+		// At the anchor times the interpolated sensitivities are the exact sensitivities
+		for (int anchorIndex = 0; anchorIndex < anchorTimes.length - 1; anchorIndex++) {
+			RandomVariableInterface[] interpolated = sensitivityCalculation.getDeltaSensitivities(product, "INTEREST_RATE", "Libor6m", anchorTimes[anchorIndex], model);
+			RandomVariableInterface[] exact = AbstractSIMMSensitivityCalculation.mapSensitivitiesOnBuckets(
+					product.getExactDeltaFromCache(anchorTimes[anchorIndex], "INTEREST_RATE", "Libor6m", true), "INTEREST_RATE", null, model);
+			for (int bucketIndex = 0; bucketIndex < exact.length; bucketIndex++) {
+				assertThat(interpolated[bucketIndex].getAverage(), is(closeTo(exact[bucketIndex].getAverage(), 1E-10)));
+			}
+		}
+	}
+
+	@Test
+	public void testAdaptiveToleranceControlsRefinement() throws SolverException, CloneNotSupportedException, CalculationException {
+		AbstractSIMMProduct coarseProduct = createSwap(10 /*numberOfPeriods*/);
+		double[] coarseAnchorTimes = setUpAdaptiveInterpolation(coarseProduct, Double.MAX_VALUE).getAdaptiveAnchorTimes(coarseProduct, "INTEREST_RATE");
+
+		AbstractSIMMProduct fineProduct = createSwap(10 /*numberOfPeriods*/);
+		double[] fineAnchorTimes = setUpAdaptiveInterpolation(fineProduct, 0.0).getAdaptiveAnchorTimes(fineProduct, "INTEREST_RATE");
+
+		assertThat(coarseAnchorTimes.length, is(2));
+		assertThat(fineAnchorTimes.length, is(greaterThan(coarseAnchorTimes.length)));
+	}
+
+	@Test
+	public void testAdaptiveAnchorsContainExerciseDate() throws SolverException, CloneNotSupportedException, CalculationException {
+		double exerciseDate = 2.0;
+		double[] fixingDates = IntStream.range(0, 6).mapToDouble(i -> exerciseDate + i * PERIOD_LENGTH).toArray();
+		double[] paymentDates = IntStream.range(0, 6).mapToDouble(i -> exerciseDate + (i + 1) * PERIOD_LENGTH).toArray();
+		double[] swapRates = new double[fixingDates.length];
+		Arrays.fill(swapRates, 0.02);
+		AbstractSIMMProduct product = new SIMMSwaption(exerciseDate, fixingDates, paymentDates, swapRates, 100 /*notional*/,
+				DeliveryType.Physical, new String[]{"OIS", "Libor6m"}, "EUR");
+
+		double[] anchorTimes = setUpAdaptiveInterpolation(product, Double.MAX_VALUE).getAdaptiveAnchorTimes(product, "INTEREST_RATE");
+
+		assertThat(Arrays.stream(anchorTimes).boxed().toArray(Double[]::new), hasItemInArray(exerciseDate));
+	}
+
+	private static SIMMSensitivityCalculation setUpAdaptiveInterpolation(AbstractSIMMProduct product, double adaptiveTolerance) throws CalculationException {
+		product.getInitialMargin(0.0, model, "EUR", SensitivityMode.ADAPTIVEINTERPOLATION, WeightMode.TIMEDEPENDENT, 0.5, false, true);
+
+		SIMMSensitivityCalculation sensitivityCalculation = new SIMMSensitivityCalculation(SensitivityMode.ADAPTIVEINTERPOLATION, WeightMode.TIMEDEPENDENT,
+				0.5 /*interpolationStep*/, model, false, true, adaptiveTolerance);
+		product.setSIMMSensitivityCalculation(sensitivityCalculation);
+		return sensitivityCalculation;
+	}
+
+	private void assertBatchedAgainstSingleTimes(SensitivityMode sensitivityMode, ForkJoinPool timeSlicePool) throws SolverException, CloneNotSupportedException, CalculationException {
+		AbstractSIMMProduct product = createSwap(10 /*numberOfPeriods*/);
+		product.getInitialMargin(0.0, model, "EUR", sensitivityMode, WeightMode.TIMEDEPENDENT, 1.0, false, true);
+
+		AbstractSIMMSensitivityCalculation sensitivityCalculation = new SIMMSensitivityCalculation(sensitivityMode, WeightMode.TIMEDEPENDENT, 1.0, model, false, true);
+		sensitivityCalculation.setTimeSlicePool(timeSlicePool);
+		product.setSIMMSensitivityCalculation(sensitivityCalculation);
+
+		// The last time is after the maturity of the swap
+		TimeDiscretizationInterface evaluationTimes = new TimeDiscretization(0.0, 12, 0.5);
+
+		for (String curveIndexName : new String[]{"Libor6m", "OIS"}) {
+			RandomVariableInterface[][] batched = sensitivityCalculation.getDeltaSensitivities(product, "INTEREST_RATE", curveIndexName, evaluationTimes, model);
+
+			assertThat(batched.length, is(evaluationTimes.getNumberOfTimes()));
+			for (int timeIndex = 0; timeIndex < evaluationTimes.getNumberOfTimes(); timeIndex++) {
+				double evaluationTime = evaluationTimes.getTime(timeIndex);
+				RandomVariableInterface[] expected = evaluationTime >= product.getFinalMaturity() ? AbstractSIMMSensitivityCalculation.zeroBucketsIR
+						: sensitivityCalculation.getDeltaSensitivities(product, "INTEREST_RATE", curveIndexName, evaluationTime, model);
+
+				assertThat(batched[timeIndex].length, is(expected.length));
+				for (int bucketIndex = 0; bucketIndex < expected.length; bucketIndex++) {
+					for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex += 17) {
+						assertThat(batched[timeIndex][bucketIndex].get(pathIndex), is(closeTo(expected[bucketIndex].get(pathIndex), 1E-10)));
+					}
+				}
+			}
+		}
+	}
+
+	private static AbstractSIMMProduct createSwap(int numberOfPeriods) {
+		double[] fixingDates = IntStream.range(0, numberOfPeriods).mapToDouble(i -> i * PERIOD_LENGTH).toArray();
+		double[] paymentDates = IntStream.range(0, numberOfPeriods).mapToDouble(i -> (i + 1) * PERIOD_LENGTH).toArray();
+		double[] swapTenor = IntStream.range(0, numberOfPeriods + 1).mapToDouble(i -> i * PERIOD_LENGTH).toArray();
+		double[] swapRates = new double[numberOfPeriods];
+		Arrays.fill(swapRates, SIMMTest.getParSwaprate(forwardCurve, discountCurve, swapTenor));
+
+		return new SIMMSimpleSwap(fixingDates, paymentDates, swapRates, true /*isPayFix*/, 100 /*notional*/, new String[]{"OIS", "Libor6m"}, "EUR");
+	}
+}
@@ -0,0 +1,102 @@
+package net.finmath.initialmargin.isdasimm.sensitivity;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.finmath.initialmargin.isdasimm.test.SIMMTest;
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+
+public class SensitivityMappingKernelTest {
+
+	private static final int NUMBER_OF_PATHS = 50;
+
+	@Test
+	public void testFusedProductAgainstAddProduct() {
+		Random random = new Random(3141);
+		int numberOfRows = 6;
+		int numberOfColumns = 5;
+		int offset = 1;
+
+		RandomVariableInterface[] vector = new RandomVariableInterface[numberOfRows + offset];
+		for (int i = 0; i < vector.length; i++) {
+			vector[i] = i == 3 ? new RandomVariable(2.5) : SIMMTest.createRandomVariable(random, NUMBER_OF_PATHS);
+		}
+
+		// Band matrix with null entries, deterministic zeros and deterministic values
+		RandomVariableInterface[][] matrix = new RandomVariableInterface[numberOfRows][numberOfColumns + 1];
+		for (int i = 0; i < numberOfRows; i++) {
+			for (int j = 0; j < numberOfColumns; j++) {
+				if (j > i) {
+					matrix[i][j] = j % 2 == 0 ? null : new RandomVariable(0.0);
+				} else if (j == i) {
+					matrix[i][j] = new RandomVariable(1.0 + i);
+				} else {
+					matrix[i][j] = SIMMTest.createRandomVariable(random, NUMBER_OF_PATHS);
+				}
+			}
+		}
+
+		RandomVariableInterface[] product = AbstractSIMMSensitivityCalculation.multiply(vector, offset, matrix, numberOfRows, numberOfColumns);
+
+		assertThat(product.length, is(numberOfColumns));
+		for (int j = 0; j < numberOfColumns; j++) {
+			RandomVariableInterface expected = new RandomVariable(0.0);
+			for (int i = 0; i < numberOfRows; i++) {
+				RandomVariableInterface factor = matrix[i][j] == null ? new RandomVariable(0.0) : matrix[i][j];
+				expected = expected.addProduct(vector[i + offset], factor);
+			}
+			for (int pathIndex = 0; pathIndex < NUMBER_OF_PATHS; pathIndex++) {
+				assertThat(product[j].get(pathIndex), is(closeTo(expected.get(pathIndex), 1E-12)));
+			}
+		}
+	}
+
+	@Test
+	public void testDeterministicProduct() {
+		RandomVariableInterface[] vector = new RandomVariableInterface[] { new RandomVariable(2.0), null, new RandomVariable(3.0) };
+		RandomVariableInterface[][] matrix = new RandomVariableInterface[][] {
+			{ new RandomVariable(1.0), null },
+			{ new RandomVariable(5.0), new RandomVariable(7.0) },
+			{ new RandomVariable(-1.0), new RandomVariable(4.0) }
+		};
+
+		RandomVariableInterface[] product = AbstractSIMMSensitivityCalculation.multiply(vector, 0, matrix, 3, 2);
+
+		assertThat(product[0].isDeterministic(), is(true));
+		assertThat(product[0].get(0), is(closeTo(-1.0, 1E-15)));
+		assertThat(product[1].get(0), is(closeTo(12.0, 1E-15)));
+	}
+
+	@Test
+	public void testNaNPropagatesThroughZeroEntries() {
+		RandomVariableInterface[] vector = new RandomVariableInterface[] { new RandomVariable(0.0), new RandomVariable(Double.NaN) };
+		RandomVariableInterface[][] matrix = new RandomVariableInterface[][] {
+			{ new RandomVariable(Double.NaN) },
+			{ new RandomVariable(0.0) }
+		};
+
+		RandomVariableInterface[] product = AbstractSIMMSensitivityCalculation.multiply(vector, 0, matrix, 2, 1);
+
+		assertThat(Double.isNaN(product[0].get(0)), is(true));
+	}
+
+	@Test
+	public void testNullVectorGivesZeroAtTimeZero() {
+		RandomVariableInterface[] vector = new RandomVariableInterface[2];
+		RandomVariableInterface[][] matrix = new RandomVariableInterface[][] {
+			{ new RandomVariable(1.0) },
+			{ new RandomVariable(2.0) }
+		};
+
+		RandomVariableInterface[] product = AbstractSIMMSensitivityCalculation.multiply(vector, 0, matrix, 2, 1);
+
+		assertThat(product[0].get(0), is(0.0));
+		assertThat(product[0].getFiltrationTime(), is(0.0));
+	}
+}
@@ -0,0 +1,84 @@
+package net.finmath.xva.beans;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import org.junit.Test;
+
+import net.finmath.xva.coordinates.simm2.MarginType;
+import net.finmath.xva.coordinates.simm2.ProductClass;
+import net.finmath.xva.coordinates.simm2.RiskClass;
+import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+import net.finmath.xva.coordinates.simm2.Simm2SensitivityMap;
+import net.finmath.xva.coordinates.simm2.Vertex;
+
+public class CrifReaderTest {
+
+	private static final String JSON = "["
+			+ "{\"Counterparty\":\"A\",\"TradeID\":\"T1\",\"ProductClass\":\"RatesFX\",\"RiskType\":\"Risk_IRCurve\",\"Qualifier\":\"EUR\",\"Bucket\":\"1\",\"Label1\":\"5y\",\"Label2\":\"OIS\",\"Amount\":100.0,\"AmountCCY\":\"EUR\",\"AmountUSD\":null},"
+			+ "{\"Counterparty\":\"A\",\"TradeID\":\"T2\",\"ProductClass\":\"RatesFX\",\"RiskType\":\"Risk_IRCurve\",\"Qualifier\":\"EUR\",\"Bucket\":\"1\",\"Label1\":\"5y\",\"Label2\":\"OIS\",\"Amount\":\"-30.5\",\"AmountCCY\":\"EUR\"},"
+			+ "{\"Counterparty\":\"A\",\"TradeID\":\"T3\",\"ProductClass\":\"Equity\",\"RiskType\":\"Risk_Equity\",\"Qualifier\":\"ISIN1\",\"Bucket\":\"2\",\"Amount\":7.0,\"Extra\":{\"x\":1}},"
+			+ "{\"Counterparty\":\"A\",\"TradeID\":\"T4\",\"ProductClass\":\"RatesFX\",\"RiskType\":\"Risk_Notional\",\"Qualifier\":\"EUR\",\"Amount\":1.0E6},"
+			+ "{\"Counterparty\":\"B\",\"TradeID\":\"T5\",\"ProductClass\":\"RatesFX\",\"RiskType\":\"Risk_IRCurve\",\"Qualifier\":\"EUR\",\"Bucket\":\"1\",\"Label1\":\"5y\",\"Label2\":\"OIS\",\"Amount\":42.0}"
+			+ "]";
+
+	private static final String CSV = "Counterparty,TradeID,ProductClass,RiskType,Qualifier,Bucket,Label1,Label2,Amount,AmountCCY,AmountUSD\r\n"
+			+ "A,T1,RatesFX,Risk_IRCurve,EUR,1,5y,OIS,100.0,EUR,\r\n"
+			+ "A,T2,RatesFX,Risk_IRCurve,EUR,1,5y,OIS,-30.5,EUR,\r\n"
+			+ "A,T3,Equity,Risk_Equity,\"ISIN1\",2,,,7.0,,\n"
+			+ "A,T4,RatesFX,Risk_Notional,EUR,,,,1.0E6,EUR,\n"
+			+ "\n"
+			+ "B,T5,RatesFX,Risk_IRCurve,EUR,1,5y,OIS,42.0,EUR,\n";
+
+	@Test
+	public void testReadJson() throws IOException {
+		assertNettedSensitivities(new CrifReader().readJson(new StringReader(JSON)));
+	}
+
+	@Test
+	public void testReadCsv() throws IOException {
+		assertNettedSensitivities(new CrifReader().readCsv(new StringReader(CSV)));
+	}
+
+	@Test
+	public void testReadCsvWithQuotedDelimiters() throws IOException {
+		String csv = "Counterparty;RiskType;ProductClass;Qualifier;Bucket;Amount\n"
+				+ "\"Bank; \"\"A\"\"\";Risk_Equity;Equity;ISIN1;2;1.5\n"
+				+ "\"Bank; \"\"A\"\"\";Risk_Equity;Equity;ISIN1;2;2.5";
+
+		Map<String, Simm2SensitivityMap> sensitivities = new CrifReader().readCsv(new StringReader(csv), ';');
+
+		assertThat(sensitivities.keySet(), containsInAnyOrder("Bank; \"A\""));
+		assertThat(sensitivities.get("Bank; \"A\"").get(new Simm2Coordinate(null, "ISIN1", "2", RiskClass.EQUITY, MarginType.DELTA, ProductClass.EQUITY)), closeTo(4.0, 1E-12));
+	}
+
+	@Test
+	public void testSingleNettingSet() throws IOException {
+		Map<String, Simm2SensitivityMap> sensitivities = new CrifReader(record -> "all").readJson(new StringReader(JSON));
+
+		assertThat(sensitivities.keySet(), containsInAnyOrder("all"));
+		assertThat(sensitivities.get("all").get(getIRCoordinate()), closeTo(111.5, 1E-12));
+	}
+
+	private static void assertNettedSensitivities(Map<String, Simm2SensitivityMap> sensitivities) {
+		assertThat(sensitivities.keySet(), containsInAnyOrder("A", "B"));
+
+		Simm2SensitivityMap sensitivitiesA = sensitivities.get("A");
+		assertThat(sensitivitiesA.size(), is(2));
+		assertThat(sensitivitiesA.get(getIRCoordinate()), closeTo(69.5, 1E-12));
+		assertThat(sensitivitiesA.get(new Simm2Coordinate(null, "ISIN1", "2", RiskClass.EQUITY, MarginType.DELTA, ProductClass.EQUITY)), closeTo(7.0, 1E-12));
+
+		assertThat(sensitivities.get("B").size(), is(1));
+		assertThat(sensitivities.get("B").get(getIRCoordinate()), closeTo(42.0, 1E-12));
+	}
+
+	private static Simm2Coordinate getIRCoordinate() {
+		return new Simm2Coordinate(Vertex.Y5, "OIS", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX);
+	}
+}
@@ -0,0 +1,87 @@
+package net.finmath.xva.beans;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.finmath.xva.coordinates.simm2.MarginType;
+import net.finmath.xva.coordinates.simm2.ProductClass;
+import net.finmath.xva.coordinates.simm2.RiskClass;
+import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+import net.finmath.xva.coordinates.simm2.Simm2CoordinateKey;
+import net.finmath.xva.coordinates.simm2.Vertex;
+
+public class CrifSensitivityBeanTest {
+
+	@Test
+	public void testCrifRiskTypes() {
+		assertThat(getKey("RatesFX", "Risk_IRCurve", "EUR", "1", "10y", "Libor6m"),
+				is(new Simm2Coordinate(Vertex.Y10, "Libor6m", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX)));
+		assertThat(getKey("RatesFX", "Risk_IRVol", "EUR", null, "5Y", "Libor6m"),
+				is(new Simm2Coordinate(Vertex.Y5, "Libor6m", "EUR", RiskClass.INTEREST_RATE, MarginType.VEGA, ProductClass.RATES_FX)));
+		assertThat(getKey("RatesFX", "Risk_Inflation", "EUR", null, null, null),
+				is(new Simm2Coordinate(null, "inflation", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX)));
+		assertThat(getKey("RatesFX", "Risk_XCcyBasis", "USD", null, null, null),
+				is(new Simm2Coordinate(null, "ccybasis", "USD", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX)));
+		assertThat(getKey("RatesFX", "Risk_FX", "USD", null, null, null),
+				is(new Simm2Coordinate(null, "USD", "0", RiskClass.FX, MarginType.DELTA, ProductClass.RATES_FX)));
+		assertThat(getKey("Equity", "Risk_Equity", "ISIN1", "3", null, null),
+				is(new Simm2Coordinate(null, "ISIN1", "3", RiskClass.EQUITY, MarginType.DELTA, ProductClass.EQUITY)));
+		assertThat(getKey("Equity", "Risk_EquityVol", "ISIN1", "3", "1y", null),
+				is(new Simm2Coordinate(Vertex.Y1, "ISIN1", "3", RiskClass.EQUITY, MarginType.VEGA, ProductClass.EQUITY)));
+		assertThat(getKey("Commodity", "Risk_Commodity", "Gold", "12", null, null),
+				is(new Simm2Coordinate(null, "Gold", "12", RiskClass.COMMODITY, MarginType.DELTA, ProductClass.COMMODITY)));
+		assertThat(getKey("Credit", "Risk_CreditQ", "ISIN2", "4", "3y", null),
+				is(new Simm2Coordinate(Vertex.Y3, "ISIN2", "4", RiskClass.CREDIT_Q, MarginType.DELTA, ProductClass.CREDIT)));
+		assertThat(getKey("Credit", "Risk_CreditNonQ", "ISIN3", "1", "2y", null),
+				is(new Simm2Coordinate(Vertex.Y2, "ISIN3", "1", RiskClass.CREDIT_NON_Q, MarginType.DELTA, ProductClass.CREDIT)));
+		assertThat(getKey("RatesFX", "Risk_Notional", "EUR", null, null, null), is(nullValue()));
+	}
+
+	@Test
+	public void testFxVolQualifierIsNormalized() {
+		assertThat(getKey("RatesFX", "Risk_FXVol", "EURUSD", null, "6m", null),
+				is(new Simm2Coordinate(Vertex.M6, "USDEUR", "0", RiskClass.FX, MarginType.VEGA, ProductClass.RATES_FX)));
+		assertThat(getKey("RatesFX", "Risk_FXVol", "USDEUR", null, "6m", null),
+				is(new Simm2Coordinate(Vertex.M6, "USDEUR", "0", RiskClass.FX, MarginType.VEGA, ProductClass.RATES_FX)));
+	}
+
+	@Test
+	public void testRiskTypesOutsideVocabulary() {
+		// Classified by name as before
+		assertThat(getKey("ratesfx", "IRCurveDelta", "EUR", "1", "2w", "OIS"),
+				is(new Simm2Coordinate(Vertex.W2, "OIS", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX)));
+	}
+
+	@Test
+	public void testBulkKeys() {
+		List<CrifSensitivityBean> records = Arrays.asList(
+				createRecord("RatesFX", "Risk_IRCurve", "EUR", "1", "10y", "OIS"),
+				createRecord("RatesFX", "Risk_Notional", "EUR", null, null, null),
+				createRecord("Equity", "Risk_Equity", "ISIN1", "3", null, null));
+
+		Simm2Coordinate[] coordinates = CrifSensitivityBean.getSensitivityKeys(records);
+		Simm2CoordinateKey coordinateKeys = new Simm2CoordinateKey();
+		long[] keys = CrifSensitivityBean.getSensitivityCoordinateKeys(records, coordinateKeys);
+
+		assertThat(coordinates[0], is(records.get(0).getSensitivityKey()));
+		assertThat(coordinates[1], is(nullValue()));
+		assertThat(coordinateKeys.decode(keys[0]), is(coordinates[0]));
+		assertThat(keys[1], is(0L));
+		assertThat(coordinateKeys.decode(keys[2]), is(coordinates[2]));
+		assertThat(records.get(1).isSensitivity(), is(false));
+	}
+
+	private static Simm2Coordinate getKey(String productClass, String riskType, String qualifier, String bucket, String label1, String label2) {
+		return createRecord(productClass, riskType, qualifier, bucket, label1, label2).getSensitivityKey();
+	}
+
+	private static CrifSensitivityBean createRecord(String productClass, String riskType, String qualifier, String bucket, String label1, String label2) {
+		return new CrifSensitivityBean("A", "T", productClass, riskType, qualifier, bucket, label1, label2, 1.0, "EUR", null);
+	}
+}
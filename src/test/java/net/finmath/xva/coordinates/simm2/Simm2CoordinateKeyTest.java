@@ -0,0 +1,110 @@
+package net.finmath.xva.coordinates.simm2;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class Simm2CoordinateKeyTest {
+
+	private static final String[] QUALIFIERS = new String[]{"EUR", "USD", "Libor6m", "OIS", null};
+	private static final String[] BUCKETS = new String[]{"1", "2", "Residual", null};
+
+	@Test
+	public void testDecodeEncode() {
+		Simm2CoordinateKey coordinateKeys = new Simm2CoordinateKey();
+		for (Simm2Coordinate coordinate : createCoordinates(new Random(3141), 200)) {
+			long key = coordinateKeys.encode(coordinate);
+			Simm2Coordinate decoded = coordinateKeys.decode(key);
+
+			assertThat(decoded, is(coordinate));
+			assertThat(coordinateKeys.encode(decoded), is(key));
+			assertThat(coordinateKeys.find(coordinate), is(key));
+			assertThat(key, is(not(0L)));
+		}
+	}
+
+	@Test
+	public void testKeysAreEqualIfAndOnlyIfCoordinatesAreEqual() {
+		Simm2CoordinateKey coordinateKeys = new Simm2CoordinateKey();
+		List<Simm2Coordinate> coordinates = createCoordinates(new Random(2718), 100);
+		for (Simm2Coordinate coordinate : coordinates) {
+			for (Simm2Coordinate other : coordinates) {
+				boolean isEqual = coordinate.equals(other);
+				assertThat(coordinateKeys.encode(coordinate) == coordinateKeys.encode(other), is(isEqual));
+				if (isEqual) {
+					assertThat(coordinate.hashCode(), is(other.hashCode()));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testEncodeWithoutCoordinate() {
+		Simm2CoordinateKey coordinateKeys = new Simm2CoordinateKey();
+		Simm2Coordinate coordinate = new Simm2Coordinate(Vertex.Y10, "Libor3m", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX);
+		long key = coordinateKeys.encode(Vertex.Y10, "Libor3m", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX);
+
+		assertThat(key, is(coordinateKeys.encode(coordinate)));
+		assertThat(new Simm2Coordinate(Vertex.Y10, "Libor3m", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX), is(coordinate));
+	}
+
+	@Test
+	public void testFindDoesNotGrowKeySpace() {
+		Simm2CoordinateKey coordinateKeys = new Simm2CoordinateKey();
+		long key = coordinateKeys.encode(new Simm2Coordinate(Vertex.Y10, "Libor3m", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX));
+
+		assertThat(coordinateKeys.find(new Simm2Coordinate(Vertex.Y10, "Libor6m", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX)), is(0L));
+		assertThat(coordinateKeys.find(new Simm2Coordinate(Vertex.Y5, "Libor3m", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX)), is(not(key)));
+		// The next text still gets the second id, i.e., find has not interned Libor6m
+		assertThat(coordinateKeys.encode(Vertex.Y10, "OIS", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX) - key, is(1L << 34));
+	}
+
+	@Test
+	public void testKeySpacesAreIndependent() {
+		Simm2CoordinateKey coordinateKeys = new Simm2CoordinateKey();
+		Simm2CoordinateKey otherCoordinateKeys = new Simm2CoordinateKey();
+		Simm2Coordinate coordinate = new Simm2Coordinate(Vertex.Y10, "Libor3m", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX);
+		otherCoordinateKeys.encode(new Simm2Coordinate(Vertex.Y10, "OIS", "USD", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX));
+
+		long key = coordinateKeys.encode(coordinate);
+		long otherKey = otherCoordinateKeys.encode(coordinate);
+
+		assertThat(otherKey, is(not(key)));
+		assertThat(coordinateKeys.decode(key), is(coordinate));
+		assertThat(otherCoordinateKeys.decode(otherKey), is(coordinate));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeInvalidKey() {
+		new Simm2CoordinateKey().decode(42L);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeKeyOfOtherKeySpace() {
+		Simm2CoordinateKey coordinateKeys = new Simm2CoordinateKey();
+		long key = coordinateKeys.encode(new Simm2Coordinate(Vertex.Y10, "Libor3m", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX));
+		new Simm2CoordinateKey().decode(key);
+	}
+
+	private static List<Simm2Coordinate> createCoordinates(Random random, int numberOfCoordinates) {
+		List<Simm2Coordinate> coordinates = new ArrayList<>();
+		for (int i = 0; i < numberOfCoordinates; i++) {
+			int vertex = random.nextInt(Vertex.values().length + 1);
+			String qualifier = QUALIFIERS[random.nextInt(QUALIFIERS.length)];
+			coordinates.add(new Simm2Coordinate(
+					vertex < Vertex.values().length ? Vertex.values()[vertex] : null,
+					qualifier != null ? new Qualifier(qualifier) : null,
+					BUCKETS[random.nextInt(BUCKETS.length)],
+					RiskClass.values()[random.nextInt(RiskClass.values().length)],
+					MarginType.values()[random.nextInt(MarginType.values().length)],
+					ProductClass.values()[random.nextInt(ProductClass.values().length)]));
+		}
+		return coordinates;
+	}
+}
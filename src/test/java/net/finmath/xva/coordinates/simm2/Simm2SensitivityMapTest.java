@@ -0,0 +1,91 @@
+package net.finmath.xva.coordinates.simm2;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+
+public class Simm2SensitivityMapTest {
+
+	@Test
+	public void testAgainstHashMap() {
+		Random random = new Random(3141);
+		Simm2SensitivityMap map = new Simm2SensitivityMap();
+		Map<Long, Double> expected = new HashMap<>();
+
+		for (int i = 0; i < 5000; i++) {
+			long key = map.getCoordinateKeys().encode(Vertex.values()[random.nextInt(Vertex.values().length)], "Q" + random.nextInt(200), "B" + random.nextInt(5),
+					RiskClass.EQUITY, MarginType.DELTA, ProductClass.EQUITY);
+			double value = random.nextDouble();
+			map.add(key, value);
+			expected.merge(key, value, Double::sum);
+		}
+
+		assertThat(map.size(), is(expected.size()));
+		for (Map.Entry<Long, Double> entry : expected.entrySet()) {
+			assertThat(map.containsKey(entry.getKey()), is(true));
+			assertThat(map.get(entry.getKey()), is(entry.getValue()));
+		}
+
+		long[] keys = map.getKeys();
+		Arrays.sort(keys);
+		assertThat(keys, is(expected.keySet().stream().mapToLong(Long::longValue).sorted().toArray()));
+	}
+
+	@Test
+	public void testFromCoordinates() {
+		Simm2Coordinate coordinate = new Simm2Coordinate(Vertex.Y5, "OIS", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX);
+		Map<Simm2Coordinate, Double> sensitivities = new HashMap<>();
+		sensitivities.put(coordinate, 1234.5);
+
+		Simm2SensitivityMap map = new Simm2SensitivityMap(sensitivities);
+
+		// A new, equal coordinate has the same key
+		Simm2Coordinate lookup = new Simm2Coordinate(Vertex.Y5, "OIS", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX);
+		assertThat(map.get(lookup), is(1234.5));
+		assertThat(map.get(map.getCoordinateKeys().encode(lookup)), is(1234.5));
+		assertThat(map.containsKey(new Simm2Coordinate(Vertex.Y10, "OIS", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX)), is(false));
+		assertThat(map.get(new Simm2Coordinate(Vertex.Y10, "OIS", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX)), is(0.0));
+		assertThat(map.get(new Simm2Coordinate(Vertex.Y5, "Libor3m", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX)), is(0.0));
+	}
+
+	@Test
+	public void testRandomVariablesSurviveRehash() {
+		Simm2SensitivityMap map = new Simm2SensitivityMap(1);
+		RandomVariableInterface[] values = new RandomVariableInterface[100];
+		long[] keys = new long[values.length];
+		for (int i = 0; i < values.length; i++) {
+			keys[i] = map.getCoordinateKeys().encode(null, "ISIN" + i, "1", RiskClass.EQUITY, MarginType.DELTA, ProductClass.EQUITY);
+			values[i] = new RandomVariable(0.0, new double[]{i, 2 * i});
+			if (i % 2 == 0) {
+				map.put(keys[i], values[i]);
+			} else {
+				map.put(keys[i], (double) i);
+			}
+		}
+
+		for (int i = 0; i < values.length; i++) {
+			if (i % 2 == 0) {
+				assertThat(map.getRandomVariable(keys[i]), is(sameInstance(values[i])));
+			} else {
+				assertThat(map.getRandomVariable(keys[i]), is(nullValue()));
+				assertThat(map.get(keys[i]), is((double) i));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testZeroIsNotAKey() {
+		new Simm2SensitivityMap().put(0L, 1.0);
+	}
+}
@@ -0,0 +1,138 @@
+package net.finmath.xva.coordinates.simm2;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.xva.sensitivityproviders.simmsensitivityproviders.SIMMCRIFSensititivityProvider;
+
+public class Simm2SensitivitySnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testScalarSnapshot() throws IOException {
+		Random random = new Random(3141);
+		Map<Simm2Coordinate, Double> sensitivities = new HashMap<>();
+		for (int i = 0; i < 1000; i++) {
+			sensitivities.put(createCoordinate(random), random.nextGaussian());
+		}
+		sensitivities.put(new Simm2Coordinate(null, "ccybasis", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX), 12.0);
+		sensitivities.put(new Simm2Coordinate(null, "Qualifier \u00e4\u00f6\u00fc", null, RiskClass.EQUITY, MarginType.DELTA, null), -3.0);
+
+		Path file = folder.newFile("scalar.simm2").toPath();
+		Simm2SensitivitySnapshot.write(file, sensitivities);
+		Simm2SensitivitySnapshot snapshot = Simm2SensitivitySnapshot.read(file);
+
+		assertThat(snapshot.getNumberOfPaths(), is(0));
+		assertThat(snapshot.size(), is(sensitivities.size()));
+		for (Map.Entry<Simm2Coordinate, Double> sensitivity : sensitivities.entrySet()) {
+			assertThat(snapshot.get(sensitivity.getKey()), is(sensitivity.getValue()));
+		}
+		assertThat(snapshot.containsKey(new Simm2Coordinate(Vertex.Y30, "unknown", "1", RiskClass.FX, MarginType.VEGA, ProductClass.CREDIT)), is(false));
+
+		SIMMCRIFSensititivityProvider provider = new SIMMCRIFSensititivityProvider(snapshot);
+		assertThat(provider.isTimeInvariant(), is(true));
+		assertThat(provider.getSensitivitiyMap(), is(sensitivities));
+	}
+
+	@Test
+	public void testSnapshotKeepsKeysOfSensitivityMap() throws IOException {
+		Random random = new Random(1414);
+		Simm2SensitivityMap sensitivities = new Simm2SensitivityMap();
+		for (int i = 0; i < 200; i++) {
+			sensitivities.add(sensitivities.getCoordinateKeys().encode(createCoordinate(random)), random.nextGaussian());
+		}
+
+		Path file = folder.newFile("map.simm2").toPath();
+		Simm2SensitivitySnapshot.write(file, sensitivities);
+		Simm2SensitivitySnapshot snapshot = Simm2SensitivitySnapshot.read(file);
+
+		long[] keys = sensitivities.getKeys();
+		Arrays.sort(keys);
+		assertThat(snapshot.getKeys(), is(keys));
+		for (long key : keys) {
+			assertThat(snapshot.get(key), is(sensitivities.get(key)));
+			assertThat(snapshot.getCoordinateKeys().decode(key), is(sensitivities.getCoordinateKeys().decode(key)));
+		}
+	}
+
+	@Test
+	public void testSensitivityCube() throws IOException {
+		Random random = new Random(2718);
+		Map<Simm2Coordinate, RandomVariableInterface> sensitivities = new HashMap<>();
+		for (int i = 0; i < 50; i++) {
+			double[] realizations = random.doubles(1000).toArray();
+			sensitivities.put(createCoordinate(random), new RandomVariable(2.5, realizations));
+		}
+		Simm2Coordinate deterministic = new Simm2Coordinate(null, "USD", "0", RiskClass.FX, MarginType.DELTA, ProductClass.RATES_FX);
+		sensitivities.put(deterministic, new RandomVariable(2.5, 7.0));
+
+		Path file = folder.newFile("cube.simm2").toPath();
+		Simm2SensitivitySnapshot.writeCube(file, 2.5, sensitivities);
+		SIMMCRIFSensititivityProvider provider = new SIMMCRIFSensititivityProvider(Simm2SensitivitySnapshot.read(file));
+
+		assertThat(provider.isTimeInvariant(), is(false));
+		for (Map.Entry<Simm2Coordinate, RandomVariableInterface> sensitivity : sensitivities.entrySet()) {
+			RandomVariableInterface value = provider.getSIMMSensitivity(sensitivity.getKey(), 2.5, null);
+			assertThat(value.getFiltrationTime(), is(2.5));
+			assertThat(value.sub(sensitivity.getValue()).abs().getMax(), is(0.0));
+		}
+		assertThat(provider.getSensitivitiyMap().get(deterministic), closeTo(7.0, 1E-12));
+	}
+
+	@Test
+	public void testSensitivityCubeAtOtherTime() throws IOException {
+		Simm2Coordinate coordinate = new Simm2Coordinate(null, "USD", "0", RiskClass.FX, MarginType.DELTA, ProductClass.RATES_FX);
+		Map<Simm2Coordinate, RandomVariableInterface> sensitivities = new HashMap<>();
+		sensitivities.put(coordinate, new RandomVariable(2.5, new double[]{1.0, 2.0}));
+
+		Path file = folder.newFile("cube.simm2").toPath();
+		Simm2SensitivitySnapshot.writeCube(file, 2.5, sensitivities);
+		Simm2SensitivitySnapshot snapshot = Simm2SensitivitySnapshot.read(file);
+		long key = snapshot.getCoordinateKeys().find(coordinate);
+
+		assertThat(snapshot.getRandomVariable(key, 2.5).getAverage(), closeTo(1.5, 1E-12));
+		for (double evaluationTime : new double[]{0.0, 2.0, 3.0}) {
+			try {
+				snapshot.getRandomVariable(key, evaluationTime);
+				fail("A sensitivity cube of time 2.5 must not be returned at time " + evaluationTime);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testNoSnapshot() throws IOException {
+		File file = folder.newFile("empty.simm2");
+		Files.write(file.toPath(), new byte[64]);
+		Simm2SensitivitySnapshot.read(file.toPath());
+	}
+
+	private static Simm2Coordinate createCoordinate(Random random) {
+		return new Simm2Coordinate(
+				Vertex.values()[random.nextInt(Vertex.values().length)],
+				"Q" + random.nextInt(1000),
+				String.valueOf(random.nextInt(12)),
+				RiskClass.values()[random.nextInt(RiskClass.values().length)],
+				MarginType.values()[random.nextInt(MarginType.values().length)],
+				ProductClass.values()[random.nextInt(ProductClass.values().length)]);
+	}
+}
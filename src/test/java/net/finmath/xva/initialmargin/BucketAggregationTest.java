@@ -0,0 +1,77 @@
+package net.finmath.xva.initialmargin;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.stochastic.Scalar;
+import net.finmath.xva.coordinates.simm2.MarginType;
+import net.finmath.xva.coordinates.simm2.ProductClass;
+import net.finmath.xva.coordinates.simm2.RiskClass;
+import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+
+public class BucketAggregationTest {
+
+	private static final int NUMBER_OF_PATHS = 1000;
+
+	private final SimmModality modality = new SimmModality(null, "EUR", 0.0);
+
+	@Test
+	public void testAgainstCrossTerms() {
+		Random random = new Random(3141);
+		Set<WeightedSensitivity> weightedSensitivities = new HashSet<>();
+		for (int i = 0; i < 30; i++) {
+			Simm2Coordinate coordinate = new Simm2Coordinate(null, "ISIN" + i, "3", RiskClass.EQUITY, MarginType.DELTA, ProductClass.EQUITY);
+			RandomVariableInterface weightedSensitivity = i % 5 == 0 ?
+					new RandomVariable(0.0, 1E7 * random.nextGaussian()) :
+						new RandomVariable(0.0, random.doubles(NUMBER_OF_PATHS).map(x -> 1E7 * (x - 0.4)).toArray());
+			RandomVariableInterface concentrationRiskFactor = new RandomVariable(0.0, random.doubles(NUMBER_OF_PATHS).map(x -> 1.0 + 2.0 * x).toArray()).floor(1.5);
+			weightedSensitivities.add(new WeightedSensitivity(coordinate, concentrationRiskFactor, weightedSensitivity));
+		}
+
+		BucketResult result = BucketAggregation.getBucketAggregation("3", weightedSensitivities, modality.getParams());
+
+		// The pairwise formula
+		RandomVariableInterface expectedK = weightedSensitivities.stream().
+				flatMap(w -> weightedSensitivities.stream().map(v -> w.getCrossTerm(v, modality))).
+				reduce(new Scalar(0.0), RandomVariableInterface::add).sqrt();
+		RandomVariableInterface expectedS = new BucketResult("3", weightedSensitivities, expectedK).getS();
+
+		assertThat(result.getK().size(), is(NUMBER_OF_PATHS));
+		assertThat(result.getK().sub(expectedK).abs().getMax(), closeTo(0.0, 1E-6 * expectedK.getMax()));
+		assertThat(result.getS().sub(expectedS).abs().getMax(), closeTo(0.0, 1E-6 * expectedK.getMax()));
+	}
+
+	@Test
+	public void testDeterministicSensitivities() {
+		Set<WeightedSensitivity> weightedSensitivities = new HashSet<>();
+		weightedSensitivities.add(new WeightedSensitivity(new Simm2Coordinate(null, "ISIN1", "3", RiskClass.EQUITY, MarginType.DELTA, ProductClass.EQUITY),
+				new RandomVariable(0.0, 1.0), new RandomVariable(0.0, 3.0)));
+		weightedSensitivities.add(new WeightedSensitivity(new Simm2Coordinate(null, "ISIN2", "3", RiskClass.EQUITY, MarginType.DELTA, ProductClass.EQUITY),
+				new RandomVariable(0.0, 2.0), new RandomVariable(0.0, -4.0)));
+
+		BucketResult result = BucketAggregation.getBucketAggregation("3", weightedSensitivities, modality.getParams());
+
+		// rho = 0.21 for equity bucket 3, f = 1/2
+		double expectedK = Math.sqrt(0.21 * (9.0 + 16.0) + 2.0 * 0.21 * 0.5 * 3.0 * -4.0);
+		assertThat(result.getK().isDeterministic(), is(true));
+		assertThat(result.getK().get(0), closeTo(expectedK, 1E-12));
+		assertThat(result.getS().get(0), closeTo(-1.0, 1E-12));
+	}
+
+	@Test
+	public void testEmptyBucket() {
+		BucketResult result = BucketAggregation.getBucketAggregation("1", new HashSet<>(), modality.getParams());
+
+		assertThat(result.getK().get(0), is(0.0));
+		assertThat(result.getS().get(0), is(0.0));
+	}
+}
@@ -0,0 +1,132 @@
+package net.finmath.xva.initialmargin;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+import net.finmath.xva.coordinates.simm2.RiskClass;
+import net.finmath.xva.coordinates.simm2.Vertex;
+import net.finmath.xva.initialmargin.CompiledSIMMParameter.IRCurrencyClass;
+import net.finmath.xva.initialmargin.CompiledSIMMParameter.VolatilityClass;
+
+public class CompiledSIMMParameterTest {
+
+	private static final double[] REGULAR_RISK_WEIGHTS = {77, 77, 77, 64, 58, 49, 47, 47, 45, 45, 48, 56};
+	private static final double[] LOW_RISK_WEIGHTS = {10, 10, 10, 10, 13, 16, 18, 20, 25, 22, 22, 23};
+	private static final double[] HIGH_RISK_WEIGHTS = {89, 89, 89, 94, 104, 99, 96, 99, 87, 97, 97, 98};
+
+	@Test
+	public void testIRRiskWeightsAndThresholds() {
+		CompiledSIMMParameter parameter = new CompiledSIMMParameter(new SIMMParameter(getJson()));
+
+		IRCurrencyClass usd = parameter.getIRCurrencyClass("USD");
+		assertThat(usd.getVolatilityClass(), is(VolatilityClass.REGULAR));
+		assertThat(usd.getConcentrationThreshold(), is(230E6));
+		assertThat(parameter.getIRCurrencyClass("JPY").getVolatilityClass(), is(VolatilityClass.LOW));
+		assertThat(parameter.getIRCurrencyClass("AUD").getConcentrationThreshold(), is(44E6));
+
+		// Currencies of no group are high volatility currencies
+		IRCurrencyClass other = parameter.getIRCurrencyClass("XYZ");
+		assertThat(other.getVolatilityClass(), is(VolatilityClass.HIGH));
+		assertThat(other.getConcentrationThreshold(), is(8E6));
+
+		assertThat(usd.getRiskWeights(), is(REGULAR_RISK_WEIGHTS));
+		assertThat(parameter.getIRCurrencyClass("JPY").getRiskWeights(), is(LOW_RISK_WEIGHTS));
+		assertThat(other.getRiskWeights(), is(HIGH_RISK_WEIGHTS));
+		assertThat(parameter.getInflationRiskWeight(), is(32.0));
+		assertThat(parameter.getCcyBasisRiskWeight(), is(18.0));
+	}
+
+	@Test
+	public void testCurrencyClassesAreInterned() {
+		CompiledSIMMParameter parameter = new CompiledSIMMParameter(new SIMMParameter(getJson()));
+
+		assertThat(parameter.getIRCurrencyClass("USD"), sameInstance(parameter.getIRCurrencyClass("EUR")));
+		assertThat(parameter.getIRCurrencyClass("XYZ"), sameInstance(parameter.getIRCurrencyClass("ABC")));
+	}
+
+	@Test
+	public void testCorrelations() {
+		CompiledSIMMParameter parameter = new CompiledSIMMParameter(new SIMMParameter(getJson()));
+
+		assertThat(parameter.getIRVertex(0), is(Vertex.W2));
+		assertThat(parameter.getIRVertex(parameter.getNumberOfIRVertices() - 1), is(Vertex.Y30));
+		assertThat(parameter.getIRCorrelation(1, 3, 1, 3), is(1.0));
+		assertThat(parameter.getIRCorrelation(1, 3, 1, 4), is(0.5));
+		assertThat(parameter.getIRCorrelation(1, 3, 2, 4), is(0.5 * 0.98));
+		assertThat(parameter.getIRCrossCurrencyCorrelation(), is(0.27));
+		assertThat(parameter.getCrossRiskClassCorrelation(RiskClass.INTEREST_RATE, RiskClass.FX), is(0.14));
+		assertThat(parameter.getCrossRiskClassCorrelation(RiskClass.FX, RiskClass.INTEREST_RATE), is(0.14));
+		assertThat(parameter.getCrossRiskClassCorrelations()[RiskClass.INTEREST_RATE.ordinal()][RiskClass.FX.ordinal()], is(0.14));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingRiskWeights() {
+		SIMMParameter parameterSet = new SIMMParameter(getJson());
+		parameterSet.MapRiskClassRiskweightMap = new HashMap<>();
+
+		new CompiledSIMMParameter(parameterSet);
+	}
+
+	/**
+	 * A parameter set in the JSON format of {@link SIMMParameter#SIMMParameter(String)}, i.e., a map of JSON strings.
+	 */
+	public static String getJson() {
+		Gson gson = new Gson();
+		int nTenors = REGULAR_RISK_WEIGHTS.length;
+		int nCurves = SIMMParameter.RatesCurveNames.values().length;
+
+		double[][] intraBucketCorrelations = new double[nCurves * nTenors + 2][nCurves * nTenors + 2];
+		for (int i = 0; i < nCurves * nTenors; i++) {
+			for (int j = 0; j < nCurves * nTenors; j++) {
+				double tenorCorrelation = i % nTenors == j % nTenors ? 1.0 : 0.5;
+				intraBucketCorrelations[i][j] = tenorCorrelation * (i / nTenors == j / nTenors ? 1.0 : 0.98);
+			}
+		}
+
+		double[][] crossRiskClassCorrelations = new double[RiskClass.values().length][RiskClass.values().length];
+		crossRiskClassCorrelations[RiskClass.INTEREST_RATE.ordinal()][RiskClass.FX.ordinal()] = 0.14;
+		crossRiskClassCorrelations[RiskClass.FX.ordinal()][RiskClass.INTEREST_RATE.ordinal()] = 0.14;
+
+		Map<String, Object> riskWeights = new HashMap<>();
+		riskWeights.put("Regular_Volatility_Currencies", new double[][]{REGULAR_RISK_WEIGHTS});
+		riskWeights.put("Low_Volatility_Currencies", new double[][]{LOW_RISK_WEIGHTS});
+		riskWeights.put("High_Volatility_Currencies", new double[][]{HIGH_RISK_WEIGHTS});
+		riskWeights.put("inflation", new double[][]{{32}});
+		riskWeights.put("ccybasis", new double[][]{{18}});
+
+		Map<String, Object> thresholds = new HashMap<>();
+		thresholds.put("Regular_Volatility_Currencies_Well_Traded", new double[][]{{230E6}});
+		thresholds.put("Regular_Volatility_Currencies_Less_Traded", new double[][]{{44E6}});
+		thresholds.put("Low_Volatility_Currencies", new double[][]{{33E6}});
+		thresholds.put("High_Volatility_Currencies", new double[][]{{8E6}});
+
+		Map<String, String> currencyMap = new HashMap<>();
+		currencyMap.put("USD,EUR,GBP", "Regular_Volatility_Currencies_Well_Traded");
+		currencyMap.put("AUD,CAD,CHF", "Regular_Volatility_Currencies_Less_Traded");
+		currencyMap.put("JPY", "Low_Volatility_Currencies");
+
+		Map<String, String> json = new HashMap<>();
+		json.put("IRMaturityBuckets", gson.toJson(new String[]{"2w", "1m", "3m", "6m", "1y", "2y", "3y", "5y", "10y", "15y", "20y", "30y"}));
+		json.put("IRCorrelationCrossCurrency", gson.toJson(0.27));
+		json.put("IRCurrencyMap", gson.toJson(currencyMap));
+		json.put("CrossRiskClassCorrelationMatrix", gson.toJson(crossRiskClassCorrelations));
+		json.put("MapRiskClassCorrelationIntraBucketMap", gson.toJson(getMap("INTEREST_RATE", intraBucketCorrelations)));
+		json.put("MapRiskClassRiskweightMap", gson.toJson(getMap("DELTA", getMap("INTEREST_RATE", riskWeights))));
+		json.put("MapRiskClassThresholdMap", gson.toJson(getMap("DELTA", getMap("INTEREST_RATE", thresholds))));
+		return gson.toJson(json);
+	}
+
+	private static Map<String, Object> getMap(String key, Object value) {
+		Map<String, Object> map = new HashMap<>();
+		map.put(key, value);
+		return map;
+	}
+}
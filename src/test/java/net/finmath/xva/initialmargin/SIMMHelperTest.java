@@ -0,0 +1,136 @@
+package net.finmath.xva.initialmargin;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.finmath.xva.coordinates.simm2.MarginType;
+import net.finmath.xva.coordinates.simm2.ProductClass;
+import net.finmath.xva.coordinates.simm2.Qualifier;
+import net.finmath.xva.coordinates.simm2.RiskClass;
+import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+import net.finmath.xva.coordinates.simm2.Vertex;
+
+public class SIMMHelperTest {
+
+	private static final String[] BUCKETS = new String[]{"1", "2", "3", "Residual"};
+	private static final Qualifier[] QUALIFIERS = new Qualifier[]{new Qualifier("EUR"), new Qualifier("USD"), new Qualifier("ISIN1"), new Qualifier("ISIN2")};
+
+	private Set<Simm2Coordinate> coordinates;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(3141);
+		coordinates = new HashSet<>();
+		for (int i = 0; i < 500; i++) {
+			coordinates.add(createCoordinate(random));
+		}
+	}
+
+	@Test
+	public void testQueriesAgainstFullScan() {
+		SIMMHelper helper = new SIMMHelper(coordinates);
+		assertQueriesAgainstFullScan(helper, coordinates);
+	}
+
+	@Test
+	public void testAddCoordinates() {
+		Simm2Coordinate[] allCoordinates = coordinates.toArray(new Simm2Coordinate[0]);
+		Set<Simm2Coordinate> firstHalf = new HashSet<>(Arrays.asList(allCoordinates).subList(0, allCoordinates.length / 2));
+		Set<Simm2Coordinate> secondHalf = new HashSet<>(Arrays.asList(allCoordinates).subList(allCoordinates.length / 2, allCoordinates.length));
+
+		SIMMHelper helper = new SIMMHelper(firstHalf);
+		assertQueriesAgainstFullScan(helper, firstHalf);
+
+		helper.addCoordinates(secondHalf);
+		helper.addCoordinates(Collections.singleton(null));
+		assertQueriesAgainstFullScan(helper, coordinates);
+	}
+
+	@Test
+	public void testBucketQueries() {
+		SIMMHelper helper = new SIMMHelper(coordinates);
+
+		for (Simm2Coordinate coordinate : coordinates) {
+			Set<Simm2Coordinate> expected = coordinates.stream().filter(k -> k.getProductClass() == coordinate.getProductClass() && k.getRiskClass() == coordinate.getRiskClass()
+					&& k.getRiskType() == coordinate.getRiskType() && k.getBucketKey().equals(coordinate.getBucketKey())).collect(Collectors.toSet());
+
+			assertThat(helper.getQualifiers(coordinate.getProductClass(), coordinate.getRiskClass(), coordinate.getRiskType(), coordinate.getBucketKey()),
+					is(expected.stream().map(Simm2Coordinate::getQualifier).collect(Collectors.toSet())));
+			assertThat(helper.getBucketKeys(coordinate.getProductClass(), coordinate.getRiskClass(), coordinate.getRiskType()),
+					is(coordinates.stream().filter(k -> k.getProductClass() == coordinate.getProductClass() && k.getRiskClass() == coordinate.getRiskClass()
+					&& k.getRiskType() == coordinate.getRiskType()).map(Simm2Coordinate::getBucketKey).collect(Collectors.toSet())));
+		}
+
+		assertThat(helper.getQualifiers(ProductClass.RATES_FX, RiskClass.FX, MarginType.BASE_CORR, "unknown"), is(empty()));
+		assertThat(helper.getBucketKeys(null, RiskClass.FX, MarginType.BASE_CORR), is(empty()));
+	}
+
+	@Test
+	public void testCoordinatesWithoutClasses() {
+		Simm2Coordinate coordinate = new Simm2Coordinate(Vertex.Y1, QUALIFIERS[0], BUCKETS[0], null, null, null);
+		SIMMHelper helper = new SIMMHelper(Collections.singleton(coordinate));
+
+		assertThat(helper.getCoordinates(null, null), containsInAnyOrder(coordinate));
+		assertThat(helper.getQualifiers(null, null, null, BUCKETS[0]), containsInAnyOrder(QUALIFIERS[0]));
+		assertThat(helper.getCoordinates(MarginType.DELTA, RiskClass.FX), is(empty()));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testViewsAreUnmodifiable() {
+		new SIMMHelper(coordinates).getRiskClassesForProductClass(ProductClass.CREDIT, 0.0).clear();
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testCoordinatesAreUnmodifiable() {
+		new SIMMHelper(coordinates).getCoordinates(MarginType.DELTA, RiskClass.INTEREST_RATE).clear();
+	}
+
+	private static void assertQueriesAgainstFullScan(SIMMHelper helper, Set<Simm2Coordinate> coordinates) {
+		assertThat(helper.getAvailableProductClasses(0.0), is(coordinates.stream().map(Simm2Coordinate::getProductClass).collect(Collectors.toSet())));
+		assertThat(helper.getAvailableRiskClasses(0.0), is(coordinates.stream().map(Simm2Coordinate::getRiskClass).collect(Collectors.toSet())));
+
+		for (ProductClass productClass : ProductClass.values()) {
+			assertThat(helper.getRiskClassesForProductClass(productClass, 0.0),
+					is(coordinates.stream().filter(k -> k.getProductClass() == productClass).map(Simm2Coordinate::getRiskClass).collect(Collectors.toSet())));
+		}
+
+		for (MarginType marginType : MarginType.values()) {
+			assertThat(helper.getBucketsByRiskClass(marginType, 0.0), is(coordinates.stream().filter(k -> k.getRiskType() == marginType)
+					.collect(Collectors.groupingBy(Simm2Coordinate::getRiskClass, Collectors.mapping(Simm2Coordinate::getBucketKey, Collectors.toSet())))));
+
+			for (String bucketKey : BUCKETS) {
+				Map<RiskClass, Set<Qualifier>> expected = coordinates.stream().filter(k -> k.getRiskType() == marginType && k.getBucketKey().equals(bucketKey))
+						.collect(Collectors.groupingBy(Simm2Coordinate::getRiskClass, Collectors.mapping(Simm2Coordinate::getQualifier, Collectors.toSet())));
+				assertThat(helper.getRiskFactorKeysByRiskClass(marginType, bucketKey, 0.0), is(expected));
+			}
+
+			for (RiskClass riskClass : RiskClass.values()) {
+				Simm2Coordinate[] expected = coordinates.stream().filter(k -> k.getRiskType() == marginType && k.getRiskClass() == riskClass).toArray(Simm2Coordinate[]::new);
+				assertThat(helper.getCoordinates(marginType, riskClass), containsInAnyOrder(expected));
+			}
+		}
+	}
+
+	private static Simm2Coordinate createCoordinate(Random random) {
+		return new Simm2Coordinate(
+				Vertex.values()[random.nextInt(Vertex.values().length)],
+				QUALIFIERS[random.nextInt(QUALIFIERS.length)],
+				BUCKETS[random.nextInt(BUCKETS.length)],
+				RiskClass.values()[random.nextInt(RiskClass.values().length)],
+				MarginType.values()[random.nextInt(MarginType.values().length)],
+				ProductClass.values()[random.nextInt(ProductClass.values().length)]);
+	}
+}
@@ -0,0 +1,138 @@
+package net.finmath.xva.initialmargin;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.finmath.exception.CalculationException;
+import net.finmath.initialmargin.isdasimm.aggregationscheme.IRDeltaMarginKernel;
+import net.finmath.initialmargin.isdasimm.changedfinmath.LIBORModelMonteCarloSimulationInterface;
+import net.finmath.initialmargin.isdasimm.test.SIMMTest;
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.xva.coordinates.simm2.MarginType;
+import net.finmath.xva.coordinates.simm2.ProductClass;
+import net.finmath.xva.coordinates.simm2.RiskClass;
+import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+import net.finmath.xva.coordinates.simm2.Vertex;
+import net.finmath.xva.initialmargin.CompiledSIMMParameter.IRCurrencyClass;
+import net.finmath.xva.sensitivityproviders.simmsensitivityproviders.SIMMSensitivityProviderInterface;
+
+public class SIMMProductIRDeltaTest {
+
+	private static LIBORModelMonteCarloSimulationInterface model;
+
+	@BeforeClass
+	public static void setUp() throws CalculationException {
+		model = SIMMTest.createTestLIBORMarketModel(100 /*numberOfPaths*/);
+	}
+
+	@Test
+	public void testConcurrentCalculationEqualsSequentialCalculation() throws CalculationException, InterruptedException {
+		Map<Simm2Coordinate, Double> sensitivities = new HashMap<>();
+		sensitivities.put(createCoordinate(Vertex.Y1, "Libor6m", "EUR"), 1000.0);
+		sensitivities.put(createCoordinate(Vertex.Y5, "OIS", "EUR"), -500.0);
+		sensitivities.put(createCoordinate(null, SIMMParameter.inflationKey, "EUR"), 200.0);
+		sensitivities.put(createCoordinate(Vertex.Y5, "Libor3m", "USD"), 3000.0);
+		sensitivities.put(createCoordinate(null, SIMMParameter.ccyBasisKey, "USD"), -100.0);
+		sensitivities.put(createCoordinate(Vertex.Y10, "Libor6m", "JPY"), 1500.0);
+		SIMMSensitivityProviderInterface provider = new StochasticSensitivityProvider(sensitivities);
+		CompiledSIMMParameter parameter = new CompiledSIMMParameter(new SIMMParameter(CompiledSIMMParameterTest.getJson()));
+
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			// A small block size splits the paths into several tasks of the kernel
+			SIMMProductIRDelta concurrentProduct = new SIMMProductIRDelta(provider, new SIMMHelper(provider.getCoordinates()), ProductClass.RATES_FX,
+					parameter, 1.0, pool, new IRDeltaMarginKernel(pool, 16 /*blockSize*/));
+			SIMMProductIRDelta sequentialProduct = new SIMMProductIRDelta(provider, ProductClass.RATES_FX, parameter, 1.0);
+
+			RandomVariableInterface concurrentValue = concurrentProduct.getValue(0.5, model);
+			RandomVariableInterface sequentialValue = sequentialProduct.getValue(0.5, model);
+
+			assertThat(sequentialValue.isDeterministic(), is(false));
+			assertThat(concurrentValue.sub(sequentialValue).abs().getMax(), is(closeTo(0.0, 1E-10 * sequentialValue.abs().getMax())));
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testDeprecatedHelpersDelegateToKernel() {
+		// Sensitivities of the order of the threshold, such that the concentration risk factor exceeds one on some paths
+		Map<Simm2Coordinate, Double> sensitivities = new HashMap<>();
+		sensitivities.put(createCoordinate(Vertex.Y1, "Libor6m", "EUR"), 4E10);
+		sensitivities.put(createCoordinate(Vertex.Y5, "OIS", "EUR"), -1E10);
+		sensitivities.put(createCoordinate(null, SIMMParameter.inflationKey, "EUR"), 2E10);
+		sensitivities.put(createCoordinate(null, SIMMParameter.ccyBasisKey, "EUR"), 3E10);
+		SIMMSensitivityProviderInterface provider = new StochasticSensitivityProvider(sensitivities);
+		CompiledSIMMParameter parameter = new CompiledSIMMParameter(new SIMMParameter(CompiledSIMMParameterTest.getJson()));
+		SIMMProductIRDelta product = new SIMMProductIRDelta(provider, ProductClass.RATES_FX, parameter, 1.0);
+
+		// The net sensitivities of the curves, followed by inflation and currency basis
+		RandomVariableInterface[][] netSensitivities = new RandomVariableInterface[parameter.getNumberOfIRCurves() + 2][];
+		for (int curveIndex = 0; curveIndex < parameter.getNumberOfIRCurves(); curveIndex++) {
+			netSensitivities[curveIndex] = new RandomVariableInterface[parameter.getNumberOfIRVertices()];
+			for (int tenorIndex = 0; tenorIndex < parameter.getNumberOfIRVertices(); tenorIndex++) {
+				netSensitivities[curveIndex][tenorIndex] = provider.getSIMMSensitivity(
+						createCoordinate(parameter.getIRVertex(tenorIndex), parameter.getIRCurve(curveIndex).name(), "EUR"), 0.5, model);
+			}
+		}
+		RandomVariableInterface[][] curveNetSensitivities = Arrays.copyOf(netSensitivities, parameter.getNumberOfIRCurves());
+		netSensitivities[parameter.getNumberOfIRCurves()] = new RandomVariableInterface[]{provider.getSIMMSensitivity(createCoordinate(null, SIMMParameter.inflationKey, "EUR"), 0.5, model)};
+		netSensitivities[parameter.getNumberOfIRCurves() + 1] = new RandomVariableInterface[]{provider.getSIMMSensitivity(createCoordinate(null, SIMMParameter.ccyBasisKey, "EUR"), 0.5, model)};
+		IRCurrencyClass currencyClass = parameter.getIRCurrencyClass("EUR");
+		RandomVariableInterface aggregatedSensitivity = new RandomVariable(0.5, 1E11);
+
+		RandomVariableInterface concentrationRiskFactor = product.getConcentrationRiskFactor("EUR", curveNetSensitivities, 0.5, model);
+		RandomVariableInterface expectedConcentrationRiskFactor = IRDeltaMarginKernel.getConcentrationRiskFactor(netSensitivities, currencyClass.getConcentrationThreshold());
+		RandomVariableInterface factorS = product.getFactorS("EUR", aggregatedSensitivity, curveNetSensitivities, concentrationRiskFactor, 0.5, model);
+		RandomVariableInterface expectedFactorS = IRDeltaMarginKernel.getFactorS(netSensitivities, currencyClass.getRiskWeights(),
+				parameter.getInflationRiskWeight(), parameter.getCcyBasisRiskWeight(), concentrationRiskFactor, aggregatedSensitivity);
+
+		assertThat(concentrationRiskFactor.getMax() > 1.0, is(true));
+		assertThat(concentrationRiskFactor.sub(expectedConcentrationRiskFactor).abs().getMax(), is(0.0));
+		assertThat(factorS.sub(expectedFactorS).abs().getMax(), is(0.0));
+		assertThat(product.getParameterG(concentrationRiskFactor, concentrationRiskFactor.mult(4.0)).getAverage(), is(closeTo(0.25, 1E-12)));
+	}
+
+	private static Simm2Coordinate createCoordinate(Vertex vertex, String curve, String currency) {
+		return new Simm2Coordinate(vertex, curve, currency, RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX);
+	}
+
+	/**
+	 * Sensitivities scaled by the forward rate of the next period, hence differing from path to path.
+	 */
+	private static class StochasticSensitivityProvider implements SIMMSensitivityProviderInterface {
+		private final Map<Simm2Coordinate, Double> sensitivities;
+
+		StochasticSensitivityProvider(Map<Simm2Coordinate, Double> sensitivities) {
+			this.sensitivities = sensitivities;
+		}
+
+		@Override
+		public RandomVariableInterface getSIMMSensitivity(Simm2Coordinate key, double evaluationTime, net.finmath.montecarlo.interestrate.LIBORModelMonteCarloSimulationInterface model) {
+			try {
+				return model.getLIBOR(evaluationTime, evaluationTime, evaluationTime + 0.5).mult(sensitivities.getOrDefault(key, 0.0));
+			} catch (CalculationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public Set<Simm2Coordinate> getCoordinates() {
+			return sensitivities.keySet();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package net.finmath.xva.initialmargin;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import net.finmath.xva.coordinates.simm2.MarginType;
+import net.finmath.xva.coordinates.simm2.ProductClass;
+import net.finmath.xva.coordinates.simm2.RiskClass;
+import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+
+public class Simm2ParameterImplTest {
+
+	private final Simm2Parameter parameter = new Simm2ParameterImpl();
+
+	@Test
+	public void testBucketwiseValues() {
+		assertThat(parameter.getRiskWeight(getEquityCoordinate("ISIN1", "3")), is(27.0));
+		assertThat(parameter.getRiskWeight(getEquityCoordinate("ISIN1", "residual")), is(32.0));
+		assertThat(parameter.getConcentrationThreshold(getEquityCoordinate("ISIN1", "10")), is(9.0E8));
+		assertThat(parameter.getConcentrationThreshold(getEquityCoordinate("ISIN1", "Residual")), is(600000.0));
+	}
+
+	@Test
+	public void testFXConcentrationThresholds() {
+		assertThat(parameter.getConcentrationThreshold(getFXCoordinate("usd")), is(8400E6));
+		assertThat(parameter.getConcentrationThreshold(getFXCoordinate("USD")), is(8400E6));
+		assertThat(parameter.getConcentrationThreshold(getFXCoordinate("NOK")), is(1900E6));
+		assertThat(parameter.getConcentrationThreshold(getFXCoordinate("XYZ")), is(560E6));
+	}
+
+	@Test
+	public void testIntraBucketCorrelations() {
+		Simm2Coordinate[] coordinates = new Simm2Coordinate[]{getEquityCoordinate("ISIN1", "3"), getEquityCoordinate("ISIN2", "3"), getEquityCoordinate("ISIN3", "3")};
+
+		double[][] correlations = parameter.getIntraBucketCorrelations(coordinates);
+		for (int i = 0; i < coordinates.length; i++) {
+			for (int j = 0; j < coordinates.length; j++) {
+				assertThat(correlations[i][j], is(parameter.getIntraBucketCorrelation(coordinates[i], coordinates[j])));
+			}
+		}
+		assertThat(correlations[0][1], is(0.21));
+	}
+
+	@Test
+	public void testParametersAreSharedByModality() {
+		SimmModality modality = new SimmModality(null, "EUR", 0.0);
+		assertThat(modality.getParams(), is(sameInstance(modality.getParams())));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testUnknownBucket() {
+		parameter.getRiskWeight(getEquityCoordinate("ISIN1", "unknown"));
+	}
+
+	private static Simm2Coordinate getEquityCoordinate(String qualifier, String bucketKey) {
+		return new Simm2Coordinate(null, qualifier, bucketKey, RiskClass.EQUITY, MarginType.DELTA, ProductClass.EQUITY);
+	}
+
+	private static Simm2Coordinate getFXCoordinate(String currency) {
+		return new Simm2Coordinate(null, currency, "0", RiskClass.FX, MarginType.DELTA, ProductClass.RATES_FX);
+	}
+}
@@ -0,0 +1,244 @@
+package net.finmath.xva.initialmargin;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.finmath.exception.CalculationException;
+import net.finmath.initialmargin.isdasimm.changedfinmath.LIBORModelMonteCarloSimulationInterface;
+import net.finmath.initialmargin.isdasimm.test.SIMMTest;
+import net.finmath.montecarlo.RandomVariable;
+import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.time.TimeDiscretization;
+import net.finmath.xva.coordinates.simm2.MarginType;
+import net.finmath.xva.coordinates.simm2.ProductClass;
+import net.finmath.xva.coordinates.simm2.RiskClass;
+import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+import net.finmath.xva.coordinates.simm2.Vertex;
+import net.finmath.xva.sensitivityproviders.simmsensitivityproviders.SIMMCRIFSensititivityProvider;
+import net.finmath.xva.sensitivityproviders.simmsensitivityproviders.SIMMSensitivityProviderInterface;
+import net.finmath.xva.xvaproducts.MvaProduct;
+
+public class SimmProductTest {
+
+	// Risk weights of a regular volatility currency at 1y and 5y and the correlation of different tenors, see CompiledSIMMParameterTest
+	private static final double RISK_WEIGHT_1Y = 58;
+	private static final double RISK_WEIGHT_5Y = 47;
+	private static final double TENOR_CORRELATION = 0.5;
+
+	private static LIBORModelMonteCarloSimulationInterface model;
+
+	@BeforeClass
+	public static void setUp() throws CalculationException {
+		model = SIMMTest.createTestLIBORMarketModel(100 /*numberOfPaths*/);
+	}
+
+	@Test
+	public void testInterestRateDeltaMargin() throws CalculationException {
+		Map<Simm2Coordinate, Double> sensitivities = new HashMap<>();
+		sensitivities.put(createCoordinate(Vertex.Y1), 1000.0);
+		sensitivities.put(createCoordinate(Vertex.Y5), -500.0);
+		SimmProduct product = new SimmProduct(1.0, new SIMMCRIFSensititivityProvider(sensitivities), createModality());
+
+		double weightedSensitivity1Y = RISK_WEIGHT_1Y * 1000.0;
+		double weightedSensitivity5Y = RISK_WEIGHT_5Y * -500.0;
+		double expected = Math.sqrt(weightedSensitivity1Y * weightedSensitivity1Y + weightedSensitivity5Y * weightedSensitivity5Y
+				+ 2 * TENOR_CORRELATION * weightedSensitivity1Y * weightedSensitivity5Y);
+
+		for (double evaluationTime : new double[]{0.0, 0.5}) {
+			RandomVariableInterface value = product.getValue(evaluationTime, model);
+			RandomVariableInterface numeraire = model.getNumeraire(evaluationTime);
+			for (int pathIndex = 0; pathIndex < model.getNumberOfPaths(); pathIndex++) {
+				assertThat(value.get(pathIndex), is(closeTo(expected * numeraire.get(pathIndex), 1E-8 * expected)));
+			}
+		}
+
+		assertThat(product.getValue(1.5, model).getAverage(), is(0.0));
+	}
+
+	@Test
+	public void testPostingThreshold() throws CalculationException {
+		Map<Simm2Coordinate, Double> sensitivities = new HashMap<>();
+		sensitivities.put(createCoordinate(Vertex.Y1), 1000.0);
+		SimmModality modality = new SimmModality(new SIMMParameter(CompiledSIMMParameterTest.getJson()), "EUR", 50000.0);
+
+		RandomVariableInterface value = new SimmProduct(1.0, new SIMMCRIFSensititivityProvider(sensitivities), modality).getValue(0.0, model);
+
+		assertThat(value.getAverage(), is(closeTo((RISK_WEIGHT_1Y * 1000.0 - 50000.0) * model.getNumeraire(0.0).getAverage(), 1E-8)));
+	}
+
+	@Test
+	public void testTimeDependentSensitivitiesAreNotReused() throws CalculationException {
+		Map<Simm2Coordinate, Double> sensitivitiesBefore = new HashMap<>();
+		sensitivitiesBefore.put(createCoordinate(Vertex.Y1), 1000.0);
+		Map<Simm2Coordinate, Double> sensitivitiesAfter = new HashMap<>();
+		sensitivitiesAfter.put(createCoordinate(Vertex.Y1), 2000.0);
+		SimmProduct product = new SimmProduct(1.0, new TimeDependentSensitivityProvider(0.25, sensitivitiesBefore, sensitivitiesAfter), createModality());
+
+		assertThat(product.getValue(0.0, model).getAverage(), is(closeTo(RISK_WEIGHT_1Y * 1000.0 * model.getNumeraire(0.0).getAverage(), 1E-8)));
+		assertThat(product.getValue(0.5, model).getAverage(), is(closeTo(RISK_WEIGHT_1Y * 2000.0 * model.getNumeraire(0.5).getAverage(), 1E-6)));
+	}
+
+	@Test
+	public void testSchemesOfBucketsActiveAtLaterTimes() throws CalculationException {
+		// The USD bucket is only active after the first evaluation time
+		Map<Simm2Coordinate, Double> sensitivitiesBefore = new HashMap<>();
+		sensitivitiesBefore.put(createCoordinate(Vertex.Y1), 1000.0);
+		Map<Simm2Coordinate, Double> sensitivitiesAfter = new HashMap<>(sensitivitiesBefore);
+		sensitivitiesAfter.put(new Simm2Coordinate(Vertex.Y5, "Libor6m", "USD", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX), 3000.0);
+		SIMMSensitivityProviderInterface provider = new TimeDependentSensitivityProvider(0.25, sensitivitiesBefore, sensitivitiesAfter);
+
+		SimmProduct product = new SimmProduct(1.0, provider, createModality());
+		double valueBefore = product.getValue(0.0, model).getAverage();
+		RandomVariableInterface valueAfter = product.getValue(0.5, model);
+		RandomVariableInterface expectedValueAfter = new SimmProduct(1.0, provider, createModality()).getValue(0.5, model);
+
+		assertThat(valueBefore, is(closeTo(RISK_WEIGHT_1Y * 1000.0 * model.getNumeraire(0.0).getAverage(), 1E-8)));
+		assertThat(valueAfter.sub(expectedValueAfter).abs().getMax(), is(0.0));
+		assertThat(valueAfter.getAverage() > RISK_WEIGHT_1Y * 1000.0 * model.getNumeraire(0.5).getAverage() * (1 + 1E-8), is(true));
+	}
+
+	@Test
+	public void testConcurrentCalculationEqualsSequentialCalculation() throws CalculationException, InterruptedException {
+		// Interest rate deltas of two currencies in two product classes, i.e., several schemes are calculated concurrently
+		Map<Simm2Coordinate, Double> sensitivities = new HashMap<>();
+		sensitivities.put(createCoordinate(Vertex.Y1), 1000.0);
+		sensitivities.put(createCoordinate(Vertex.Y5), -500.0);
+		sensitivities.put(new Simm2Coordinate(Vertex.Y5, "Libor6m", "USD", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX), 3000.0);
+		sensitivities.put(new Simm2Coordinate(Vertex.Y2, "Libor6m", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.CREDIT), 2000.0);
+		SIMMSensitivityProviderInterface provider = new SIMMCRIFSensititivityProvider(sensitivities);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			SimmProduct concurrentProduct = new SimmProduct(1.0, provider, createModality(), executor);
+			SimmProduct sequentialProduct = new SimmProduct(1.0, provider, createModality());
+			double singleProductClassValue = new SimmProduct(1.0, new SIMMCRIFSensititivityProvider(
+					Collections.singletonMap(createCoordinate(Vertex.Y1), 1000.0)), createModality()).getValue(0.0, model).getAverage();
+
+			for (double evaluationTime : new double[]{0.0, 0.5}) {
+				RandomVariableInterface concurrentValue = concurrentProduct.getValue(evaluationTime, model);
+				RandomVariableInterface sequentialValue = sequentialProduct.getValue(evaluationTime, model);
+
+				assertThat(concurrentValue.sub(sequentialValue).abs().getMax(), is(closeTo(0.0, 1E-10 * sequentialValue.abs().getMax())));
+			}
+			assertThat(concurrentProduct.getValue(0.0, model).getAverage() > singleProductClassValue * (1 + 1E-8), is(true));
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+
+	@Test
+	public void testTimeInvariantSimmIsCalculatedOncePerModel() throws CalculationException {
+		CountingSensitivityProvider provider = new CountingSensitivityProvider(Collections.singletonMap(createCoordinate(Vertex.Y1), 1000.0));
+		SimmProduct product = new SimmProduct(1.0, provider, createModality());
+
+		product.getValue(0.0, model);
+		int numberOfCalls = provider.getNumberOfCalls();
+		assertThat(numberOfCalls > 0, is(true));
+
+		// Later evaluation times reuse the SIMM
+		for (double evaluationTime : new double[]{0.5, 1.0}) {
+			RandomVariableInterface value = product.getValue(evaluationTime, model);
+			double expectedValue = RISK_WEIGHT_1Y * 1000.0 * model.getNumeraire(evaluationTime).getAverage();
+			assertThat(value.getAverage(), is(closeTo(expectedValue, 1E-8 * expectedValue)));
+		}
+		assertThat(provider.getNumberOfCalls(), is(numberOfCalls));
+
+		// A different model invalidates the cached SIMM
+		LIBORModelMonteCarloSimulationInterface otherModel = SIMMTest.createTestLIBORMarketModel(50 /*numberOfPaths*/);
+		RandomVariableInterface value = product.getValue(0.5, otherModel);
+		assertThat(provider.getNumberOfCalls(), is(2 * numberOfCalls));
+		double expectedValue = RISK_WEIGHT_1Y * 1000.0 * otherModel.getNumeraire(0.5).getAverage();
+		assertThat(value.getAverage(), is(closeTo(expectedValue, 1E-8 * expectedValue)));
+	}
+
+	@Test
+	public void testTimeInvariantSimmIsSharedByMvaSlices() throws CalculationException {
+		CountingSensitivityProvider provider = new CountingSensitivityProvider(Collections.singletonMap(createCoordinate(Vertex.Y1), 1000.0));
+		new SimmProduct(2.0, provider, createModality()).getValue(0.0, model);
+		int numberOfCallsPerSimm = provider.getNumberOfCalls();
+
+		CountingSensitivityProvider mvaProvider = new CountingSensitivityProvider(Collections.singletonMap(createCoordinate(Vertex.Y1), 1000.0));
+		new MvaProduct(mvaProvider, createModality(), new TimeDiscretization(0.0, 0.25, 0.5, 1.0, 2.0)).getValue(0.0, model);
+
+		assertThat(mvaProvider.getNumberOfCalls(), is(numberOfCallsPerSimm));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testProviderWithoutCoordinates() {
+		SIMMSensitivityProviderInterface provider = (key, evaluationTime, model) -> new RandomVariable(evaluationTime, 0.0);
+
+		new SimmProduct(1.0, provider, createModality());
+	}
+
+	private static SimmModality createModality() {
+		return new SimmModality(new SIMMParameter(CompiledSIMMParameterTest.getJson()), "EUR", 0.0 /*postingThreshold*/);
+	}
+
+	private static Simm2Coordinate createCoordinate(Vertex vertex) {
+		return new Simm2Coordinate(vertex, "Libor6m", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX);
+	}
+
+	/**
+	 * Time invariant sensitivities which count the calls of {@link #getSIMMSensitivity}.
+	 */
+	private static class CountingSensitivityProvider extends SIMMCRIFSensititivityProvider {
+		private final AtomicInteger numberOfCalls = new AtomicInteger();
+
+		CountingSensitivityProvider(Map<Simm2Coordinate, Double> sensitivities) {
+			super(sensitivities);
+		}
+
+		@Override
+		public RandomVariableInterface getSIMMSensitivity(Simm2Coordinate key, double evaluationTime, net.finmath.montecarlo.interestrate.LIBORModelMonteCarloSimulationInterface model) {
+			numberOfCalls.incrementAndGet();
+			return super.getSIMMSensitivity(key, evaluationTime, model);
+		}
+
+		int getNumberOfCalls() {
+			return numberOfCalls.get();
+		}
+	}
+
+	/**
+	 * Deterministic sensitivities which switch at a given time, hence are not time invariant.
+	 */
+	private static class TimeDependentSensitivityProvider implements SIMMSensitivityProviderInterface {
+		private final double switchTime;
+		private final Map<Simm2Coordinate, Double> sensitivitiesBefore;
+		private final Map<Simm2Coordinate, Double> sensitivitiesAfter;
+
+		TimeDependentSensitivityProvider(double switchTime, Map<Simm2Coordinate, Double> sensitivitiesBefore, Map<Simm2Coordinate, Double> sensitivitiesAfter) {
+			this.switchTime = switchTime;
+			this.sensitivitiesBefore = sensitivitiesBefore;
+			this.sensitivitiesAfter = sensitivitiesAfter;
+		}
+
+		@Override
+		public RandomVariableInterface getSIMMSensitivity(Simm2Coordinate key, double evaluationTime, net.finmath.montecarlo.interestrate.LIBORModelMonteCarloSimulationInterface model) {
+			Map<Simm2Coordinate, Double> sensitivities = evaluationTime < switchTime ? sensitivitiesBefore : sensitivitiesAfter;
+			return new RandomVariable(evaluationTime, sensitivities.getOrDefault(key, 0.0));
+		}
+
+		@Override
+		public Set<Simm2Coordinate> getCoordinates() {
+			Set<Simm2Coordinate> coordinates = new HashSet<>(sensitivitiesBefore.keySet());
+			coordinates.addAll(sensitivitiesAfter.keySet());
+			return coordinates;
+		}
+	}
+}
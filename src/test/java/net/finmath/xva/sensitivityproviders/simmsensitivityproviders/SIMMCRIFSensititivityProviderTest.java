@@ -0,0 +1,41 @@
+package net.finmath.xva.sensitivityproviders.simmsensitivityproviders;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.xva.coordinates.simm2.MarginType;
+import net.finmath.xva.coordinates.simm2.ProductClass;
+import net.finmath.xva.coordinates.simm2.RiskClass;
+import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+import net.finmath.xva.coordinates.simm2.Vertex;
+
+public class SIMMCRIFSensititivityProviderTest {
+
+	@Test
+	public void testSensitivitiesAreDeterministic() {
+		Simm2Coordinate coordinate = new Simm2Coordinate(Vertex.Y5, "OIS", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX);
+		Map<Simm2Coordinate, Double> sensitivities = new HashMap<>();
+		sensitivities.put(coordinate, 1234.5);
+
+		// The model is not needed for deterministic sensitivities
+		SIMMCRIFSensititivityProvider provider = new SIMMCRIFSensititivityProvider(sensitivities);
+		assertThat(provider.isTimeInvariant(), is(true));
+
+		RandomVariableInterface sensitivity = provider.getSIMMSensitivity(coordinate, 2.0, null);
+		assertThat(sensitivity.isDeterministic(), is(true));
+		assertThat(sensitivity.get(0), closeTo(1234.5, 1E-12));
+		assertThat(sensitivity.getFiltrationTime(), closeTo(2.0, 1E-12));
+
+		RandomVariableInterface missing = provider.getSIMMSensitivity(
+				new Simm2Coordinate(Vertex.Y10, "OIS", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX), 2.0, null);
+		assertThat(missing.isDeterministic(), is(true));
+		assertThat(missing.get(0), closeTo(0.0, 1E-12));
+	}
+}
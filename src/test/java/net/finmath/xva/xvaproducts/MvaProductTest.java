@@ -0,0 +1,104 @@
+package net.finmath.xva.xvaproducts;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.finmath.exception.CalculationException;
+import net.finmath.initialmargin.isdasimm.changedfinmath.LIBORModelMonteCarloSimulationInterface;
+import net.finmath.initialmargin.isdasimm.test.SIMMTest;
+import net.finmath.stochastic.RandomVariableInterface;
+import net.finmath.time.TimeDiscretization;
+import net.finmath.time.TimeDiscretizationInterface;
+import net.finmath.xva.coordinates.simm2.MarginType;
+import net.finmath.xva.coordinates.simm2.ProductClass;
+import net.finmath.xva.coordinates.simm2.RiskClass;
+import net.finmath.xva.coordinates.simm2.Simm2Coordinate;
+import net.finmath.xva.coordinates.simm2.Vertex;
+import net.finmath.xva.initialmargin.CompiledSIMMParameterTest;
+import net.finmath.xva.initialmargin.SIMMParameter;
+import net.finmath.xva.initialmargin.SimmModality;
+import net.finmath.xva.sensitivityproviders.simmsensitivityproviders.SIMMCRIFSensititivityProvider;
+import net.finmath.xva.sensitivityproviders.simmsensitivityproviders.SIMMSensitivityProviderInterface;
+
+public class MvaProductTest {
+
+	// A single interest rate delta of a regular volatility currency at 1y (risk weight 58), hence a constant initial margin
+	private static final double INITIAL_MARGIN = 58 * 1000.0;
+	private static final double FUNDING_SPREAD = 0.01;
+
+	private static LIBORModelMonteCarloSimulationInterface model;
+	private static SIMMSensitivityProviderInterface provider;
+	private static SimmModality modality;
+
+	@BeforeClass
+	public static void setUp() throws CalculationException {
+		model = SIMMTest.createTestLIBORMarketModel(100 /*numberOfPaths*/);
+
+		Map<Simm2Coordinate, Double> sensitivities = new HashMap<>();
+		sensitivities.put(new Simm2Coordinate(Vertex.Y1, "Libor6m", "EUR", RiskClass.INTEREST_RATE, MarginType.DELTA, ProductClass.RATES_FX), 1000.0);
+		provider = new SIMMCRIFSensititivityProvider(sensitivities);
+		modality = new SimmModality(new SIMMParameter(CompiledSIMMParameterTest.getJson()), "EUR", 0.0 /*postingThreshold*/);
+	}
+
+	@Test
+	public void testMvaOfConstantInitialMargin() throws CalculationException {
+		TimeDiscretizationInterface times = new TimeDiscretization(0.0, 0.5, 1.0, 2.0);
+		MvaProduct.MvaResult result = new MvaProduct(provider, modality, times, FUNDING_SPREAD, null).getMva(0.0, model, true);
+
+		// Sum of E[IM(t_i) / N(t_i)] s dt_i over the slices, the last time only ends the last slice
+		double expected = 0.0;
+		for (int timeIndex = 0; timeIndex < times.getNumberOfTimeSteps(); timeIndex++) {
+			double expectedDiscountedInitialMargin = model.getNumeraire(times.getTime(timeIndex)).invert().mult(INITIAL_MARGIN).getAverage() * model.getNumeraire(0.0).getAverage();
+			expected += expectedDiscountedInitialMargin * FUNDING_SPREAD * times.getTimeStep(timeIndex);
+
+			assertThat(result.getExpectedInitialMargins()[timeIndex], is(closeTo(expectedDiscountedInitialMargin, 1E-8 * INITIAL_MARGIN)));
+		}
+
+		assertThat(result.getValue().getAverage(), is(closeTo(expected, 1E-8 * expected)));
+		assertThat(new MvaProduct(provider, modality, times, FUNDING_SPREAD, null).getValue(0.0, model).getAverage(), is(closeTo(expected, 1E-8 * expected)));
+	}
+
+	@Test
+	public void testMvaAtLaterTime() throws CalculationException {
+		TimeDiscretizationInterface times = new TimeDiscretization(0.0, 0.5, 1.0, 2.0);
+		RandomVariableInterface value = new MvaProduct(provider, modality, times, FUNDING_SPREAD, null).getValue(0.5, model);
+
+		// Only the slices from 0.5 on, discounted to 0.5
+		RandomVariableInterface expected = model.getNumeraire(0.5).invert().mult(0.5)
+				.add(model.getNumeraire(1.0).invert().mult(1.0))
+				.mult(INITIAL_MARGIN * FUNDING_SPREAD).mult(model.getNumeraire(0.5));
+		assertThat(value.sub(expected).abs().getMax(), is(closeTo(0.0, 1E-8 * INITIAL_MARGIN)));
+	}
+
+	@Test
+	public void testConcurrentSlices() throws CalculationException {
+		TimeDiscretizationInterface times = new TimeDiscretization(0.0, 0.25, 0.5, 0.75, 1.0, 1.5, 2.0);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			RandomVariableInterface sequential = new MvaProduct(provider, modality, times, FUNDING_SPREAD, null).getValue(0.0, model);
+			RandomVariableInterface concurrent = new MvaProduct(provider, modality, times, FUNDING_SPREAD, executor).getValue(0.0, model);
+
+			assertThat(concurrent.sub(sequential).abs().getMax(), is(closeTo(0.0, 1E-10 * INITIAL_MARGIN)));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testDefaultFundingSpread() throws CalculationException {
+		TimeDiscretizationInterface times = new TimeDiscretization(0.0, 0.5, 1.0, 2.0);
+		RandomVariableInterface value = new MvaProduct(provider, modality, times).getValue(0.0, model);
+		RandomVariableInterface valueWithSpread = new MvaProduct(provider, modality, times, FUNDING_SPREAD, null).getValue(0.0, model);
+
+		assertThat(value.sub(valueWithSpread.div(FUNDING_SPREAD)).abs().getMax(), is(closeTo(0.0, 1E-6 * value.getAverage())));
+	}
+}